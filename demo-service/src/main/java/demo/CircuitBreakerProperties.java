@@ -0,0 +1,60 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings for the circuit breaker around the item repository calls, which pauses the create-item and update-item
+ * listener containers while the database is failing or slow.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.circuit-breaker")
+public class CircuitBreakerProperties {
+
+    /**
+     * Whether the item repository calls go through the circuit breaker.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The number of most recent calls the failure and slow call rates are calculated over.
+     */
+    private int windowSize = 20;
+
+    /**
+     * The number of calls in the window before the rates are checked, so that a single early failure does not open the
+     * circuit.
+     */
+    private int minimumCalls = 10;
+
+    /**
+     * The fraction of calls in the window that fail, between 0 and 1, at which the circuit opens.
+     */
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * A call that takes longer than this is counted as slow.
+     */
+    private long slowCallMs = 2000;
+
+    /**
+     * The fraction of calls in the window that are slow, between 0 and 1, at which the circuit opens.
+     */
+    private double slowCallRateThreshold = 0.8;
+
+    /**
+     * How long the circuit stays open, with the listener containers paused, before it is half open.
+     */
+    private long openMs = 5000;
+
+    /**
+     * The number of calls let through while half open.  The circuit closes once they all succeed, and opens again as
+     * soon as one fails or is slow.
+     */
+    private int halfOpenCalls = 5;
+
+    /**
+     * How long a listener container waits before it is redelivered the events that the circuit breaker rejected.
+     */
+    private long redeliveryBackoffMs = 500;
+}
@@ -3,14 +3,25 @@ package demo;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import demo.lib.ConnectionWaitMetricsTrackerFactory;
+import demo.lib.DatabaseUnavailableException;
+import demo.service.PendingUpdateBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import messaging.retry.MessagingRetryConfiguration;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
@@ -22,57 +33,154 @@ import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
 import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.serializer.DelegatingByTypeSerializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
 import org.springframework.util.backoff.FixedBackOff;
 
 @Slf4j
-@EntityScan("demo.domain")
 @EnableJpaRepositories("demo.repository")
 @ComponentScan(basePackages = {"demo"})
 @Configuration
 @Import({MessagingRetryConfiguration.class})
+@EnableConfigurationProperties({PersistenceProperties.class, PendingUpdateProperties.class, ReactiveProperties.class, CircuitBreakerProperties.class,
+        ProjectionProperties.class, StreamsProperties.class})
 public class DemoConfiguration {
 
+    /**
+     * Installs the ConnectionWaitMetricsTrackerFactory on the Hikari data source, so that the time each event waits for
+     * pooled connections is recorded alongside the standard hikaricp pool metrics.  The meter registry is only looked
+     * up when the pool starts.
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory(final ConsumerFactory<String, String> consumerFactory) {
-        final ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory();
+    public static BeanPostProcessor connectionWaitMetricsPostProcessor(final ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+                if(bean instanceof HikariDataSource dataSource && dataSource.getMetricsTrackerFactory() == null) {
+                    dataSource.setMetricsTrackerFactory((poolName, poolStats) ->
+                            new ConnectionWaitMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry.getObject()))
+                                    .create(poolName, poolStats));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * With retry transactions enabled the create-item and update-item events are also consumed in Kafka transactions,
+     * so that an update event sent to the retry topic is committed atomically with the update-item offset.
+     *
+     * The listener containers follow retry.messaging.autoStartup, so that when it is false they are started along with
+     * the retry containers by the ListenerStartup once the application is ready.
+     *
+     * The PendingUpdateBuffer is notified of revoked partitions, so that it sends the updates it holds from them for
+     * retry.
+     *
+     * Observation is enabled, so that the events republished from the retry topics continue the trace of their retry
+     * hops, and an update sent for retry is a child of the observation it was received in.
+     *
+     * With the circuit breaker enabled, an event rejected with a DatabaseUnavailableException is redelivered every
+     * redeliveryBackoffMs until it is processed, however long the database is unavailable, instead of being given up
+     * on after the default ten attempts.  The circuit breaker pauses the containers meanwhile, so the redelivery is only
+     * polled once they are resumed.  Any other exception is not retried, as the listeners handle those themselves.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerContainerFactory(final ConsumerFactory<String, byte[]> consumerFactory,
+                                                                                                 final ProducerFactory<String, Object> producerFactory,
+                                                                                                 final PendingUpdateBuffer pendingUpdateBuffer,
+                                                                                                 final CircuitBreakerProperties circuitBreakerProperties,
+                                                                                                 @Value("${retry.messaging.transactions.enabled:false}") final boolean transactional,
+                                                                                                 @Value("${retry.messaging.autoStartup:true}") final boolean autoStartup) {
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
         factory.setConsumerFactory(consumerFactory);
+        factory.setAutoStartup(autoStartup);
+        factory.getContainerProperties().setConsumerRebalanceListener(pendingUpdateBuffer);
+        factory.getContainerProperties().setObservationEnabled(true);
+        if(transactional) {
+            factory.getContainerProperties().setTransactionManager(new KafkaTransactionManager<>(producerFactory));
+        }
+        if(circuitBreakerProperties.isEnabled()) {
+            final FixedBackOff redelivery = new FixedBackOff(circuitBreakerProperties.getRedeliveryBackoffMs(), FixedBackOff.UNLIMITED_ATTEMPTS);
+            final DefaultErrorHandler errorHandler = new DefaultErrorHandler(redelivery);
+            errorHandler.defaultFalse();
+            errorHandler.addRetryableExceptions(DatabaseUnavailableException.class);
+            factory.setCommonErrorHandler(errorHandler);
+            if(transactional) {
+                final DefaultAfterRollbackProcessor<String, byte[]> afterRollbackProcessor = new DefaultAfterRollbackProcessor<>(redelivery);
+                afterRollbackProcessor.defaultFalse();
+                afterRollbackProcessor.addRetryableExceptions(DatabaseUnavailableException.class);
+                factory.setAfterRollbackProcessor(afterRollbackProcessor);
+            }
+        }
         return factory;
     }
 
+    /**
+     * The item status projection's container is started straight away rather than by the ListenerStartup, as its
+     * consumer group is its own and it does not use the database, so the topics are replayed while the rest of the
+     * application starts.  It only reads, so it has no transaction manager, and the events it cannot apply are skipped.
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerRetryContainerFactory(final ConsumerFactory<String, String> consumerFactory) {
-        final DefaultErrorHandler errorHandler = new DefaultErrorHandler((record, exception) -> {
-            // 1 second pause, unlimited retries - allow the discard logic to deal with the limit.
-        }, new FixedBackOff(1000L, FixedBackOff.UNLIMITED_ATTEMPTS));
-
-        final ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory();
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> projectionListenerContainerFactory(final ConsumerFactory<String, byte[]> consumerFactory,
+                                                                                                     final ProjectionProperties projectionProperties) {
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
         factory.setConsumerFactory(consumerFactory);
-        factory.setCommonErrorHandler(errorHandler);
+        factory.setAutoStartup(true);
+        factory.getContainerProperties().setIdleEventInterval(projectionProperties.getIdleIntervalMs());
         return factory;
     }
 
+    /**
+     * Sends outside of a listener transaction, such as the dead letter publisher's batches and the REST driven sends,
+     * are allowed on the transactional producer factory.
+     */
     @Bean
-    public KafkaTemplate<String, String> kafkaTemplate(final ProducerFactory<String, String> producerFactory) {
-        return new KafkaTemplate<>(producerFactory);
+    public KafkaTemplate<String, Object> kafkaTemplate(final ProducerFactory<String, Object> producerFactory) {
+        final KafkaTemplate<String, Object> kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        kafkaTemplate.setAllowNonTransactional(true);
+        return kafkaTemplate;
     }
 
+    /**
+     * Events are consumed as bytes and decoded by the listeners with the codec for their content type.
+     *
+     * With retry transactions enabled only committed events are consumed, so the events of a rolled back transaction
+     * are never seen.
+     *
+     * The cooperative sticky assignor rebalances incrementally: when an instance joins or leaves only the partitions that
+     * move are revoked, rather than every member stopping to consume while the whole group is reassigned.
+     */
     @Bean
-    public ConsumerFactory<String, String> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+    public ConsumerFactory<String, byte[]> consumerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${retry.messaging.transactions.enabled:false}") final boolean transactional) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
         config.put(ConsumerConfig.GROUP_ID_CONFIG, "demo");
+        config.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, CooperativeStickyAssignor.class.getName());
+        if(transactional) {
+            config.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
         return new DefaultKafkaConsumerFactory<>(config);
     }
 
+    /**
+     * Values are serialized by type: encoded events and the retried payloads as bytes, and JSON strings as UTF-8.
+     */
     @Bean
-    public ProducerFactory<String, String> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers) {
+    public ProducerFactory<String, Object> producerFactory(@Value("${kafka.bootstrap-servers}") final String bootstrapServers,
+                                                           @Value("${retry.messaging.transactions.enabled:false}") final boolean transactional,
+                                                           @Value("${kafka.transactionIdPrefix:demo-tx-}") final String transactionIdPrefix) {
         final Map<String, Object> config = new HashMap<>();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(config);
+        final DefaultKafkaProducerFactory<String, Object> producerFactory = new DefaultKafkaProducerFactory<>(config, new StringSerializer(),
+                new DelegatingByTypeSerializer(Map.of(byte[].class, new ByteArraySerializer(), String.class, new StringSerializer())));
+        if(transactional) {
+            producerFactory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        return producerFactory;
     }
 }
@@ -0,0 +1,34 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings for holding update events that arrive just before their item is created in memory, rather than sending
+ * them straight to the retry topic.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.pending-updates")
+public class PendingUpdateProperties {
+
+    /**
+     * Whether updates for items that do not yet exist are held in memory before being sent for retry.
+     */
+    private boolean enabled = false;
+
+    /**
+     * How long an update is held waiting for its item to be created before it is sent for retry.  This should cover
+     * the usual gap between an early update and its create, and be well below the retry interval.
+     */
+    private long ttlMs = 500;
+
+    /**
+     * The maximum number of updates held.  When full the oldest held updates are sent for retry to make room.
+     */
+    private int maxEntries = 10000;
+
+    /**
+     * How often the expired updates are sent for retry.
+     */
+    private long sweepIntervalMs = 50;
+}
@@ -0,0 +1,36 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The demo's persistence performance settings, alongside the connection pool (spring.datasource.hikari) and Hibernate
+ * batching (spring.jpa.properties.hibernate.jdbc) settings.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.persistence")
+public class PersistenceProperties {
+
+    /**
+     * The number of pooled connections opened and validated before the listener containers are started.  This should
+     * match the pool's minimum idle, so that the first events are not delayed by connections being opened.
+     */
+    private int warmUpConnections = 1;
+
+    /**
+     * How long after a failed warm up, such as while the database is unreachable, it is tried again.  The wait doubles
+     * with each failure up to warmUpMaxBackoffMs.
+     */
+    private long warmUpBackoffMs = 1000;
+
+    /**
+     * The longest wait between warm up attempts.
+     */
+    private long warmUpMaxBackoffMs = 30000;
+
+    /**
+     * The time an event may spend waiting to acquire database connections before a warning is logged, as a sign that
+     * the connection pool rather than Kafka is limiting throughput.
+     */
+    private long slowConnectionWaitMs = 100;
+}
@@ -0,0 +1,29 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings for the in-memory projection of the item statuses, built from the create-item and update-item topics,
+ * that answers the item status requests without a database round trip.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.projection")
+public class ProjectionProperties {
+
+    /**
+     * Whether the item statuses are projected from the topics and the status requests answered from the projection.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The number of items the projection is sized for at startup, so that it is not resized repeatedly while the topics
+     * are replayed.  It grows beyond this as needed.
+     */
+    private int expectedItems = 100000;
+
+    /**
+     * How often the projection's lag is refreshed while no events are arriving.
+     */
+    private long idleIntervalMs = 1000;
+}
@@ -0,0 +1,46 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings for consuming the create-item and update-item events with the reactive consumer rather than the
+ * listener containers.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.reactive")
+public class ReactiveProperties {
+
+    /**
+     * Whether the events are consumed by the ReactiveItemConsumer instead of the CreateItemConsumer and
+     * UpdateItemConsumer listener containers.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The maximum number of partitions whose events are processed at the same time.  Each partition has at most one
+     * event in processing, so that its events are applied in order.
+     */
+    private int concurrency = 4;
+
+    /**
+     * How often the offsets of the processed events are committed.
+     */
+    private long commitIntervalMs = 100;
+
+    /**
+     * How long an event that failed because the database is unavailable waits before it is processed again.
+     */
+    private long databaseRetryBackoffMs = 500;
+
+    /**
+     * How long to wait before receiving again after the receiver fails, such as on a poll or commit error.  Doubled on
+     * each consecutive failure up to receiverRetryMaxBackoffMs.
+     */
+    private long receiverRetryBackoffMs = 1000;
+
+    /**
+     * The longest wait before receiving again after consecutive receiver failures.
+     */
+    private long receiverRetryMaxBackoffMs = 30000;
+}
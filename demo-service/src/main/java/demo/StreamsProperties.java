@@ -0,0 +1,50 @@
+package demo;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The settings for processing the create-item and update-item events with Kafka Streams, joining the updates against
+ * the items in a local state store, rather than with the listener containers and the retry topics.
+ */
+@Data
+@ConfigurationProperties(prefix = "demo.streams")
+public class StreamsProperties {
+
+    /**
+     * Whether the events are processed by the ItemStreams topology instead of the CreateItemConsumer and
+     * UpdateItemConsumer listener containers.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The Kafka Streams application Id, which is its consumer group, and the prefix of its internal topics.
+     */
+    private String applicationId = "demo-item-streams";
+
+    /**
+     * The directory the RocksDB state stores are written to, demo-streams in the temp directory if not set.
+     */
+    private String stateDir;
+
+    /**
+     * How long an update is held waiting for its item to be created.  An update whose create has not arrived by then is
+     * logged and counted as expired, and not applied.
+     */
+    private long earlyUpdateRetentionMs = 300000;
+
+    /**
+     * The topic each item is published to whenever it is created or changed, keyed by its Id.
+     */
+    private String outputTopic = "item-status";
+
+    /**
+     * The number of stream threads, each processing a share of the partitions.
+     */
+    private int threads = 1;
+
+    /**
+     * How often the processed offsets and the state stores are committed.
+     */
+    private long commitIntervalMs = 1000;
+}
@@ -1,28 +1,82 @@
 package demo.consumer;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import demo.event.CreateItem;
-import demo.mapper.JsonMapper;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.EventCodecs;
 import demo.service.ItemService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.RecordLogSampler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.stereotype.Component;
 
+/**
+ * Consumes the create item events a poll at a time, so that the items are inserted in a single JDBC batch.
+ *
+ * An event that cannot be decoded is logged and skipped without failing the rest of the poll.
+ *
+ * Not created when the events are consumed by the ReactiveItemConsumer or the ItemStreams.
+ */
 @Slf4j
 @RequiredArgsConstructor
 @Component
+@ConditionalOnExpression("!${demo.reactive.enabled:false} and !${demo.streams.enabled:false}")
 public class CreateItemConsumer {
     final ItemService itemService;
+    final RecordLogSampler logSampler;
+    final EventCodecs eventCodecs;
+    final ProcessingMetrics processingMetrics;
+
+    @KafkaListener(topics = "create-item", containerFactory = "kafkaListenerContainerFactory", batch = "true")
+    public void listen(final List<Message<byte[]>> messages) {
+        if(messages.isEmpty()) {
+            return;
+        }
+        final String topic = (String)messages.get(0).getHeaders().get(KafkaHeaders.RECEIVED_TOPIC);
+        try {
+            processingMetrics.record(topic, () -> {
+                final List<CreateItem> events = new ArrayList<>(messages.size());
+                for(Message<byte[]> message : messages) {
+                    final CreateItem event = decode(message.getPayload(), message.getHeaders());
+                    if(event != null) {
+                        events.add(event);
+                    }
+                }
+                itemService.createItems(events);
+            });
+        } catch (DatabaseUnavailableException e) {
+            // Left for the container to redeliver once the database is available.
+            throw e;
+        } catch (Exception e) {
+            log.error("Create item - error processing batch of " + messages.size() + " messages: " + e.getMessage());
+        }
+    }
 
-    @KafkaListener(topics = "create-item", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(@Payload final String payload) {
-        log.info("Create Item Consumer: Received message with payload: " + payload);
+    private CreateItem decode(final byte[] payload, final MessageHeaders headers) {
+        final String topic = (String)headers.get(KafkaHeaders.RECEIVED_TOPIC);
+        if(logSampler.shouldLog(log, topic)) {
+            log.atInfo()
+                    .addKeyValue("topic", topic)
+                    .addKeyValue("partition", headers.get(KafkaHeaders.RECEIVED_PARTITION))
+                    .addKeyValue("offset", headers.get(KafkaHeaders.OFFSET))
+                    .addKeyValue("payloadSize", payload.length)
+                    .log("Create Item Consumer: Received message");
+        }
         try {
-            CreateItem event = JsonMapper.readFromJson(payload, CreateItem.class);
-            itemService.createItem(event);
+            final CreateItem event = eventCodecs.forContentType(headers.get(MessageHeaders.CONTENT_TYPE)).decode(payload, CreateItem.class);
+            log.debug("Create Item Consumer: Received event: {}", event);
+            return event;
         } catch (Exception e) {
-            log.error("Create item - error processing message: " + e.getMessage());
+            log.error("Create item - error decoding message at offset " + headers.get(KafkaHeaders.OFFSET) + ": " + e.getMessage());
+            return null;
         }
     }
 }
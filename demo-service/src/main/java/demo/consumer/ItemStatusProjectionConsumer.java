@@ -0,0 +1,103 @@
+package demo.consumer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.mapper.EventCodec;
+import demo.mapper.EventCodecs;
+import demo.service.ItemStatusProjection;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds the ItemStatusProjection from the create-item and update-item events, when demo.projection.enabled is set.
+ *
+ * Every instance projects every item, so the consumer group is unique to the instance and is assigned all the
+ * partitions of both topics.  Each partition is replayed from the beginning when it is first assigned, to rebuild the
+ * projection at startup.  The projection never touches the database, so it is not paused by the circuit breaker.
+ *
+ * After each event the consumer's lag on its partition is recorded, and while no events are arriving it is refreshed
+ * every demo.projection.idleIntervalMs, so that the projection can report how far behind the topics it is.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "demo.projection.enabled", havingValue = "true")
+public class ItemStatusProjectionConsumer implements ConsumerSeekAware {
+
+    public static final String LISTENER_ID = "itemStatusProjection";
+
+    private final ItemStatusProjection projection;
+
+    private final EventCodecs eventCodecs;
+
+    private final String updateTopic;
+
+    public ItemStatusProjectionConsumer(@Autowired ItemStatusProjection projection,
+                                        @Autowired EventCodecs eventCodecs,
+                                        @Value("${demo.topics.itemUpdateTopic:update-item}") String updateTopic) {
+        this.projection = projection;
+        this.eventCodecs = eventCodecs;
+        this.updateTopic = updateTopic;
+    }
+
+    @KafkaListener(id = LISTENER_ID, topics = { "${demo.topics.itemCreateTopic:create-item}", "${demo.topics.itemUpdateTopic:update-item}" },
+            groupId = "#{'demo-projection-' + T(java.util.UUID).randomUUID()}", containerFactory = "projectionListenerContainerFactory",
+            properties = { "auto.offset.reset=earliest" })
+    public void listen(final ConsumerRecord<String, byte[]> record, final Consumer<?, ?> consumer) {
+        final TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        try {
+            final Header contentType = record.headers().lastHeader(MessageHeaders.CONTENT_TYPE);
+            final EventCodec codec = eventCodecs.forContentType(contentType != null ? contentType.value() : null);
+            if(record.topic().equals(updateTopic)) {
+                projection.apply(codec.decode(record.value(), UpdateItem.class));
+            } else {
+                projection.apply(codec.decode(record.value(), CreateItem.class));
+            }
+        } catch (Exception e) {
+            log.error("Item status projection - error applying event from {} at offset {}: {}", partition, record.offset(), e.getMessage());
+        }
+        final var lag = consumer.currentLag(partition);
+        projection.applied(partition, record.timestamp(), lag.isPresent() ? Optional.of(lag.getAsLong()) : Optional.empty());
+    }
+
+    @Override
+    public void onPartitionsAssigned(final Map<TopicPartition, Long> assignments, final ConsumerSeekCallback callback) {
+        final List<TopicPartition> unseen = projection.assigned(assignments.keySet());
+        if(!unseen.isEmpty()) {
+            log.info("Item status projection replaying {} partitions", unseen.size());
+            callback.seekToBeginning(unseen);
+        }
+    }
+
+    /**
+     * Refreshes the lag of the partitions while no events are arriving, on the consumer thread.
+     */
+    @EventListener(condition = "event.listenerId.startsWith('" + LISTENER_ID + "')")
+    public void onIdle(final ListenerContainerIdleEvent event) {
+        final Collection<TopicPartition> partitions = event.getTopicPartitions();
+        if(partitions == null || partitions.isEmpty()) {
+            return;
+        }
+        final Consumer<?, ?> consumer = event.getConsumer();
+        final Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        for(TopicPartition partition : partitions) {
+            projection.behind(partition, Math.max(0, endOffsets.get(partition) - consumer.position(partition)));
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package demo.consumer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import demo.ReactiveProperties;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.EventCodecs;
+import demo.service.ItemService;
+import demo.service.PendingUpdateBuffer;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.RecordLogSampler;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverPartition;
+import reactor.kafka.receiver.ReceiverRecord;
+import reactor.util.retry.Retry;
+
+/**
+ * Consumes the create-item and update-item events with reactor-kafka, as an alternative to the CreateItemConsumer and
+ * UpdateItemConsumer listener containers, enabled with demo.reactive.enabled.
+ *
+ * The events are grouped by partition.  Each partition processes one event at a time, in order, and up to
+ * demo.reactive.concurrency partitions are processed at the same time on a bounded scheduler, as the ItemService and
+ * the database calls behind it block.  The receiver only fetches more events as the partitions request them, pausing
+ * the consumer otherwise, and keeps polling while it is paused, so a slow ItemService holds back the fetch rather than
+ * stalling the poll loop and risking the consumer being removed from the group.
+ *
+ * An update for an item that does not exist is sent to retry without waiting on the send.  Each event is acknowledged
+ * once it is processed, or has failed and been logged, as the listener containers do, and the acknowledged offsets
+ * are committed every demo.reactive.commitIntervalMs.  An event whose processing is cancelled, such as when the
+ * consumer is stopped, is not acknowledged, so that it is consumed again.  The events are not consumed in Kafka
+ * transactions.
+ *
+ * While the database is unavailable an event fails with a DatabaseUnavailableException, and is processed again every
+ * demo.reactive.databaseRetryBackoffMs until it succeeds, holding back the rest of its partition as the listener
+ * containers do when the event is redelivered, rather than being acknowledged and lost.
+ *
+ * If the receiver fails, such as when the consumer cannot poll or commit, it is received from again after
+ * demo.reactive.receiverRetryBackoffMs, doubling on each consecutive failure up to
+ * demo.reactive.receiverRetryMaxBackoffMs, so that consumption resumes once the cause clears.
+ *
+ * The consumer can be paused, as the DatabaseCircuitBreaker does while the circuit is open.  No event is processed
+ * until it is resumed, so the partitions stop requesting events and the receiver stops fetching them, leaving them on
+ * their topics.  An event already in processing is completed.
+ *
+ * The retry decisions are unchanged: the updates are retried through the RetryService, and the retry topics are still
+ * consumed by the retry listener containers.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "demo.reactive.enabled", havingValue = "true")
+public class ReactiveItemConsumer implements SmartLifecycle {
+
+    private final ConsumerFactory<String, byte[]> consumerFactory;
+
+    private final ItemService itemService;
+
+    private final EventCodecs eventCodecs;
+
+    private final ProcessingMetrics processingMetrics;
+
+    private final RecordLogSampler logSampler;
+
+    private final PendingUpdateBuffer pendingUpdateBuffer;
+
+    private final ReactiveProperties properties;
+
+    private final boolean autoStartup;
+
+    private final String createTopic;
+
+    private final String updateTopic;
+
+    private final DefaultKafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+
+    private final Set<TopicPartition> assignment = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Completed when the consumer is resumed, or null while it is not paused.
+     */
+    private final AtomicReference<Sinks.Empty<Void>> paused = new AtomicReference<>();
+
+    private Scheduler scheduler;
+
+    private Disposable subscription;
+
+    public ReactiveItemConsumer(@Autowired ConsumerFactory<String, byte[]> consumerFactory,
+                                @Autowired ItemService itemService,
+                                @Autowired EventCodecs eventCodecs,
+                                @Autowired ProcessingMetrics processingMetrics,
+                                @Autowired RecordLogSampler logSampler,
+                                @Autowired PendingUpdateBuffer pendingUpdateBuffer,
+                                @Autowired ReactiveProperties properties,
+                                @Value("${retry.messaging.autoStartup:true}") boolean autoStartup,
+                                @Value("${demo.topics.itemCreateTopic:create-item}") String createTopic,
+                                @Value("${demo.topics.itemUpdateTopic:update-item}") String updateTopic) {
+        this.consumerFactory = consumerFactory;
+        this.itemService = itemService;
+        this.eventCodecs = eventCodecs;
+        this.processingMetrics = processingMetrics;
+        this.logSampler = logSampler;
+        this.pendingUpdateBuffer = pendingUpdateBuffer;
+        this.properties = properties;
+        this.autoStartup = autoStartup;
+        this.createTopic = createTopic;
+        this.updateTopic = updateTopic;
+    }
+
+    @Override
+    public synchronized void start() {
+        if(isRunning()) {
+            return;
+        }
+        scheduler = Schedulers.newBoundedElastic(properties.getConcurrency(), Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "reactive-item");
+        final ReceiverOptions<String, byte[]> options = ReceiverOptions.<String, byte[]>create(consumerFactory.getConfigurationProperties())
+                .subscription(List.of(createTopic, updateTopic))
+                .consumerProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false)
+                .commitInterval(Duration.ofMillis(properties.getCommitIntervalMs()))
+                .addAssignListener(partitions -> assignment.addAll(topicPartitions(partitions)))
+                .addRevokeListener(partitions -> {
+                    assignment.removeAll(topicPartitions(partitions));
+                    pendingUpdateBuffer.onPartitionsRevoked(topicPartitions(partitions));
+                });
+        subscription = consume(() -> KafkaReceiver.create(options).receive())
+                .subscribe(null, error -> log.error("Reactive item consumer stopped on error: " + error.getMessage(), error));
+        log.info("Started reactive item consumer with concurrency {}", properties.getConcurrency());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if(subscription != null) {
+            subscription.dispose();
+            subscription = null;
+        }
+        assignment.clear();
+        if(scheduler != null) {
+            scheduler.dispose();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return subscription != null && !subscription.isDisposed();
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return autoStartup;
+    }
+
+    /**
+     * Stops processing events until resumed.
+     */
+    public void pause() {
+        if(paused.compareAndSet(null, Sinks.empty())) {
+            log.info("Paused reactive item consumer");
+        }
+    }
+
+    public void resume() {
+        final Sinks.Empty<Void> gate = paused.getAndSet(null);
+        if(gate != null) {
+            gate.tryEmitEmpty();
+            log.info("Resumed reactive item consumer");
+        }
+    }
+
+    public boolean isPaused() {
+        return paused.get() != null;
+    }
+
+    /**
+     * The create-item and update-item partitions currently assigned to this consumer.
+     */
+    public Set<TopicPartition> getAssignment() {
+        return Set.copyOf(assignment);
+    }
+
+    /**
+     * Processes the received events by partition.  If the receiver fails, such as on a poll or commit error, it is
+     * received from again after a backoff, doubling on each consecutive failure, rather than consumption stopping for
+     * good.  Each attempt creates a new receiver, whose consumer rejoins the group and resumes from the committed
+     * offsets, so the events whose offsets were not yet committed are consumed again.
+     */
+    Flux<Void> consume(final Supplier<Flux<ReceiverRecord<String, byte[]>>> receive) {
+        return Flux.defer(receive)
+                .groupBy(record -> record.receiverOffset().topicPartition())
+                .flatMap(partition -> partition.concatMap(this::process))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(properties.getReceiverRetryBackoffMs()))
+                        .maxBackoff(Duration.ofMillis(properties.getReceiverRetryMaxBackoffMs()))
+                        // The backoff starts again once the new receiver has received an event.
+                        .transientErrors(true)
+                        .doBeforeRetry(retry -> {
+                            log.warn("Reactive item consumer - receiver failed, receiving again after backoff: " + retry.failure().getMessage());
+                            assignment.clear();
+                        }));
+    }
+
+    /**
+     * Processes the event on the bounded scheduler, then acknowledges it.  An event that fails because the database is
+     * unavailable is processed again after the backoff, and any other failure is logged and acknowledged, so that it
+     * does not block its partition.  The event is not acknowledged if the processing is cancelled.  While the consumer
+     * is paused the event waits, including between attempts while the database is unavailable.
+     */
+    Mono<Void> process(final ReceiverRecord<String, byte[]> record) {
+        return Mono.defer(this::whenResumed)
+                .then(Mono.defer(() -> Mono.fromFuture(handle(record)))
+                        .subscribeOn(scheduler != null ? scheduler : Schedulers.immediate()))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, Duration.ofMillis(properties.getDatabaseRetryBackoffMs()))
+                        .filter(ReactiveItemConsumer::isDatabaseUnavailable)
+                        .doBeforeRetry(retry -> log.warn("Reactive item consumer - database unavailable processing message on {} at offset {} - retrying",
+                                record.topic(), record.offset())))
+                .onErrorResume(e -> {
+                    log.error("Reactive item consumer - error processing message on " + record.topic() + " at offset "
+                            + record.offset() + ": " + e.getMessage());
+                    return Mono.empty();
+                })
+                // Every failure has been resumed by now, so this acknowledges once the event completes or fails, but
+                // not if it is cancelled.
+                .doOnSuccess(result -> record.receiverOffset().acknowledge());
+    }
+
+    private Mono<Void> whenResumed() {
+        final Sinks.Empty<Void> gate = paused.get();
+        return gate != null ? gate.asMono() : Mono.empty();
+    }
+
+    private static boolean isDatabaseUnavailable(final Throwable e) {
+        return e instanceof DatabaseUnavailableException || e.getCause() instanceof DatabaseUnavailableException;
+    }
+
+    private CompletableFuture<Void> handle(final ReceiverRecord<String, byte[]> record) {
+        final MessageHeaders headers = headers(record);
+        final byte[] payload = record.value();
+        if(logSampler.shouldLog(log, record.topic())) {
+            log.atInfo()
+                    .addKeyValue("topic", record.topic())
+                    .addKeyValue("partition", record.partition())
+                    .addKeyValue("offset", record.offset())
+                    .addKeyValue("payloadSize", payload.length)
+                    .log("Reactive Item Consumer: Received message");
+        }
+        final AtomicReference<CompletableFuture<Void>> processed = new AtomicReference<>(CompletableFuture.completedFuture(null));
+        processingMetrics.record(record.topic(), () -> {
+            if(createTopic.equals(record.topic())) {
+                final CreateItem event = eventCodecs.forContentType(headers.get(MessageHeaders.CONTENT_TYPE)).decode(payload, CreateItem.class);
+                itemService.createItems(List.of(event));
+            } else {
+                final UpdateItem event = eventCodecs.forContentType(headers.get(MessageHeaders.CONTENT_TYPE)).decode(payload, UpdateItem.class);
+                processed.set(itemService.updateItemAsync(event, payload, headers));
+            }
+        });
+        return processed.get();
+    }
+
+    private static List<TopicPartition> topicPartitions(final Collection<ReceiverPartition> partitions) {
+        return partitions.stream().map(ReceiverPartition::topicPartition).toList();
+    }
+
+    /**
+     * Maps the record headers as the listener containers do, along with the received topic, partition, offset and
+     * timestamp that the RetryService reads.
+     */
+    private MessageHeaders headers(final ReceiverRecord<String, byte[]> record) {
+        final Map<String, Object> headers = new HashMap<>();
+        headerMapper.toHeaders(record.headers(), headers);
+        headers.put(KafkaHeaders.RECEIVED_TOPIC, record.topic());
+        headers.put(KafkaHeaders.RECEIVED_PARTITION, record.partition());
+        headers.put(KafkaHeaders.OFFSET, record.offset());
+        headers.put(KafkaHeaders.RECEIVED_TIMESTAMP, record.timestamp());
+        return new MessageHeaders(headers);
+    }
+}
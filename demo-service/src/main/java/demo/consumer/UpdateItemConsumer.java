@@ -1,28 +1,55 @@
 package demo.consumer;
 
 import demo.event.UpdateItem;
-import demo.mapper.JsonMapper;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.EventCodecs;
 import demo.service.ItemService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.RecordLogSampler;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.Headers;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+/**
+ * Consumes the update item events one at a time.  Not created when the events are consumed by the
+ * ReactiveItemConsumer or the ItemStreams.
+ */
 @Slf4j
 @RequiredArgsConstructor
 @Component
+@ConditionalOnExpression("!${demo.reactive.enabled:false} and !${demo.streams.enabled:false}")
 public class UpdateItemConsumer {
     final ItemService itemService;
+    final RecordLogSampler logSampler;
+    final EventCodecs eventCodecs;
+    final ProcessingMetrics processingMetrics;
 
     @KafkaListener(topics = "update-item", containerFactory = "kafkaListenerContainerFactory")
-    public void listen(@Payload final String payload, @Headers final MessageHeaders headers) {
-        log.info("Update Item Consumer: Received message with payload: " + payload);
+    public void listen(@Payload final byte[] payload, @Headers final MessageHeaders headers) {
+        final String topic = (String)headers.get(KafkaHeaders.RECEIVED_TOPIC);
+        if(logSampler.shouldLog(log, topic)) {
+            log.atInfo()
+                    .addKeyValue("topic", topic)
+                    .addKeyValue("partition", headers.get(KafkaHeaders.RECEIVED_PARTITION))
+                    .addKeyValue("offset", headers.get(KafkaHeaders.OFFSET))
+                    .addKeyValue("payloadSize", payload.length)
+                    .log("Update Item Consumer: Received message");
+        }
         try {
-            UpdateItem event = JsonMapper.readFromJson(payload, UpdateItem.class);
-            itemService.updateItem(event, headers);
+            processingMetrics.record(topic, () -> {
+                UpdateItem event = eventCodecs.forContentType(headers.get(MessageHeaders.CONTENT_TYPE)).decode(payload, UpdateItem.class);
+                log.debug("Update Item Consumer: Received event: {}", event);
+                itemService.updateItem(event, payload, headers);
+            });
+        } catch (DatabaseUnavailableException e) {
+            // Left for the container to redeliver once the database is available.
+            throw e;
         } catch (Exception e) {
             log.error("Update item - error processing message: " + e.getMessage());
         }
@@ -0,0 +1,43 @@
+package demo.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.service.DeadLetterReplayService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/v1/demo/dead-letters")
+public class DeadLetterController {
+
+    @Autowired
+    private final DeadLetterReplayService deadLetterReplayService;
+
+    /**
+     * Replays the dead letters in the given partition between the fromOffset (inclusive) and the toOffset (exclusive)
+     * back on to their original topics, at no more than the given rate per second.
+     *
+     * Returns the number of events replayed.
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<Long> replay(@RequestParam(defaultValue = "0") int partition,
+                                       @RequestParam long fromOffset,
+                                       @RequestParam long toOffset,
+                                       @RequestParam(defaultValue = "10") double ratePerSecond) {
+        try {
+            return ResponseEntity.ok(deadLetterReplayService.replay(partition, fromOffset, toOffset, ratePerSecond));
+        } catch(IllegalArgumentException e) {
+            log.error(e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch(Exception e) {
+            log.error(e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
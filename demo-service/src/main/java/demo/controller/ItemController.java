@@ -5,6 +5,7 @@ import java.util.UUID;
 
 import demo.domain.Item;
 import demo.repository.ItemRepository;
+import demo.service.ItemStatusProjection;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,11 +21,33 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/v1/demo/items")
 public class ItemController {
 
+    /**
+     * The number of create-item and update-item events the item status projection has still to apply.
+     */
+    public static final String PROJECTION_LAG_HEADER = "X-Projection-Lag";
+
+    /**
+     * How long ago the oldest event the item status projection has still to apply could have been written.
+     */
+    public static final String PROJECTION_STALENESS_HEADER = "X-Projection-Staleness-Ms";
+
     @Autowired
     private final ItemRepository itemRepository;
 
+    @Autowired
+    private final ItemStatusProjection itemStatusProjection;
+
+    /**
+     * Once the item status projection is enabled and has caught up with the topics, the status is answered from it,
+     * with how far it is behind the topics in the X-Projection-Lag and X-Projection-Staleness-Ms headers.  An item
+     * created too recently to be in the projection is not found.  Otherwise the status is read from the database, which
+     * the ItemStreams do not write, so with demo.streams.enabled the items are only found from the projection.
+     */
     @GetMapping("/{itemId}/status")
     public ResponseEntity<String> getItemStatus(@PathVariable UUID itemId) {
+        if(itemStatusProjection.isReady()) {
+            return getProjectedItemStatus(itemId);
+        }
         try {
             Optional<Item> item = itemRepository.findById(itemId);
             if(item.isPresent()) {
@@ -37,4 +60,19 @@ public class ItemController {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    private ResponseEntity<String> getProjectedItemStatus(final UUID itemId) {
+        final ItemStatusProjection.Staleness staleness = itemStatusProjection.staleness();
+        final String lag = String.valueOf(staleness.lag());
+        final String stalenessMs = String.valueOf(staleness.stalenessMs());
+        return itemStatusProjection.find(itemId)
+                .map(status -> ResponseEntity.ok()
+                        .header(PROJECTION_LAG_HEADER, lag)
+                        .header(PROJECTION_STALENESS_HEADER, stalenessMs)
+                        .body(status.toString()))
+                .orElseGet(() -> ResponseEntity.notFound()
+                        .header(PROJECTION_LAG_HEADER, lag)
+                        .header(PROJECTION_STALENESS_HEADER, stalenessMs)
+                        .build());
+    }
 }
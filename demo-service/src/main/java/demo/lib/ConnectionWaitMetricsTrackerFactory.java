@@ -0,0 +1,72 @@
+package demo.lib;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Accumulates the time each thread spends waiting to acquire a pooled connection, so that the wait can be attributed
+ * to the event being processed on that thread.
+ *
+ * Hikari records the acquire time on the thread that borrowed the connection, so the time is added to a thread local
+ * total that is reset at the start of each event.  The pool metrics are still recorded by the delegate tracker.
+ *
+ * e.g. an update event that finds its item and saves it borrows a connection twice.  If it waited 2ms and 5ms for them,
+ * waitNanos() returns 7ms worth of nanos once the event has been processed.
+ */
+public class ConnectionWaitMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private static final ThreadLocal<long[]> WAIT_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final MetricsTrackerFactory delegate;
+
+    public ConnectionWaitMetricsTrackerFactory(final MetricsTrackerFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Resets the current thread's connection wait total.
+     */
+    public static void reset() {
+        WAIT_NANOS.get()[0] = 0;
+    }
+
+    /**
+     * The current thread's connection wait total since it was last reset.
+     */
+    public static long waitNanos() {
+        return WAIT_NANOS.get()[0];
+    }
+
+    @Override
+    public IMetricsTracker create(final String poolName, final PoolStats poolStats) {
+        final IMetricsTracker tracker = delegate.create(poolName, poolStats);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(final long connectionCreatedMillis) {
+                tracker.recordConnectionCreatedMillis(connectionCreatedMillis);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+                WAIT_NANOS.get()[0] += elapsedAcquiredNanos;
+                tracker.recordConnectionAcquiredNanos(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {
+                tracker.recordConnectionUsageMillis(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                tracker.recordConnectionTimeout();
+            }
+
+            @Override
+            public void close() {
+                tracker.close();
+            }
+        };
+    }
+}
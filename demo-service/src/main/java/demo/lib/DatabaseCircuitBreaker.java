@@ -0,0 +1,276 @@
+package demo.lib;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import demo.CircuitBreakerProperties;
+import demo.consumer.ItemStatusProjectionConsumer;
+import demo.consumer.ReactiveItemConsumer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * A circuit breaker around the item repository calls, which pauses the create-item and update-item listener containers,
+ * or the ReactiveItemConsumer if the events are consumed reactively, while the database is failing or slow.  With the
+ * ItemStreams enabled the events are not written to the database, so there is nothing to pause.
+ *
+ * Without it every event consumed during a database outage fails, and an update that cannot find its item is sent to
+ * the retry topic, multiplying the traffic without fixing anything.  Instead, once the circuit opens the events are
+ * left on their topics until the database is back.
+ *
+ * CLOSED - calls go through.  The outcome of the last windowSize calls is kept, and once there have been minimumCalls
+ * of them the circuit opens if the fraction that failed reaches failureRateThreshold, or the fraction that took longer
+ * than slowCallMs reaches slowCallRateThreshold.  Only failures to reach the database count: a constraint violation is
+ * a problem with the event, not the database.
+ *
+ * OPEN - calls are rejected with a DatabaseUnavailableException and the listener containers are paused.  The
+ * containers redeliver the rejected events once they are resumed.  After openMs the circuit is half open.
+ *
+ * HALF_OPEN - the containers are resumed and halfOpenCalls calls are let through as probes.  If they all succeed the
+ * circuit closes, and if any fails or is slow it opens again.
+ *
+ * For example, with a window of 20, 10 minimum calls and a failure rate threshold of 0.5, the circuit opens on the
+ * tenth call if five of the ten have failed, and on any later call once ten of the last twenty have failed.
+ *
+ * The state is reported by the demo.circuit-breaker.state gauge: 0 closed, 1 open, 2 half open.
+ */
+@Slf4j
+@Component
+public class DatabaseCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final CircuitBreakerProperties properties;
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final ObjectProvider<ReactiveItemConsumer> reactiveConsumer;
+
+    /**
+     * The topics whose listener containers are paused while the circuit is open.
+     */
+    private final Set<String> pausedTopics;
+
+    private final long slowCallNanos;
+
+    /**
+     * The outcomes of the calls in the window, as a ring indexed by the call count.
+     */
+    private final boolean[] failedCalls;
+
+    private final boolean[] slowCalls;
+
+    private int windowCalls;
+
+    private int windowIndex;
+
+    private int windowFailed;
+
+    private int windowSlow;
+
+    private int halfOpenStarted;
+
+    private int halfOpenSucceeded;
+
+    private volatile State state = State.CLOSED;
+
+    private ScheduledExecutorService scheduler;
+
+    public DatabaseCircuitBreaker(@Autowired CircuitBreakerProperties properties,
+                                  @Autowired KafkaListenerEndpointRegistry registry,
+                                  @Autowired ObjectProvider<ReactiveItemConsumer> reactiveConsumer,
+                                  @Autowired MeterRegistry meterRegistry,
+                                  @Value("${demo.topics.itemCreateTopic:create-item}") String createTopic,
+                                  @Value("${demo.topics.itemUpdateTopic:update-item}") String updateTopic) {
+        this.properties = properties;
+        this.registry = registry;
+        this.reactiveConsumer = reactiveConsumer;
+        this.pausedTopics = Set.of(createTopic, updateTopic);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(properties.getSlowCallMs());
+        this.failedCalls = new boolean[properties.getWindowSize()];
+        this.slowCalls = new boolean[properties.getWindowSize()];
+        Gauge.builder("demo.circuit-breaker.state", this, breaker -> breaker.getState().ordinal())
+                .description("The item repository circuit breaker state: 0 closed, 1 open, 2 half open")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if(properties.isEnabled()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "database-circuit-breaker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Makes the repository call if the circuit permits it, recording whether it failed and how long it took.
+     *
+     * @throws DatabaseUnavailableException if the circuit is open, or the call failed to reach the database.
+     */
+    public <T> T call(final Supplier<T> call) {
+        if(!properties.isEnabled()) {
+            return call.get();
+        }
+        acquirePermission();
+        final long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.get();
+        } catch (DataIntegrityViolationException e) {
+            throw e;
+        } catch (DataAccessException | TransactionException e) {
+            failed = true;
+            throw new DatabaseUnavailableException("Item repository call failed: " + e.getMessage(), e);
+        } finally {
+            onResult(failed, System.nanoTime() - start);
+        }
+    }
+
+    public void run(final Runnable call) {
+        call(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private synchronized void acquirePermission() {
+        if(state == State.OPEN) {
+            throw new DatabaseUnavailableException("Circuit breaker is open - item repository call rejected");
+        }
+        if(state == State.HALF_OPEN) {
+            if(halfOpenStarted >= properties.getHalfOpenCalls()) {
+                throw new DatabaseUnavailableException("Circuit breaker is half open - item repository call rejected while probing");
+            }
+            halfOpenStarted++;
+        }
+    }
+
+    private synchronized void onResult(final boolean failed, final long elapsedNanos) {
+        final boolean slow = elapsedNanos > slowCallNanos;
+        if(state == State.HALF_OPEN) {
+            if(failed || slow) {
+                open("a half open probe " + (failed ? "failed" : "was slow"));
+            } else if(++halfOpenSucceeded >= properties.getHalfOpenCalls()) {
+                close();
+            }
+        } else if(state == State.CLOSED) {
+            record(failed, slow);
+            if(windowCalls >= properties.getMinimumCalls()) {
+                final double failureRate = (double)windowFailed / windowCalls;
+                final double slowCallRate = (double)windowSlow / windowCalls;
+                if(failureRate >= properties.getFailureRateThreshold()) {
+                    open("the failure rate is " + failureRate);
+                } else if(slowCallRate >= properties.getSlowCallRateThreshold()) {
+                    open("the slow call rate is " + slowCallRate);
+                }
+            }
+        }
+        // A call that was in flight when the circuit opened is ignored.
+    }
+
+    private void record(final boolean failed, final boolean slow) {
+        if(windowCalls == failedCalls.length) {
+            windowFailed -= failedCalls[windowIndex] ? 1 : 0;
+            windowSlow -= slowCalls[windowIndex] ? 1 : 0;
+        } else {
+            windowCalls++;
+        }
+        failedCalls[windowIndex] = failed;
+        slowCalls[windowIndex] = slow;
+        windowFailed += failed ? 1 : 0;
+        windowSlow += slow ? 1 : 0;
+        windowIndex = (windowIndex + 1) % failedCalls.length;
+    }
+
+    private void open(final String reason) {
+        state = State.OPEN;
+        final int paused = forEachItemConsumer(MessageListenerContainer::pause, ReactiveItemConsumer::pause);
+        log.warn("Circuit breaker opened as {} - paused {} listener containers for {}ms", reason, paused, properties.getOpenMs());
+        if(scheduler != null) {
+            scheduler.schedule(this::halfOpen, properties.getOpenMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Resumes the listener containers, letting the probe calls through.
+     */
+    synchronized void halfOpen() {
+        if(state != State.OPEN) {
+            return;
+        }
+        state = State.HALF_OPEN;
+        halfOpenStarted = 0;
+        halfOpenSucceeded = 0;
+        final int resumed = forEachItemConsumer(MessageListenerContainer::resume, ReactiveItemConsumer::resume);
+        log.info("Circuit breaker half open - resumed {} listener containers to probe the database", resumed);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        windowCalls = 0;
+        windowIndex = 0;
+        windowFailed = 0;
+        windowSlow = 0;
+        log.info("Circuit breaker closed");
+    }
+
+    /**
+     * Applies the action to the item topic listener containers, or the ReactiveItemConsumer if the events are consumed
+     * reactively.
+     *
+     * The item status projection's container also consumes the item topics, but is left running as it does not use
+     * the database, as are the ItemStreams, which make no repository calls.
+     */
+    private int forEachItemConsumer(final Consumer<MessageListenerContainer> action, final Consumer<ReactiveItemConsumer> reactiveAction) {
+        int count = 0;
+        for(MessageListenerContainer container : registry.getListenerContainers()) {
+            if(ItemStatusProjectionConsumer.LISTENER_ID.equals(container.getListenerId())) {
+                continue;
+            }
+            final String[] topics = container.getContainerProperties().getTopics();
+            if(topics != null && Arrays.stream(topics).anyMatch(pausedTopics::contains)) {
+                action.accept(container);
+                count++;
+            }
+        }
+        final ReactiveItemConsumer consumer = reactiveConsumer.getIfAvailable();
+        if(consumer != null) {
+            reactiveAction.accept(consumer);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,17 @@
+package demo.lib;
+
+/**
+ * Thrown when an item repository call is rejected by the open circuit breaker, or fails because the database cannot
+ * be reached.  The listeners let it through to their container, so that the event is redelivered once the database is
+ * available again rather than being sent for retry or lost.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+
+    public DatabaseUnavailableException(final String message) {
+        super(message);
+    }
+
+    public DatabaseUnavailableException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
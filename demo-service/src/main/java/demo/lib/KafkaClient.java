@@ -20,11 +20,11 @@ public class KafkaClient {
     @Autowired
     private final KafkaTemplate kafkaTemplate;
 
-    public SendResult sendMessage(final String topic, final String data) {
+    public SendResult sendMessage(final String topic, final Object data) {
         return this.sendMessage(topic, data, null);
     }
 
-    public SendResult sendMessage(final String topic, final String data, final Map<String, Object> headers) {
+    public SendResult sendMessage(final String topic, final Object data, final Map<String, Object> headers) {
         try {
             final MessageBuilder builder = MessageBuilder
                     .withPayload(data)
@@ -32,7 +32,7 @@ public class KafkaClient {
             if(headers!=null) {
                 headers.forEach((key, value) -> builder.setHeader(key, value));
             }
-            final Message<String> message = builder.build();
+            final Message<Object> message = builder.build();
             return (SendResult)kafkaTemplate.send(message).get();
         } catch (Exception e) {
             String message = "Error sending message to topic " + topic;
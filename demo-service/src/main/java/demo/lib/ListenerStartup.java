@@ -0,0 +1,176 @@
+package demo.lib;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.sql.DataSource;
+
+import demo.PersistenceProperties;
+import demo.consumer.ReactiveItemConsumer;
+import demo.repository.ItemRepository;
+import demo.streams.ItemStreams;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Starts the Kafka listener containers, and the ReactiveItemConsumer or the ItemStreams if enabled, once the
+ * application is ready, when their auto startup is disabled with retry.messaging.autoStartup.
+ *
+ * An instance then only joins the consumer groups, triggering a rebalance, once it can process events straight away:
+ * the readiness state has changed to accepting traffic, the pooled database connections have been opened and
+ * validated (demo.persistence.warmUpConnections of them), and the JPA repositories have been bootstrapped by a first
+ * query.  It does not hold partitions while it is still starting, and the first events it is assigned are not delayed
+ * by the connection pool and Hibernate initialising.
+ *
+ * The readiness state can change back and forth while the application is running, so the containers are only started
+ * on the first change to accepting traffic, and are left to their own lifecycle after that.  If the warm up fails,
+ * such as while the database is unreachable, the failure is logged and the warm up tried again on a background thread
+ * after demo.persistence.warmUpBackoffMs, doubling up to warmUpMaxBackoffMs, until it succeeds and the containers are
+ * started.  The application still starts, and rides out the outage with its consumers stopped.
+ */
+@Slf4j
+@Component
+public class ListenerStartup {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final DataSource dataSource;
+
+    private final ItemRepository itemRepository;
+
+    private final PersistenceProperties properties;
+
+    private final ObjectProvider<ReactiveItemConsumer> reactiveConsumer;
+
+    private final ObjectProvider<ItemStreams> itemStreams;
+
+    private final boolean autoStartup;
+
+    private final AtomicBoolean startedOnce = new AtomicBoolean();
+
+    private ScheduledExecutorService retryScheduler;
+
+    private boolean stopped;
+
+    public ListenerStartup(@Autowired KafkaListenerEndpointRegistry registry,
+                           @Autowired DataSource dataSource,
+                           @Autowired ItemRepository itemRepository,
+                           @Autowired PersistenceProperties properties,
+                           @Autowired ObjectProvider<ReactiveItemConsumer> reactiveConsumer,
+                           @Autowired ObjectProvider<ItemStreams> itemStreams,
+                           @Value("${retry.messaging.autoStartup:true}") boolean autoStartup) {
+        this.registry = registry;
+        this.dataSource = dataSource;
+        this.itemRepository = itemRepository;
+        this.properties = properties;
+        this.reactiveConsumer = reactiveConsumer;
+        this.itemStreams = itemStreams;
+        this.autoStartup = autoStartup;
+    }
+
+    @EventListener
+    public void onReadinessChange(final AvailabilityChangeEvent<ReadinessState> event) {
+        if(autoStartup || event.getState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            return;
+        }
+        if(!startedOnce.compareAndSet(false, true)) {
+            return;
+        }
+        startWhenWarm(properties.getWarmUpBackoffMs());
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        stopped = true;
+        if(retryScheduler != null) {
+            retryScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Warms up then starts the containers, or if the warm up fails schedules another attempt after the backoff.
+     */
+    private void startWhenWarm(final long backoffMs) {
+        try {
+            warmUp();
+        } catch (Exception e) {
+            log.warn("Warm up failed - not starting the listener containers, retrying in {}ms: {}", backoffMs, e.getMessage());
+            scheduleRetry(() -> startWhenWarm(Math.min(backoffMs * 2, properties.getWarmUpMaxBackoffMs())), backoffMs);
+            return;
+        }
+        startContainers();
+    }
+
+    private synchronized void scheduleRetry(final Runnable retry, final long backoffMs) {
+        if(stopped) {
+            return;
+        }
+        if(retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "listener-startup");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        retryScheduler.schedule(retry, backoffMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void startContainers() {
+        int started = 0;
+        for(MessageListenerContainer container : registry.getListenerContainers()) {
+            if(!container.isRunning()) {
+                container.start();
+                started++;
+            }
+        }
+        final ReactiveItemConsumer consumer = reactiveConsumer.getIfAvailable();
+        if(consumer != null && !consumer.isRunning()) {
+            consumer.start();
+            started++;
+        }
+        final ItemStreams streams = itemStreams.getIfAvailable();
+        if(streams != null && !streams.isRunning()) {
+            streams.start();
+            started++;
+        }
+        log.info("Started {} listener containers {}ms after JVM start", started, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    private void warmUp() throws Exception {
+        final long start = System.nanoTime();
+        // The connections are all held until validated so that the pool has to open each of them.
+        final int connections = Math.max(1, properties.getWarmUpConnections());
+        final List<Connection> borrowed = new ArrayList<>(connections);
+        try {
+            for(int i = 0; i < connections; i++) {
+                final Connection connection = dataSource.getConnection();
+                borrowed.add(connection);
+                if(!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    throw new IllegalStateException("Database connection is not valid - not starting the listener containers.");
+                }
+            }
+        } finally {
+            for(Connection connection : borrowed) {
+                connection.close();
+            }
+        }
+        itemRepository.count();
+        log.info("Warmed up {} database connections and the repositories in {}ms", connections, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,67 @@
+package demo.lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import demo.PersistenceProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times the processing of each consumed event, and the part of that time spent waiting to acquire database
+ * connections, per topic:
+ *
+ * demo.event.processing - the time to decode and process each event, or each poll for a batch listener.
+ * demo.event.connection.wait - the time each event, or poll, waited for pooled connections.
+ *
+ * When the wait is a large fraction of the processing time, the connection pool rather than Kafka is limiting the
+ * consumer throughput.  An event that waits longer than demo.persistence.slowConnectionWaitMs is also logged.
+ *
+ * The connection wait is measured by the ConnectionWaitMetricsTrackerFactory installed on the Hikari data source.
+ */
+@Slf4j
+@Component
+public class ProcessingMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final PersistenceProperties properties;
+
+    private final Map<String, Timer> processingTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> connectionWaitTimers = new ConcurrentHashMap<>();
+
+    public ProcessingMetrics(@Autowired MeterRegistry meterRegistry,
+                             @Autowired PersistenceProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+    }
+
+    public void record(final String topic, final Runnable processing) {
+        ConnectionWaitMetricsTrackerFactory.reset();
+        final long start = System.nanoTime();
+        try {
+            processing.run();
+        } finally {
+            final long elapsedNanos = System.nanoTime() - start;
+            final long waitNanos = ConnectionWaitMetricsTrackerFactory.waitNanos();
+            processingTimers.computeIfAbsent(topic, key -> timer("demo.event.processing", key)).record(elapsedNanos, TimeUnit.NANOSECONDS);
+            connectionWaitTimers.computeIfAbsent(topic, key -> timer("demo.event.connection.wait", key)).record(waitNanos, TimeUnit.NANOSECONDS);
+            if(waitNanos > TimeUnit.MILLISECONDS.toNanos(properties.getSlowConnectionWaitMs())) {
+                log.atWarn()
+                        .addKeyValue("topic", topic)
+                        .addKeyValue("connectionWaitMs", TimeUnit.NANOSECONDS.toMillis(waitNanos))
+                        .addKeyValue("processingMs", TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                        .log("Slow database connection acquire - the connection pool may be limiting throughput");
+            }
+        }
+    }
+
+    private Timer timer(final String name, final String topic) {
+        return Timer.builder(name).tag("topic", String.valueOf(topic)).register(meterRegistry);
+    }
+}
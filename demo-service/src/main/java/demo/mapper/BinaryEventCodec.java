@@ -0,0 +1,114 @@
+package demo.mapper;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.service.ItemStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * A compact binary encoding of the demo events, with a fixed field order per event type.
+ *
+ * CreateItem: id (16 bytes, most then least significant bits), name length (2 bytes, -1 if null), name (UTF-8).
+ *
+ * UpdateItem: id (16 bytes), status ordinal (1 byte, -1 if null).
+ *
+ * e.g. an UpdateItem is 17 bytes, against 63 bytes as JSON.
+ *
+ * As the status is encoded by its ordinal, new statuses may only be added to the end of ItemStatus.  Any other change
+ * to the encoding requires a new content type, so that events already written can still be decoded.
+ */
+@Component
+public class BinaryEventCodec implements EventCodec {
+
+    public static final String CONTENT_TYPE = "application/x-demo-item-v1";
+
+    private static final int UUID_BYTES = 16;
+
+    /**
+     * The name length or status ordinal of a null name or status.
+     */
+    private static final int NULL_MARKER = -1;
+
+    private static final ItemStatus[] STATUSES = ItemStatus.values();
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(final Object event) throws MappingException {
+        if(event instanceof CreateItem createItem) {
+            final byte[] name = createItem.getName() != null ? createItem.getName().getBytes(StandardCharsets.UTF_8) : null;
+            if(name != null && name.length > Short.MAX_VALUE) {
+                throw new MappingException("Item name exceeds "+Short.MAX_VALUE+" bytes");
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(UUID_BYTES + Short.BYTES + (name != null ? name.length : 0));
+            putId(buffer, createItem.getId());
+            buffer.putShort(name != null ? (short)name.length : NULL_MARKER);
+            if(name != null) {
+                buffer.put(name);
+            }
+            return buffer.array();
+        } else if(event instanceof UpdateItem updateItem) {
+            final ByteBuffer buffer = ByteBuffer.allocate(UUID_BYTES + Byte.BYTES);
+            putId(buffer, updateItem.getId());
+            buffer.put(updateItem.getStatus() != null ? (byte)updateItem.getStatus().ordinal() : NULL_MARKER);
+            return buffer.array();
+        }
+        throw new MappingException("Unsupported event type: "+(event != null ? event.getClass().getName() : null));
+    }
+
+    @Override
+    public <T> T decode(final byte[] payload, final Class<T> type) throws MappingException {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(payload);
+            final Object event;
+            if(type == CreateItem.class) {
+                final UUID id = getId(buffer);
+                final short length = buffer.getShort();
+                if(length < NULL_MARKER) {
+                    throw new MappingException("Invalid item name length: "+length);
+                }
+                String name = null;
+                if(length != NULL_MARKER) {
+                    name = new String(payload, buffer.position(), length, StandardCharsets.UTF_8);
+                    buffer.position(buffer.position() + length);
+                }
+                event = new CreateItem(id, name);
+            } else if(type == UpdateItem.class) {
+                final UUID id = getId(buffer);
+                final byte ordinal = buffer.get();
+                if(ordinal >= STATUSES.length || ordinal < NULL_MARKER) {
+                    throw new MappingException("Unknown item status ordinal: "+ordinal);
+                }
+                event = new UpdateItem(id, ordinal != NULL_MARKER ? STATUSES[ordinal] : null);
+            } else {
+                throw new MappingException("Unsupported event type: "+type.getName());
+            }
+            if(buffer.hasRemaining()) {
+                throw new MappingException("Unexpected "+buffer.remaining()+" trailing bytes decoding "+type.getSimpleName());
+            }
+            return type.cast(event);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new MappingException(e);
+        }
+    }
+
+    private static void putId(final ByteBuffer buffer, final UUID id) {
+        if(id == null) {
+            throw new MappingException("Event id is required");
+        }
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getId(final ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
@@ -0,0 +1,16 @@
+package demo.mapper;
+
+/**
+ * Encodes and decodes the demo events for a content type.
+ *
+ * The content type is carried in the contentType header of each event, so that the consumers can decode events from
+ * producers using any of the registered codecs.  Events with no content type are JSON.
+ */
+public interface EventCodec {
+
+    String getContentType();
+
+    byte[] encode(Object event) throws MappingException;
+
+    <T> T decode(byte[] payload, Class<T> type) throws MappingException;
+}
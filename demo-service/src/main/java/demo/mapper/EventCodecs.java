@@ -0,0 +1,41 @@
+package demo.mapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Selects the codec for an event from its contentType header.
+ *
+ * Events with no content type are decoded as JSON, so producers that do not set the header keep working.
+ */
+@Component
+public class EventCodecs {
+
+    private final Map<String, EventCodec> codecs;
+
+    public EventCodecs(@Autowired List<EventCodec> codecs) {
+        this.codecs = codecs.stream().collect(Collectors.toMap(EventCodec::getContentType, Function.identity()));
+    }
+
+    /**
+     * @param contentType the contentType header value.  This is a String if written by a Spring producer, and the raw
+     *                    header bytes otherwise.
+     */
+    public EventCodec forContentType(final Object contentType) throws MappingException {
+        if(contentType == null) {
+            return codecs.get(JsonEventCodec.CONTENT_TYPE);
+        }
+        final String value = contentType instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : contentType.toString();
+        final EventCodec codec = codecs.get(value);
+        if(codec == null) {
+            throw new MappingException("Unsupported content type: "+value);
+        }
+        return codec;
+    }
+}
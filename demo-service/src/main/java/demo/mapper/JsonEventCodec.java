@@ -0,0 +1,24 @@
+package demo.mapper;
+
+import org.springframework.stereotype.Component;
+
+@Component
+public class JsonEventCodec implements EventCodec {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(final Object event) throws MappingException {
+        return JsonMapper.writeToJsonBytes(event);
+    }
+
+    @Override
+    public <T> T decode(final byte[] payload, final Class<T> type) throws MappingException {
+        return JsonMapper.readFromJson(payload, type);
+    }
+}
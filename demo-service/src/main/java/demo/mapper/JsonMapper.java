@@ -1,24 +1,75 @@
 package demo.mapper;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 
+/**
+ * Maps the events to and from JSON.
+ *
+ * An ObjectReader and ObjectWriter is built once per type and cached, so that the type's serializers are not looked up
+ * on every call.  The Blackbird module generates the property accessors with LambdaMetafactory rather than calling
+ * them through reflection.  The byte[] methods parse and write the bytes directly, with no intermediate String.
+ */
 public class JsonMapper {
 
 	private static final ObjectMapper objectMapper = new ObjectMapper();
 
+	private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+	private static final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
 	static {
 		objectMapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
 		objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 		objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
 		objectMapper.configure(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS, false);
 		objectMapper.findAndRegisterModules();
+		objectMapper.registerModule(new BlackbirdModule());
+	}
+
+	/**
+	 * The reader for the type, built on first use.  The reader is immutable so is safe to share between threads.
+	 */
+	public static ObjectReader readerFor(Class<?> clazz) {
+		return readers.computeIfAbsent(clazz, objectMapper::readerFor);
+	}
+
+	/**
+	 * The writer for the type, built on first use.  The writer is immutable so is safe to share between threads.
+	 */
+	public static ObjectWriter writerFor(Class<?> clazz) {
+		return writers.computeIfAbsent(clazz, objectMapper::writerFor);
+	}
+
+	private static ObjectWriter writer(Object obj) {
+		return obj != null ? writerFor(obj.getClass()) : objectMapper.writer();
 	}
 
 	public static <T> T readFromJson(String json, Class<T> clazz) throws MappingException {
 		try {
-			return objectMapper.readValue(json, clazz);
+			return readerFor(clazz).readValue(json);
+		} catch (Exception e) {
+			throw new MappingException(e);
+		}
+	}
+
+	public static <T> T readFromJson(byte[] json, Class<T> clazz) throws MappingException {
+		return readFromJson(json, 0, json.length, clazz);
+	}
+
+	/**
+	 * Parses the JSON from the given range of the bytes, such as a payload within a larger buffer.
+	 */
+	public static <T> T readFromJson(byte[] json, int offset, int length, Class<T> clazz) throws MappingException {
+		try {
+			return readerFor(clazz).readValue(json, offset, length);
 		} catch (Exception e) {
 			throw new MappingException(e);
 		}
@@ -26,7 +77,15 @@ public class JsonMapper {
 
 	public static String writeToJson(Object obj) throws MappingException {
 		try {
-			return objectMapper.writeValueAsString(obj);
+			return writer(obj).writeValueAsString(obj);
+		} catch (Exception e) {
+			throw new MappingException(e);
+		}
+	}
+
+	public static byte[] writeToJsonBytes(Object obj) throws MappingException {
+		try {
+			return writer(obj).writeValueAsBytes(obj);
 		} catch (Exception e) {
 			throw new MappingException(e);
 		}
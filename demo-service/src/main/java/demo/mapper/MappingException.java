@@ -5,4 +5,8 @@ public class MappingException extends RuntimeException {
     public MappingException(Throwable t) {
         super(t);
     }
+
+    public MappingException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,17 @@
+package demo.repository;
+
+import java.util.List;
+
+import demo.domain.Item;
+
+/**
+ * Inserts items with a native upsert rather than through the entity manager.
+ */
+public interface ItemInsertRepository {
+
+    /**
+     * Inserts the items that do not already exist, in a single JDBC batch.  Items whose id already exists are left
+     * unchanged, so a redelivered create is harmless.
+     */
+    void insertIfAbsent(List<Item> items);
+}
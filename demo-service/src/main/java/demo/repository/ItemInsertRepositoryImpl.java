@@ -0,0 +1,37 @@
+package demo.repository;
+
+import java.util.List;
+
+import demo.domain.Item;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * The save() of an entity with an assigned id selects it first to decide whether to insert or merge, and a redelivered
+ * create then either fails on the primary key or merges needlessly.  The native insert is a single round trip per
+ * batch, and ON CONFLICT DO NOTHING makes the redelivery a no-op.
+ *
+ * The primary key is the item table's only unique constraint, so the conflict is on the id without naming it as the
+ * conflict target, which the H2 PostgreSQL mode used by the tests does not support.
+ */
+@RequiredArgsConstructor
+public class ItemInsertRepositoryImpl implements ItemInsertRepository {
+
+    private static final String INSERT_IF_ABSENT = "INSERT INTO kafka_retry_with_delay.item (id, name, status) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public void insertIfAbsent(final List<Item> items) {
+        if(items.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_IF_ABSENT, items, items.size(), (statement, item) -> {
+            statement.setObject(1, item.getId());
+            statement.setString(2, item.getName());
+            statement.setString(3, item.getStatus().name());
+        });
+    }
+}
@@ -1,16 +1,21 @@
 package demo.service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import demo.domain.Item;
 import demo.event.CreateItem;
 import demo.event.UpdateItem;
-import demo.mapper.JsonMapper;
+import demo.lib.DatabaseCircuitBreaker;
 import demo.repository.ItemRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import messaging.retry.service.RetryService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.stereotype.Service;
 
@@ -25,25 +30,138 @@ public class ItemService {
     @Autowired
     private final RetryService retryService;
 
-    public void createItem(final CreateItem event) {
-        Item item = Item.builder()
-                .id(event.getId())
-                .name(event.getName())
-                .status(ItemStatus.NEW)
-                .build();
-        itemRepository.save(item);
-        log.debug("Item persisted to database with Id: {}", event.getId());
+    @Autowired
+    private final PendingUpdateBuffer pendingUpdateBuffer;
+
+    @Autowired
+    private final DatabaseCircuitBreaker circuitBreaker;
+
+    /**
+     * Creates the items with NEW status, skipping any that already exist.
+     *
+     * If the batch fails, such as on an item that violates a column constraint, the items are inserted one at a time so
+     * that only the failing items are lost.
+     *
+     * Once the items are committed any updates for them that are held in memory are applied, and any that are parked
+     * waiting for retry are released, so that they are applied straight away rather than when their retry interval
+     * expires.  This is done outside the insert's error handling, so a failure applying the updates never leads to the
+     * items being inserted again individually.
+     *
+     * The repository calls go through the circuit breaker, so while the database is unavailable a
+     * DatabaseUnavailableException is thrown for the batch to be redelivered, rather than each item failing in turn.
+     */
+    public void createItems(final List<CreateItem> events) {
+        final List<Item> items = events.stream()
+                .map(event -> Item.builder()
+                        .id(event.getId())
+                        .name(event.getName())
+                        .status(ItemStatus.NEW)
+                        .build())
+                .toList();
+        final List<Item> inserted = new ArrayList<>(items.size());
+        try {
+            circuitBreaker.run(() -> itemRepository.insertIfAbsent(items));
+            log.debug("Items persisted to database: {}", items.size());
+            inserted.addAll(items);
+        } catch (DataAccessException e) {
+            log.warn("Batch insert of {} items failed - inserting individually: {}", items.size(), e.getMessage());
+            for(Item item : items) {
+                try {
+                    circuitBreaker.run(() -> itemRepository.insertIfAbsent(List.of(item)));
+                    inserted.add(item);
+                } catch (DataAccessException itemException) {
+                    log.error("Create item - error persisting item with Id: " + item.getId() + ": " + itemException.getMessage());
+                }
+            }
+        }
+        inserted.forEach(this::applyPendingUpdates);
     }
 
-    public void updateItem(final UpdateItem event, final MessageHeaders headers) {
-        final Optional<Item> item = itemRepository.findById(event.getId());
+    private void applyPendingUpdates(final Item item) {
+        applyHeldUpdates(item.getId());
+        final int released = retryService.release(item.getId().toString());
+        if(released > 0) {
+            log.debug("Released {} parked updates for item with Id: {}", released, item.getId());
+        }
+    }
+
+    /**
+     * Applies the updates held for the item in the order they were received.  As they have already been taken from
+     * the buffer, and acknowledged on the update-item topic, they are sent for retry if the item cannot be found or
+     * they cannot be applied for any reason, such as the database being unavailable.  The buffer holds them again if
+     * the retry send fails.
+     */
+    private void applyHeldUpdates(final UUID itemId) {
+        final List<PendingUpdateBuffer.PendingUpdate> updates = pendingUpdateBuffer.take(itemId);
+        if(updates.isEmpty()) {
+            return;
+        }
+        try {
+            final Optional<Item> item = circuitBreaker.call(() -> itemRepository.findById(itemId));
+            if(item.isEmpty()) {
+                pendingUpdateBuffer.retry(updates, "item not found");
+                return;
+            }
+            updates.forEach(update -> item.get().setStatus(update.event().getStatus()));
+            circuitBreaker.call(() -> itemRepository.save(item.get()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply {} held updates to item with Id: {} - sending them for retry: {}", updates.size(), itemId, e.getMessage());
+            pendingUpdateBuffer.retry(updates, "apply failure");
+            return;
+        }
+        log.debug("Applied {} held updates to item with Id: {}", updates.size(), itemId);
+    }
+
+    /**
+     * If the item has not yet been created the update is held in memory, if the pending update buffer is enabled, in
+     * case the create is just behind it.  Otherwise, or if the create does not arrive in time, the update is sent to
+     * retry as the payload it was received as, so that it keeps its encoding and content type.  It is keyed by the item
+     * Id so that it is released as soon as the item is created.
+     *
+     * The item is checked again once the update is held, in case it was created in between, as its create would then
+     * have found nothing to apply.
+     *
+     * While the database is unavailable a DatabaseUnavailableException is thrown, rather than the update being sent to
+     * retry, so that it is redelivered once the database is back.
+     */
+    public void updateItem(final UpdateItem event, final byte[] payload, final MessageHeaders headers) {
+        if(!applyOrHold(event, payload, headers)) {
+            retryService.retry(payload, headers, event.getId().toString());
+            log.debug("Item sent to retry with Id: {}", event.getId());
+        }
+    }
+
+    /**
+     * As updateItem, but the update is sent to retry without waiting on the send, for the reactive consumer.
+     *
+     * @return a future completed once the update is applied, held, or written to the retry topic.
+     */
+    public CompletableFuture<Void> updateItemAsync(final UpdateItem event, final byte[] payload, final MessageHeaders headers) {
+        if(applyOrHold(event, payload, headers)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        log.debug("Item sending to retry with Id: {}", event.getId());
+        return retryService.retryAsync(payload, headers, event.getId().toString());
+    }
+
+    /**
+     * @return true if the update was applied or held, false if it is to be sent to retry.
+     */
+    private boolean applyOrHold(final UpdateItem event, final byte[] payload, final MessageHeaders headers) {
+        final Optional<Item> item = circuitBreaker.call(() -> itemRepository.findById(event.getId()));
         if(item.isPresent()) {
             item.get().setStatus(event.getStatus());
-            itemRepository.save(item.get());
+            circuitBreaker.call(() -> itemRepository.save(item.get()));
             log.debug("Item updated in database with Id: {}", event.getId());
-        } else {
-            retryService.retry(JsonMapper.writeToJson(event), headers);
-            log.debug("Item sent to retry with Id: {}", event.getId());
+            return true;
+        }
+        if(pendingUpdateBuffer.hold(event, payload, headers)) {
+            log.debug("Item update held with Id: {}", event.getId());
+            if(circuitBreaker.call(() -> itemRepository.existsById(event.getId()))) {
+                applyHeldUpdates(event.getId());
+            }
+            return true;
         }
+        return false;
     }
 }
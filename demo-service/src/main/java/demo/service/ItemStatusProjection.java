@@ -0,0 +1,201 @@
+package demo.service;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import demo.ProjectionProperties;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.UuidByteMap;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.RetryClock;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-memory view of the item statuses, built from the create-item and update-item events by the
+ * ItemStatusProjectionConsumer when demo.projection.enabled is set, so that the item status requests are answered
+ * without a database round trip.
+ *
+ * The topics are replayed from the beginning at startup, and the projection is only ready once it has caught up with
+ * them.  Until then the status requests are answered from the database.
+ *
+ * The events are applied as the ItemService applies them:
+ *
+ * - A create adds the item with NEW status, and a create for an item already added changes nothing.
+ * - An update sets the status of an item already added.
+ * - An update for an item not yet created is held against the item, as the ItemService holds it or sends it for
+ *   retry, and the item takes its status once the create arrives.  Until then the item is not found.
+ *
+ * An update sent for retry is republished to the update-item topic, so it is seen again and applied again.  The
+ * projection follows the events rather than the database, so an event the database rejects is still applied.
+ *
+ * Each item is held as its Id and a byte for its status in a UuidByteMap.
+ *
+ * How stale the projection is is tracked per partition: the number of events not yet applied, and, while there are
+ * any, the time up to which every event written has been applied.  That is the time it was last seen to have no events
+ * left to apply, or the write time of the last event applied if that is later.  For example, if the last event applied
+ * from update-item partition 0 was written at 12:00:00.000, and there are 50 events after it, at 12:00:02.500 the
+ * projection is 50 events and 2500ms behind.
+ */
+@Slf4j
+@Component
+public class ItemStatusProjection {
+
+    /**
+     * Marks an item whose update has been seen but not its create.
+     */
+    private static final int NOT_CREATED = 0x80;
+
+    private final ProjectionProperties properties;
+
+    private final Clock clock;
+
+    private final UuidByteMap statuses;
+
+    private final Map<TopicPartition, Progress> progress = new ConcurrentHashMap<>();
+
+    private volatile boolean caughtUp;
+
+    /**
+     * The number of events behind the end of the partition, and the time up to which every event written to it has
+     * been applied.
+     */
+    private record Progress(long lag, long currentTo) {
+    }
+
+    /**
+     * How far the projection is behind the topics, over all their partitions.
+     *
+     * @param lag the number of events not yet applied.
+     * @param stalenessMs how long ago the oldest event not yet applied could have been written, or zero if there are
+     *                    none.
+     *
+     * Both are Long.MAX_VALUE while a partition is still to apply its first event.
+     */
+    public record Staleness(long lag, long stalenessMs) {
+    }
+
+    public ItemStatusProjection(@Autowired ProjectionProperties properties,
+                                @Autowired RetryClock clock) {
+        this.properties = properties;
+        this.clock = clock.clock();
+        this.statuses = new UuidByteMap(properties.isEnabled() ? properties.getExpectedItems() : 0);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * @return true once the projection has caught up with the topics after startup.
+     */
+    public boolean isReady() {
+        return properties.isEnabled() && caughtUp;
+    }
+
+    /**
+     * @return the status of the item, or empty if it has not been created.
+     */
+    public Optional<ItemStatus> find(final UUID itemId) {
+        final byte value = statuses.get(itemId);
+        if(value == 0 || (value & NOT_CREATED) != 0) {
+            return Optional.empty();
+        }
+        return Optional.of(decode(value));
+    }
+
+    public int size() {
+        return statuses.size();
+    }
+
+    public void apply(final CreateItem event) {
+        final byte value = statuses.get(event.getId());
+        if(value == 0) {
+            statuses.put(event.getId(), encode(ItemStatus.NEW));
+        } else if((value & NOT_CREATED) != 0) {
+            statuses.put(event.getId(), (byte)(value & ~NOT_CREATED));
+        }
+    }
+
+    public void apply(final UpdateItem event) {
+        if(event.getStatus() == null) {
+            return;
+        }
+        final byte value = statuses.get(event.getId());
+        final boolean created = value != 0 && (value & NOT_CREATED) == 0;
+        statuses.put(event.getId(), created ? encode(event.getStatus()) : (byte)(encode(event.getStatus()) | NOT_CREATED));
+    }
+
+    /**
+     * Starts tracking the assigned partitions that have not been assigned before.  They are to be replayed from the
+     * beginning, so are behind by an unknown number of events until the first is applied.
+     *
+     * What was applied from a partition is kept if it is revoked, so a partition assigned again carries on from its
+     * committed offset.
+     *
+     * @return the partitions not assigned before.
+     */
+    public List<TopicPartition> assigned(final Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(partition -> progress.putIfAbsent(partition, new Progress(Long.MAX_VALUE, 0)) == null)
+                .toList();
+    }
+
+    /**
+     * Records an event applied from the partition.
+     *
+     * @param timestamp the time the event was written.
+     * @param lag the number of events after it, or empty if the consumer has not yet learnt the end of the partition.
+     */
+    public void applied(final TopicPartition partition, final long timestamp, final Optional<Long> lag) {
+        final Progress previous = progress.get(partition);
+        final long newLag = lag.orElse(previous != null ? previous.lag() : Long.MAX_VALUE);
+        progress.put(partition, new Progress(newLag, newLag == 0 ? clock.millis() : Math.max(timestamp, previous != null ? previous.currentTo() : 0)));
+        if(newLag == 0) {
+            checkCaughtUp();
+        }
+    }
+
+    /**
+     * Records the number of events not yet applied from the partition, while none are arriving.
+     */
+    public void behind(final TopicPartition partition, final long lag) {
+        progress.computeIfPresent(partition, (key, previous) -> new Progress(lag, lag == 0 ? clock.millis() : previous.currentTo()));
+        checkCaughtUp();
+    }
+
+    public Staleness staleness() {
+        final long now = clock.millis();
+        long lag = 0;
+        long stalenessMs = 0;
+        for(Progress partition : progress.values()) {
+            if(partition.lag() > 0) {
+                lag = partition.lag() == Long.MAX_VALUE || lag == Long.MAX_VALUE ? Long.MAX_VALUE : lag + partition.lag();
+                stalenessMs = partition.currentTo() == 0 ? Long.MAX_VALUE : Math.max(stalenessMs, now - partition.currentTo());
+            }
+        }
+        return new Staleness(lag, stalenessMs);
+    }
+
+    private void checkCaughtUp() {
+        if(!caughtUp && !progress.isEmpty() && progress.values().stream().allMatch(partition -> partition.lag() == 0)) {
+            caughtUp = true;
+            log.info("Item status projection caught up with {} items", statuses.size());
+        }
+    }
+
+    private static byte encode(final ItemStatus status) {
+        return (byte)(status.ordinal() + 1);
+    }
+
+    private static ItemStatus decode(final byte value) {
+        return ItemStatus.values()[(value & ~NOT_CREATED) - 1];
+    }
+}
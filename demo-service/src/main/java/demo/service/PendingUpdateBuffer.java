@@ -0,0 +1,275 @@
+package demo.service;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import demo.PendingUpdateProperties;
+import demo.event.UpdateItem;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.service.RetryService;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds update events for items that do not yet exist in memory, for a short time, so that an update that arrives just
+ * before its create is applied as soon as the item is created rather than after a round trip through the retry topic.
+ *
+ * Each update is held for up to demo.pending-updates.ttlMs.  If its item is not created in that time it is sent for
+ * retry, keyed by its item Id, exactly as it would have been without the buffer.  The buffer holds at most
+ * demo.pending-updates.maxEntries updates: when it is full the oldest are sent for retry to make room.
+ *
+ * Example:
+ *
+ * The update for item 123 is received, the item is not found, and the update is held.  20ms later the create for item
+ * 123 is persisted, and the held update is taken and applied.  Had the create not arrived within the TTL, the update
+ * would have been sent to the retry topic after 500ms.
+ *
+ * The updates for an item are held, taken and sent for retry together, so they are applied in the order received.
+ *
+ * The held updates have already been acknowledged on the update-item topic, so they are sent for retry when the
+ * partition they were received on is revoked, and when the application shuts down.  An update that cannot be sent for
+ * retry is held again for another TTL, to be sent on the next sweep, unless the application is shutting down.  An
+ * update held when the process is killed outright is lost, so the TTL should be kept short.  This applies even with
+ * retry transactions enabled: the offset of a held update is committed with the listener's transaction, before the
+ * update is applied or written to the retry topic.
+ */
+@Slf4j
+@Component
+public class PendingUpdateBuffer implements ConsumerRebalanceListener {
+
+    private final RetryService retryService;
+
+    private final PendingUpdateProperties properties;
+
+    private final Clock clock;
+
+    /**
+     * The held updates by item Id, in the order the first update for each item was held, and so in expiry order.
+     */
+    private final LinkedHashMap<UUID, List<PendingUpdate>> pending = new LinkedHashMap<>();
+
+    private int size;
+
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Set once the application is shutting down, after which an update that cannot be sent for retry is not held again.
+     */
+    private volatile boolean stopping;
+
+    public PendingUpdateBuffer(@Autowired RetryService retryService,
+                               @Autowired PendingUpdateProperties properties,
+                               @Autowired RetryClock clock) {
+        this.retryService = retryService;
+        this.properties = properties;
+        this.clock = clock.clock();
+    }
+
+    @PostConstruct
+    public void start() {
+        if(properties.isEnabled()) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "pending-update-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(this::sweep, properties.getSweepIntervalMs(), properties.getSweepIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops expiring the held updates and sends all of them for retry.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        stopping = true;
+        if(sweeper != null) {
+            sweeper.shutdown();
+            sweeper.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        final List<PendingUpdate> flushed;
+        synchronized(this) {
+            flushed = removeWhere(update -> true);
+        }
+        retry(flushed, "shutdown");
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * Holds the update until its item is created or it expires.  If the buffer is full the oldest held updates are
+     * sent for retry.
+     *
+     * @return false if the buffer is disabled, in which case the caller sends the update for retry.
+     */
+    public boolean hold(final UpdateItem event, final byte[] payload, final MessageHeaders headers) {
+        if(!properties.isEnabled()) {
+            return false;
+        }
+        final List<PendingUpdate> evicted = new ArrayList<>();
+        synchronized(this) {
+            while(size >= Math.max(1, properties.getMaxEntries())) {
+                evicted.addAll(removeEldest());
+            }
+            pending.computeIfAbsent(event.getId(), id -> new ArrayList<>())
+                    .add(new PendingUpdate(event, payload, headers, clock.millis() + properties.getTtlMs()));
+            size++;
+        }
+        retry(evicted, "eviction");
+        return true;
+    }
+
+    /**
+     * Takes the held updates for the item, in the order they were received, for the caller to apply.
+     */
+    public synchronized List<PendingUpdate> take(final UUID itemId) {
+        final List<PendingUpdate> updates = pending.remove(itemId);
+        if(updates == null) {
+            return List.of();
+        }
+        size -= updates.size();
+        return updates;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Sends the updates whose item was not created within the TTL for retry.
+     */
+    void sweep() {
+        final long now = clock.millis();
+        final List<PendingUpdate> expired = new ArrayList<>();
+        synchronized(this) {
+            while(!pending.isEmpty() && pending.values().iterator().next().get(0).expiresAt() <= now) {
+                expired.addAll(removeEldest());
+            }
+        }
+        retry(expired, "expiry");
+    }
+
+    @Override
+    public void onPartitionsAssigned(final Collection<TopicPartition> partitions) {
+    }
+
+    /**
+     * The held updates from revoked partitions are sent for retry, so that they are not held by an instance that no
+     * longer consumes their partition.
+     */
+    @Override
+    public void onPartitionsRevoked(final Collection<TopicPartition> partitions) {
+        if(!properties.isEnabled() || partitions.isEmpty()) {
+            return;
+        }
+        final List<PendingUpdate> revoked;
+        synchronized(this) {
+            revoked = removeWhere(update -> partitions.contains(update.topicPartition()));
+        }
+        retry(revoked, "rebalance");
+    }
+
+    private List<PendingUpdate> removeEldest() {
+        final Iterator<List<PendingUpdate>> eldest = pending.values().iterator();
+        final List<PendingUpdate> updates = eldest.next();
+        eldest.remove();
+        size -= updates.size();
+        return updates;
+    }
+
+    private List<PendingUpdate> removeWhere(final Predicate<PendingUpdate> predicate) {
+        final List<PendingUpdate> removed = new ArrayList<>();
+        final Iterator<Map.Entry<UUID, List<PendingUpdate>>> entries = pending.entrySet().iterator();
+        while(entries.hasNext()) {
+            final List<PendingUpdate> updates = entries.next().getValue();
+            updates.removeIf(update -> predicate.test(update) && removed.add(update));
+            if(updates.isEmpty()) {
+                entries.remove();
+            }
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * Sends the updates for retry outside of the lock, so that holding and taking updates is not blocked on Kafka.  Also
+     * used for updates taken from the buffer that could not be applied.
+     *
+     * An update that cannot be sent is held again, to be retried on the next sweep after it expires, so that it is not
+     * lost while Kafka is unavailable.  On shutdown there is no next sweep, so it is logged in full instead.
+     */
+    void retry(final List<PendingUpdate> updates, final String reason) {
+        final List<PendingUpdate> failed = new ArrayList<>();
+        for(PendingUpdate update : updates) {
+            try {
+                retryService.retry(update.payload(), update.headers(), update.event().getId().toString());
+            } catch (Exception e) {
+                if(stopping) {
+                    log.error("Error sending held update for retry on " + reason + " - event: " + update.event() + ": " + e.getMessage());
+                } else {
+                    log.warn("Error sending held update for retry on {} - holding it again: {}", reason, e.getMessage());
+                    failed.add(update);
+                }
+            }
+        }
+        if(!failed.isEmpty()) {
+            holdAgain(failed);
+        }
+        if(updates.size() > failed.size()) {
+            log.debug("Sent {} held updates for retry on {}", updates.size() - failed.size(), reason);
+        }
+    }
+
+    /**
+     * Holds the updates that could not be sent for retry for another TTL, ahead of any updates held for their item
+     * since, so that they are still applied in the order received.  Their item is moved to the back of the buffer, as
+     * it now expires last.  They are held even if the buffer is full, as they have nowhere else to go.
+     */
+    private synchronized void holdAgain(final List<PendingUpdate> updates) {
+        final long expiresAt = clock.millis() + properties.getTtlMs();
+        final LinkedHashMap<UUID, List<PendingUpdate>> failed = new LinkedHashMap<>();
+        for(PendingUpdate update : updates) {
+            failed.computeIfAbsent(update.event().getId(), id -> new ArrayList<>())
+                    .add(new PendingUpdate(update.event(), update.payload(), update.headers(), expiresAt));
+        }
+        failed.forEach((itemId, held) -> {
+            final List<PendingUpdate> since = pending.remove(itemId);
+            if(since != null) {
+                held.addAll(since);
+            }
+            pending.put(itemId, held);
+        });
+        size += updates.size();
+    }
+
+    /**
+     * An update held for its item, with the payload and headers it was received with, to be sent for retry unchanged.
+     */
+    public record PendingUpdate(UpdateItem event, byte[] payload, MessageHeaders headers, long expiresAt) {
+
+        TopicPartition topicPartition() {
+            final Object topic = headers.get(KafkaHeaders.RECEIVED_TOPIC);
+            final Object partition = headers.get(KafkaHeaders.RECEIVED_PARTITION);
+            return topic != null && partition != null ? new TopicPartition(topic.toString(), (Integer)partition) : null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package demo.streams;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import demo.domain.Item;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.service.ItemStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+/**
+ * Adds the item to the item store with NEW status, applies any updates held for it in the early update store in the
+ * order they were written, and publishes the item.
+ *
+ * A create for an item already in the store, such as a redelivery, changes nothing.  The held updates are not deleted
+ * once applied, as the window store expires them with its retention, and they are never applied again as the item then
+ * exists.
+ *
+ * An update held for longer than the early update retention expires, and is logged and counted in the
+ * expired-early-update-total metric rather than dropped silently.  The updates whose item has still not been created
+ * are found by a sweep of the early update store on stream time, and those whose create has arrived too late by the
+ * create.  The store keeps the held updates for twice the retention, so that each is swept before it is deleted.  The
+ * progress of the sweep is not stored, so after a restart or a rebalance the expired updates still in the store may be
+ * reported again.
+ */
+@Slf4j
+class CreateItemProcessor implements Processor<String, CreateItem, String, Item> {
+
+    /**
+     * The most stream time the expired updates are left unswept for.
+     */
+    private static final long MAX_SWEEP_INTERVAL_MS = 60000;
+
+    private final long earlyUpdateRetentionMs;
+
+    private ProcessorContext<String, Item> context;
+
+    private KeyValueStore<String, Item> items;
+
+    private WindowStore<String, UpdateItem> earlyUpdates;
+
+    private Sensor expiredUpdates;
+
+    /**
+     * The held updates written before this time have been swept.
+     */
+    private long sweptTo;
+
+    CreateItemProcessor(final long earlyUpdateRetentionMs) {
+        this.earlyUpdateRetentionMs = earlyUpdateRetentionMs;
+    }
+
+    @Override
+    public void init(final ProcessorContext<String, Item> context) {
+        this.context = context;
+        this.items = context.getStateStore(ItemJoinTopology.ITEM_STORE);
+        this.earlyUpdates = context.getStateStore(ItemJoinTopology.EARLY_UPDATE_STORE);
+        this.expiredUpdates = context.metrics().addRateTotalSensor("item-join", context.taskId().toString(), "expired-early-update",
+                Sensor.RecordingLevel.INFO);
+        this.sweptTo = 0;
+        context.schedule(Duration.ofMillis(Math.max(1, Math.min(earlyUpdateRetentionMs / 2, MAX_SWEEP_INTERVAL_MS))),
+                PunctuationType.STREAM_TIME, this::sweep);
+    }
+
+    @Override
+    public void process(final Record<String, CreateItem> record) {
+        if(items.get(record.key()) != null) {
+            log.debug("Item streams - item already created with Id: {}", record.key());
+            return;
+        }
+        final Item item = Item.builder()
+                .id(record.value().getId())
+                .name(record.value().getName())
+                .status(ItemStatus.NEW)
+                .build();
+        // The held updates written before sweptTo have been swept, so are neither applied nor reported again here.
+        final long appliedFrom = Math.max(sweptTo, record.timestamp() - earlyUpdateRetentionMs);
+        int applied = 0;
+        try(WindowStoreIterator<UpdateItem> held = earlyUpdates.fetch(record.key(), Math.max(0, Math.min(sweptTo, appliedFrom)), Long.MAX_VALUE)) {
+            while(held.hasNext()) {
+                final KeyValue<Long, UpdateItem> update = held.next();
+                if(update.key >= appliedFrom) {
+                    item.setStatus(update.value.getStatus());
+                    applied++;
+                } else if(update.key >= sweptTo) {
+                    expired(record.key(), update.value, update.key);
+                }
+            }
+        }
+        items.put(record.key(), item);
+        if(applied > 0) {
+            log.debug("Item streams - applied {} held updates to item with Id: {}", applied, record.key());
+        }
+        context.forward(record.withValue(item));
+    }
+
+    /**
+     * Reports the updates held for longer than the retention since the last sweep whose item has not been created.
+     * Those whose item has been created were either applied, or reported by the create.
+     */
+    private void sweep(final long streamTime) {
+        final long sweepTo = streamTime - earlyUpdateRetentionMs;
+        if(sweepTo <= sweptTo) {
+            return;
+        }
+        try(KeyValueIterator<Windowed<String>, UpdateItem> held = earlyUpdates.fetchAll(Instant.ofEpochMilli(sweptTo), Instant.ofEpochMilli(sweepTo - 1))) {
+            while(held.hasNext()) {
+                final KeyValue<Windowed<String>, UpdateItem> update = held.next();
+                if(items.get(update.key.key()) == null) {
+                    expired(update.key.key(), update.value, update.key.window().start());
+                }
+            }
+        }
+        sweptTo = sweepTo;
+    }
+
+    private void expired(final String itemId, final UpdateItem update, final long timestamp) {
+        log.warn("Item streams - update to status {} for item with Id: {} written at {} expired before the item was created",
+                update.getStatus(), itemId, Instant.ofEpochMilli(timestamp));
+        expiredUpdates.record();
+    }
+}
@@ -0,0 +1,59 @@
+package demo.streams;
+
+import java.util.UUID;
+import java.util.function.Function;
+
+import demo.mapper.EventCodecs;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Decodes an event with the codec for its content type header, and keys it by its item Id so that the creates and
+ * updates for an item are repartitioned to the same task.
+ *
+ * An event that cannot be decoded, or has no item Id, is logged and skipped.
+ */
+@Slf4j
+class DecodeProcessor<T> implements Processor<String, byte[], String, T> {
+
+    private final EventCodecs eventCodecs;
+
+    private final Class<T> type;
+
+    private final Function<T, UUID> itemId;
+
+    private ProcessorContext<String, T> context;
+
+    DecodeProcessor(final EventCodecs eventCodecs, final Class<T> type, final Function<T, UUID> itemId) {
+        this.eventCodecs = eventCodecs;
+        this.type = type;
+        this.itemId = itemId;
+    }
+
+    @Override
+    public void init(final ProcessorContext<String, T> context) {
+        this.context = context;
+    }
+
+    @Override
+    public void process(final Record<String, byte[]> record) {
+        final T event;
+        try {
+            final Header contentType = record.headers().lastHeader(MessageHeaders.CONTENT_TYPE);
+            event = eventCodecs.forContentType(contentType != null ? contentType.value() : null).decode(record.value(), type);
+        } catch (Exception e) {
+            log.error("Item streams - error decoding {}: {}", type.getSimpleName(), e.getMessage());
+            return;
+        }
+        final UUID id = itemId.apply(event);
+        if(id == null) {
+            log.error("Item streams - {} has no item Id", type.getSimpleName());
+            return;
+        }
+        context.forward(record.withKey(id.toString()).withValue(event));
+    }
+}
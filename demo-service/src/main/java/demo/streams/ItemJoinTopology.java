@@ -0,0 +1,96 @@
+package demo.streams;
+
+import java.time.Duration;
+
+import demo.domain.Item;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.mapper.EventCodecs;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Named;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.kstream.Repartitioned;
+import org.apache.kafka.streams.state.KeyValueBytesStoreSupplier;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+
+/**
+ * Builds the Kafka Streams topology that joins the update-item events against the items created by the create-item
+ * events, as an alternative to retrying the updates that arrive before their create through the retry topics.
+ *
+ * The events are not keyed when they are produced, so each is decoded and re-keyed by its item Id, and repartitioned
+ * so that the creates and updates for an item are processed by the same task, against the same stores.
+ *
+ * The items are held in a RocksDB key value store, keyed by Id.  An update for an item in the store is applied
+ * straight away.  An update for an item not yet created is held in a RocksDB window store, at the time it was written,
+ * and applied when the create arrives.  Nothing is republished: an early update costs a write and a read of the local
+ * store, rather than a send to the retry topic, re-polls until its retry interval expires, and a republish.  For
+ * example, an update written 20ms before its create is applied 20ms later, rather than after the 10 second retry
+ * interval.
+ *
+ * An update is held for earlyUpdateRetention of stream time, after which it is no longer applied if its create arrives,
+ * as the retry topics dead letter it after the max retry duration.  Nothing is dead lettered here: the CreateItemProcessor
+ * logs each expired update, and counts it in the expired-early-update-total metric.
+ *
+ * Both stores are backed by changelog topics, so they are restored when their task moves to another instance.  The
+ * item is published to the output topic, keyed by its Id, whenever it is created or changed.
+ */
+public final class ItemJoinTopology {
+
+    public static final String ITEM_STORE = "items";
+
+    public static final String EARLY_UPDATE_STORE = "early-updates";
+
+    static final Serde<Item> ITEM_SERDE = JsonSerde.of(Item.class);
+
+    static final Serde<CreateItem> CREATE_ITEM_SERDE = JsonSerde.of(CreateItem.class);
+
+    static final Serde<UpdateItem> UPDATE_ITEM_SERDE = JsonSerde.of(UpdateItem.class);
+
+    private ItemJoinTopology() {
+    }
+
+    public static Topology build(final String createTopic,
+                                 final String updateTopic,
+                                 final String outputTopic,
+                                 final Duration earlyUpdateRetention,
+                                 final EventCodecs eventCodecs) {
+        return build(createTopic, updateTopic, outputTopic, earlyUpdateRetention, eventCodecs, Stores.persistentKeyValueStore(ITEM_STORE),
+                Stores.persistentWindowStore(EARLY_UPDATE_STORE, earlyUpdateRetention.multipliedBy(2), earlyUpdateRetention, true));
+    }
+
+    /**
+     * As build, but with the given stores rather than RocksDB, such as in-memory stores for a benchmark.  They must be
+     * named ITEM_STORE and EARLY_UPDATE_STORE, and the early update store must retain duplicates, for twice the
+     * earlyUpdateRetention so that the expired updates are reported before they are deleted.
+     */
+    public static Topology build(final String createTopic,
+                                 final String updateTopic,
+                                 final String outputTopic,
+                                 final Duration earlyUpdateRetention,
+                                 final EventCodecs eventCodecs,
+                                 final KeyValueBytesStoreSupplier itemStore,
+                                 final WindowBytesStoreSupplier earlyUpdateStore) {
+        final StreamsBuilder builder = new StreamsBuilder();
+        builder.addStateStore(Stores.keyValueStoreBuilder(itemStore, Serdes.String(), ITEM_SERDE));
+        builder.addStateStore(Stores.windowStoreBuilder(earlyUpdateStore, Serdes.String(), UPDATE_ITEM_SERDE));
+
+        final KStream<String, Item> created = builder.stream(createTopic, Consumed.with(Serdes.String(), Serdes.ByteArray()))
+                .process(() -> new DecodeProcessor<>(eventCodecs, CreateItem.class, CreateItem::getId), Named.as("decode-create-item"))
+                .repartition(Repartitioned.with(Serdes.String(), CREATE_ITEM_SERDE).withName("create-item-by-id"))
+                .process(() -> new CreateItemProcessor(earlyUpdateRetention.toMillis()), Named.as("create-item"), ITEM_STORE, EARLY_UPDATE_STORE);
+
+        final KStream<String, Item> updated = builder.stream(updateTopic, Consumed.with(Serdes.String(), Serdes.ByteArray()))
+                .process(() -> new DecodeProcessor<>(eventCodecs, UpdateItem.class, UpdateItem::getId), Named.as("decode-update-item"))
+                .repartition(Repartitioned.with(Serdes.String(), UPDATE_ITEM_SERDE).withName("update-item-by-id"))
+                .process(UpdateItemProcessor::new, Named.as("update-item"), ITEM_STORE, EARLY_UPDATE_STORE);
+
+        created.merge(updated).to(outputTopic, Produced.with(Serdes.String(), ITEM_SERDE));
+        return builder.build();
+    }
+}
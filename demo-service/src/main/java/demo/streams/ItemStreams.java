@@ -0,0 +1,134 @@
+package demo.streams;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Properties;
+
+import demo.ProjectionProperties;
+import demo.ReactiveProperties;
+import demo.StreamsProperties;
+import demo.mapper.EventCodecs;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.errors.StreamsUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the ItemJoinTopology, as an alternative to the CreateItemConsumer and UpdateItemConsumer listener containers,
+ * enabled with demo.streams.enabled.
+ *
+ * The items are held in the topology's state store rather than the database, and published to demo.streams.outputTopic.
+ * As the database is not written, the item status requests only find the items once demo.projection.enabled is set, so
+ * that they are answered from the projection of the topics, and a warning is logged at startup if it is not.
+ * The updates that arrive before their create are held in the topology's early update store, so none are sent for
+ * retry: the retry listener containers still run, but have nothing to consume.
+ *
+ * With retry transactions enabled the topology is processed exactly once, so that the stores, the output topic and the
+ * consumed offsets are committed together, and only committed events are consumed.  Otherwise it is processed at least
+ * once.
+ *
+ * The streams follow retry.messaging.autoStartup, so that when it is false they are started by the ListenerStartup
+ * once the application is ready, along with the retry containers.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "demo.streams.enabled", havingValue = "true")
+public class ItemStreams implements SmartLifecycle {
+
+    private final StreamsProperties properties;
+
+    private final EventCodecs eventCodecs;
+
+    private final String bootstrapServers;
+
+    private final boolean transactional;
+
+    private final boolean autoStartup;
+
+    private final String createTopic;
+
+    private final String updateTopic;
+
+    private KafkaStreams streams;
+
+    public ItemStreams(@Autowired StreamsProperties properties,
+                       @Autowired ReactiveProperties reactiveProperties,
+                       @Autowired ProjectionProperties projectionProperties,
+                       @Autowired EventCodecs eventCodecs,
+                       @Value("${kafka.bootstrap-servers}") String bootstrapServers,
+                       @Value("${retry.messaging.transactions.enabled:false}") boolean transactional,
+                       @Value("${retry.messaging.autoStartup:true}") boolean autoStartup,
+                       @Value("${demo.topics.itemCreateTopic:create-item}") String createTopic,
+                       @Value("${demo.topics.itemUpdateTopic:update-item}") String updateTopic) {
+        if(reactiveProperties.isEnabled()) {
+            throw new IllegalStateException("Only one of demo.streams.enabled and demo.reactive.enabled can be set");
+        }
+        if(!projectionProperties.isEnabled()) {
+            log.warn("Item streams do not write the database - the item status requests will not find the items unless demo.projection.enabled is set");
+        }
+        this.properties = properties;
+        this.eventCodecs = eventCodecs;
+        this.bootstrapServers = bootstrapServers;
+        this.transactional = transactional;
+        this.autoStartup = autoStartup;
+        this.createTopic = createTopic;
+        this.updateTopic = updateTopic;
+    }
+
+    @Override
+    public synchronized void start() {
+        if(streams != null) {
+            return;
+        }
+        streams = new KafkaStreams(ItemJoinTopology.build(createTopic, updateTopic, properties.getOutputTopic(),
+                Duration.ofMillis(properties.getEarlyUpdateRetentionMs()), eventCodecs), config());
+        streams.setUncaughtExceptionHandler(exception -> {
+            log.error("Item streams thread failed - replacing it: " + exception.getMessage(), exception);
+            return StreamsUncaughtExceptionHandler.StreamThreadExceptionResponse.REPLACE_THREAD;
+        });
+        streams.start();
+        log.info("Started item streams {} with {} threads", properties.getApplicationId(), properties.getThreads());
+    }
+
+    private Properties config() {
+        final Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, properties.getApplicationId());
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(StreamsConfig.STATE_DIR_CONFIG, properties.getStateDir() != null ? properties.getStateDir()
+                : Paths.get(System.getProperty("java.io.tmpdir"), "demo-streams").toString());
+        config.put(StreamsConfig.NUM_STREAM_THREADS_CONFIG, properties.getThreads());
+        config.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, properties.getCommitIntervalMs());
+        config.put(StreamsConfig.PROCESSING_GUARANTEE_CONFIG, transactional ? StreamsConfig.EXACTLY_ONCE_V2 : StreamsConfig.AT_LEAST_ONCE);
+        return config;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if(streams != null) {
+            streams.close(Duration.ofSeconds(10));
+            streams = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return streams != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return autoStartup;
+    }
+
+    /**
+     * The state of the streams, or null if they have not been started.
+     */
+    public synchronized KafkaStreams.State getState() {
+        return streams != null ? streams.state() : null;
+    }
+}
@@ -0,0 +1,22 @@
+package demo.streams;
+
+import demo.mapper.JsonMapper;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Serializes the items and events held in the state stores and the repartition topics as JSON.
+ */
+final class JsonSerde {
+
+    private JsonSerde() {
+    }
+
+    static <T> Serde<T> of(final Class<T> type) {
+        final Serializer<T> serializer = (topic, value) -> value == null ? null : JsonMapper.writeToJsonBytes(value);
+        final Deserializer<T> deserializer = (topic, bytes) -> bytes == null ? null : JsonMapper.readFromJson(bytes, type);
+        return Serdes.serdeFrom(serializer, deserializer);
+    }
+}
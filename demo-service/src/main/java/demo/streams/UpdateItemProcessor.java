@@ -0,0 +1,48 @@
+package demo.streams;
+
+import demo.domain.Item;
+import demo.event.UpdateItem;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.streams.processor.api.Processor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.WindowStore;
+
+/**
+ * Applies the update to its item in the item store and publishes the item, or if the item has not been created, holds
+ * the update in the early update store, at the time it was written, for the CreateItemProcessor to apply.
+ */
+@Slf4j
+class UpdateItemProcessor implements Processor<String, UpdateItem, String, Item> {
+
+    private ProcessorContext<String, Item> context;
+
+    private KeyValueStore<String, Item> items;
+
+    private WindowStore<String, UpdateItem> earlyUpdates;
+
+    @Override
+    public void init(final ProcessorContext<String, Item> context) {
+        this.context = context;
+        this.items = context.getStateStore(ItemJoinTopology.ITEM_STORE);
+        this.earlyUpdates = context.getStateStore(ItemJoinTopology.EARLY_UPDATE_STORE);
+    }
+
+    @Override
+    public void process(final Record<String, UpdateItem> record) {
+        if(record.value().getStatus() == null) {
+            log.error("Item streams - update has no status for item with Id: {}", record.key());
+            return;
+        }
+        final Item item = items.get(record.key());
+        if(item == null) {
+            earlyUpdates.put(record.key(), record.value(), record.timestamp());
+            log.debug("Item streams - update held with Id: {}", record.key());
+            return;
+        }
+        item.setStatus(record.value().getStatus());
+        items.put(record.key(), item);
+        context.forward(record.withValue(item));
+    }
+}
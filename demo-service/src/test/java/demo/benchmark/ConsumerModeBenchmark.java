@@ -0,0 +1,100 @@
+package demo.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Compares the time to process a poll of events spread over several partitions, each event blocking on simulated
+ * database IO, when processed one at a time as the UpdateItemConsumer listener container does, against grouping them
+ * by partition and processing the partitions concurrently on a bounded scheduler as the ReactiveItemConsumer does.
+ *
+ * The events of each partition are still processed in order in both modes.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ConsumerModeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsumerModeBenchmark {
+
+    private static final int EVENTS = 200;
+
+    @Param({"1", "4", "10"})
+    private int partitions;
+
+    @Param({"4"})
+    private int concurrency;
+
+    /**
+     * The time each event blocks on the simulated database call.
+     */
+    @Param({"50000"})
+    private long ioNanos;
+
+    private List<Event> events;
+
+    private Scheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        events = new ArrayList<>(EVENTS);
+        for(int i = 0; i < EVENTS; i++) {
+            events.add(new Event(i % partitions, i));
+        }
+        scheduler = Schedulers.newBoundedElastic(concurrency, Schedulers.DEFAULT_BOUNDED_ELASTIC_QUEUESIZE, "benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.dispose();
+    }
+
+    @Benchmark
+    public long blocking() {
+        long processed = 0;
+        for(Event event : events) {
+            processed += process(event);
+        }
+        return processed;
+    }
+
+    @Benchmark
+    public Long reactive() {
+        return Flux.fromIterable(events)
+                .groupBy(Event::partition)
+                .flatMap(partition -> partition.concatMap(event -> Mono.fromCallable(() -> process(event)).subscribeOn(scheduler)))
+                .reduce(0L, Long::sum)
+                .block();
+    }
+
+    private long process(final Event event) {
+        LockSupport.parkNanos(ioNanos);
+        return event.offset();
+    }
+
+    private record Event(int partition, long offset) {
+    }
+}
@@ -0,0 +1,63 @@
+package demo.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.event.UpdateItem;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.JsonEventCodec;
+import demo.service.ItemStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of encoding and decoding an update item event, which is decoded on every receipt from the
+ * update-item topic including each retry, with the JSON and binary codecs.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=EventCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventCodecBenchmark {
+
+    private final UpdateItem event = new UpdateItem(UUID.randomUUID(), ItemStatus.ACTIVE);
+
+    private final JsonEventCodec jsonCodec = new JsonEventCodec();
+
+    private final BinaryEventCodec binaryCodec = new BinaryEventCodec();
+
+    private final byte[] jsonPayload = jsonCodec.encode(event);
+
+    private final byte[] binaryPayload = binaryCodec.encode(event);
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return jsonCodec.encode(event);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return binaryCodec.encode(event);
+    }
+
+    @Benchmark
+    public UpdateItem jsonDecode() {
+        return jsonCodec.decode(jsonPayload, UpdateItem.class);
+    }
+
+    @Benchmark
+    public UpdateItem binaryDecode() {
+        return binaryCodec.decode(binaryPayload, UpdateItem.class);
+    }
+}
@@ -0,0 +1,227 @@
+package demo.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import demo.CircuitBreakerProperties;
+import demo.PendingUpdateProperties;
+import demo.consumer.ReactiveItemConsumer;
+import demo.domain.Item;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.DatabaseCircuitBreaker;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
+import demo.mapper.JsonMapper;
+import demo.repository.ItemRepository;
+import demo.service.ItemService;
+import demo.service.ItemStatus;
+import demo.service.PendingUpdateBuffer;
+import demo.streams.ItemJoinTopology;
+import demo.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.service.RetryService;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.Stores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.util.FileSystemUtils;
+
+import static java.util.UUID.randomUUID;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the time to process a poll of create and update events, some of the updates arriving before their create,
+ * when joined by the ItemService against the database with the early updates sent for retry, against joining them in
+ * the ItemJoinTopology's state stores.
+ *
+ * The early updates arrive first, then the creates as one batch, then the rest of the updates.  On the ItemService
+ * path each repository call and each retry send blocks on simulated IO, and the retried updates are processed again
+ * once their items are created, as they would be when republished from the retry topic, but without the retry delay.
+ * On the topology path the events are piped through a TopologyTestDriver, so the stores are the RocksDB stores the
+ * ItemStreams use, or in-memory stores, but the repartition and output topics are in memory.  Neither path includes
+ * consuming the events.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ItemJoinBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemJoinBenchmark {
+
+    private static final int ITEMS = 200;
+
+    /**
+     * The fraction of the updates that arrive before their create.
+     */
+    @Param({"0.0", "0.1", "0.5"})
+    private double earlyFraction;
+
+    /**
+     * The time each repository call and retry send blocks on the simulated IO.
+     */
+    @Param({"50000"})
+    private long ioNanos;
+
+    /**
+     * The topology's stores.  The TopologyTestDriver commits after every event, flushing the RocksDB stores to disk each
+     * time, where the ItemStreams flush them every commitIntervalMs, so the in-memory stores are the closer measure of
+     * the join itself.
+     */
+    @Param({"memory", "rocksdb"})
+    private String stores;
+
+    private Path stateDir;
+
+    private TopologyTestDriver driver;
+
+    private TestInputTopic<String, byte[]> createTopic;
+
+    private TestInputTopic<String, byte[]> updateTopic;
+
+    private ItemService itemService;
+
+    private final Map<UUID, Item> items = new ConcurrentHashMap<>();
+
+    private final List<UpdateItem> retried = new ArrayList<>();
+
+    private List<UpdateItem> earlyUpdates;
+
+    private List<CreateItem> creates;
+
+    private List<UpdateItem> updates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stateDir = Files.createTempDirectory("item-join-benchmark");
+        final Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "item-join-benchmark");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        final Duration retention = Duration.ofMinutes(5);
+        final EventCodecs eventCodecs = new EventCodecs(List.of(new JsonEventCodec()));
+        driver = new TopologyTestDriver(stores.equals("memory")
+                ? ItemJoinTopology.build("create-item", "update-item", "item-status", retention, eventCodecs,
+                        Stores.inMemoryKeyValueStore(ItemJoinTopology.ITEM_STORE),
+                        Stores.inMemoryWindowStore(ItemJoinTopology.EARLY_UPDATE_STORE, retention.multipliedBy(2), retention, true))
+                : ItemJoinTopology.build("create-item", "update-item", "item-status", retention, eventCodecs), config);
+        createTopic = driver.createInputTopic("create-item", new StringSerializer(), new ByteArraySerializer(), Instant.now(), Duration.ofMillis(1));
+        updateTopic = driver.createInputTopic("update-item", new StringSerializer(), new ByteArraySerializer(), Instant.now(), Duration.ofMillis(1));
+
+        final RetryService retryService = mock(RetryService.class);
+        doAnswer(invocation -> {
+            LockSupport.parkNanos(ioNanos);
+            retried.add(JsonMapper.readFromJson((byte[])invocation.getArgument(0), UpdateItem.class));
+            return null;
+        }).when(retryService).retry(any(byte[].class), any(MessageHeaders.class), anyString());
+        itemService = new ItemService(itemRepository(), retryService,
+                new PendingUpdateBuffer(retryService, new PendingUpdateProperties(), new RetryClock(Clock.systemUTC())),
+                new DatabaseCircuitBreaker(new CircuitBreakerProperties(), new KafkaListenerEndpointRegistry(),
+                        new StaticListableBeanFactory().getBeanProvider(ReactiveItemConsumer.class), new SimpleMeterRegistry(),
+                        "create-item", "update-item"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        driver.close();
+        FileSystemUtils.deleteRecursively(stateDir.toFile());
+    }
+
+    /**
+     * New items for each invocation, so that every create inserts and no update finds an item left by an earlier one.
+     */
+    @Setup(Level.Invocation)
+    public void events() {
+        earlyUpdates = new ArrayList<>();
+        creates = new ArrayList<>();
+        updates = new ArrayList<>();
+        for(int i = 0; i < ITEMS; i++) {
+            final UUID itemId = randomUUID();
+            creates.add(TestEventData.buildCreateItemEvent(itemId, "item-" + i));
+            (i < ITEMS * earlyFraction ? earlyUpdates : updates).add(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE));
+        }
+        items.clear();
+        retried.clear();
+    }
+
+    @Benchmark
+    public int itemService() {
+        final MessageHeaders headers = new MessageHeaders(null);
+        earlyUpdates.forEach(update -> itemService.updateItem(update, JsonMapper.writeToJsonBytes(update), headers));
+        itemService.createItems(creates);
+        updates.forEach(update -> itemService.updateItem(update, JsonMapper.writeToJsonBytes(update), headers));
+        final List<UpdateItem> republished = new ArrayList<>(retried);
+        republished.forEach(update -> itemService.updateItem(update, JsonMapper.writeToJsonBytes(update), headers));
+        return items.size();
+    }
+
+    @Benchmark
+    public long topology() {
+        earlyUpdates.forEach(update -> updateTopic.pipeInput(null, JsonMapper.writeToJsonBytes(update)));
+        creates.forEach(create -> createTopic.pipeInput(null, JsonMapper.writeToJsonBytes(create)));
+        updates.forEach(update -> updateTopic.pipeInput(null, JsonMapper.writeToJsonBytes(update)));
+        return driver.producedTopicNames().size();
+    }
+
+    /**
+     * An item repository held in a map, each call blocking on the simulated IO.
+     */
+    private ItemRepository itemRepository() {
+        return (ItemRepository)Proxy.newProxyInstance(ItemRepository.class.getClassLoader(), new Class<?>[] { ItemRepository.class },
+                (proxy, method, args) -> {
+                    LockSupport.parkNanos(ioNanos);
+                    return switch(method.getName()) {
+                        case "insertIfAbsent" -> {
+                            ((List<Item>)args[0]).forEach(item -> items.putIfAbsent(item.getId(), item));
+                            yield null;
+                        }
+                        case "findById" -> Optional.ofNullable(items.get((UUID)args[0]));
+                        case "existsById" -> items.containsKey((UUID)args[0]);
+                        case "save" -> {
+                            final Item item = (Item)args[0];
+                            items.put(item.getId(), item);
+                            yield item;
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    };
+                });
+    }
+}
@@ -0,0 +1,49 @@
+package demo.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import demo.event.CreateItem;
+import demo.mapper.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the original JSON parse of a received payload, decoding the bytes to a String and reading it with the
+ * ObjectMapper, against reading the bytes directly with the cached ObjectReader.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=JsonMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonMapperBenchmark {
+
+    private final ObjectMapper legacyMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final byte[] payload = JsonMapper.writeToJsonBytes(new CreateItem(UUID.randomUUID(), "my-new-item"));
+
+    @Benchmark
+    public CreateItem legacyReadString() throws Exception {
+        return legacyMapper.readValue(new String(payload, StandardCharsets.UTF_8), CreateItem.class);
+    }
+
+    @Benchmark
+    public CreateItem cachedReadBytes() {
+        return JsonMapper.readFromJson(payload, CreateItem.class);
+    }
+}
@@ -1,14 +1,31 @@
 package demo.consumer;
 
+import java.util.List;
+import java.util.Map;
+
+import demo.PersistenceProperties;
 import demo.event.CreateItem;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
 import demo.mapper.JsonMapper;
 import demo.service.ItemService;
 import demo.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.RecordLogSampler;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
 
 import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -18,24 +35,39 @@ public class CreateItemConsumerTest {
 
     private ItemService serviceMock;
     private CreateItemConsumer consumer;
+    private MessageHeaders headers = new MessageHeaders(Map.of(KafkaHeaders.RECEIVED_TOPIC, "create-item"));
 
     @BeforeEach
     public void setUp() {
         serviceMock = mock(ItemService.class);
-        consumer = new CreateItemConsumer(serviceMock);
+        consumer = new CreateItemConsumer(serviceMock, new RecordLogSampler(new MessagingRetryProperties()),
+                new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec())),
+                new ProcessingMetrics(new SimpleMeterRegistry(), new PersistenceProperties()));
     }
 
     /**
-     * Ensure that the JSON message is successfully passed on to the service, having been correctly unmarshalled into its PoJO form.
+     * Ensure that the JSON messages are successfully passed on to the service as a batch, having been correctly unmarshalled into their PoJO form.
      */
     @Test
     public void testListen_Success() {
+        CreateItem testEvent1 = TestEventData.buildCreateItemEvent(randomUUID(), RandomStringUtils.randomAlphabetic(8));
+        CreateItem testEvent2 = TestEventData.buildCreateItemEvent(randomUUID(), RandomStringUtils.randomAlphabetic(8));
+
+        consumer.listen(List.of(message(JsonMapper.writeToJsonBytes(testEvent1)), message(JsonMapper.writeToJsonBytes(testEvent2))));
+
+        verify(serviceMock, times(1)).createItems(List.of(testEvent1, testEvent2));
+    }
+
+    /**
+     * A message that cannot be decoded is skipped, and the rest of the batch is processed.
+     */
+    @Test
+    public void testListen_UndecodableMessageSkipped() {
         CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), RandomStringUtils.randomAlphabetic(8));
-        String payload = JsonMapper.writeToJson(testEvent);
 
-        consumer.listen(payload);
+        consumer.listen(List.of(message("{not-json".getBytes()), message(JsonMapper.writeToJsonBytes(testEvent))));
 
-        verify(serviceMock, times(1)).createItem(testEvent);
+        verify(serviceMock, times(1)).createItems(List.of(testEvent));
     }
 
     /**
@@ -46,12 +78,27 @@ public class CreateItemConsumerTest {
     @Test
     public void testListen_ServiceThrowsException() {
         CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), RandomStringUtils.randomAlphabetic(8));
-        String payload = JsonMapper.writeToJson(testEvent);
 
-        doThrow(new RuntimeException("Service failure")).when(serviceMock).createItem(testEvent);
+        doThrow(new RuntimeException("Service failure")).when(serviceMock).createItems(List.of(testEvent));
+
+        consumer.listen(List.of(message(JsonMapper.writeToJsonBytes(testEvent))));
+
+        verify(serviceMock, times(1)).createItems(List.of(testEvent));
+    }
+
+    /**
+     * If the database is unavailable the exception is thrown to the container, so that the batch is redelivered.
+     */
+    @Test
+    public void testListen_DatabaseUnavailable() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), RandomStringUtils.randomAlphabetic(8));
+
+        doThrow(new DatabaseUnavailableException("Circuit breaker is open")).when(serviceMock).createItems(List.of(testEvent));
 
-        consumer.listen(payload);
+        assertThrows(DatabaseUnavailableException.class, () -> consumer.listen(List.of(message(JsonMapper.writeToJsonBytes(testEvent)))));
+    }
 
-        verify(serviceMock, times(1)).createItem(testEvent);
+    private Message<byte[]> message(final byte[] payload) {
+        return MessageBuilder.createMessage(payload, headers);
     }
 }
@@ -0,0 +1,113 @@
+package demo.consumer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
+import demo.mapper.JsonMapper;
+import demo.service.ItemStatus;
+import demo.service.ItemStatusProjection;
+import demo.util.TestEventData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.messaging.MessageHeaders;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.UUID.randomUUID;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ItemStatusProjectionConsumerTest {
+
+    private static final TopicPartition CREATE_0 = new TopicPartition("create-item", 0);
+    private static final TopicPartition UPDATE_0 = new TopicPartition("update-item", 0);
+
+    private ItemStatusProjection projectionMock;
+    private Consumer<?, ?> kafkaConsumerMock;
+    private ItemStatusProjectionConsumer consumer;
+
+    @BeforeEach
+    public void setUp() {
+        projectionMock = mock(ItemStatusProjection.class);
+        kafkaConsumerMock = mock(Consumer.class);
+        consumer = new ItemStatusProjectionConsumer(projectionMock, new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec())), "update-item");
+    }
+
+    /**
+     * The events are applied by topic, decoded with the codec for their content type, and the lag after each is
+     * recorded.
+     */
+    @Test
+    public void testListen() {
+        UUID itemId = randomUUID();
+        CreateItem create = TestEventData.buildCreateItemEvent(itemId, "my-item");
+        UpdateItem update = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        ConsumerRecord<String, byte[]> updateRecord = new ConsumerRecord<>("update-item", 0, 7, null, new BinaryEventCodec().encode(update));
+        updateRecord.headers().add(new RecordHeader(MessageHeaders.CONTENT_TYPE, BinaryEventCodec.CONTENT_TYPE.getBytes(UTF_8)));
+        when(kafkaConsumerMock.currentLag(CREATE_0)).thenReturn(OptionalLong.empty());
+        when(kafkaConsumerMock.currentLag(UPDATE_0)).thenReturn(OptionalLong.of(2));
+
+        consumer.listen(new ConsumerRecord<>("create-item", 0, 3, null, JsonMapper.writeToJsonBytes(create)), kafkaConsumerMock);
+        consumer.listen(updateRecord, kafkaConsumerMock);
+
+        verify(projectionMock).apply(create);
+        verify(projectionMock).applied(CREATE_0, ConsumerRecord.NO_TIMESTAMP, Optional.empty());
+        verify(projectionMock).apply(update);
+        verify(projectionMock).applied(UPDATE_0, ConsumerRecord.NO_TIMESTAMP, Optional.of(2L));
+    }
+
+    /**
+     * An event that cannot be decoded is skipped, but still counts towards catching up.
+     */
+    @Test
+    public void testListen_Undecodable() {
+        when(kafkaConsumerMock.currentLag(UPDATE_0)).thenReturn(OptionalLong.of(0));
+
+        consumer.listen(new ConsumerRecord<>("update-item", 0, 0, null, "not json".getBytes(UTF_8)), kafkaConsumerMock);
+
+        verify(projectionMock, never()).apply(any(UpdateItem.class));
+        verify(projectionMock).applied(UPDATE_0, ConsumerRecord.NO_TIMESTAMP, Optional.of(0L));
+    }
+
+    /**
+     * Only the partitions not assigned before are replayed from the beginning.
+     */
+    @Test
+    public void testOnPartitionsAssigned() {
+        ConsumerSeekAware.ConsumerSeekCallback callbackMock = mock(ConsumerSeekAware.ConsumerSeekCallback.class);
+        when(projectionMock.assigned(any())).thenReturn(List.of(UPDATE_0));
+
+        consumer.onPartitionsAssigned(Map.of(CREATE_0, 5L, UPDATE_0, 0L), callbackMock);
+
+        verify(callbackMock).seekToBeginning(List.of(UPDATE_0));
+    }
+
+    @Test
+    public void testOnIdle() {
+        when(kafkaConsumerMock.endOffsets(List.of(CREATE_0, UPDATE_0))).thenReturn(Map.of(CREATE_0, 10L, UPDATE_0, 4L));
+        when(kafkaConsumerMock.position(CREATE_0)).thenReturn(10L);
+        when(kafkaConsumerMock.position(UPDATE_0)).thenReturn(1L);
+
+        consumer.onIdle(new ListenerContainerIdleEvent(this, this, 1000, ItemStatusProjectionConsumer.LISTENER_ID + "-0",
+                List.of(CREATE_0, UPDATE_0), kafkaConsumerMock, false));
+
+        verify(projectionMock).behind(CREATE_0, 0);
+        verify(projectionMock).behind(UPDATE_0, 3);
+    }
+}
@@ -0,0 +1,224 @@
+package demo.consumer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.PersistenceProperties;
+import demo.ReactiveProperties;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
+import demo.mapper.JsonMapper;
+import demo.service.ItemService;
+import demo.service.ItemStatus;
+import demo.service.PendingUpdateBuffer;
+import demo.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.RecordLogSampler;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.MessageHeaders;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.kafka.receiver.ReceiverOffset;
+import reactor.kafka.receiver.ReceiverRecord;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReactiveItemConsumerTest {
+
+    private ItemService serviceMock;
+    private ReceiverOffset offsetMock;
+    private ReactiveItemConsumer consumer;
+
+    @BeforeEach
+    public void setUp() {
+        serviceMock = mock(ItemService.class);
+        offsetMock = mock(ReceiverOffset.class);
+        consumer = new ReactiveItemConsumer(mock(ConsumerFactory.class), serviceMock,
+                new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec())),
+                new ProcessingMetrics(new SimpleMeterRegistry(), new PersistenceProperties()),
+                new RecordLogSampler(new MessagingRetryProperties()), mock(PendingUpdateBuffer.class),
+                reactiveProperties(), false, "create-item", "update-item");
+    }
+
+    @Test
+    public void testProcess_CreateItem() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+
+        consumer.process(record("create-item", JsonMapper.writeToJsonBytes(testEvent))).block();
+
+        verify(serviceMock, times(1)).createItems(List.of(testEvent));
+        verify(offsetMock, times(1)).acknowledge();
+    }
+
+    /**
+     * The update is passed on with the received topic, partition and offset headers that the retry handling reads, and
+     * the record is only acknowledged once the update has completed.
+     */
+    @Test
+    public void testProcess_UpdateItem() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        CompletableFuture<Void> retried = new CompletableFuture<>();
+        when(serviceMock.updateItemAsync(eq(testEvent), eq(payload), any())).thenReturn(retried);
+
+        var processed = consumer.process(record("update-item", payload)).toFuture();
+
+        assertThat(processed.isDone(), equalTo(false));
+        verify(offsetMock, never()).acknowledge();
+        retried.complete(null);
+        assertThat(processed.isDone(), equalTo(true));
+        verify(offsetMock, times(1)).acknowledge();
+        verify(serviceMock, times(1)).updateItemAsync(eq(testEvent), eq(payload), argThat((MessageHeaders headers) ->
+                headers.get(KafkaHeaders.RECEIVED_TOPIC).equals("update-item")
+                && headers.get(KafkaHeaders.RECEIVED_PARTITION).equals(1)
+                && headers.get(KafkaHeaders.OFFSET).equals(5L)));
+    }
+
+    /**
+     * If the processing fails the error is logged and the record acknowledged, so that it does not block its partition.
+     */
+    @Test
+    public void testProcess_ServiceThrowsException() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+        doThrow(new RuntimeException("Service failure")).when(serviceMock).createItems(List.of(testEvent));
+
+        consumer.process(record("create-item", JsonMapper.writeToJsonBytes(testEvent))).block();
+
+        verify(offsetMock, times(1)).acknowledge();
+    }
+
+    @Test
+    public void testProcess_RetryFails() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        when(serviceMock.updateItemAsync(eq(testEvent), eq(payload), any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Send failure")));
+
+        consumer.process(record("update-item", payload)).block();
+
+        verify(offsetMock, times(1)).acknowledge();
+    }
+
+    /**
+     * If the database is unavailable the event is processed again, rather than being acknowledged and lost.
+     */
+    @Test
+    public void testProcess_DatabaseUnavailable() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+        doThrow(new DatabaseUnavailableException("Circuit open")).doNothing().when(serviceMock).createItems(List.of(testEvent));
+
+        consumer.process(record("create-item", JsonMapper.writeToJsonBytes(testEvent))).block(Duration.ofSeconds(5));
+
+        verify(serviceMock, times(2)).createItems(List.of(testEvent));
+        verify(offsetMock, times(1)).acknowledge();
+    }
+
+    /**
+     * An event whose processing is cancelled, such as when the consumer is stopped, is not acknowledged.
+     */
+    @Test
+    public void testProcess_Cancelled() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        when(serviceMock.updateItemAsync(eq(testEvent), eq(payload), any())).thenReturn(new CompletableFuture<>());
+
+        consumer.process(record("update-item", payload)).subscribe().dispose();
+
+        verify(offsetMock, never()).acknowledge();
+    }
+
+    /**
+     * The topics are configurable, so an event is decoded as a create by the configured create topic.
+     */
+    @Test
+    public void testProcess_ConfiguredTopics() {
+        consumer = new ReactiveItemConsumer(mock(ConsumerFactory.class), serviceMock,
+                new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec())),
+                new ProcessingMetrics(new SimpleMeterRegistry(), new PersistenceProperties()),
+                new RecordLogSampler(new MessagingRetryProperties()), mock(PendingUpdateBuffer.class),
+                reactiveProperties(), false, "my-create-topic", "my-update-topic");
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+
+        consumer.process(record("my-create-topic", JsonMapper.writeToJsonBytes(testEvent))).block();
+
+        verify(serviceMock, times(1)).createItems(List.of(testEvent));
+    }
+
+    /**
+     * While the consumer is paused no event is processed, and the event waiting is processed once it is resumed.
+     */
+    @Test
+    public void testProcess_Paused() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+        consumer.pause();
+
+        var processed = consumer.process(record("create-item", JsonMapper.writeToJsonBytes(testEvent))).toFuture();
+
+        assertThat(consumer.isPaused(), equalTo(true));
+        verify(serviceMock, never()).createItems(any());
+        consumer.resume();
+        assertThat(processed.isDone(), equalTo(true));
+        verify(serviceMock, times(1)).createItems(List.of(testEvent));
+        verify(offsetMock, times(1)).acknowledge();
+    }
+
+    /**
+     * If the receiver fails it is received from again after the backoff, so that consumption resumes rather than
+     * stopping for good.
+     */
+    @Test
+    public void testConsume_ReceiverError() {
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+        ReceiverRecord<String, byte[]> record = record("create-item", JsonMapper.writeToJsonBytes(testEvent));
+        when(offsetMock.topicPartition()).thenReturn(new TopicPartition("create-item", 1));
+        AtomicInteger receives = new AtomicInteger();
+
+        Disposable subscription = consumer.consume(() -> receives.incrementAndGet() < 3
+                ? Flux.error(new KafkaException("Commit failed"))
+                : Flux.just(record).concatWith(Flux.never())).subscribe();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> verify(serviceMock, times(1)).createItems(List.of(testEvent)));
+        verify(offsetMock, times(1)).acknowledge();
+        assertThat(receives.get(), equalTo(3));
+        assertThat(subscription.isDisposed(), equalTo(false));
+        subscription.dispose();
+    }
+
+    private static ReactiveProperties reactiveProperties() {
+        ReactiveProperties properties = new ReactiveProperties();
+        properties.setDatabaseRetryBackoffMs(10);
+        properties.setReceiverRetryBackoffMs(10);
+        return properties;
+    }
+
+    private ReceiverRecord<String, byte[]> record(final String topic, final byte[] payload) {
+        return new ReceiverRecord<>(new ConsumerRecord<>(topic, 1, 5L, null, payload), offsetMock);
+    }
+}
@@ -1,17 +1,29 @@
 package demo.consumer;
 
+import java.util.List;
 import java.util.Map;
 
+import demo.PersistenceProperties;
 import demo.event.UpdateItem;
+import demo.lib.DatabaseUnavailableException;
+import demo.lib.ProcessingMetrics;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
 import demo.mapper.JsonMapper;
 import demo.service.ItemService;
 import demo.service.ItemStatus;
 import demo.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.RecordLogSampler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.MessageHeaders;
 
 import static java.util.UUID.randomUUID;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -26,7 +38,9 @@ public class UpdateItemConsumerTest {
     @BeforeEach
     public void setUp() {
         serviceMock = mock(ItemService.class);
-        consumer = new UpdateItemConsumer(serviceMock);
+        consumer = new UpdateItemConsumer(serviceMock, new RecordLogSampler(new MessagingRetryProperties()),
+                new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec())),
+                new ProcessingMetrics(new SimpleMeterRegistry(), new PersistenceProperties()));
     }
 
     /**
@@ -35,11 +49,25 @@ public class UpdateItemConsumerTest {
     @Test
     public void testListen_Success() {
         UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
-        String payload = JsonMapper.writeToJson(testEvent);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
 
         consumer.listen(payload, headers);
 
-        verify(serviceMock, times(1)).updateItem(testEvent, headers);
+        verify(serviceMock, times(1)).updateItem(testEvent, payload, headers);
+    }
+
+    /**
+     * Ensure that a binary encoded message is decoded with the codec for its content type.
+     */
+    @Test
+    public void testListen_BinaryContentType() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = new BinaryEventCodec().encode(testEvent);
+        MessageHeaders binaryHeaders = new MessageHeaders(Map.of(MessageHeaders.CONTENT_TYPE, BinaryEventCodec.CONTENT_TYPE));
+
+        consumer.listen(payload, binaryHeaders);
+
+        verify(serviceMock, times(1)).updateItem(testEvent, payload, binaryHeaders);
     }
 
     /**
@@ -50,12 +78,27 @@ public class UpdateItemConsumerTest {
     @Test
     public void testListen_ServiceThrowsException() {
         UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
-        String payload = JsonMapper.writeToJson(testEvent);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
 
-        doThrow(new RuntimeException("Service failure")).when(serviceMock).updateItem(testEvent, headers);
+        doThrow(new RuntimeException("Service failure")).when(serviceMock).updateItem(testEvent, payload, headers);
 
         consumer.listen(payload, headers);
 
-        verify(serviceMock, times(1)).updateItem(testEvent, headers);
+        verify(serviceMock, times(1)).updateItem(testEvent, payload, headers);
+    }
+
+    /**
+     * If the database is unavailable the exception is thrown to the container, so that the message is redelivered.
+     */
+    @Test
+    public void testListen_DatabaseUnavailable() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+
+        MessageHeaders topicHeaders = new MessageHeaders(Map.of(KafkaHeaders.RECEIVED_TOPIC, "update-item"));
+
+        doThrow(new DatabaseUnavailableException("Circuit breaker is open")).when(serviceMock).updateItem(testEvent, payload, topicHeaders);
+
+        assertThrows(DatabaseUnavailableException.class, () -> consumer.listen(payload, topicHeaders));
     }
 }
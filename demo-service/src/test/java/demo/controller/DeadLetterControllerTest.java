@@ -0,0 +1,49 @@
+package demo.controller;
+
+import messaging.retry.service.DeadLetterReplayService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeadLetterControllerTest {
+
+    private DeadLetterReplayService replayServiceMock;
+    private DeadLetterController controller;
+
+    @BeforeEach
+    public void setUp() {
+        replayServiceMock = mock(DeadLetterReplayService.class);
+        controller = new DeadLetterController(replayServiceMock);
+    }
+
+    @Test
+    public void testReplay_Success() throws Exception {
+        when(replayServiceMock.replay(0, 5L, 10L, 20.0)).thenReturn(5L);
+
+        ResponseEntity response = controller.replay(0, 5L, 10L, 20.0);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(), equalTo(5L));
+    }
+
+    @Test
+    public void testReplay_InvalidRange() throws Exception {
+        when(replayServiceMock.replay(0, 10L, 5L, 20.0)).thenThrow(new IllegalArgumentException("Invalid replay range"));
+
+        ResponseEntity response = controller.replay(0, 10L, 5L, 20.0);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    public void testReplay_ServiceThrowsException() throws Exception {
+        when(replayServiceMock.replay(0, 5L, 10L, 20.0)).thenThrow(new RuntimeException("failed"));
+
+        ResponseEntity response = controller.replay(0, 5L, 10L, 20.0);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+}
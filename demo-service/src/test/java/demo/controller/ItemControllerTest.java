@@ -5,6 +5,8 @@ import java.util.UUID;
 
 import demo.domain.Item;
 import demo.repository.ItemRepository;
+import demo.service.ItemStatus;
+import demo.service.ItemStatusProjection;
 import demo.util.TestEntityData;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,17 +17,20 @@ import static java.util.UUID.randomUUID;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class ItemControllerTest {
 
     private ItemRepository itemRepositoryMock;
+    private ItemStatusProjection projectionMock;
     private ItemController controller;
 
     @BeforeEach
     public void setUp() {
         itemRepositoryMock = mock(ItemRepository.class);
-        controller = new ItemController(itemRepositoryMock);
+        projectionMock = mock(ItemStatusProjection.class);
+        controller = new ItemController(itemRepositoryMock, projectionMock);
     }
 
     /**
@@ -59,4 +64,35 @@ public class ItemControllerTest {
         ResponseEntity response = controller.getItemStatus(itemId);
         assertThat(response.getStatusCode(), equalTo(HttpStatus.INTERNAL_SERVER_ERROR));
     }
+
+    /**
+     * Once the projection is ready the status is answered from it, with how stale it is, and the database is not read.
+     */
+    @Test
+    public void testGetItem_FromProjection() {
+        UUID itemId = randomUUID();
+        when(projectionMock.isReady()).thenReturn(true);
+        when(projectionMock.find(itemId)).thenReturn(Optional.of(ItemStatus.ACTIVE));
+        when(projectionMock.staleness()).thenReturn(new ItemStatusProjection.Staleness(3, 250));
+
+        ResponseEntity response = controller.getItemStatus(itemId);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(response.getBody(), equalTo("ACTIVE"));
+        assertThat(response.getHeaders().getFirst(ItemController.PROJECTION_LAG_HEADER), equalTo("3"));
+        assertThat(response.getHeaders().getFirst(ItemController.PROJECTION_STALENESS_HEADER), equalTo("250"));
+        verifyNoInteractions(itemRepositoryMock);
+    }
+
+    @Test
+    public void testGetItem_NotFoundInProjection() {
+        UUID itemId = randomUUID();
+        when(projectionMock.isReady()).thenReturn(true);
+        when(projectionMock.find(itemId)).thenReturn(Optional.empty());
+        when(projectionMock.staleness()).thenReturn(new ItemStatusProjection.Staleness(0, 0));
+
+        ResponseEntity response = controller.getItemStatus(itemId);
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+        assertThat(response.getHeaders().getFirst(ItemController.PROJECTION_LAG_HEADER), equalTo("0"));
+        verifyNoInteractions(itemRepositoryMock);
+    }
 }
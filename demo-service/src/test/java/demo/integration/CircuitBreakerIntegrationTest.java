@@ -0,0 +1,110 @@
+package demo.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.DemoConfiguration;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.DatabaseCircuitBreaker;
+import demo.lib.KafkaClient;
+import demo.mapper.JsonMapper;
+import demo.repository.ItemRepository;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import messaging.retry.service.ParkedRetryIndex;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * Runs an update while the database cannot be reached, with the circuit breaker opening after two failed calls.
+ */
+@SpringBootTest(classes = { DemoConfiguration.class }, properties = { "demo.circuit-breaker.enabled=true",
+        "demo.circuit-breaker.minimumCalls=2", "demo.circuit-breaker.openMs=2000", "demo.circuit-breaker.halfOpenCalls=1" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class CircuitBreakerIntegrationTest {
+
+    final static String CREATE_ITEM_TOPIC = "create-item";
+    final static String UPDATE_ITEM_TOPIC = "update-item";
+
+    @Autowired
+    private KafkaClient kafkaClient;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @SpyBean
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private ParkedRetryIndex parkedRetryIndex;
+
+    @BeforeEach
+    public void setUp() {
+        registry.getListenerContainers().stream().forEach(container ->
+                ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic()));
+    }
+
+    /**
+     * The update fails while the database cannot be reached, opening the circuit and pausing the update-item container
+     * rather than sending the update to retry.  Once the database is back the half open probe succeeds and the update
+     * is redelivered and applied.
+     */
+    @Test
+    public void testUpdateWhileDatabaseUnavailable() throws Exception {
+        UUID itemId = randomUUID();
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.existsById(itemId));
+
+        doThrow(new CannotGetJdbcConnectionException("Connection refused")).when(itemRepository).findById(itemId);
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> circuitBreaker.getState() == DatabaseCircuitBreaker.State.OPEN && updateContainer().isPauseRequested());
+        assertThat(parkedRetryIndex.isParked(itemId.toString()), equalTo(false));
+
+        Mockito.reset(itemRepository);
+
+        Awaitility.await().atMost(15, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+        assertThat(updateContainer().isPauseRequested(), equalTo(false));
+    }
+
+    private MessageListenerContainer updateContainer() {
+        return registry.getListenerContainers().stream()
+                .filter(container -> container.getContainerProperties().getTopics()[0].equals(UPDATE_ITEM_TOPIC))
+                .findFirst().orElseThrow();
+    }
+}
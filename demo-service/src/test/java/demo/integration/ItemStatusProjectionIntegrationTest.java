@@ -0,0 +1,135 @@
+package demo.integration;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.DemoConfiguration;
+import demo.consumer.ItemStatusProjectionConsumer;
+import demo.controller.ItemController;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.KafkaClient;
+import demo.mapper.JsonMapper;
+import demo.repository.ItemRepository;
+import demo.service.ItemStatus;
+import demo.service.ItemStatusProjection;
+import demo.util.TestEventData;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Answers the item status requests from the item status projection, built from the create-item and update-item topics.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = { DemoConfiguration.class },
+        properties = { "demo.projection.enabled=true", "demo.projection.idleIntervalMs=200" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "update-item-retry-high", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class ItemStatusProjectionIntegrationTest {
+
+    final static String CREATE_ITEM_TOPIC = "create-item";
+    final static String UPDATE_ITEM_TOPIC = "update-item";
+
+    @Autowired
+    private KafkaClient kafkaClient;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @Autowired
+    private ItemStatusProjection projection;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        // The projection's container is assigned the partitions of both item topics.
+        registry.getListenerContainers().stream().forEach(container ->
+                ContainerTestUtils.waitForAssignment(container, ItemStatusProjectionConsumer.LISTENER_ID.equals(container.getListenerId())
+                        ? 2 * embeddedKafkaBroker.getPartitionsPerTopic() : embeddedKafkaBroker.getPartitionsPerTopic()));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(projection::isReady);
+    }
+
+    /**
+     * The item is found in the projection once its create is consumed, and takes the status of each update, with the
+     * projection reporting that it has caught up with the topics.
+     */
+    @Test
+    public void testCreateAndUpdateItem() {
+        UUID itemId = randomUUID();
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        awaitStatus(itemId, "NEW");
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        awaitStatus(itemId, "ACTIVE");
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> "0".equals(getStatus(itemId).getHeaders().getFirst(ItemController.PROJECTION_LAG_HEADER)));
+        ResponseEntity<String> response = getStatus(itemId);
+        assertThat(response.getHeaders().getFirst(ItemController.PROJECTION_STALENESS_HEADER), equalTo("0"));
+        // The database has caught up too.
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map(item -> item.getStatus() == ItemStatus.ACTIVE).orElse(false));
+    }
+
+    /**
+     * An update consumed before its create is not found until the create is consumed, and the item then has the
+     * update's status, as it does in the database.
+     */
+    @Test
+    public void testUpdateBeforeCreate() {
+        UUID itemId = randomUUID();
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> "0".equals(getStatus(itemId).getHeaders().getFirst(ItemController.PROJECTION_LAG_HEADER)));
+        assertThat(getStatus(itemId).getStatusCode(), equalTo(HttpStatus.NOT_FOUND));
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+
+        awaitStatus(itemId, "ACTIVE");
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map(item -> item.getStatus() == ItemStatus.ACTIVE).orElse(false));
+    }
+
+    private void awaitStatus(final UUID itemId, final String status) {
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> {
+                ResponseEntity<String> response = getStatus(itemId);
+                return response.getStatusCode() == HttpStatus.OK && status.equals(response.getBody());
+            });
+    }
+
+    private ResponseEntity<String> getStatus(final UUID itemId) {
+        return restTemplate.getForEntity("/v1/demo/items/" + itemId + "/status", String.class);
+    }
+}
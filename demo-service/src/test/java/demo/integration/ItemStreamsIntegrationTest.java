@@ -0,0 +1,122 @@
+package demo.integration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.DemoConfiguration;
+import demo.domain.Item;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.KafkaClient;
+import demo.mapper.JsonMapper;
+import demo.repository.ItemRepository;
+import demo.service.ItemStatus;
+import demo.streams.ItemStreams;
+import demo.util.TestEventData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.streams.KafkaStreams;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Joins the updates to their items with the ItemStreams rather than the listener containers, publishing the items to
+ * the item-status topic.
+ */
+@SpringBootTest(classes = { DemoConfiguration.class }, properties = "demo.streams.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "item-status", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class ItemStreamsIntegrationTest {
+
+    final static String CREATE_ITEM_TOPIC = "create-item";
+    final static String UPDATE_ITEM_TOPIC = "update-item";
+    final static String ITEM_STATUS_TOPIC = "item-status";
+
+    @Autowired
+    private KafkaClient kafkaClient;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private ItemStreams itemStreams;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    private Consumer<String, String> itemStatusConsumer;
+
+    @BeforeEach
+    public void setUp() {
+        // Only the retry topic listener containers remain, and the streams take the item topics.
+        assertThat(registry.getListenerContainers().stream().anyMatch(container -> container.getContainerProperties().getTopics() != null
+                && List.of(container.getContainerProperties().getTopics()).contains(CREATE_ITEM_TOPIC)), equalTo(false));
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemStreams.getState() == KafkaStreams.State.RUNNING);
+
+        final Map<String, Object> config = new HashMap<>(KafkaTestUtils.consumerProps("item-status-test-" + randomUUID(), "false", embeddedKafkaBroker));
+        itemStatusConsumer = new DefaultKafkaConsumerFactory<>(config, new StringDeserializer(), new StringDeserializer()).createConsumer();
+        embeddedKafkaBroker.consumeFromAnEmbeddedTopic(itemStatusConsumer, ITEM_STATUS_TOPIC);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        itemStatusConsumer.close();
+    }
+
+    /**
+     * The updates received before their items are held by the streams rather than sent to the retry topic, and the
+     * items are published with the updated status once they are created.  Nothing is written to the database.
+     */
+    @Test
+    public void testUpdateBeforeCreate() {
+        int totalMessages = 10;
+        Map<UUID, ItemStatus> statuses = new HashMap<>();
+
+        for (int i=0; i<totalMessages; i++) {
+            UUID itemId = randomUUID();
+            UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+            kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+            statuses.put(itemId, null);
+        }
+        statuses.keySet().forEach((itemId) -> {
+            CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, "item-" + itemId);
+            kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        });
+
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> {
+                for (ConsumerRecord<String, String> record : KafkaTestUtils.getRecords(itemStatusConsumer, Duration.ofMillis(100))) {
+                    Item item = JsonMapper.readFromJson(record.value(), Item.class);
+                    statuses.put(item.getId(), item.getStatus());
+                }
+                return statuses.values().stream().allMatch(ItemStatus.ACTIVE::equals);
+            });
+        assertThat(itemRepository.findAll().size(), equalTo(0));
+    }
+}
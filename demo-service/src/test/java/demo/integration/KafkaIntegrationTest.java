@@ -1,20 +1,37 @@
 package demo.integration;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import demo.DemoConfiguration;
 import demo.event.CreateItem;
 import demo.event.UpdateItem;
 import demo.lib.KafkaClient;
+import demo.mapper.BinaryEventCodec;
 import demo.mapper.JsonMapper;
 import demo.repository.ItemRepository;
 import demo.service.ItemStatus;
+import demo.service.PendingUpdateBuffer;
 import demo.util.TestEventData;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.MessagingRetryHeaders;
+import messaging.retry.lib.RetryProducer;
+import messaging.retry.service.ParkedRetryIndex;
+import messaging.retry.service.RetryPriority;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.awaitility.Awaitility;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,24 +42,32 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.test.context.EmbeddedKafka;
 import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
 import static java.util.UUID.randomUUID;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
 
 @Slf4j
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = { DemoConfiguration.class } )
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
 @ActiveProfiles("test")
-@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item" })
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "update-item-retry-high", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
 public class KafkaIntegrationTest {
 
     final static String CREATE_ITEM_TOPIC = "create-item";
     final static String UPDATE_ITEM_TOPIC = "update-item";
+    final static String DEAD_LETTER_TOPIC = "messaging-retry-dlt";
 
     @Autowired
     private KafkaClient kafkaClient;
@@ -59,6 +84,15 @@ public class KafkaIntegrationTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ParkedRetryIndex parkedRetryIndex;
+
+    @Autowired
+    private PendingUpdateBuffer pendingUpdateBuffer;
+
     @BeforeEach
     public void setUp() {
         itemRepository.deleteAll();
@@ -101,6 +135,34 @@ public class KafkaIntegrationTest {
         // Check all items have transitioned to ACTIVE status.
         Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
             .until(() -> itemRepository.findAll().stream().allMatch((item) -> item.getStatus().equals(ItemStatus.ACTIVE)));
+
+        // Check the event processing and connection wait are timed, alongside the connection pool metrics.
+        assertThat(meterRegistry.get("demo.event.processing").tag("topic", UPDATE_ITEM_TOPIC).timer().count(), greaterThanOrEqualTo((long)totalMessages));
+        assertThat(meterRegistry.get("demo.event.connection.wait").tag("topic", UPDATE_ITEM_TOPIC).timer().count(), greaterThanOrEqualTo((long)totalMessages));
+        assertThat(meterRegistry.get("hikaricp.connections.acquire").timer().count(), greaterThan(0L));
+    }
+
+    /**
+     * Test that a redelivered create item event, such as after a rebalance, leaves the existing item unchanged.
+     */
+    @Test
+    public void testCreateItemRedelivered() throws Exception {
+        UUID itemId = randomUUID();
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, "original-name");
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).isPresent());
+
+        CreateItem redelivered = TestEventData.buildCreateItemEvent(itemId, "redelivered-name");
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(redelivered));
+        // Send a further item to know when the redelivered event has been processed.
+        UUID nextItemId = randomUUID();
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(TestEventData.buildCreateItemEvent(nextItemId, "next-item")));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(nextItemId).isPresent());
+
+        assertThat(itemRepository.findById(itemId).get().getName(), equalTo("original-name"));
+        assertThat(itemRepository.findAll().size(), equalTo(2));
     }
 
     /**
@@ -143,11 +205,221 @@ public class KafkaIntegrationTest {
         // Check all messages have ACTIVE status.
         Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
             .until(() -> itemRepository.findAll().stream().allMatch((item) -> item.getStatus().equals(ItemStatus.ACTIVE)));
+
+        // The updates were sent for retry and republished on the retry producer, rather than the application's.
+        double retryProducerSends = meterRegistry.find("kafka.producer.record.send.total").functionCounters().stream()
+                .filter(counter -> String.valueOf(counter.getId().getTag("client.id")).startsWith(RetryProducer.CLIENT_ID))
+                .mapToDouble(FunctionCounter::count).sum();
+        assertThat(retryProducerSends, greaterThanOrEqualTo(2.0 * totalMessages));
+        assertThat(meterRegistry.get("messaging.retry.send").tag("topic", "update-item-retry").tag("result", "success").timer().count(),
+                greaterThanOrEqualTo((long)totalMessages));
+    }
+
+    /**
+     * Test where the update item event is binary encoded, and is received before the create item event.
+     *
+     * The update item event is retried with its content type header, so is decoded with the binary codec when it is
+     * republished to the update-item topic.
+     */
+    @Test
+    public void testBinaryUpdateBeforeCreate() throws Exception {
+        UUID itemId = randomUUID();
+        Map<String, Object> binaryContentType = Map.of(MessageHeaders.CONTENT_TYPE, BinaryEventCodec.CONTENT_TYPE);
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, new BinaryEventCodec().encode(updateEvent), binaryContentType);
+
+        // Pause before sending in the create item event to ensure the update event is sent to the retry topic.
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(itemRepository.findAll().size(), equalTo(0));
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, new BinaryEventCodec().encode(createEvent), binaryContentType);
+
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+    }
+
+    /**
+     * Test where the update item event is received just before the create item event, and is held in memory.
+     *
+     * Creating the item applies the held update without it being sent to the retry topic.
+     */
+    @Test
+    public void testCreateAppliesHeldUpdate() throws Exception {
+        UUID itemId = randomUUID();
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> pendingUpdateBuffer.size() > 0);
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+
+        Awaitility.await().atMost(1500, TimeUnit.MILLISECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+        assertThat(parkedRetryIndex.isParked(itemId.toString()), equalTo(false));
+    }
+
+    /**
+     * Test where the update item event is parked on the retry topic when the create item event is received.
+     *
+     * Creating the item releases the parked update, so it is applied well within the 3 second retry interval rather
+     * than when the interval expires.
+     */
+    @Test
+    public void testCreateReleasesParkedUpdate() throws Exception {
+        UUID itemId = randomUUID();
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> parkedRetryIndex.isParked(itemId.toString()));
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+
+        Awaitility.await().atMost(1500, TimeUnit.MILLISECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+    }
+
+    /**
+     * Test where a high priority update item event is received before the create item event.
+     *
+     * The update is retried in the high priority lane, on the update-item-retry-high topic, carrying its priority, and
+     * is applied once the item is created.
+     */
+    @Test
+    public void testHighPriorityUpdateBeforeCreate() throws Exception {
+        UUID itemId = randomUUID();
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent),
+                Map.of(MessagingRetryHeaders.RETRY_PRIORITY, RetryPriority.HIGH.name()));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> parkedRetryIndex.isParked(itemId.toString()));
+
+        final ConsumerRecord<String, String> retry;
+        try (Consumer<String, String> consumer = new DefaultKafkaConsumerFactory<String, String>(
+                KafkaTestUtils.consumerProps("priority-lane-test", "false", embeddedKafkaBroker)).createConsumer()) {
+            embeddedKafkaBroker.consumeFromAnEmbeddedTopic(consumer, "update-item-retry-high");
+            retry = KafkaTestUtils.getSingleRecord(consumer, "update-item-retry-high");
+        }
+        assertThat(retry.value(), equalTo(JsonMapper.writeToJson(updateEvent)));
+        assertThat(retry.headers().lastHeader(MessagingRetryHeaders.RETRY_PRIORITY), notNullValue());
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+    }
+
+    /**
+     * Test where a large update item event is received before the create item event.
+     *
+     * The payload is over the claim check threshold, so it is held in the claim check directory while the update waits
+     * on the retry topic, and is deleted once the update has been republished and applied.
+     */
+    @Test
+    public void testLargeUpdateBeforeCreate() throws Exception {
+        UUID itemId = randomUUID();
+        long storedBefore = claimCheckedPayloads();
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        // Pad the JSON with whitespace to take it over the 64KB threshold.
+        String largeUpdateEvent = JsonMapper.writeToJson(updateEvent) + " ".repeat(100 * 1024);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, largeUpdateEvent);
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS).pollInterval(10, TimeUnit.MILLISECONDS)
+            .until(() -> parkedRetryIndex.isParked(itemId.toString()));
+        assertThat(claimCheckedPayloads(), equalTo(storedBefore + 1));
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findById(itemId).map((item) -> item.getStatus().equals(ItemStatus.ACTIVE)).orElse(false));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(10, TimeUnit.MILLISECONDS)
+            .until(() -> claimCheckedPayloads() == storedBefore);
+    }
+
+    private static long claimCheckedPayloads() throws IOException {
+        final Path directory = Paths.get("target/retry-claim-check");
+        if(!Files.isDirectory(directory)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Test that the retry backlog endpoint reports the update event held on the retry topic, and its republish once the
+     * item is created.
+     */
+    @Test
+    public void testRetryBacklogEndpoint() throws Exception {
+        UUID itemId = randomUUID();
+
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> backlog().getBody().get("totalHeld") instanceof Number held && held.longValue() > 0);
+
+        ResponseEntity<Map> response = backlog();
+        assertThat(response.getStatusCode(), equalTo(HttpStatus.OK));
+        assertThat(((List<?>)response.getBody().get("partitions")).isEmpty(), equalTo(false));
+        assertThat(response.getBody().get("dueHistogram"), notNullValue());
+        long republished = ((Number)response.getBody().get("republished")).longValue();
+
+        CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+        kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> ((Number)backlog().getBody().get("republished")).longValue() > republished);
+    }
+
+    private ResponseEntity<Map> backlog() {
+        return restTemplate.getForEntity("/actuator/retrybacklog", Map.class);
+    }
+
+    /**
+     * Test that an override set through the retry settings endpoint applies to the next update event without a
+     * restart: with the max retry duration of update-item overridden to 1 second the update is dead lettered well
+     * within the configured 10 seconds.
+     */
+    @Test
+    public void testRetrySettingsEndpoint() throws Exception {
+        ResponseEntity<Map> override = restTemplate.postForEntity("/actuator/retrysettings/topic/" + UPDATE_ITEM_TOPIC,
+                Map.of("maxRetryDurationSeconds", 1), Map.class);
+        try {
+            assertThat(override.getStatusCode(), equalTo(HttpStatus.OK));
+            assertThat(((Number)override.getBody().get("maxRetryDurationSeconds")).longValue(), equalTo(1L));
+            Map<?, ?> overrides = (Map<?, ?>)restTemplate.getForEntity("/actuator/retrysettings", Map.class).getBody().get("overrides");
+            assertThat(overrides.containsKey(UPDATE_ITEM_TOPIC), equalTo(true));
+            long discarded = ((Number)backlog().getBody().get("discarded")).longValue();
+
+            UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+            kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+
+            Awaitility.await().atMost(8, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> ((Number)backlog().getBody().get("discarded")).longValue() > discarded);
+        } finally {
+            restTemplate.delete("/actuator/retrysettings/topic/" + UPDATE_ITEM_TOPIC);
+        }
+        Map<?, ?> overrides = (Map<?, ?>)restTemplate.getForEntity("/actuator/retrysettings", Map.class).getBody().get("overrides");
+        assertThat(overrides.isEmpty(), equalTo(true));
+
+        ResponseEntity<Map> invalid = restTemplate.postForEntity("/actuator/retrysettings/topic/" + UPDATE_ITEM_TOPIC,
+                Map.of("retryTopic", "unknown-retry"), Map.class);
+        assertThat(invalid.getStatusCode(), equalTo(HttpStatus.BAD_REQUEST));
     }
 
     /**
      * Test where an update item event is received before the corresponding create item.  The update item event is retried
      * but is discarded as the max retry duration is exceeded before the create item event is received.
+     *
+     * The discarded event is sent to the dead letter topic, and replaying it from there applies the update.
      */
     @Test
     public void testUpdateEventIsDiscarded() throws Exception {
@@ -178,5 +450,26 @@ public class KafkaIntegrationTest {
                 ResponseEntity<String> response = restTemplate.getForEntity("/v1/demo/items/"+itemId+"/status", String.class);
                 return response.getStatusCode() == HttpStatus.OK && response.getBody().equals("NEW");
             });
+
+        // Check the discarded update item event is on the dead letter topic with its diagnostic headers.
+        final ConsumerRecord<String, String> deadLetter;
+        try (Consumer<String, String> consumer = new DefaultKafkaConsumerFactory<String, String>(
+                KafkaTestUtils.consumerProps("dead-letter-test", "false", embeddedKafkaBroker)).createConsumer()) {
+            embeddedKafkaBroker.consumeFromAnEmbeddedTopic(consumer, DEAD_LETTER_TOPIC);
+            deadLetter = KafkaTestUtils.getSingleRecord(consumer, DEAD_LETTER_TOPIC);
+        }
+        assertThat(deadLetter.value(), equalTo(JsonMapper.writeToJson(updateEvent)));
+        assertThat(deadLetter.headers().lastHeader(MessagingRetryHeaders.RETRY_ATTEMPTS), notNullValue());
+        assertThat(deadLetter.headers().lastHeader(MessagingRetryHeaders.DEAD_LETTER_LAST_ERROR), notNullValue());
+
+        // Replay the dead letter back to the update-item topic, and check the update is now applied.
+        ResponseEntity<Long> replayResponse = restTemplate.postForEntity("/v1/demo/dead-letters/replay?partition="+deadLetter.partition()
+                +"&fromOffset="+deadLetter.offset()+"&toOffset="+(deadLetter.offset()+1), null, Long.class);
+        assertThat(replayResponse.getBody(), equalTo(1L));
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> {
+                ResponseEntity<String> response = restTemplate.getForEntity("/v1/demo/items/"+itemId+"/status", String.class);
+                return response.getStatusCode() == HttpStatus.OK && response.getBody().equals("ACTIVE");
+            });
     }
 }
@@ -0,0 +1,129 @@
+package demo.integration;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import demo.DemoConfiguration;
+import demo.consumer.ReactiveItemConsumer;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.lib.KafkaClient;
+import demo.mapper.JsonMapper;
+import demo.repository.ItemRepository;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the create and update scenarios with the events consumed by the ReactiveItemConsumer rather than the listener
+ * containers.
+ */
+@SpringBootTest(classes = { DemoConfiguration.class }, properties = "demo.reactive.enabled=true")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class ReactiveKafkaIntegrationTest {
+
+    final static String CREATE_ITEM_TOPIC = "create-item";
+    final static String UPDATE_ITEM_TOPIC = "update-item";
+
+    @Autowired
+    private KafkaClient kafkaClient;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private ReactiveItemConsumer reactiveItemConsumer;
+
+    @Autowired
+    private ItemRepository itemRepository;
+
+    @BeforeEach
+    public void setUp() {
+        itemRepository.deleteAll();
+
+        // Only the retry topic listener containers remain, and the reactive consumer takes the item topics.
+        assertThat(registry.getListenerContainers().stream().anyMatch(container -> container.getContainerProperties().getTopics() != null
+                && List.of(container.getContainerProperties().getTopics()).contains(CREATE_ITEM_TOPIC)), equalTo(false));
+        registry.getListenerContainers().stream().forEach(container ->
+                ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic()));
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> reactiveItemConsumer.getAssignment().size() == 2 * embeddedKafkaBroker.getPartitionsPerTopic());
+    }
+
+    @Test
+    public void testCreateAndUpdateItems() {
+        int totalMessages = 10;
+        Set<UUID> itemIds = new HashSet<>();
+
+        for (int i=0; i<totalMessages; i++) {
+            UUID itemId = randomUUID();
+            CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+            kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+            itemIds.add(itemId);
+        }
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findAll().size() == totalMessages);
+
+        itemIds.forEach((itemId) -> {
+            UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+            kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+        });
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findAll().stream().allMatch((item) -> item.getStatus().equals(ItemStatus.ACTIVE)));
+    }
+
+    /**
+     * The updates received before their items are sent to the retry topic without blocking the reactive consumer, and
+     * are applied once the items are created.
+     */
+    @Test
+    public void testUpdateBeforeCreate() throws Exception {
+        int totalMessages = 10;
+        Set<UUID> itemIds = new HashSet<>();
+
+        for (int i=0; i<totalMessages; i++) {
+            UUID itemId = randomUUID();
+            UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+            kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+            itemIds.add(itemId);
+        }
+
+        // Pause so that the updates are no longer held in memory and have been sent to the retry topic.
+        TimeUnit.SECONDS.sleep(2);
+        assertThat(itemRepository.findAll().size(), equalTo(0));
+
+        itemIds.forEach((itemId) -> {
+            CreateItem createEvent = TestEventData.buildCreateItemEvent(itemId, RandomStringUtils.randomAlphabetic(8));
+            kafkaClient.sendMessage(CREATE_ITEM_TOPIC, JsonMapper.writeToJson(createEvent));
+        });
+
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findAll().size() == totalMessages);
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> itemRepository.findAll().stream().allMatch((item) -> item.getStatus().equals(ItemStatus.ACTIVE)));
+    }
+}
@@ -0,0 +1,189 @@
+package demo.integration;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.DemoConfiguration;
+import demo.event.UpdateItem;
+import demo.lib.KafkaClient;
+import demo.mapper.JsonMapper;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationView;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import messaging.retry.lib.RetryObservations;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Follows the hops of an update through the retry topic and back, with a handler standing in for a tracing bridge
+ * that writes a trace header on each send and reads it on each receive.
+ *
+ * The pending update buffer is disabled, so that the update is sent for retry from the listener rather than from the
+ * buffer's sweeper.
+ */
+@SpringBootTest(classes = { DemoConfiguration.class, RetryTracingIntegrationTest.TracingConfiguration.class },
+        properties = { "demo.pending-updates.enabled=false", "retry.messaging.observations.log=true" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = { "create-item", "update-item", "update-item-retry-high", "messaging-retry-dlt" },
+        brokerProperties = { "transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1" })
+public class RetryTracingIntegrationTest {
+
+    final static String UPDATE_ITEM_TOPIC = "update-item";
+    final static String TRACE_HEADER = "test-trace";
+
+    @Autowired
+    private KafkaClient kafkaClient;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private TracingHandler tracingHandler;
+
+    @TestConfiguration
+    static class TracingConfiguration {
+
+        @Bean
+        public TracingHandler tracingHandler() {
+            return new TracingHandler();
+        }
+
+        /**
+         * An application Clock bean, which must not clash with the retry clock.
+         */
+        @Bean
+        public Clock applicationClock() {
+            return Clock.systemUTC();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        registry.getListenerContainers().stream().forEach(container ->
+                ContainerTestUtils.waitForAssignment(container, embeddedKafkaBroker.getPartitionsPerTopic()));
+    }
+
+    /**
+     * An update for an item that does not exist is sent for retry by the listener, republished from the retry topic,
+     * and received by the listener again, with each hop a child of the one before it.
+     */
+    @Test
+    public void testRetryHopsInOneTrace() {
+        UUID itemId = randomUUID();
+        UpdateItem updateEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        kafkaClient.sendMessage(UPDATE_ITEM_TOPIC, JsonMapper.writeToJson(updateEvent));
+
+        // Wait for the listener to receive the republished update.
+        Awaitility.await().atMost(30, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+            .until(() -> tracingHandler.republishReceived().isPresent());
+        Observation.Context republishReceive = tracingHandler.republishReceived().get();
+
+        // Listener receive < publish update-item < handle < consume retry topic < publish retry topic < retry < listener receive
+        Observation.Context republish = tracingHandler.sentBy(republishReceive);
+        assertThat(republish.getName(), equalTo(RetryObservations.PUBLISH));
+        assertThat(republish.getLowCardinalityKeyValue("topic").getValue(), equalTo(UPDATE_ITEM_TOPIC));
+        Observation.ContextView handle = parent(republish);
+        assertThat(handle.getName(), equalTo(RetryObservations.HANDLE));
+        assertThat(handle.getLowCardinalityKeyValue(RetryObservations.OUTCOME).getValue(), equalTo("republished"));
+        Observation.ContextView consume = parent(handle);
+        assertThat(consume.getName(), equalTo(RetryObservations.CONSUME));
+        Observation.Context retrySend = tracingHandler.sentBy(consume);
+        assertThat(retrySend.getName(), equalTo(RetryObservations.PUBLISH));
+        Observation.ContextView retry = parent(retrySend);
+        assertThat(retry.getName(), equalTo(RetryObservations.RETRY));
+        assertThat(retry.getLowCardinalityKeyValue("original.topic").getValue(), equalTo(UPDATE_ITEM_TOPIC));
+        Observation.ContextView firstReceive = parent(retry);
+        assertThat(firstReceive, notNullValue());
+        assertThat(firstReceive instanceof ReceiverContext, equalTo(true));
+    }
+
+    private static Observation.ContextView parent(final Observation.ContextView context) {
+        final ObservationView parent = context.getParentObservation();
+        assertThat(parent, notNullValue());
+        return parent.getContextView();
+    }
+
+    /**
+     * Writes a unique trace header on each send, and records which send each receive read its header from.
+     */
+    static class TracingHandler implements ObservationHandler<Observation.Context> {
+
+        private final AtomicInteger ids = new AtomicInteger();
+
+        private final Map<String, Observation.Context> sends = new ConcurrentHashMap<>();
+
+        private final Map<Observation.ContextView, String> receives = new ConcurrentHashMap<>();
+
+        private final List<Observation.Context> receiveOrder = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onStart(final Observation.Context context) {
+            if(context instanceof SenderContext sender) {
+                final String id = "trace-" + ids.incrementAndGet();
+                sender.getSetter().set(sender.getCarrier(), TRACE_HEADER, id);
+                sends.put(id, context);
+            } else if(context instanceof ReceiverContext receiver) {
+                final String id = receiver.getGetter().get(receiver.getCarrier(), TRACE_HEADER);
+                if(id != null) {
+                    receives.put(context, id);
+                    receiveOrder.add(context);
+                }
+            }
+        }
+
+        @Override
+        public boolean supportsContext(final Observation.Context context) {
+            return true;
+        }
+
+        Observation.Context sentBy(final Observation.ContextView receive) {
+            return sends.get(receives.get(receive));
+        }
+
+        /**
+         * The listener's receive of an update republished from the retry topic.
+         */
+        Optional<Observation.Context> republishReceived() {
+            return new ArrayList<>(receiveOrder).stream()
+                    .filter(receive -> !receive.getName().startsWith("messaging.retry."))
+                    .filter(receive -> {
+                        final Observation.Context send = sentBy(receive);
+                        return send != null && send.getParentObservation() != null
+                                && RetryObservations.HANDLE.equals(send.getParentObservation().getContextView().getName());
+                    })
+                    .findFirst();
+        }
+    }
+}
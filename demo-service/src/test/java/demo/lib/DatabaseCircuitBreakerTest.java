@@ -0,0 +1,227 @@
+package demo.lib;
+
+import java.util.List;
+
+import demo.CircuitBreakerProperties;
+import demo.consumer.ItemStatusProjectionConsumer;
+import demo.consumer.ReactiveItemConsumer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DatabaseCircuitBreakerTest {
+
+    private CircuitBreakerProperties properties;
+    private KafkaListenerEndpointRegistry registryMock;
+    private MessageListenerContainer updateContainerMock;
+    private MessageListenerContainer retryContainerMock;
+    private MessageListenerContainer projectionContainerMock;
+    private ObjectProvider<ReactiveItemConsumer> reactiveConsumerProviderMock;
+    private SimpleMeterRegistry meterRegistry;
+    private DatabaseCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new CircuitBreakerProperties();
+        properties.setEnabled(true);
+        properties.setWindowSize(4);
+        properties.setMinimumCalls(2);
+        properties.setFailureRateThreshold(0.5);
+        properties.setHalfOpenCalls(2);
+        registryMock = mock(KafkaListenerEndpointRegistry.class);
+        updateContainerMock = mock(MessageListenerContainer.class);
+        when(updateContainerMock.getContainerProperties()).thenReturn(new ContainerProperties("update-item"));
+        retryContainerMock = mock(MessageListenerContainer.class);
+        when(retryContainerMock.getContainerProperties()).thenReturn(new ContainerProperties("update-item-retry"));
+        projectionContainerMock = mock(MessageListenerContainer.class);
+        when(projectionContainerMock.getListenerId()).thenReturn(ItemStatusProjectionConsumer.LISTENER_ID);
+        when(projectionContainerMock.getContainerProperties()).thenReturn(new ContainerProperties("create-item", "update-item"));
+        when(registryMock.getListenerContainers()).thenReturn(List.of(updateContainerMock, retryContainerMock, projectionContainerMock));
+        reactiveConsumerProviderMock = mock(ObjectProvider.class);
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaker = new DatabaseCircuitBreaker(properties, registryMock, reactiveConsumerProviderMock, meterRegistry, "create-item", "update-item");
+    }
+
+    @Test
+    public void testCall_Closed() {
+        assertThat(circuitBreaker.call(() -> "result"), equalTo("result"));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * Once the failure rate reaches the threshold the circuit opens, pausing only the item topic containers other than
+     * the item status projection's, and the calls are rejected without being made.
+     */
+    @Test
+    public void testCall_OpensOnFailureRate() {
+        circuitBreaker.call(() -> "result");
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.OPEN));
+        assertThat(meterRegistry.get("demo.circuit-breaker.state").gauge().value(), equalTo(1.0));
+        verify(updateContainerMock, times(1)).pause();
+        verify(retryContainerMock, never()).pause();
+        verify(projectionContainerMock, never()).pause();
+
+        final Runnable call = mock(Runnable.class);
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.run(call));
+        verify(call, never()).run();
+    }
+
+    /**
+     * The calls that are slower than the slow call threshold open the circuit even though they succeed.
+     */
+    @Test
+    public void testCall_OpensOnSlowCallRate() {
+        properties.setSlowCallMs(5);
+        circuitBreaker = new DatabaseCircuitBreaker(properties, registryMock, reactiveConsumerProviderMock, meterRegistry, "create-item", "update-item");
+
+        circuitBreaker.run(this::slow);
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+        circuitBreaker.run(this::slow);
+
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.OPEN));
+    }
+
+    /**
+     * The rates are over the calls in the window, so a run of failures opens the circuit however many calls succeeded
+     * before it.
+     */
+    @Test
+    public void testCall_Window() {
+        for(int i = 0; i < 10; i++) {
+            circuitBreaker.call(() -> "result");
+        }
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.OPEN));
+    }
+
+    /**
+     * A constraint violation is a problem with the event rather than the database, so it is thrown as it is and does
+     * not count as a failure.
+     */
+    @Test
+    public void testCall_DataIntegrityViolation() {
+        for(int i = 0; i < 4; i++) {
+            assertThrows(DataIntegrityViolationException.class, () -> circuitBreaker.run(() -> {
+                throw new DataIntegrityViolationException("value too long");
+            }));
+        }
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * When half open the containers are resumed, and the circuit closes once the probe calls all succeed.
+     */
+    @Test
+    public void testHalfOpen_Closes() {
+        open();
+
+        circuitBreaker.halfOpen();
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.HALF_OPEN));
+        verify(updateContainerMock, times(1)).resume();
+        verify(retryContainerMock, never()).resume();
+
+        circuitBreaker.call(() -> "result");
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.HALF_OPEN));
+        circuitBreaker.call(() -> "result");
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+
+        // The window starts again, so a single failure does not reopen it.
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * A probe call that fails opens the circuit again, pausing the containers.
+     */
+    @Test
+    public void testHalfOpen_Reopens() {
+        open();
+        circuitBreaker.halfOpen();
+
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.OPEN));
+        verify(updateContainerMock, times(2)).pause();
+    }
+
+    /**
+     * Only the probe calls are let through while half open.
+     */
+    @Test
+    public void testHalfOpen_LimitsCalls() {
+        open();
+        circuitBreaker.halfOpen();
+
+        // The third call is made while the two probe calls are still in flight.
+        final Runnable call = mock(Runnable.class);
+        circuitBreaker.run(() -> circuitBreaker.run(() ->
+                assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.run(call))));
+
+        verify(call, never()).run();
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testCall_Disabled() {
+        properties.setEnabled(false);
+        circuitBreaker = new DatabaseCircuitBreaker(properties, registryMock, reactiveConsumerProviderMock, meterRegistry, "create-item", "update-item");
+
+        for(int i = 0; i < 4; i++) {
+            assertThrows(CannotGetJdbcConnectionException.class, () -> circuitBreaker.call(this::unavailable));
+        }
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * If the events are consumed reactively the ReactiveItemConsumer is paused while the circuit is open, and resumed
+     * when it is half open.
+     */
+    @Test
+    public void testOpen_PausesReactiveConsumer() {
+        ReactiveItemConsumer reactiveConsumerMock = mock(ReactiveItemConsumer.class);
+        when(reactiveConsumerProviderMock.getIfAvailable()).thenReturn(reactiveConsumerMock);
+
+        open();
+        verify(reactiveConsumerMock, times(1)).pause();
+        circuitBreaker.halfOpen();
+
+        verify(reactiveConsumerMock, times(1)).resume();
+    }
+
+    private void open() {
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+        assertThrows(DatabaseUnavailableException.class, () -> circuitBreaker.call(this::unavailable));
+        assertThat(circuitBreaker.getState(), equalTo(DatabaseCircuitBreaker.State.OPEN));
+    }
+
+    private String unavailable() {
+        throw new CannotGetJdbcConnectionException("Connection refused");
+    }
+
+    private void slow() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package demo.lib;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+import demo.PersistenceProperties;
+import demo.consumer.ReactiveItemConsumer;
+import demo.repository.ItemRepository;
+import demo.streams.ItemStreams;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class ListenerStartupTest {
+
+    private KafkaListenerEndpointRegistry registryMock;
+    private DataSource dataSourceMock;
+    private Connection connectionMock;
+    private ItemRepository itemRepositoryMock;
+    private MessageListenerContainer stoppedContainerMock;
+    private MessageListenerContainer runningContainerMock;
+    private ObjectProvider<ReactiveItemConsumer> reactiveConsumerProviderMock;
+    private ObjectProvider<ItemStreams> itemStreamsProviderMock;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        registryMock = mock(KafkaListenerEndpointRegistry.class);
+        dataSourceMock = mock(DataSource.class);
+        connectionMock = mock(Connection.class);
+        itemRepositoryMock = mock(ItemRepository.class);
+        stoppedContainerMock = mock(MessageListenerContainer.class);
+        runningContainerMock = mock(MessageListenerContainer.class);
+        reactiveConsumerProviderMock = mock(ObjectProvider.class);
+        itemStreamsProviderMock = mock(ObjectProvider.class);
+        when(dataSourceMock.getConnection()).thenReturn(connectionMock);
+        when(runningContainerMock.isRunning()).thenReturn(true);
+        when(registryMock.getListenerContainers()).thenReturn(List.of(stoppedContainerMock, runningContainerMock));
+    }
+
+    /**
+     * Once accepting traffic the pool and repositories are warmed up, then the stopped containers are started.
+     */
+    @Test
+    public void testOnReadinessChange_AcceptingTraffic() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(true);
+
+        listenerStartup(false).onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+
+        // Both warm up connections are held open together before being returned to the pool.
+        verify(dataSourceMock, times(2)).getConnection();
+        verify(connectionMock, times(2)).close();
+        verify(itemRepositoryMock, times(1)).count();
+        verify(stoppedContainerMock, times(1)).start();
+        verify(runningContainerMock, never()).start();
+    }
+
+    /**
+     * If the events are consumed reactively, the reactive consumer is started along with the retry containers.
+     */
+    @Test
+    public void testOnReadinessChange_ReactiveConsumer() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(true);
+        ReactiveItemConsumer reactiveConsumerMock = mock(ReactiveItemConsumer.class);
+        when(reactiveConsumerProviderMock.getIfAvailable()).thenReturn(reactiveConsumerMock);
+
+        listenerStartup(false).onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+
+        verify(stoppedContainerMock, times(1)).start();
+        verify(reactiveConsumerMock, times(1)).start();
+    }
+
+    /**
+     * If the events are processed by Kafka Streams, the streams are started along with the retry containers.
+     */
+    @Test
+    public void testOnReadinessChange_ItemStreams() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(true);
+        ItemStreams itemStreamsMock = mock(ItemStreams.class);
+        when(itemStreamsProviderMock.getIfAvailable()).thenReturn(itemStreamsMock);
+
+        listenerStartup(false).onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+
+        verify(stoppedContainerMock, times(1)).start();
+        verify(itemStreamsMock, times(1)).start();
+    }
+
+    /**
+     * Once started, a later change back to accepting traffic does not warm up or start the containers again.
+     */
+    @Test
+    public void testOnReadinessChange_OnlyOnce() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(true);
+        ListenerStartup listenerStartup = listenerStartup(false);
+
+        listenerStartup.onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+        listenerStartup.onReadinessChange(readiness(ReadinessState.REFUSING_TRAFFIC));
+        listenerStartup.onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+
+        verify(itemRepositoryMock, times(1)).count();
+        verify(registryMock, times(1)).getListenerContainers();
+        verify(stoppedContainerMock, times(1)).start();
+    }
+
+    /**
+     * If the warm up fails, such as while the database is unreachable, the failure does not reach the caller, so the
+     * application still starts, and the warm up is retried after the backoff until it succeeds and the containers are
+     * started, without a further change of readiness.
+     */
+    @Test
+    public void testOnReadinessChange_RetriedAfterInvalidConnection() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(false, false, true, true);
+        ListenerStartup listenerStartup = listenerStartup(false, 10L);
+
+        listenerStartup.onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+        verify(stoppedContainerMock, never()).start();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> verify(stoppedContainerMock, times(1)).start());
+        verify(itemRepositoryMock, times(1)).count();
+        listenerStartup.stop();
+    }
+
+    @Test
+    public void testOnReadinessChange_RefusingTraffic() throws Exception {
+        listenerStartup(false).onReadinessChange(readiness(ReadinessState.REFUSING_TRAFFIC));
+
+        verifyNoInteractions(dataSourceMock, registryMock);
+    }
+
+    /**
+     * If the listener containers are auto started with the application context there is nothing to do.
+     */
+    @Test
+    public void testOnReadinessChange_AutoStartup() throws Exception {
+        listenerStartup(true).onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+
+        verifyNoInteractions(dataSourceMock, registryMock);
+    }
+
+    /**
+     * An invalid connection is returned to the pool, and the containers are not started while the warm up is failing,
+     * nor once the startup is stopped.
+     */
+    @Test
+    public void testOnReadinessChange_InvalidConnection() throws Exception {
+        when(connectionMock.isValid(5)).thenReturn(false);
+        ListenerStartup listenerStartup = listenerStartup(false, 10L);
+
+        listenerStartup.onReadinessChange(readiness(ReadinessState.ACCEPTING_TRAFFIC));
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> verify(connectionMock, atLeast(3)).close());
+        listenerStartup.stop();
+
+        verify(itemRepositoryMock, never()).count();
+        verify(stoppedContainerMock, never()).start();
+    }
+
+    private ListenerStartup listenerStartup(final boolean autoStartup) {
+        return listenerStartup(autoStartup, 1000L);
+    }
+
+    private ListenerStartup listenerStartup(final boolean autoStartup, final long warmUpBackoffMs) {
+        PersistenceProperties properties = new PersistenceProperties();
+        properties.setWarmUpConnections(2);
+        properties.setWarmUpBackoffMs(warmUpBackoffMs);
+        properties.setWarmUpMaxBackoffMs(warmUpBackoffMs * 2);
+        return new ListenerStartup(registryMock, dataSourceMock, itemRepositoryMock, properties, reactiveConsumerProviderMock, itemStreamsProviderMock, autoStartup);
+    }
+
+    private static AvailabilityChangeEvent<ReadinessState> readiness(final ReadinessState state) {
+        return new AvailabilityChangeEvent<>(new Object(), state);
+    }
+}
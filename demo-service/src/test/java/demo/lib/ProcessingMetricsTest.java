@@ -0,0 +1,80 @@
+package demo.lib;
+
+import java.util.concurrent.TimeUnit;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import demo.PersistenceProperties;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ProcessingMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ProcessingMetrics processingMetrics;
+    private IMetricsTracker delegateTrackerMock;
+    private IMetricsTracker tracker;
+
+    @BeforeEach
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        processingMetrics = new ProcessingMetrics(meterRegistry, new PersistenceProperties());
+        delegateTrackerMock = mock(IMetricsTracker.class);
+        tracker = new ConnectionWaitMetricsTrackerFactory((poolName, poolStats) -> delegateTrackerMock)
+                .create("demo-pool", mock(PoolStats.class));
+    }
+
+    /**
+     * The connection acquire times recorded by the pool on the processing thread are attributed to the event.
+     */
+    @Test
+    public void testRecord_ConnectionWait() {
+        processingMetrics.record("update-item", () -> {
+            tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(2));
+            tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        });
+
+        assertThat(timer("demo.event.processing").count(), equalTo(1L));
+        assertThat(timer("demo.event.connection.wait").totalTime(TimeUnit.MILLISECONDS), equalTo(7.0));
+        // The pool metrics are still recorded.
+        verify(delegateTrackerMock, times(1)).recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    /**
+     * The wait is reset for each event.
+     */
+    @Test
+    public void testRecord_ResetPerEvent() {
+        processingMetrics.record("update-item", () -> tracker.recordConnectionAcquiredNanos(TimeUnit.MILLISECONDS.toNanos(3)));
+        processingMetrics.record("update-item", () -> {});
+
+        assertThat(timer("demo.event.connection.wait").count(), equalTo(2L));
+        assertThat(timer("demo.event.connection.wait").max(TimeUnit.MILLISECONDS), equalTo(3.0));
+        assertThat(timer("demo.event.connection.wait").totalTime(TimeUnit.MILLISECONDS), equalTo(3.0));
+    }
+
+    /**
+     * The processing time is recorded even if the processing fails.
+     */
+    @Test
+    public void testRecord_ProcessingThrowsException() {
+        assertThrows(RuntimeException.class, () -> processingMetrics.record("update-item", () -> {
+            throw new RuntimeException("Service failure");
+        }));
+
+        assertThat(timer("demo.event.processing").count(), equalTo(1L));
+    }
+
+    private Timer timer(final String name) {
+        return meterRegistry.get(name).tag("topic", "update-item").timer();
+    }
+}
@@ -0,0 +1,107 @@
+package demo.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class UuidByteMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        UuidByteMap map = new UuidByteMap(16);
+        UUID first = randomUUID();
+        UUID second = randomUUID();
+
+        map.put(first, (byte)1);
+        map.put(second, (byte)-2);
+
+        assertThat(map.get(first), equalTo((byte)1));
+        assertThat(map.get(second), equalTo((byte)-2));
+        assertThat(map.get(randomUUID()), equalTo((byte)0));
+        assertThat(map.size(), equalTo(2));
+    }
+
+    @Test
+    public void testPut_Replaces() {
+        UuidByteMap map = new UuidByteMap(16);
+        UUID key = randomUUID();
+
+        map.put(key, (byte)1);
+        map.put(key, (byte)3);
+
+        assertThat(map.get(key), equalTo((byte)3));
+        assertThat(map.size(), equalTo(1));
+    }
+
+    @Test
+    public void testPut_ZeroRejected() {
+        UuidByteMap map = new UuidByteMap(16);
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(randomUUID(), (byte)0));
+    }
+
+    /**
+     * The table is sized to hold the expected entries at no more than three quarters full, and doubles once it is
+     * fuller, keeping every entry.  Sequential keys, differing only in their low bits, are spread over the table.
+     */
+    @Test
+    public void testResize() {
+        UuidByteMap map = new UuidByteMap(12);
+        assertThat(map.capacity(), equalTo(16));
+
+        List<UUID> keys = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            UUID key = new UUID(42, i);
+            keys.add(key);
+            map.put(key, (byte)(i % 3 + 1));
+        }
+
+        assertThat(map.size(), equalTo(1000));
+        assertThat(map.capacity(), equalTo(2048));
+        for(int i = 0; i < keys.size(); i++) {
+            assertThat(map.get(keys.get(i)), equalTo((byte)(i % 3 + 1)));
+        }
+    }
+
+    /**
+     * A reader never sees a wrong value for a key held before the writes began, however the writes and resizes overlap
+     * the reads.
+     */
+    @Test
+    public void testConcurrentReads() throws Exception {
+        UuidByteMap map = new UuidByteMap(2);
+        List<UUID> held = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            UUID key = randomUUID();
+            held.add(key);
+            map.put(key, (byte)7);
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Boolean> reader = CompletableFuture.supplyAsync(() -> {
+            boolean consistent = true;
+            while(writing.get()) {
+                for(UUID key : held) {
+                    consistent &= map.get(key) == 7;
+                }
+            }
+            return consistent;
+        });
+
+        for(int i = 0; i < 200_000; i++) {
+            map.put(randomUUID(), (byte)1);
+        }
+        writing.set(false);
+
+        assertThat(reader.get(), equalTo(true));
+        assertThat(map.size(), equalTo(200_100));
+    }
+}
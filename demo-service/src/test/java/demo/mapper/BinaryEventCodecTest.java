@@ -0,0 +1,112 @@
+package demo.mapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BinaryEventCodecTest {
+
+    private BinaryEventCodec codec;
+
+    @BeforeEach
+    public void setUp() {
+        codec = new BinaryEventCodec();
+    }
+
+    @Test
+    public void testCreateItem_RoundTrip() {
+        CreateItem event = TestEventData.buildCreateItemEvent(randomUUID(), "my-item-ü");
+
+        byte[] payload = codec.encode(event);
+
+        assertThat(payload.length, equalTo(16 + 2 + "my-item-ü".getBytes(StandardCharsets.UTF_8).length));
+        assertThat(codec.decode(payload, CreateItem.class), equalTo(event));
+    }
+
+    @Test
+    public void testCreateItem_NullName() {
+        CreateItem event = TestEventData.buildCreateItemEvent(randomUUID(), null);
+
+        assertThat(codec.decode(codec.encode(event), CreateItem.class), equalTo(event));
+    }
+
+    @Test
+    public void testUpdateItem_RoundTrip() {
+        for(ItemStatus status : new ItemStatus[] {ItemStatus.NEW, ItemStatus.ACTIVE, ItemStatus.CANCELLED, null}) {
+            UpdateItem event = TestEventData.buildUpdateItemEvent(randomUUID(), status);
+
+            assertThat(codec.decode(codec.encode(event), UpdateItem.class), equalTo(event));
+        }
+    }
+
+    /**
+     * The UUID is written as 16 bytes rather than 36 characters, and the status as a single byte.
+     */
+    @Test
+    public void testUpdateItem_SmallerThanJson() {
+        UpdateItem event = TestEventData.buildUpdateItemEvent(UUID.randomUUID(), ItemStatus.CANCELLED);
+
+        byte[] binary = codec.encode(event);
+        byte[] json = JsonMapper.writeToJsonBytes(event);
+
+        assertThat(binary.length, equalTo(17));
+        assertThat(json.length, greaterThan(binary.length * 3));
+    }
+
+    @Test
+    public void testEncode_NullId() {
+        assertThrows(MappingException.class, () -> codec.encode(TestEventData.buildUpdateItemEvent(null, ItemStatus.ACTIVE)));
+    }
+
+    @Test
+    public void testDecode_Truncated() {
+        byte[] payload = codec.encode(TestEventData.buildCreateItemEvent(randomUUID(), "my-item"));
+        byte[] truncated = new byte[payload.length - 1];
+        System.arraycopy(payload, 0, truncated, 0, truncated.length);
+
+        assertThrows(MappingException.class, () -> codec.decode(truncated, CreateItem.class));
+    }
+
+    @Test
+    public void testDecode_UnknownStatus() {
+        byte[] payload = codec.encode(TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE));
+        payload[16] = 99;
+
+        assertThrows(MappingException.class, () -> codec.decode(payload, UpdateItem.class));
+    }
+
+    /**
+     * Only -1 marks a null name or status, so any other negative length or ordinal is rejected.
+     */
+    @Test
+    public void testDecode_NegativeValues() {
+        byte[] update = codec.encode(TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE));
+        update[16] = -2;
+        byte[] create = codec.encode(new CreateItem(randomUUID(), null));
+        create[17] = -2;
+
+        assertThrows(MappingException.class, () -> codec.decode(update, UpdateItem.class));
+        assertThrows(MappingException.class, () -> codec.decode(create, CreateItem.class));
+    }
+
+    @Test
+    public void testDecode_TrailingBytes() {
+        byte[] payload = codec.encode(TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE));
+        byte[] extended = new byte[payload.length + 1];
+        System.arraycopy(payload, 0, extended, 0, payload.length);
+
+        assertThrows(MappingException.class, () -> codec.decode(extended, UpdateItem.class));
+    }
+}
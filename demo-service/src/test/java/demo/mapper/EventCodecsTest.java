@@ -0,0 +1,47 @@
+package demo.mapper;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EventCodecsTest {
+
+    private EventCodecs eventCodecs;
+
+    @BeforeEach
+    public void setUp() {
+        eventCodecs = new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec()));
+    }
+
+    /**
+     * Events from producers that do not set the content type are JSON.
+     */
+    @Test
+    public void testForContentType_NoContentType() {
+        assertThat(eventCodecs.forContentType(null), instanceOf(JsonEventCodec.class));
+    }
+
+    @Test
+    public void testForContentType_String() {
+        assertThat(eventCodecs.forContentType(BinaryEventCodec.CONTENT_TYPE), instanceOf(BinaryEventCodec.class));
+        assertThat(eventCodecs.forContentType(JsonEventCodec.CONTENT_TYPE), instanceOf(JsonEventCodec.class));
+    }
+
+    /**
+     * A header written by a non-Spring producer is not JSON encoded so is mapped as the raw bytes.
+     */
+    @Test
+    public void testForContentType_Bytes() {
+        assertThat(eventCodecs.forContentType(BinaryEventCodec.CONTENT_TYPE.getBytes()), instanceOf(BinaryEventCodec.class));
+    }
+
+    @Test
+    public void testForContentType_Unsupported() {
+        assertThrows(MappingException.class, () -> eventCodecs.forContentType("application/xml"));
+    }
+}
@@ -0,0 +1,54 @@
+package demo.mapper;
+
+import java.nio.charset.StandardCharsets;
+
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class JsonMapperTest {
+
+    @Test
+    public void testReaderAndWriterCached() {
+        assertThat(JsonMapper.readerFor(UpdateItem.class), sameInstance(JsonMapper.readerFor(UpdateItem.class)));
+        assertThat(JsonMapper.writerFor(UpdateItem.class), sameInstance(JsonMapper.writerFor(UpdateItem.class)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        CreateItem event = TestEventData.buildCreateItemEvent(randomUUID(), "my-item");
+
+        assertThat(JsonMapper.readFromJson(JsonMapper.writeToJson(event), CreateItem.class), equalTo(event));
+        assertThat(JsonMapper.readFromJson(JsonMapper.writeToJsonBytes(event), CreateItem.class), equalTo(event));
+    }
+
+    /**
+     * The event is parsed from within the bytes it is embedded in.
+     */
+    @Test
+    public void testReadFromJson_Range() {
+        UpdateItem event = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        String json = JsonMapper.writeToJson(event);
+        byte[] buffer = ("xx" + json + "yy").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(JsonMapper.readFromJson(buffer, 2, json.length(), UpdateItem.class), equalTo(event));
+    }
+
+    @Test
+    public void testReadFromJson_Invalid() {
+        assertThrows(MappingException.class, () -> JsonMapper.readFromJson("{not-json".getBytes(), UpdateItem.class));
+    }
+
+    @Test
+    public void testWriteToJson_Null() {
+        assertThat(JsonMapper.writeToJson(null), equalTo("null"));
+    }
+}
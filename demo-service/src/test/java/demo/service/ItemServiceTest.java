@@ -1,24 +1,40 @@
 package demo.service;
 
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+import demo.CircuitBreakerProperties;
 import demo.domain.Item;
 import demo.event.CreateItem;
 import demo.event.UpdateItem;
+import demo.lib.DatabaseCircuitBreaker;
+import demo.lib.DatabaseUnavailableException;
+import demo.mapper.JsonMapper;
 import demo.repository.ItemRepository;
 import demo.util.TestEntityData;
 import demo.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import messaging.retry.service.RetryService;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.messaging.MessageHeaders;
 
 import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -29,22 +45,79 @@ public class ItemServiceTest {
     private ItemService service;
     private ItemRepository itemRepositoryMock;
     private RetryService retryServiceMock;
+    private PendingUpdateBuffer pendingUpdateBufferMock;
+    private DatabaseCircuitBreaker circuitBreaker;
 
     @BeforeEach
     public void setUp() {
         itemRepositoryMock = mock(ItemRepository.class);
         retryServiceMock = mock(RetryService.class);
-        service = new ItemService(itemRepositoryMock, retryServiceMock);
+        pendingUpdateBufferMock = mock(PendingUpdateBuffer.class);
+        final CircuitBreakerProperties circuitBreakerProperties = new CircuitBreakerProperties();
+        circuitBreakerProperties.setEnabled(true);
+        circuitBreaker = new DatabaseCircuitBreaker(circuitBreakerProperties, mock(KafkaListenerEndpointRegistry.class), mock(ObjectProvider.class),
+                new SimpleMeterRegistry(), "create-item", "update-item");
+        service = new ItemService(itemRepositoryMock, retryServiceMock, pendingUpdateBufferMock, circuitBreaker);
     }
 
     @Test
-    public void testCreateItem() {
+    public void testCreateItems() {
         final String name = RandomStringUtils.randomAlphabetic(8);
         CreateItem testEvent = TestEventData.buildCreateItemEvent(randomUUID(), name);
 
-        service.createItem(testEvent);
+        service.createItems(List.of(testEvent));
 
-        verify(itemRepositoryMock, times(1)).save(argThat(s -> s.getName().equals(name)));
+        verify(itemRepositoryMock, times(1)).insertIfAbsent(argThat(items -> items.size() == 1
+                && items.get(0).getName().equals(name) && items.get(0).getStatus() == ItemStatus.NEW));
+        verify(retryServiceMock, times(1)).release(testEvent.getId().toString());
+    }
+
+    /**
+     * If the batch insert fails the items are inserted individually, so that only the failing item is lost.
+     */
+    @Test
+    public void testCreateItems_BatchFails() {
+        CreateItem testEvent1 = TestEventData.buildCreateItemEvent(randomUUID(), "item-1");
+        CreateItem testEvent2 = TestEventData.buildCreateItemEvent(randomUUID(), "item-2");
+        doThrow(new DataIntegrityViolationException("value too long"))
+                .when(itemRepositoryMock).insertIfAbsent(argThat(items -> items.stream().anyMatch(item -> item.getName().equals("item-1"))));
+
+        service.createItems(List.of(testEvent1, testEvent2));
+
+        verify(itemRepositoryMock, times(1)).insertIfAbsent(argThat(items -> items.size() == 1 && items.get(0).getName().equals("item-2")));
+        verify(retryServiceMock, never()).release(testEvent1.getId().toString());
+        verify(retryServiceMock, times(1)).release(testEvent2.getId().toString());
+    }
+
+    /**
+     * If the database cannot be reached the batch is thrown back to be redelivered, rather than each item being
+     * inserted individually and lost.
+     */
+    @Test
+    public void testCreateItems_DatabaseUnavailable() {
+        CreateItem testEvent1 = TestEventData.buildCreateItemEvent(randomUUID(), "item-1");
+        CreateItem testEvent2 = TestEventData.buildCreateItemEvent(randomUUID(), "item-2");
+        doThrow(new CannotGetJdbcConnectionException("Connection refused")).when(itemRepositoryMock).insertIfAbsent(any());
+
+        assertThrows(DatabaseUnavailableException.class, () -> service.createItems(List.of(testEvent1, testEvent2)));
+
+        verify(itemRepositoryMock, times(1)).insertIfAbsent(any());
+        verifyNoInteractions(retryServiceMock);
+    }
+
+    /**
+     * If the database cannot be reached the update is thrown back to be redelivered, rather than being held or sent to
+     * retry as if its item did not exist.
+     */
+    @Test
+    public void testUpdateItem_DatabaseUnavailable() {
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        when(itemRepositoryMock.findById(testEvent.getId())).thenThrow(new CannotGetJdbcConnectionException("Connection refused"));
+
+        assertThrows(DatabaseUnavailableException.class, () -> service.updateItem(testEvent, JsonMapper.writeToJsonBytes(testEvent), new MessageHeaders(null)));
+
+        verifyNoInteractions(retryServiceMock);
+        verifyNoInteractions(pendingUpdateBufferMock);
     }
 
     @Test
@@ -55,7 +128,7 @@ public class ItemServiceTest {
 
         UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
 
-        service.updateItem(testEvent, new MessageHeaders(null));
+        service.updateItem(testEvent, JsonMapper.writeToJsonBytes(testEvent), new MessageHeaders(null));
 
         verify(itemRepositoryMock, times(1)).save(argThat(s -> s.getStatus().equals(ItemStatus.ACTIVE)));
         verifyNoInteractions(retryServiceMock);
@@ -68,9 +141,134 @@ public class ItemServiceTest {
 
         UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
 
-        service.updateItem(testEvent, new MessageHeaders(null));
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        MessageHeaders headers = new MessageHeaders(null);
+
+        service.updateItem(testEvent, payload, headers);
 
         verify(itemRepositoryMock, times(0)).save(any());
-        verify(retryServiceMock, times(1)).retry(any(), any());
+        verify(retryServiceMock, times(1)).retry(payload, headers, itemId.toString());
+    }
+
+    /**
+     * An update applied without a retry completes straight away.
+     */
+    @Test
+    public void testUpdateItemAsync_ItemUpdated() {
+        UUID itemId = randomUUID();
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.of(TestEntityData.buildItem(itemId, "my-item")));
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+
+        CompletableFuture<Void> result = service.updateItemAsync(testEvent, JsonMapper.writeToJsonBytes(testEvent), new MessageHeaders(null));
+
+        assertThat(result.isDone(), equalTo(true));
+        verify(itemRepositoryMock, times(1)).save(argThat(s -> s.getStatus().equals(ItemStatus.ACTIVE)));
+        verifyNoInteractions(retryServiceMock);
+    }
+
+    /**
+     * An update for an item that does not exist completes once the retry has been sent.
+     */
+    @Test
+    public void testUpdateItemAsync_ItemRetried() {
+        UUID itemId = randomUUID();
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.empty());
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        MessageHeaders headers = new MessageHeaders(null);
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        when(retryServiceMock.retryAsync(payload, headers, itemId.toString())).thenReturn(sent);
+
+        CompletableFuture<Void> result = service.updateItemAsync(testEvent, payload, headers);
+
+        assertThat(result.isDone(), equalTo(false));
+        sent.complete(null);
+        assertThat(result.isDone(), equalTo(true));
+        verify(retryServiceMock, never()).retry(any(), any(), any());
+    }
+
+    /**
+     * If the pending update buffer accepts the update it is held rather than sent for retry.
+     */
+    @Test
+    public void testUpdateItem_ItemHeld() {
+        UUID itemId = randomUUID();
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.empty());
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        MessageHeaders headers = new MessageHeaders(null);
+        when(pendingUpdateBufferMock.hold(testEvent, payload, headers)).thenReturn(true);
+
+        service.updateItem(testEvent, payload, headers);
+
+        verify(pendingUpdateBufferMock, times(1)).hold(testEvent, payload, headers);
+        verify(pendingUpdateBufferMock, never()).take(any());
+        verify(itemRepositoryMock, never()).save(any());
+        verifyNoInteractions(retryServiceMock);
+    }
+
+    /**
+     * If the item is created while the update is being held, the update is taken back and applied.
+     */
+    @Test
+    public void testUpdateItem_ItemCreatedWhileHeld() {
+        UUID itemId = randomUUID();
+        Item item = TestEntityData.buildItem(itemId, "my-item");
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.empty(), Optional.of(item));
+        when(itemRepositoryMock.existsById(itemId)).thenReturn(true);
+        UpdateItem testEvent = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(testEvent);
+        MessageHeaders headers = new MessageHeaders(null);
+        when(pendingUpdateBufferMock.hold(testEvent, payload, headers)).thenReturn(true);
+        when(pendingUpdateBufferMock.take(itemId)).thenReturn(List.of(new PendingUpdateBuffer.PendingUpdate(testEvent, payload, headers, 0L)));
+
+        service.updateItem(testEvent, payload, headers);
+
+        verify(itemRepositoryMock, times(1)).save(argThat(s -> s.getStatus().equals(ItemStatus.ACTIVE)));
+        verifyNoInteractions(retryServiceMock);
+    }
+
+    /**
+     * The updates held for a created item are applied in the order they were received.
+     */
+    @Test
+    public void testCreateItems_AppliesHeldUpdates() {
+        UUID itemId = randomUUID();
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(itemId, "my-item");
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.of(TestEntityData.buildItem(itemId, "my-item")));
+        UpdateItem activate = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        UpdateItem cancel = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.CANCELLED);
+        MessageHeaders headers = new MessageHeaders(null);
+        when(pendingUpdateBufferMock.take(itemId)).thenReturn(List.of(
+                new PendingUpdateBuffer.PendingUpdate(activate, JsonMapper.writeToJsonBytes(activate), headers, 0L),
+                new PendingUpdateBuffer.PendingUpdate(cancel, JsonMapper.writeToJsonBytes(cancel), headers, 0L)));
+
+        service.createItems(List.of(testEvent));
+
+        verify(itemRepositoryMock, times(1)).save(argThat(s -> s.getStatus().equals(ItemStatus.CANCELLED)));
+        verify(retryServiceMock, times(1)).release(itemId.toString());
+        verify(retryServiceMock, never()).retry(any(), any(), any());
+    }
+
+    /**
+     * If the held updates cannot be applied they are sent for retry through the buffer, rather than lost, and the item
+     * is not inserted again.
+     */
+    @Test
+    public void testCreateItems_HeldUpdatesFail() {
+        UUID itemId = randomUUID();
+        CreateItem testEvent = TestEventData.buildCreateItemEvent(itemId, "my-item");
+        when(itemRepositoryMock.findById(itemId)).thenReturn(Optional.of(TestEntityData.buildItem(itemId, "my-item")));
+        doThrow(new IllegalStateException("Unexpected failure")).when(itemRepositoryMock).save(any());
+        UpdateItem activate = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        List<PendingUpdateBuffer.PendingUpdate> updates = List.of(
+                new PendingUpdateBuffer.PendingUpdate(activate, JsonMapper.writeToJsonBytes(activate), new MessageHeaders(null), 0L));
+        when(pendingUpdateBufferMock.take(itemId)).thenReturn(updates);
+
+        service.createItems(List.of(testEvent));
+
+        verify(itemRepositoryMock, times(1)).insertIfAbsent(any());
+        verify(pendingUpdateBufferMock, times(1)).retry(updates, "apply failure");
+        verify(retryServiceMock, times(1)).release(itemId.toString());
     }
 }
@@ -0,0 +1,148 @@
+package demo.service;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import demo.ProjectionProperties;
+import demo.util.TestEventData;
+import messaging.retry.lib.RetryClock;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemStatusProjectionTest {
+
+    private static final TopicPartition CREATE_0 = new TopicPartition("create-item", 0);
+    private static final TopicPartition UPDATE_0 = new TopicPartition("update-item", 0);
+
+    private Clock clockMock;
+    private ItemStatusProjection projection;
+
+    @BeforeEach
+    public void setUp() {
+        clockMock = mock(Clock.class);
+        when(clockMock.millis()).thenReturn(10_000L);
+        ProjectionProperties properties = new ProjectionProperties();
+        properties.setEnabled(true);
+        properties.setExpectedItems(16);
+        projection = new ItemStatusProjection(properties, new RetryClock(clockMock));
+    }
+
+    @Test
+    public void testCreateThenUpdate() {
+        UUID itemId = randomUUID();
+
+        projection.apply(TestEventData.buildCreateItemEvent(itemId, "my-item"));
+        assertThat(projection.find(itemId), equalTo(Optional.of(ItemStatus.NEW)));
+
+        projection.apply(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE));
+        assertThat(projection.find(itemId), equalTo(Optional.of(ItemStatus.ACTIVE)));
+
+        projection.apply(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.CANCELLED));
+        assertThat(projection.find(itemId), equalTo(Optional.of(ItemStatus.CANCELLED)));
+        assertThat(projection.find(randomUUID()), equalTo(Optional.empty()));
+    }
+
+    /**
+     * A create for an item already created, such as a redelivery, does not reset its status.
+     */
+    @Test
+    public void testCreate_AlreadyCreated() {
+        UUID itemId = randomUUID();
+        projection.apply(TestEventData.buildCreateItemEvent(itemId, "my-item"));
+        projection.apply(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE));
+
+        projection.apply(TestEventData.buildCreateItemEvent(itemId, "my-item"));
+
+        assertThat(projection.find(itemId), equalTo(Optional.of(ItemStatus.ACTIVE)));
+        assertThat(projection.size(), equalTo(1));
+    }
+
+    /**
+     * An update that arrives before its create is not found until the create arrives, and the item then takes the
+     * update's status, as the ItemService applies the held or retried update once the item is created.
+     */
+    @Test
+    public void testUpdateBeforeCreate() {
+        UUID itemId = randomUUID();
+
+        projection.apply(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE));
+        assertThat(projection.find(itemId), equalTo(Optional.empty()));
+
+        projection.apply(TestEventData.buildCreateItemEvent(itemId, "my-item"));
+        assertThat(projection.find(itemId), equalTo(Optional.of(ItemStatus.ACTIVE)));
+    }
+
+    /**
+     * The projection is ready once every assigned partition has been seen with nothing left to apply.
+     */
+    @Test
+    public void testReady() {
+        assertThat(projection.assigned(List.of(CREATE_0, UPDATE_0)), contains(CREATE_0, UPDATE_0));
+        assertThat(projection.isReady(), equalTo(false));
+        assertThat(projection.staleness().lag(), equalTo(Long.MAX_VALUE));
+
+        projection.applied(CREATE_0, 5000L, Optional.of(0L));
+        assertThat(projection.isReady(), equalTo(false));
+
+        projection.behind(UPDATE_0, 0);
+        assertThat(projection.isReady(), equalTo(true));
+        assertThat(projection.staleness(), equalTo(new ItemStatusProjection.Staleness(0, 0)));
+    }
+
+    @Test
+    public void testReady_Disabled() {
+        projection = new ItemStatusProjection(new ProjectionProperties(), new RetryClock(clockMock));
+        projection.assigned(List.of(CREATE_0));
+        projection.behind(CREATE_0, 0);
+
+        assertThat(projection.isReady(), equalTo(false));
+    }
+
+    /**
+     * A partition assigned again after being revoked carries on from where it was, rather than being replayed.
+     */
+    @Test
+    public void testAssigned_Again() {
+        projection.assigned(List.of(CREATE_0));
+        projection.behind(CREATE_0, 0);
+
+        assertThat(projection.assigned(List.of(CREATE_0, UPDATE_0)), contains(UPDATE_0));
+        assertThat(projection.assigned(List.of(CREATE_0, UPDATE_0)), empty());
+    }
+
+    /**
+     * Behind the end of a partition, the projection is stale from the write time of the last event applied, or from
+     * when it was last seen with nothing left to apply if that is later.
+     */
+    @Test
+    public void testStaleness() {
+        projection.assigned(List.of(CREATE_0, UPDATE_0));
+        projection.applied(CREATE_0, 9000L, Optional.of(0L));
+        projection.applied(UPDATE_0, 7500L, Optional.of(20L));
+
+        assertThat(projection.staleness(), equalTo(new ItemStatusProjection.Staleness(20, 2500)));
+
+        // Caught up at 10s, then 5 events arrive that were written since.
+        projection.behind(UPDATE_0, 0);
+        when(clockMock.millis()).thenReturn(12_000L);
+        projection.behind(UPDATE_0, 5);
+        assertThat(projection.staleness(), equalTo(new ItemStatusProjection.Staleness(5, 2000)));
+
+        // The first of them applied, written at 11s.
+        projection.applied(UPDATE_0, 11_000L, Optional.of(4L));
+        assertThat(projection.staleness(), equalTo(new ItemStatusProjection.Staleness(4, 1000)));
+        projection.applied(UPDATE_0, 11_500L, Optional.empty());
+        assertThat(projection.staleness(), equalTo(new ItemStatusProjection.Staleness(4, 500)));
+    }
+}
@@ -0,0 +1,201 @@
+package demo.service;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import demo.PendingUpdateProperties;
+import demo.event.UpdateItem;
+import demo.mapper.JsonMapper;
+import demo.util.TestEventData;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.service.RetryService;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.MessageHeaders;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class PendingUpdateBufferTest {
+
+    private static final MessageHeaders PARTITION_0 = new MessageHeaders(Map.of(KafkaHeaders.RECEIVED_TOPIC, "update-item", KafkaHeaders.RECEIVED_PARTITION, 0));
+    private static final MessageHeaders PARTITION_1 = new MessageHeaders(Map.of(KafkaHeaders.RECEIVED_TOPIC, "update-item", KafkaHeaders.RECEIVED_PARTITION, 1));
+
+    private RetryService retryServiceMock;
+    private Clock clockMock;
+    private PendingUpdateBuffer buffer;
+
+    @BeforeEach
+    public void setUp() {
+        retryServiceMock = mock(RetryService.class);
+        clockMock = mock(Clock.class);
+        when(clockMock.millis()).thenReturn(1000L);
+        buffer = new PendingUpdateBuffer(retryServiceMock, properties(true, 3), new RetryClock(clockMock));
+    }
+
+    /**
+     * The updates held for an item are taken in the order they were received, and are not then sent for retry.
+     */
+    @Test
+    public void testHoldAndTake() {
+        UUID itemId = randomUUID();
+        UpdateItem activate = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        UpdateItem cancel = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.CANCELLED);
+
+        assertThat(buffer.hold(activate, JsonMapper.writeToJsonBytes(activate), PARTITION_0), equalTo(true));
+        assertThat(buffer.hold(cancel, JsonMapper.writeToJsonBytes(cancel), PARTITION_0), equalTo(true));
+        assertThat(buffer.size(), equalTo(2));
+
+        assertThat(buffer.take(itemId).stream().map(PendingUpdateBuffer.PendingUpdate::event).toList(), contains(activate, cancel));
+        assertThat(buffer.size(), equalTo(0));
+        assertThat(buffer.take(itemId).size(), equalTo(0));
+
+        when(clockMock.millis()).thenReturn(10000L);
+        buffer.sweep();
+        verifyNoInteractions(retryServiceMock);
+    }
+
+    /**
+     * An update whose item is not created within the TTL is sent for retry keyed by its item Id.
+     */
+    @Test
+    public void testSweep_Expired() {
+        UpdateItem early = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] earlyPayload = JsonMapper.writeToJsonBytes(early);
+        buffer.hold(early, earlyPayload, PARTITION_0);
+        when(clockMock.millis()).thenReturn(1300L);
+        UpdateItem late = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        buffer.hold(late, JsonMapper.writeToJsonBytes(late), PARTITION_0);
+
+        when(clockMock.millis()).thenReturn(1500L);
+        buffer.sweep();
+
+        verify(retryServiceMock, times(1)).retry(earlyPayload, PARTITION_0, early.getId().toString());
+        verify(retryServiceMock, never()).retry(any(), any(), eq(late.getId().toString()));
+        assertThat(buffer.size(), equalTo(1));
+    }
+
+    /**
+     * When the buffer is full the oldest held item's updates are sent for retry to make room.
+     */
+    @Test
+    public void testHold_Full() {
+        UpdateItem eldest = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] eldestPayload = JsonMapper.writeToJsonBytes(eldest);
+        buffer.hold(eldest, eldestPayload, PARTITION_0);
+        for(int i = 0; i < 3; i++) {
+            UpdateItem update = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+            buffer.hold(update, JsonMapper.writeToJsonBytes(update), PARTITION_0);
+        }
+
+        verify(retryServiceMock, times(1)).retry(eldestPayload, PARTITION_0, eldest.getId().toString());
+        assertThat(buffer.size(), equalTo(3));
+        assertThat(buffer.take(eldest.getId()).size(), equalTo(0));
+    }
+
+    /**
+     * The updates held from revoked partitions are sent for retry, and those from other partitions are kept.
+     */
+    @Test
+    public void testOnPartitionsRevoked() {
+        UpdateItem revoked = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] revokedPayload = JsonMapper.writeToJsonBytes(revoked);
+        buffer.hold(revoked, revokedPayload, PARTITION_0);
+        UpdateItem kept = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        buffer.hold(kept, JsonMapper.writeToJsonBytes(kept), PARTITION_1);
+
+        buffer.onPartitionsRevoked(List.of(new TopicPartition("update-item", 0)));
+
+        verify(retryServiceMock, times(1)).retry(revokedPayload, PARTITION_0, revoked.getId().toString());
+        assertThat(buffer.size(), equalTo(1));
+        assertThat(buffer.take(kept.getId()).size(), equalTo(1));
+    }
+
+    /**
+     * All held updates are sent for retry on shutdown.
+     */
+    @Test
+    public void testStop() throws Exception {
+        UpdateItem update = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        byte[] payload = JsonMapper.writeToJsonBytes(update);
+        buffer.hold(update, payload, PARTITION_1);
+
+        buffer.stop();
+
+        verify(retryServiceMock, times(1)).retry(payload, PARTITION_1, update.getId().toString());
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    /**
+     * An expired update that cannot be sent for retry is held again for another TTL, ahead of any update held for its
+     * item since, and is sent on the next sweep after it expires.
+     */
+    @Test
+    public void testSweep_RetryFailed() {
+        UUID itemId = randomUUID();
+        UpdateItem first = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE);
+        byte[] firstPayload = JsonMapper.writeToJsonBytes(first);
+        buffer.hold(first, firstPayload, PARTITION_0);
+        doThrow(new RuntimeException("Broker unavailable")).doNothing().when(retryServiceMock).retry(firstPayload, PARTITION_0, itemId.toString());
+
+        when(clockMock.millis()).thenReturn(1500L);
+        buffer.sweep();
+        UpdateItem second = TestEventData.buildUpdateItemEvent(itemId, ItemStatus.CANCELLED);
+        buffer.hold(second, JsonMapper.writeToJsonBytes(second), PARTITION_0);
+
+        assertThat(buffer.size(), equalTo(2));
+        buffer.sweep();
+        verify(retryServiceMock, times(1)).retry(any(), any(), any());
+        when(clockMock.millis()).thenReturn(2000L);
+        buffer.sweep();
+
+        verify(retryServiceMock, times(2)).retry(firstPayload, PARTITION_0, itemId.toString());
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    /**
+     * On shutdown an update that cannot be sent for retry is not held again.
+     */
+    @Test
+    public void testStop_RetryFailed() throws Exception {
+        UpdateItem update = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+        buffer.hold(update, JsonMapper.writeToJsonBytes(update), PARTITION_1);
+        doThrow(new RuntimeException("Broker unavailable")).when(retryServiceMock).retry(any(), any(), any());
+
+        buffer.stop();
+
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    @Test
+    public void testHold_Disabled() {
+        buffer = new PendingUpdateBuffer(retryServiceMock, properties(false, 3), new RetryClock(clockMock));
+        UpdateItem update = TestEventData.buildUpdateItemEvent(randomUUID(), ItemStatus.ACTIVE);
+
+        assertThat(buffer.hold(update, JsonMapper.writeToJsonBytes(update), PARTITION_0), equalTo(false));
+        assertThat(buffer.size(), equalTo(0));
+    }
+
+    private static PendingUpdateProperties properties(final boolean enabled, final int maxEntries) {
+        final PendingUpdateProperties properties = new PendingUpdateProperties();
+        properties.setEnabled(enabled);
+        properties.setTtlMs(500);
+        properties.setMaxEntries(maxEntries);
+        return properties;
+    }
+}
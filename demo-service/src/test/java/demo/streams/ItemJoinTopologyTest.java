@@ -0,0 +1,246 @@
+package demo.streams;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import demo.domain.Item;
+import demo.event.CreateItem;
+import demo.event.UpdateItem;
+import demo.mapper.BinaryEventCodec;
+import demo.mapper.EventCodecs;
+import demo.mapper.JsonEventCodec;
+import demo.mapper.JsonMapper;
+import demo.service.ItemStatus;
+import demo.util.TestEventData;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.test.TestRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.MessageHeaders;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ItemJoinTopologyTest {
+
+    private static final Duration RETENTION = Duration.ofMinutes(5);
+    private static final Instant START = Instant.parse("2023-03-01T12:00:00Z");
+
+    @TempDir
+    Path stateDir;
+
+    private TopologyTestDriver driver;
+    private TestInputTopic<String, byte[]> createTopic;
+    private TestInputTopic<String, byte[]> updateTopic;
+    private TestOutputTopic<String, Item> outputTopic;
+
+    @BeforeEach
+    public void setUp() {
+        Properties config = new Properties();
+        config.put(StreamsConfig.APPLICATION_ID_CONFIG, "item-join-test");
+        config.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        config.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        driver = new TopologyTestDriver(ItemJoinTopology.build("create-item", "update-item", "item-status", RETENTION,
+                new EventCodecs(List.of(new JsonEventCodec(), new BinaryEventCodec()))), config);
+        createTopic = driver.createInputTopic("create-item", new StringSerializer(), new ByteArraySerializer(), START, Duration.ZERO);
+        updateTopic = driver.createInputTopic("update-item", new StringSerializer(), new ByteArraySerializer(), START, Duration.ZERO);
+        outputTopic = driver.createOutputTopic("item-status", new StringDeserializer(), ItemJoinTopology.ITEM_SERDE.deserializer());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        driver.close();
+    }
+
+    /**
+     * The item is published with NEW status when created, and again with each update.
+     */
+    @Test
+    public void testCreateThenUpdate() {
+        UUID itemId = randomUUID();
+
+        create(itemId, START);
+        update(itemId, ItemStatus.ACTIVE, START.plusMillis(10));
+
+        assertThat(outputTopic.readKeyValuesToList(), contains(
+                KeyValue.pair(itemId.toString(), item(itemId, ItemStatus.NEW)),
+                KeyValue.pair(itemId.toString(), item(itemId, ItemStatus.ACTIVE))));
+        assertThat(items().get(itemId.toString()).getStatus(), equalTo(ItemStatus.ACTIVE));
+    }
+
+    /**
+     * An update that arrives before its create is held, with nothing published, and applied when the create arrives,
+     * so the item is published once with the update's status.
+     */
+    @Test
+    public void testUpdateBeforeCreate() {
+        UUID itemId = randomUUID();
+
+        update(itemId, ItemStatus.ACTIVE, START);
+        assertThat(outputTopic.isEmpty(), equalTo(true));
+        assertThat(items().get(itemId.toString()), equalTo(null));
+
+        create(itemId, START.plusMillis(20));
+
+        assertThat(outputTopic.readKeyValuesToList(), contains(KeyValue.pair(itemId.toString(), item(itemId, ItemStatus.ACTIVE))));
+    }
+
+    /**
+     * The held updates are applied in the order they were written, and only to their own item.
+     */
+    @Test
+    public void testUpdatesBeforeCreate_AppliedInOrder() {
+        UUID itemId = randomUUID();
+        UUID otherItemId = randomUUID();
+
+        update(itemId, ItemStatus.ACTIVE, START);
+        update(otherItemId, ItemStatus.ACTIVE, START.plusMillis(5));
+        update(itemId, ItemStatus.CANCELLED, START.plusMillis(10));
+        create(itemId, START.plusMillis(20));
+
+        assertThat(outputTopic.readValuesToList(), contains(item(itemId, ItemStatus.CANCELLED)));
+    }
+
+    /**
+     * A create for an item that already exists, such as a redelivery, changes nothing, and the held updates are not
+     * applied a second time.
+     */
+    @Test
+    public void testCreate_AlreadyCreated() {
+        UUID itemId = randomUUID();
+        update(itemId, ItemStatus.ACTIVE, START);
+        create(itemId, START.plusMillis(10));
+        update(itemId, ItemStatus.CANCELLED, START.plusMillis(20));
+        outputTopic.readValuesToList();
+
+        create(itemId, START.plusMillis(30));
+
+        assertThat(outputTopic.isEmpty(), equalTo(true));
+        assertThat(items().get(itemId.toString()).getStatus(), equalTo(ItemStatus.CANCELLED));
+    }
+
+    /**
+     * An update held for longer than the retention is not applied, and is counted as expired, and the item is created
+     * with NEW status.
+     */
+    @Test
+    public void testUpdateBeforeCreate_Expired() {
+        UUID itemId = randomUUID();
+
+        update(itemId, ItemStatus.ACTIVE, START);
+        create(itemId, START.plus(RETENTION).plusSeconds(1));
+
+        assertThat(outputTopic.readValuesToList(), contains(item(itemId, ItemStatus.NEW)));
+        assertThat(expiredUpdates(), equalTo(1.0));
+    }
+
+    /**
+     * An update whose item is never created is counted as expired once the stream time passes its retention, and only
+     * once, however far the stream time goes on.
+     */
+    @Test
+    public void testUpdateBeforeCreate_ExpiredWithoutCreate() {
+        UUID itemId = randomUUID();
+        UUID otherItemId = randomUUID();
+
+        update(itemId, ItemStatus.ACTIVE, START);
+        create(otherItemId, START.plus(RETENTION));
+        assertThat(expiredUpdates(), equalTo(0.0));
+
+        create(randomUUID(), START.plus(RETENTION).plusSeconds(61));
+        assertThat(expiredUpdates(), equalTo(1.0));
+
+        create(randomUUID(), START.plus(RETENTION).plusSeconds(200));
+        assertThat(expiredUpdates(), equalTo(1.0));
+    }
+
+    /**
+     * An update swept as expired is not counted again, nor applied, when its create arrives while it is still in the
+     * store.
+     */
+    @Test
+    public void testUpdateBeforeCreate_ExpiredThenCreated() {
+        UUID itemId = randomUUID();
+
+        update(itemId, ItemStatus.ACTIVE, START);
+        create(randomUUID(), START.plus(RETENTION).plusSeconds(61));
+        outputTopic.readValuesToList();
+
+        create(itemId, START.plus(RETENTION).plusSeconds(120));
+
+        assertThat(outputTopic.readValuesToList(), contains(item(itemId, ItemStatus.NEW)));
+        assertThat(expiredUpdates(), equalTo(1.0));
+    }
+
+    /**
+     * A binary encoded update is decoded with the codec for its content type.
+     */
+    @Test
+    public void testBinaryUpdate() {
+        UUID itemId = randomUUID();
+        create(itemId, START);
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(MessageHeaders.CONTENT_TYPE, BinaryEventCodec.CONTENT_TYPE.getBytes(UTF_8));
+        byte[] payload = new BinaryEventCodec().encode(TestEventData.buildUpdateItemEvent(itemId, ItemStatus.ACTIVE));
+
+        updateTopic.pipeInput(new TestRecord<>(null, payload, headers, START.plusMillis(10)));
+
+        assertThat(outputTopic.readValuesToList(), contains(item(itemId, ItemStatus.NEW), item(itemId, ItemStatus.ACTIVE)));
+    }
+
+    /**
+     * An event that cannot be decoded is skipped, and the events after it are still processed.
+     */
+    @Test
+    public void testUndecodableEvent() {
+        UUID itemId = randomUUID();
+
+        updateTopic.pipeInput(null, "not json".getBytes(UTF_8), START);
+        create(itemId, START.plusMillis(10));
+
+        assertThat(outputTopic.readValuesToList(), contains(item(itemId, ItemStatus.NEW)));
+    }
+
+    private void create(final UUID itemId, final Instant timestamp) {
+        CreateItem event = TestEventData.buildCreateItemEvent(itemId, "item-" + itemId);
+        createTopic.pipeInput(null, JsonMapper.writeToJsonBytes(event), timestamp);
+    }
+
+    private void update(final UUID itemId, final ItemStatus status, final Instant timestamp) {
+        UpdateItem event = TestEventData.buildUpdateItemEvent(itemId, status);
+        updateTopic.pipeInput(null, JsonMapper.writeToJsonBytes(event), timestamp);
+    }
+
+    private static Item item(final UUID itemId, final ItemStatus status) {
+        return Item.builder().id(itemId).name("item-" + itemId).status(status).build();
+    }
+
+    private double expiredUpdates() {
+        return driver.metrics().entrySet().stream()
+                .filter(metric -> metric.getKey().name().equals("expired-early-update-total"))
+                .mapToDouble(metric -> (Double)metric.getValue().metricValue())
+                .sum();
+    }
+
+    private KeyValueStore<String, Item> items() {
+        return driver.getKeyValueStore(ItemJoinTopology.ITEM_STORE);
+    }
+}
@@ -1,9 +1,149 @@
 package messaging.retry;
 
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Properties;
+
+import io.micrometer.observation.ObservationTextPublisher;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.consumer.RetryConsumer;
+import messaging.retry.lib.CoarseClock;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryProducer;
+import messaging.retry.service.ParkedRetryIndex;
+import messaging.retry.service.RetryBacklog;
+import messaging.retry.service.RetryBacklogEndpoint;
+import messaging.retry.service.RetrySettingsEndpoint;
+import messaging.retry.service.RetryStreams;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.util.backoff.FixedBackOff;
 
+@Slf4j
 @ComponentScan(basePackages = {"messaging.retry"})
+@EnableConfigurationProperties(MessagingRetryProperties.class)
 @Configuration
 public class MessagingRetryConfiguration {
+
+    /**
+     * The container factory for the retry stream listener containers, created from the application's consumer factory.
+     * The payloads are read as opaque bytes, overriding the value deserializer of the consumer factory, which must
+     * therefore configure its deserializers by class rather than by instance.
+     *
+     * The listeners acknowledge manually, so that a poll can be committed up to the first event that is not yet due a
+     * retry.  If retry transactions are enabled each poll is consumed in a Kafka transaction on the application's
+     * producer factory, which must therefore be transactional, or on the retry producer's if it is enabled.
+     *
+     * If auto startup is disabled the containers are registered but not started, and are started by the application
+     * through the KafkaListenerEndpointRegistry.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, byte[]> kafkaListenerRetryContainerFactory(final ConsumerFactory<?, ?> consumerFactory,
+                                                                                                      final ProducerFactory<?, ?> producerFactory,
+                                                                                                      final MessagingRetryProperties properties,
+                                                                                                      final ParkedRetryIndex parkedRetryIndex,
+                                                                                                      final RetryBacklog retryBacklog,
+                                                                                                      final RetryProducer retryProducer) {
+        final DefaultErrorHandler errorHandler = new DefaultErrorHandler((record, exception) -> {
+            // 1 second pause, unlimited retries - allow the discard logic to deal with the limit.
+        }, new FixedBackOff(1000L, FixedBackOff.UNLIMITED_ATTEMPTS));
+
+        final ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory();
+        factory.setConsumerFactory((ConsumerFactory)consumerFactory);
+        factory.getContainerProperties().setKafkaConsumerProperties(byteArrayValues());
+        factory.setCommonErrorHandler(errorHandler);
+        factory.setAutoStartup(properties.isAutoStartup());
+        // The events parked on a partition can only be released, and its backlog is only known, while it is assigned to
+        // this instance.
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(final Collection<TopicPartition> partitions) {
+                parkedRetryIndex.onPartitionsRevoked(partitions);
+                retryBacklog.onPartitionsRevoked(partitions);
+            }
+
+            @Override
+            public void onPartitionsAssigned(final Collection<TopicPartition> partitions) {
+            }
+        });
+        // Each poll is evaluated as a batch, against a single reading of the clock.
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        // The container only checks whether the pause after a nack has elapsed between polls.
+        factory.getContainerProperties().setPollTimeout(RetryConsumer.REPOLL_DELAY.toMillis());
+        if(properties.getTransactions().isEnabled() && retryProducer.isEnabled()) {
+            factory.getContainerProperties().setTransactionManager(new KafkaTransactionManager<>(retryProducer.getProducerFactory()));
+        } else if(properties.getTransactions().isEnabled()) {
+            if(!producerFactory.transactionCapable()) {
+                throw new IllegalStateException("Retry transactions are enabled but the ProducerFactory is not transactional - set its transactionIdPrefix.");
+            }
+            factory.getContainerProperties().setTransactionManager(new KafkaTransactionManager<>(producerFactory));
+        }
+        return factory;
+    }
+
+    /**
+     * The consumer property overrides to read the payloads as opaque bytes.
+     */
+    public static Properties byteArrayValues() {
+        final Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        return overrides;
+    }
+
+    /**
+     * Registers the retrybacklog and retrysettings actuator endpoints if the application includes Spring Boot Actuator.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.annotation.Endpoint")
+    public static class RetryEndpointConfiguration {
+
+        @Bean
+        public RetryBacklogEndpoint retryBacklogEndpoint(final RetryBacklog retryBacklog) {
+            return new RetryBacklogEndpoint(retryBacklog);
+        }
+
+        @Bean
+        public RetrySettingsEndpoint retrySettingsEndpoint(final RetryStreams retryStreams) {
+            return new RetrySettingsEndpoint(retryStreams);
+        }
+    }
+
+    /**
+     * Logs the retry observations as they start and stop, if retry.messaging.observations.log is set.  The handler is
+     * registered with the application's observation registry by Spring Boot.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "retry.messaging.observations.log", havingValue = "true")
+    public ObservationTextPublisher retryObservationLogger() {
+        // Observations named by a convention, such as the listener containers', have no name yet when they are checked.
+        return new ObservationTextPublisher(log::info, context -> context.getName() != null && context.getName().startsWith("messaging.retry."));
+    }
+
+    /**
+     * The clock the retry decisions are made against: the system clock, or the cached coarse clock if configured.  An
+     * application can define its own RetryClock bean instead, in a configuration that is component scanned or imported
+     * ahead of this one.
+     */
+    @Bean
+    @ConditionalOnMissingBean(RetryClock.class)
+    public RetryClock messagingRetryClock(final MessagingRetryProperties properties) {
+        final MessagingRetryProperties.TimeSource timeSource = properties.getClock();
+        return new RetryClock(timeSource.isCoarse() ? new CoarseClock(timeSource.getTickMs()) : Clock.systemUTC());
+    }
 }
@@ -0,0 +1,395 @@
+package messaging.retry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The retry stream configuration.
+ *
+ * The top level topic, retry interval, max retry duration and concurrency define the default retry stream, used for
+ * events from any original topic that is not assigned to its own stream.
+ *
+ * Each entry in streams defines a further retry stream, with its own retry topic and listener container, for the
+ * events from its original topics.  This isolates the throughput and delay of each stream from the others.  Any of the
+ * stream's retry interval, max retry duration and concurrency that are not set are taken from the default stream.
+ *
+ * The logging settings control how often the per record log lines are written on the consumer hot paths.
+ *
+ * The clock settings select the time source the retry decisions are made against.
+ *
+ * The transactions settings enable exactly once handoff from the retry topics back to the original topics.
+ *
+ * The release settings enable events parked on the retry topics to be released early by their retry key.
+ *
+ * The lanes settings enable priority lanes, each with its own retry topic per retry stream.
+ *
+ * The producer settings enable a producer owned by the retry library, tuned separately from the application's.
+ *
+ * The claim check settings enable large payloads to be held in a local store while they wait on the retry topics,
+ * with only a reference to them sent through the retry topic.
+ *
+ * The spill settings enable retry sends that cannot reach the broker to be written to local disk and sent once it is
+ * reachable again.
+ *
+ * The observations settings control the logging of the retry observations.
+ *
+ * The dead letter settings define the dead letter topic and how dead letters are batched on to it.
+ *
+ * The rate limit settings throttle the republishing of events to each original topic, and share the rate between the
+ * priority lanes.
+ *
+ * If autoStartup is false the retry topic listener containers are not started with the application context, so that
+ * the application can start them once it is ready, such as after warming its connection pools.
+ */
+@Data
+@ConfigurationProperties(prefix = "retry.messaging")
+public class MessagingRetryProperties {
+
+    private String topic;
+
+    private Long retryIntervalSeconds;
+
+    private Long maxRetryDurationSeconds;
+
+    private Integer concurrency = 1;
+
+    private boolean autoStartup = true;
+
+    private List<Stream> streams = new ArrayList<>();
+
+    private Logging logging = new Logging();
+
+    private TimeSource clock = new TimeSource();
+
+    private Transactions transactions = new Transactions();
+
+    private Release release = new Release();
+
+    private Lanes lanes = new Lanes();
+
+    private Spill spill = new Spill();
+
+    private Producer producer = new Producer();
+
+    private ClaimCheck claimCheck = new ClaimCheck();
+
+    private Observations observations = new Observations();
+
+    private DeadLetter deadLetter = new DeadLetter();
+
+    private RateLimit rateLimit = new RateLimit();
+
+    @Data
+    public static class Stream {
+
+        private List<String> originalTopics = new ArrayList<>();
+
+        private String topic;
+
+        private Long retryIntervalSeconds;
+
+        private Long maxRetryDurationSeconds;
+
+        private Integer concurrency;
+    }
+
+    @Data
+    public static class Logging {
+
+        /**
+         * The fraction of received records that are logged, between 0 (none) and 1 (all).
+         */
+        private double sampleRate = 1.0;
+
+        /**
+         * The sample rate for specific topics, overriding the default sample rate.
+         */
+        private Map<String, Double> topicSampleRates = new HashMap<>();
+    }
+
+    @Data
+    public static class TimeSource {
+
+        /**
+         * Whether to use the cached coarse clock rather than reading the system clock for every record.
+         */
+        private boolean coarse = false;
+
+        /**
+         * How often the coarse clock is updated from the system clock.
+         */
+        private long tickMs = 10;
+    }
+
+    @Data
+    public static class Transactions {
+
+        /**
+         * Whether the retry topic listener containers consume in Kafka transactions, committing the republished events
+         * along with the retry topic offsets.  Requires a transactional ProducerFactory.
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Release {
+
+        /**
+         * Whether the events parked on the retry topics are indexed by their retry key, so that they can be released
+         * for retry as soon as the application calls RetryService.release with the key.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum number of parked events indexed.  Events beyond this wait for their retry interval.
+         */
+        private int maxParked = 10000;
+    }
+
+    @Data
+    public static class Lanes {
+
+        /**
+         * Whether the events are retried in the retry topic for their priority, with a listener container per priority
+         * for each retry stream, rather than all in the stream's retry topic.
+         */
+        private boolean enabled = false;
+    }
+
+    @Data
+    public static class Spill {
+
+        /**
+         * Whether retry sends that fail because the broker cannot be reached are spilled to local disk rather than lost.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The directory the spill segment files are written to.  Defaults to messaging-retry-spill in the temp directory,
+         * but should be on a volume that survives a restart of the application.
+         */
+        private String directory;
+
+        /**
+         * How long a retry send waits for the broker acknowledgement before it is spilled instead.
+         */
+        private long sendTimeoutMs = 5000;
+
+        /**
+         * The maximum size of the spill on disk.  Retry sends fail once it is full.
+         */
+        private long maxBytes = 256L * 1024 * 1024;
+
+        /**
+         * The size at which a segment file is closed and a new one started.
+         */
+        private long segmentBytes = 16L * 1024 * 1024;
+
+        /**
+         * How often the spilled sends are flushed to disk.  Sends spilled since the last flush can be lost if the host
+         * fails.
+         */
+        private long fsyncIntervalMs = 50;
+
+        /**
+         * How long the drain waits before trying again after failing to send a spilled send.
+         */
+        private long drainBackoffMs = 1000;
+    }
+
+    @Data
+    public static class Producer {
+
+        /**
+         * Whether the retry, republish and dead letter sends use a producer of their own, created from the application
+         * ProducerFactory's configuration with the settings below, rather than the application's KafkaTemplate.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Whether the producer is idempotent, so that a send retried by the producer is not duplicated on the topic.
+         * Requires acks of all.
+         */
+        private boolean idempotence = true;
+
+        private String acks = "all";
+
+        /**
+         * The compression codec for the producer batches: none, gzip, snappy, lz4 or zstd.
+         */
+        private String compressionType = "lz4";
+
+        /**
+         * How long the producer waits for a batch to fill before sending it.
+         */
+        private long lingerMs = 20;
+
+        /**
+         * The maximum size of a batch to a partition, in bytes.
+         */
+        private int batchSize = 128 * 1024;
+
+        /**
+         * The memory the producer buffers unsent records in, separate from the application producer's buffer.
+         */
+        private long bufferMemory = 32L * 1024 * 1024;
+
+        /**
+         * The transactional Id prefix of the producer when retry transactions are enabled.  Must differ from the
+         * application's prefix.
+         */
+        private String transactionIdPrefix = "messaging-retry-tx-";
+
+        /**
+         * Any further producer configuration, overriding the application's and the settings above.
+         */
+        private Map<String, String> properties = new HashMap<>();
+    }
+
+    @Data
+    public static class ClaimCheck {
+
+        /**
+         * Whether payloads larger than the threshold are stored in the ClaimCheckStore while they wait on the retry
+         * topic, rather than being sent through it.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The payload size above which the payload is claim checked.
+         */
+        private int thresholdBytes = 256 * 1024;
+
+        /**
+         * The directory the file store writes the payloads to.  Defaults to messaging-retry-claim-check in the temp
+         * directory, but should be on a volume that survives a restart of the application.
+         */
+        private String directory;
+
+        /**
+         * How long a stored payload is kept before it is expired, if it has not been republished or dead lettered by
+         * then.  Should be well beyond the longest max retry duration.
+         */
+        private long retentionMs = 24L * 60 * 60 * 1000;
+
+        /**
+         * How often the payloads past their retention are expired.
+         */
+        private long sweepIntervalMs = 60L * 60 * 1000;
+    }
+
+    @Data
+    public static class Observations {
+
+        /**
+         * Whether the retry observations are logged as they start and stop, with their parent and key values, such as
+         * in tests or where there is no tracing collector to export them to.
+         */
+        private boolean log = false;
+    }
+
+    @Data
+    public static class DeadLetter {
+
+        /**
+         * The topic that events that are discarded or that fail processing are sent to.
+         */
+        private String topic = "messaging-retry-dlt";
+
+        /**
+         * The maximum number of dead letters sent in a single batch.
+         */
+        private int batchSize = 100;
+
+        /**
+         * The time to wait for a batch to fill before sending what has been queued.
+         */
+        private long lingerMs = 50;
+
+        /**
+         * The maximum number of dead letters queued for the background publisher, beyond which they are sent
+         * synchronously.
+         */
+        private int queueCapacity = 10000;
+    }
+
+    @Data
+    public static class RateLimit {
+
+        /**
+         * Whether the events republished to each original topic are rate limited.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum number of events per second republished to each original topic.
+         */
+        private double ratePerSecond = 100;
+
+        /**
+         * The number of events that can be republished in a burst above the rate.
+         */
+        private double burst = 100;
+
+        /**
+         * The maximum time to wait for the rate limit to permit a republish before the event is delayed.
+         */
+        private long maxWaitMs = 500;
+
+        private Adaptive adaptive = new Adaptive();
+
+        private LaneWeights laneWeights = new LaneWeights();
+
+        @Data
+        public static class Adaptive {
+
+            /**
+             * Whether each topic's rate is adjusted to the lag of the consumer group that consumes the original topics.
+             */
+            private boolean enabled = false;
+
+            /**
+             * The consumer group that consumes the original topics, whose lag drives the adaptive rate.
+             */
+            private String groupId = "";
+
+            /**
+             * The lag above which the rate is halved.
+             */
+            private long highLag = 1000;
+
+            /**
+             * The lag below which the rate is increased by a tenth of the maximum.
+             */
+            private long lowLag = 100;
+
+            /**
+             * The rate the adaptive rate is never lowered below.
+             */
+            private double minRatePerSecond = 1;
+
+            /**
+             * How often the lag is checked.
+             */
+            private long intervalMs = 1000;
+        }
+
+        /**
+         * The weight of each priority lane's share of the rate and of the burst.  Each must be at least 1.
+         */
+        @Data
+        public static class LaneWeights {
+
+            private int high = 6;
+
+            private int normal = 3;
+
+            private int bulk = 1;
+        }
+    }
+}
@@ -1,42 +1,262 @@
 package messaging.retry.consumer;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import lombok.extern.slf4j.Slf4j;
 import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.lib.DeadLetterPublisher;
+import messaging.retry.lib.RecordLogSampler;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.lib.RetrySpillBuffer;
+import messaging.retry.service.ParkedRetryIndex;
+import messaging.retry.service.RetryBacklog;
+import messaging.retry.service.RetryPriority;
 import messaging.retry.service.RetryService;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import messaging.retry.service.RetryStream;
+import messaging.retry.service.RetryStreams;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
+import org.springframework.context.annotation.Scope;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.support.KafkaHeaders;
-import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
 import org.springframework.stereotype.Component;
 
+import static messaging.retry.lib.MessagingRetryHeaders.CLAIM_CHECK;
+import static messaging.retry.lib.MessagingRetryHeaders.CONTENT_TYPE;
 import static messaging.retry.lib.MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP;
 import static messaging.retry.lib.MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_ATTEMPTS;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_KEY;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_PRIORITY;
 
+/**
+ * Consumes the retry topic of a retry stream.
+ *
+ * One instance is created per configured retry stream by the RetryConsumerRegistrar, each with its own listener
+ * container, so that the streams are consumed independently of each other.
+ *
+ * The records are consumed a poll at a time, and every record in the poll is evaluated against a single reading of the
+ * clock.  The first record that is not yet due a retry is negatively acknowledged: the records before it are
+ * committed, and it and the records after it are re-polled to be evaluated again after a pause.
+ *
+ * If parked retry release is enabled, the records with a retry key from the first that is not yet due a retry onwards
+ * are parked in the ParkedRetryIndex, so that they can be released early.  A record that has been released, and so
+ * already republished, is skipped when it is re-polled.
+ *
+ * The dead letters published for the poll are awaited before it is committed.  If any could not be written the poll
+ * fails, and is redelivered by the container's error handler, so that the events are dead lettered again rather than
+ * lost.
+ *
+ * On every poll the backlog of each assigned partition is recorded in the RetryBacklog.
+ *
+ * With priority lanes enabled a RetryConsumer is created for each lane's retry topic.  The priority of each record is
+ * read from its retry-priority header, and a record that is due a retry takes a permit from its lane's share of the
+ * republish rate limit.
+ *
+ * The payloads are read as opaque bytes and passed on unchanged, along with their content type.  A claim checked
+ * payload is read as an empty payload with the reference to it in the retry-claim-check header, and is only fetched
+ * from the claim check store by the RetryService when the event is republished or dead lettered.
+ *
+ * With retry transactions enabled the poll is consumed in a Kafka transaction, so the events republished or dead
+ * lettered for the committed records are committed atomically with the retry topic offsets.
+ *
+ * The records are evaluated against the current settings of the retry stream for their original topic, so a change
+ * to the retry settings takes effect from the next record, without restarting or rebalancing the container.
+ *
+ * Each record evaluated is observed as a messaging.retry.consume observation, continuing the trace of the send that
+ * wrote it to the retry topic, so that the republish is in the same trace as the original event.
+ */
 @Slf4j
 @Component
+@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 public class RetryConsumer {
 
+    /**
+     * The pause before the records that are not yet due a retry are re-polled.
+     */
+    public static final Duration REPOLL_DELAY = Duration.ofSeconds(1);
+
     private final RetryService retryHandler;
 
-    public RetryConsumer(@Autowired RetryService retryHandler) {
+    private final DeadLetterPublisher deadLetterPublisher;
+
+    private final RecordLogSampler logSampler;
+
+    private final ParkedRetryIndex parkedRetryIndex;
+
+    private final RetryBacklog retryBacklog;
+
+    private final RetryObservations observations;
+
+    private final Clock clock;
+
+    private final RetryStreams retryStreams;
+
+    private final RetryStream stream;
+
+    private final DefaultKafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+
+    public RetryConsumer(RetryService retryHandler, DeadLetterPublisher deadLetterPublisher, RecordLogSampler logSampler,
+                         ParkedRetryIndex parkedRetryIndex, RetryBacklog retryBacklog, RetryObservations observations, Clock clock,
+                         RetryStreams retryStreams, RetryStream stream) {
         this.retryHandler = retryHandler;
+        this.deadLetterPublisher = deadLetterPublisher;
+        this.logSampler = logSampler;
+        this.parkedRetryIndex = parkedRetryIndex;
+        this.retryBacklog = retryBacklog;
+        this.observations = observations;
+        this.clock = clock;
+        this.retryStreams = retryStreams;
+        this.stream = stream;
+    }
+
+    @KafkaListener(id = "#{__listener.id}", idIsGroup = false, topics = "#{__listener.topic}",
+            concurrency = "#{__listener.concurrency}", containerFactory = "kafkaListenerRetryContainerFactory")
+    public void listen(final List<ConsumerRecord<String, byte[]>> records, final Acknowledgment acknowledgment, final Consumer<?, ?> consumer) {
+        final long now = clock.millis();
+        for(int index = 0; index < records.size(); index++) {
+            final ConsumerRecord<String, byte[]> record = records.get(index);
+            if(!parkedRetryIndex.claim(recordId(record))) {
+                log.debug("Retry Item Consumer: skipping released event at offset {}", record.offset());
+                continue;
+            }
+            final Map<String, Object> headers = new HashMap<>();
+            headerMapper.toHeaders(record.headers(), headers);
+            final String originalTopic = (String)headers.get(ORIGINAL_RECEIVED_TOPIC);
+            final Integer attempts = (Integer)headers.get(RETRY_ATTEMPTS);
+            try {
+                RetryObservations.observe(observations.consume(record, originalTopic, attempts), () ->
+                        listen(record.value(), record.timestamp(), (Long)headers.get(ORIGINAL_RECEIVED_TIMESTAMP), originalTopic,
+                                attempts, (String)headers.get(CONTENT_TYPE), RetryPriority.fromHeader(headers.get(RETRY_PRIORITY)),
+                                (String)headers.get(CLAIM_CHECK), now));
+            } catch (RetryableMessagingException e) {
+                // Commit the records before this one, and re-poll this one and those after it to be re-evaluated.
+                log.debug("Retry Item Consumer: {} - re-polling from offset {}", e.getMessage(), record.offset());
+                deadLetterPublisher.awaitPublished();
+                park(records, index);
+                recordBacklog(records, index, consumer);
+                acknowledgment.nack(index, REPOLL_DELAY);
+                return;
+            }
+        }
+        deadLetterPublisher.awaitPublished();
+        recordBacklog(records, records.size(), consumer);
+        acknowledgment.acknowledge();
     }
 
-    @KafkaListener(topics = "#{'${retry.messaging.topic}'}", containerFactory = "kafkaListenerRetryContainerFactory")
-    public void listen(@Payload final String payload,
-                       @Header(KafkaHeaders.RECEIVED_TIMESTAMP) final Long receivedTimestamp,
-                       @Header(value = ORIGINAL_RECEIVED_TIMESTAMP, required = false) final Long originalReceivedTimestamp,
-                       @Header(ORIGINAL_RECEIVED_TOPIC) final String originalTopic) {
-        log.info("Retry Item Consumer: Received message - receivedTimestamp ["+receivedTimestamp+"] - originalReceivedTimestamp ["+originalReceivedTimestamp+"] payload: " + payload);
+    /**
+     * Records the backlog of each assigned partition as at the end of the poll: the records held for re-polling, from
+     * the given index onwards, with the time each is due a retry, and the consumer's lag after them.  Each is due after
+     * the current retry interval for its original topic.
+     */
+    private void recordBacklog(final List<ConsumerRecord<String, byte[]>> records, final int heldFrom, final Consumer<?, ?> consumer) {
+        final Map<TopicPartition, List<Long>> heldDueTimes = new HashMap<>();
+        for(int index = heldFrom; index < records.size(); index++) {
+            final ConsumerRecord<String, byte[]> record = records.get(index);
+            final Map<String, Object> headers = new HashMap<>();
+            headerMapper.toHeaders(record.headers(), headers);
+            final long retryIntervalMs = retryStreams.forOriginalTopic((String)headers.get(ORIGINAL_RECEIVED_TOPIC)).retryIntervalSeconds() * 1000;
+            heldDueTimes.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), partition -> new ArrayList<>())
+                    .add(record.timestamp() + retryIntervalMs);
+        }
+        for(TopicPartition partition : consumer.assignment()) {
+            final List<Long> dueTimes = heldDueTimes.getOrDefault(partition, List.of());
+            retryBacklog.update(partition, consumer.currentLag(partition).orElse(0L),
+                    dueTimes.stream().mapToLong(Long::longValue).toArray());
+        }
+    }
+
+    /**
+     * Parks the records that are to be re-polled, from the given index onwards, so that those with a retry key can be
+     * released early.
+     */
+    private void park(final List<ConsumerRecord<String, byte[]>> records, final int from) {
+        if(!parkedRetryIndex.isEnabled()) {
+            return;
+        }
+        for(int index = from; index < records.size(); index++) {
+            final ConsumerRecord<String, byte[]> record = records.get(index);
+            final Map<String, Object> headers = new HashMap<>();
+            headerMapper.toHeaders(record.headers(), headers);
+            final String retryKey = (String)headers.get(RETRY_KEY);
+            if(retryKey != null) {
+                parkedRetryIndex.park(new ParkedRetryIndex.ParkedRetry(recordId(record), retryKey, record.value(),
+                        (Long)headers.get(ORIGINAL_RECEIVED_TIMESTAMP), (String)headers.get(ORIGINAL_RECEIVED_TOPIC),
+                        (Integer)headers.get(RETRY_ATTEMPTS), (String)headers.get(CONTENT_TYPE),
+                        RetryPriority.fromHeader(headers.get(RETRY_PRIORITY)), (String)headers.get(CLAIM_CHECK)));
+            }
+        }
+    }
+
+    private static ParkedRetryIndex.RecordId recordId(final ConsumerRecord<String, byte[]> record) {
+        return new ParkedRetryIndex.RecordId(record.topic(), record.partition(), record.offset());
+    }
+
+    void listen(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp,
+                final String originalTopic, final Integer attempts, final String contentType, final long now) {
+        listen(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic, attempts, contentType, RetryPriority.NORMAL, null, now);
+    }
+
+    void listen(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp,
+                final String originalTopic, final Integer attempts, final String contentType, final RetryPriority priority,
+                final String claimCheck, final long now) {
+        if(logSampler.shouldLog(log, stream.topic())) {
+            log.atInfo()
+                    .addKeyValue("topic", stream.topic())
+                    .addKeyValue("originalTopic", originalTopic)
+                    .addKeyValue("receivedTimestamp", receivedTimestamp)
+                    .addKeyValue("originalReceivedTimestamp", originalReceivedTimestamp)
+                    .addKeyValue("attempts", attempts)
+                    .addKeyValue("payloadSize", payload.length)
+                    .log("Retry Item Consumer: Received message");
+        }
         try {
-            retryHandler.handle(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic);
+            retryHandler.handle(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic, attempts, contentType, priority, claimCheck, now);
         } catch (RetryableMessagingException e) {
             // Ensure the message is re-polled from this retry topic to be re-evaluated for retrying on the original topic.
             throw e;
         } catch (Exception e) {
+            if(RetrySpillBuffer.isRetriable(e)) {
+                // The broker could not be reached, such as while republishing, so re-poll the event rather than dead
+                // lettering an event that may well be republished on the next attempt.
+                log.warn("Retry event - retriable error processing message, re-polling: " + e.getMessage());
+                throw new RetryableMessagingException("Retriable error processing event from topic "+originalTopic+": "+e.getMessage());
+            }
             log.error("Retry event - error processing message: " + e.getMessage());
+            // Send to the dead letter topic so that the event is not lost and can be replayed.
+            final byte[] deadLetterPayload = claimCheck != null ? retryHandler.payload(payload, claimCheck) : payload;
+            if(deadLetterPayload == null) {
+                // The stored payload is gone, so the dead letter carries its reference in place of it.
+                deadLetterPublisher.publish(payload, originalTopic, originalReceivedTimestamp, attempts, contentType, e.getMessage(), claimCheck);
+                return;
+            }
+            final CompletableFuture<Void> published = deadLetterPublisher.publish(deadLetterPayload,
+                    originalTopic, originalReceivedTimestamp, attempts, contentType, e.getMessage());
+            if(claimCheck != null) {
+                // As with an expired event, the stored payload is kept until the dead letter is written.
+                published.thenRun(() -> retryHandler.releasePayload(claimCheck));
+            }
         }
     }
+
+    public String getId() {
+        return "retry-" + stream.topic();
+    }
+
+    public String getTopic() {
+        return stream.topic();
+    }
+
+    public int getConcurrency() {
+        return stream.concurrency();
+    }
 }
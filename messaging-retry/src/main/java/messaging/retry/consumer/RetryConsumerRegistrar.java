@@ -0,0 +1,84 @@
+package messaging.retry.consumer;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.lib.DeadLetterPublisher;
+import messaging.retry.lib.RecordLogSampler;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.service.ParkedRetryIndex;
+import messaging.retry.service.RetryBacklog;
+import messaging.retry.service.RetryService;
+import messaging.retry.service.RetryStream;
+import messaging.retry.service.RetryStreams;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Creates a RetryConsumer, and so a listener container, for each configured retry stream, or with priority lanes
+ * enabled for each lane of each stream.
+ *
+ * The consumers are created while the application context is starting, so their listener containers are registered and
+ * started along with the application's own listeners, unless retry.messaging.autoStartup is false.
+ */
+@Slf4j
+@Component
+public class RetryConsumerRegistrar {
+
+    private final ObjectProvider<RetryConsumer> retryConsumerProvider;
+
+    private final RetryService retryService;
+
+    private final DeadLetterPublisher deadLetterPublisher;
+
+    private final RecordLogSampler logSampler;
+
+    private final ParkedRetryIndex parkedRetryIndex;
+
+    private final RetryBacklog retryBacklog;
+
+    private final RetryObservations observations;
+
+    private final Clock clock;
+
+    private final RetryStreams retryStreams;
+
+    private final List<RetryConsumer> retryConsumers = new ArrayList<>();
+
+    public RetryConsumerRegistrar(@Autowired ObjectProvider<RetryConsumer> retryConsumerProvider,
+                                  @Autowired RetryService retryService,
+                                  @Autowired DeadLetterPublisher deadLetterPublisher,
+                                  @Autowired RecordLogSampler logSampler,
+                                  @Autowired ParkedRetryIndex parkedRetryIndex,
+                                  @Autowired RetryBacklog retryBacklog,
+                                  @Autowired RetryObservations observations,
+                                  @Autowired RetryClock clock,
+                                  @Autowired RetryStreams retryStreams) {
+        this.retryConsumerProvider = retryConsumerProvider;
+        this.retryService = retryService;
+        this.deadLetterPublisher = deadLetterPublisher;
+        this.logSampler = logSampler;
+        this.parkedRetryIndex = parkedRetryIndex;
+        this.retryBacklog = retryBacklog;
+        this.observations = observations;
+        this.clock = clock.clock();
+        this.retryStreams = retryStreams;
+    }
+
+    @PostConstruct
+    public void registerRetryConsumers() {
+        for(RetryStream stream : retryStreams.getConsumedStreams()) {
+            log.info("Registering retry consumer for retry topic {} with concurrency {}", stream.topic(), stream.concurrency());
+            retryConsumers.add(retryConsumerProvider.getObject(retryService, deadLetterPublisher, logSampler, parkedRetryIndex, retryBacklog, observations, clock, retryStreams, stream));
+        }
+    }
+
+    public List<RetryConsumer> getRetryConsumers() {
+        return retryConsumers;
+    }
+}
@@ -0,0 +1,130 @@
+package messaging.retry.lib;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Claim checks the large payloads sent for retry, when retry.messaging.claimCheck.enabled is set, so that a large
+ * payload is not copied through the broker to the retry topic, and re-read by the retry consumer on every re-poll
+ * while it waits.
+ *
+ * A payload larger than the threshold is stored in the ClaimCheckStore when it is sent for retry, and only its
+ * reference is sent to the retry topic.  The payload is fetched back when the event is republished, or dead lettered,
+ * and deleted once that is done.  For example, with the default threshold of 256KB a 2MB payload is written to the
+ * broker twice, to the original topic and when republished to it, rather than three times, and each re-poll of the
+ * retry topic reads a few bytes of headers rather than 2MB.
+ *
+ * When the republish is sent in a Kafka transaction the payload is only deleted once the transaction commits, as the
+ * event is re-polled from the retry topic if it rolls back.  A payload is otherwise deleted once the republish is
+ * acknowledged, so if the application stops before the retry topic offset is committed the event is re-polled with
+ * its payload already deleted, and is skipped as already republished.
+ *
+ * The payloads of events that are never republished, such as those whose retry send failed, are expired once they
+ * are older than the retention, checked every sweep interval.
+ */
+@Slf4j
+@Component
+public class ClaimCheck {
+
+    private final MessagingRetryProperties.ClaimCheck properties;
+
+    private final ClaimCheckStore store;
+
+    private ScheduledExecutorService sweeper;
+
+    public ClaimCheck(@Autowired MessagingRetryProperties properties,
+                      @Autowired ObjectProvider<ClaimCheckStore> store) {
+        this.properties = properties.getClaimCheck();
+        this.store = this.properties.isEnabled() ? store.getIfAvailable(() -> new FileClaimCheckStore(directory(this.properties))) : null;
+    }
+
+    private static Path directory(final MessagingRetryProperties.ClaimCheck properties) {
+        return properties.getDirectory() != null ? Paths.get(properties.getDirectory())
+                : Paths.get(System.getProperty("java.io.tmpdir"), "messaging-retry-claim-check");
+    }
+
+    @PostConstruct
+    public void start() {
+        if(!isEnabled() || properties.getSweepIntervalMs() <= 0) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "retry-claim-check-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, properties.getSweepIntervalMs(), properties.getSweepIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * Stores the payload if it is larger than the threshold.
+     *
+     * @return the reference to the stored payload, or null if it is not claim checked.
+     */
+    public String checkIn(final byte[] payload) {
+        if(!isEnabled() || payload == null || payload.length <= properties.getThresholdBytes()) {
+            return null;
+        }
+        return store.put(payload);
+    }
+
+    /**
+     * @return the payload stored with the reference, or null if it is no longer stored.
+     */
+    public byte[] checkOut(final String reference) {
+        return store.get(reference);
+    }
+
+    /**
+     * Deletes the stored payload once its event has been republished or dead lettered: straight away, or once the
+     * transaction commits if there is one.
+     */
+    public void release(final String reference) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    store.delete(reference);
+                }
+            });
+        } else {
+            store.delete(reference);
+        }
+    }
+
+    void sweep() {
+        try {
+            final int expired = store.expire(Instant.now().minusMillis(properties.getRetentionMs()));
+            if(expired > 0) {
+                log.warn("Expired {} claim checked payloads older than {}ms", expired, properties.getRetentionMs());
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to expire claim checked payloads: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package messaging.retry.lib;
+
+import java.time.Instant;
+
+/**
+ * Holds the payloads claim checked by the retry service while their events wait on the retry topics.
+ *
+ * The FileClaimCheckStore is used unless the application defines a ClaimCheckStore bean of its own, such as one backed
+ * by a shared volume or an object store, so that an event can be republished by an instance other than the one that
+ * sent it for retry.
+ */
+public interface ClaimCheckStore {
+
+    /**
+     * Stores the payload.
+     *
+     * @return the reference the payload is fetched and deleted by.
+     */
+    String put(byte[] payload);
+
+    /**
+     * @return the payload stored with the reference, or null if it is not stored, having been deleted or expired.
+     */
+    byte[] get(String reference);
+
+    void delete(String reference);
+
+    /**
+     * Deletes the payloads stored before the cutoff, which are those whose events were lost or never republished.
+     *
+     * @return the number of payloads deleted.
+     */
+    default int expire(final Instant cutoff) {
+        return 0;
+    }
+}
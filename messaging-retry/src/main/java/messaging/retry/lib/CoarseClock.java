@@ -0,0 +1,95 @@
+package messaging.retry.lib;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that returns a cached time, updated by a background thread every tick, rather than reading the system clock
+ * on every call.
+ *
+ * Reading the clock is then a single volatile read, which suits the retry decisions made for every record polled.  The
+ * time returned lags the system clock by up to the tick, which is negligible against retry intervals measured in
+ * seconds.
+ *
+ * Example:
+ *
+ * Tick of 10ms.
+ *
+ * The system clock reads 10:00:00.000 when the tick runs, so millis() returns 10:00:00.000 until the next tick at
+ * 10:00:00.010, however many times it is called in between.
+ */
+public class CoarseClock extends Clock implements AutoCloseable {
+
+    private final Ticker ticker;
+
+    private final ZoneId zone;
+
+    public CoarseClock(final long tickMs) {
+        this(Clock.systemUTC(), tickMs);
+    }
+
+    CoarseClock(final Clock source, final long tickMs) {
+        this(new Ticker(source, tickMs), ZoneOffset.UTC);
+    }
+
+    private CoarseClock(final Ticker ticker, final ZoneId zone) {
+        this.ticker = ticker;
+        this.zone = zone;
+    }
+
+    @Override
+    public long millis() {
+        return ticker.millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(ticker.millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Returns a view of this clock in the given zone, sharing the same background tick.
+     */
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        return zone.equals(this.zone) ? this : new CoarseClock(ticker, zone);
+    }
+
+    /**
+     * Stops the background tick.  The clock then returns the last time cached.
+     */
+    @Override
+    public void close() {
+        ticker.executor.shutdownNow();
+    }
+
+    private static class Ticker {
+
+        private final ScheduledExecutorService executor;
+
+        private volatile long millis;
+
+        private Ticker(final Clock source, final long tickMs) {
+            if(tickMs <= 0) {
+                throw new IllegalArgumentException("Coarse clock tick must be positive: "+tickMs);
+            }
+            this.millis = source.millis();
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "coarse-clock");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(() -> millis = source.millis(), tickMs, tickMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
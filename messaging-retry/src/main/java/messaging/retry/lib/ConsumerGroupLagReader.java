@@ -0,0 +1,73 @@
+package messaging.retry.lib;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.ListOffsetsResult;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the lag of a consumer group from the broker, summed per topic.
+ *
+ * The admin client is created on first use, connecting to the same brokers as the application consumers.
+ */
+@Component
+public class ConsumerGroupLagReader {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ConsumerFactory<?, ?> consumerFactory;
+
+    private Admin admin;
+
+    public ConsumerGroupLagReader(@Autowired ConsumerFactory<?, ?> consumerFactory) {
+        this.consumerFactory = consumerFactory;
+    }
+
+    /**
+     * Returns the total lag of the consumer group on each topic it has committed offsets for.  i.e. the sum over the
+     * topic's partitions of (log end offset - committed offset).
+     */
+    public Map<String, Long> lagByTopic(final String groupId) throws Exception {
+        final Map<TopicPartition, OffsetAndMetadata> committed = admin().listConsumerGroupOffsets(groupId)
+                .partitionsToOffsetAndMetadata().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> endOffsets = admin().listOffsets(committed.keySet().stream()
+                .collect(Collectors.toMap(partition -> partition, partition -> OffsetSpec.latest())))
+                .all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final Map<String, Long> lagByTopic = new HashMap<>();
+        committed.forEach((partition, offset) -> {
+            if(offset != null && endOffsets.containsKey(partition)) {
+                lagByTopic.merge(partition.topic(), Math.max(0, endOffsets.get(partition).offset() - offset.offset()), Long::sum);
+            }
+        });
+        return lagByTopic;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if(admin != null) {
+            admin.close();
+        }
+    }
+
+    private synchronized Admin admin() {
+        if(admin == null) {
+            final Map<String, Object> config = new HashMap<>();
+            config.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG,
+                    consumerFactory.getConfigurationProperties().get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG));
+            admin = Admin.create(config);
+        }
+        return admin;
+    }
+}
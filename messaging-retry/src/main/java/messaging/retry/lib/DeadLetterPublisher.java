@@ -0,0 +1,247 @@
+package messaging.retry.lib;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes events that can no longer be retried to the dead letter topic, so that they are not lost and can be
+ * replayed later.
+ *
+ * Publishing is asynchronous: events are queued and a single background thread sends them in batches, waiting up to
+ * the linger time for a batch to fill.  The listener thread is therefore not blocked waiting on the broker for each
+ * dead letter.  If the queue is full the event is sent synchronously instead, applying back pressure rather than
+ * dropping it.
+ *
+ * The dead letters queued by a thread are tracked until it calls awaitPublished, which waits for the broker to
+ * acknowledge them and throws if any could not be sent.  The retry consumer calls it before committing each poll, so
+ * a dead letter that is not written is redelivered from the retry topic rather than lost: the dead letters are
+ * published at least once.
+ *
+ * If the caller is consuming in a Kafka transaction the dead letter is instead sent in that transaction, so that it is
+ * committed atomically with the consumer offsets.
+ *
+ * Each dead letter carries the diagnostic headers: the topic it was originally received on, the timestamp it was
+ * first seen, the number of retry attempts made, the time it was dead lettered, and the last error.  The content type
+ * of the payload is carried over so that it can be decoded when replayed.
+ */
+@Slf4j
+@Component
+public class DeadLetterPublisher {
+
+    private final MessagingRetryKafkaClient kafkaClient;
+
+    /**
+     * The topic that events that are discarded or that fail processing are sent to.
+     */
+    private final String deadLetterTopic;
+
+    /**
+     * The maximum number of dead letters sent in a single batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The time to wait for a batch to fill before sending what has been queued.
+     */
+    private final long lingerMs;
+
+    private final BlockingQueue<DeadLetter> queue;
+
+    /**
+     * The dead letters queued by each thread that have not yet been awaited.
+     */
+    private final ThreadLocal<List<CompletableFuture<Void>>> pending = ThreadLocal.withInitial(ArrayList::new);
+
+    /**
+     * The time source the dead letter timestamp is taken from.
+     */
+    private final Clock clock;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    public DeadLetterPublisher(@Autowired MessagingRetryKafkaClient kafkaClient,
+                               @Autowired MessagingRetryProperties properties,
+                               @Autowired RetryClock clock) {
+        final MessagingRetryProperties.DeadLetter deadLetter = properties.getDeadLetter();
+        this.kafkaClient = kafkaClient;
+        this.deadLetterTopic = deadLetter.getTopic();
+        this.batchSize = deadLetter.getBatchSize();
+        this.lingerMs = deadLetter.getLingerMs();
+        this.queue = new ArrayBlockingQueue<>(deadLetter.getQueueCapacity());
+        this.clock = clock.clock();
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        worker = new Thread(this::run, "dead-letter-publisher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops accepting new work and waits for the queued dead letters to be sent.  Any still queued once the wait is over
+     * are failed, so that their callers do not commit them.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if(worker != null) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        final List<DeadLetter> unsent = new ArrayList<>();
+        queue.drainTo(unsent);
+        unsent.forEach(deadLetter -> deadLetter.sent().completeExceptionally(new IllegalStateException("Dead letter publisher stopped")));
+    }
+
+    /**
+     * Publishes the event to the dead letter topic: in the caller's Kafka transaction if it has one, otherwise queued
+     * for the background publisher, or sent synchronously if the queue is full.
+     *
+     * @return a future completed once the dead letter is written, or is part of the caller's transaction.
+     */
+    public CompletableFuture<Void> publish(final byte[] payload, final String originalTopic, final Long originalReceivedTimestamp,
+                                           final Integer attempts, final String contentType, final String lastError) {
+        return publish(payload, originalTopic, originalReceivedTimestamp, attempts, contentType, lastError, null);
+    }
+
+    /**
+     * Publishes the event to the dead letter topic as above, with the reference to its claim checked payload if the
+     * payload could not be checked out, so that the event is still recorded and can be traced to the store.
+     *
+     * @return a future completed once the dead letter is written, or is part of the caller's transaction.
+     */
+    public CompletableFuture<Void> publish(final byte[] payload, final String originalTopic, final Long originalReceivedTimestamp,
+                                           final Integer attempts, final String contentType, final String lastError,
+                                           final String claimCheckReference) {
+        final Map<String, Object> headers = new HashMap<>();
+        headers.put(MessagingRetryHeaders.DEAD_LETTER_TIMESTAMP, clock.millis());
+        putIfPresent(headers, MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, originalTopic);
+        putIfPresent(headers, MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp);
+        putIfPresent(headers, MessagingRetryHeaders.RETRY_ATTEMPTS, attempts);
+        putIfPresent(headers, MessagingRetryHeaders.CONTENT_TYPE, contentType);
+        putIfPresent(headers, MessagingRetryHeaders.DEAD_LETTER_LAST_ERROR, lastError);
+        putIfPresent(headers, MessagingRetryHeaders.CLAIM_CHECK, claimCheckReference);
+        if(kafkaClient.inTransaction()) {
+            kafkaClient.send(deadLetterTopic, payload, headers);
+            return CompletableFuture.completedFuture(null);
+        }
+        final DeadLetter deadLetter = new DeadLetter(payload, headers, new CompletableFuture<>());
+        if(!running || !queue.offer(deadLetter)) {
+            log.warn("Dead letter queue unavailable or full - sending dead letter synchronously.");
+            kafkaClient.sendMessage(deadLetterTopic, payload, headers);
+            return CompletableFuture.completedFuture(null);
+        }
+        pending.get().add(deadLetter.sent());
+        return deadLetter.sent();
+    }
+
+    /**
+     * Waits for the dead letters queued by the calling thread since it last called this to be written.
+     *
+     * @throws IllegalStateException if any of them could not be written, so the caller must not commit the records
+     * they were published for.
+     */
+    public void awaitPublished() {
+        final List<CompletableFuture<Void>> futures = pending.get();
+        if(futures.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Error sending dead letters to topic " + deadLetterTopic + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            futures.clear();
+        }
+    }
+
+    private void run() {
+        final List<DeadLetter> batch = new ArrayList<>(batchSize);
+        while(running || !queue.isEmpty()) {
+            try {
+                final DeadLetter first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while(batch.size() < batchSize) {
+                    final DeadLetter next = queue.poll(Math.max(0, lingerUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if(next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Dead letter publisher - error sending batch: " + e.getMessage());
+                batch.forEach(deadLetter -> deadLetter.sent().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends the batch without blocking on each record so that the producer can group them, then waits for the whole
+     * batch to be acknowledged.  Each dead letter's future is completed with the outcome of its send, so that its
+     * caller only commits the record it was published for once it is written.
+     */
+    private void send(final List<DeadLetter> batch) {
+        final List<CompletableFuture<SendResult>> futures = new ArrayList<>(batch.size());
+        for(DeadLetter deadLetter : batch) {
+            try {
+                futures.add(kafkaClient.sendMessageAsync(deadLetterTopic, deadLetter.payload(), deadLetter.headers())
+                        .whenComplete((result, exception) -> {
+                            if(exception != null) {
+                                logFailed(deadLetter, exception);
+                                deadLetter.sent().completeExceptionally(exception);
+                            } else {
+                                deadLetter.sent().complete(null);
+                            }
+                        }));
+            } catch (Exception e) {
+                logFailed(deadLetter, e);
+                deadLetter.sent().completeExceptionally(e);
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(exception -> null).join();
+        log.debug("Sent batch of {} dead letters to topic {}", batch.size(), deadLetterTopic);
+    }
+
+    private void logFailed(final DeadLetter deadLetter, final Throwable exception) {
+        log.error("Error sending dead letter to topic {} - headers {}", deadLetterTopic, deadLetter.headers(), exception);
+    }
+
+    private static void putIfPresent(final Map<String, Object> headers, final String key, final Object value) {
+        if(value != null) {
+            headers.put(key, value);
+        }
+    }
+
+    private record DeadLetter(byte[] payload, Map<String, Object> headers, CompletableFuture<Void> sent) {
+    }
+}
@@ -0,0 +1,113 @@
+package messaging.retry.lib;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stores the claim checked payloads as files on the local disk, one file per payload named by a random UUID.
+ *
+ * The files are spread over 256 sub-directories by the first two characters of their reference, so that no directory
+ * holds more than a fraction of them.  For example, the payload with reference 3f2a...-... is stored in 3f/3f2a...-...
+ *
+ * Each payload is written to a temporary file and flushed to disk before it is renamed into place, so that a payload
+ * whose reference has been sent to the retry topic is never found part written, even after the host fails.
+ *
+ * A reference is only ever resolved to a file in the store's directory: any reference that is not a UUID is rejected,
+ * as the references are read back from the retry topic.
+ */
+@Slf4j
+public class FileClaimCheckStore implements ClaimCheckStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    public FileClaimCheckStore(final Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public String put(final byte[] payload) {
+        final String reference = UUID.randomUUID().toString();
+        final Path path = path(reference);
+        final Path temp = path.resolveSibling(reference + TEMP_SUFFIX);
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(payload);
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store claim checked payload in " + directory, e);
+        }
+        return reference;
+    }
+
+    @Override
+    public byte[] get(final String reference) {
+        try {
+            return Files.readAllBytes(path(reference));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read claim checked payload " + reference, e);
+        }
+    }
+
+    @Override
+    public void delete(final String reference) {
+        try {
+            Files.deleteIfExists(path(reference));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete claim checked payload " + reference, e);
+        }
+    }
+
+    @Override
+    public int expire(final Instant cutoff) {
+        if(!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int expired = 0;
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            for(Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator(); iterator.hasNext(); ) {
+                final Path file = iterator.next();
+                try {
+                    if(Files.getLastModifiedTime(file).toInstant().isBefore(cutoff) && Files.deleteIfExists(file)) {
+                        expired++;
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to expire claim checked payload {}: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to expire claim checked payloads in " + directory, e);
+        }
+        return expired;
+    }
+
+    private Path path(final String reference) {
+        final String verifiedReference = UUID.fromString(reference).toString();
+        if(!verifiedReference.equals(reference)) {
+            throw new IllegalArgumentException("Invalid claim check reference: " + reference);
+        }
+        return directory.resolve(reference.substring(0, 2)).resolve(reference);
+    }
+}
@@ -1,8 +1,39 @@
 package messaging.retry.lib;
 
+import org.springframework.messaging.MessageHeaders;
+
 public class MessagingRetryHeaders {
 
     public static final String ORIGINAL_RECEIVED_TIMESTAMP = "original-received-timestamp";
 
     public static final String ORIGINAL_RECEIVED_TOPIC = "original-received-topic";
+
+    public static final String RETRY_ATTEMPTS = "retry-attempts";
+
+    /**
+     * The key of the entity the retried event is waiting on, by which it can be released for retry early.
+     */
+    public static final String RETRY_KEY = "retry-key";
+
+    /**
+     * The priority lane the event is retried in, carried through to the original topic so that it is kept if the
+     * event is retried again.
+     */
+    public static final String RETRY_PRIORITY = "retry-priority";
+
+    /**
+     * The reference to the payload held in the claim check store, sent in place of a payload too large to send through
+     * the retry topic.
+     */
+    public static final String CLAIM_CHECK = "retry-claim-check";
+
+    public static final String DEAD_LETTER_TIMESTAMP = "dead-letter-timestamp";
+
+    public static final String DEAD_LETTER_LAST_ERROR = "dead-letter-last-error";
+
+    /**
+     * The content type of the payload, carried unchanged through the retry and dead letter topics so that the consumer
+     * of the original topic can decode the payload however it was encoded.
+     */
+    public static final String CONTENT_TYPE = MessageHeaders.CONTENT_TYPE;
 }
@@ -1,7 +1,10 @@
 package messaging.retry.lib;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.observation.Observation;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,7 +14,20 @@ import org.springframework.kafka.support.SendResult;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+/**
+ * Sends the events on to the retry, original and dead letter topics.
+ *
+ * The payloads are opaque bytes, so the application's KafkaTemplate must be able to serialize byte[] values.
+ *
+ * If the RetryProducer is enabled the events are sent on it rather than the application's KafkaTemplate, except
+ * within a transaction on the application's producer, such as when an application listener sends an event for retry,
+ * so that the send is still committed atomically with the application's consumer offsets.
+ *
+ * Each send is recorded by the RetrySendMetrics, and observed as a messaging.retry.publish observation, which writes
+ * the trace context to the message headers.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -20,18 +36,103 @@ public class MessagingRetryKafkaClient {
     @Autowired
     private final KafkaTemplate kafkaTemplate;
 
-    public SendResult sendMessage(final String topic, final String data, final Map<String, Object> headers) {
+    @Autowired
+    private final RetryProducer retryProducer;
+
+    @Autowired
+    private final RetrySendMetrics sendMetrics;
+
+    @Autowired
+    private final RetryObservations observations;
+
+    public SendResult sendMessage(final String topic, final byte[] data, final Map<String, Object> headers) {
+        try {
+            return sendMessageAsync(topic, data, headers).get();
+        } catch (Exception e) {
+            String message = "Error sending message to topic " + topic;
+            log.error(message);
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    /**
+     * Sends the message, waiting up to the timeout for it to be acknowledged.
+     */
+    public SendResult sendMessage(final String topic, final byte[] data, final Map<String, Object> headers, final long timeoutMs) {
         try {
-            final MessageBuilder builder = MessageBuilder
-                    .withPayload(data)
-                    .setHeader(KafkaHeaders.TOPIC, topic);
-            headers.forEach((key, value) -> builder.setHeader(key, value));
-            final Message<String> message = builder.build();
-            return (SendResult)kafkaTemplate.send(message).get();
+            return sendMessageAsync(topic, data, headers).get(timeoutMs, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             String message = "Error sending message to topic " + topic;
             log.error(message);
             throw new RuntimeException(message, e);
         }
     }
+
+    /**
+     * Sends the message as part of the current Kafka transaction if there is one, otherwise waits for it to be sent.
+     *
+     * Within a transaction the send is not waited on, so that all the sends in the transaction are batched by the
+     * producer.  If any of them fails the transaction commit fails and the whole transaction is rolled back.
+     */
+    public void send(final String topic, final byte[] data, final Map<String, Object> headers) {
+        if(inTransaction()) {
+            sendMessageAsync(topic, data, headers);
+        } else {
+            sendMessage(topic, data, headers);
+        }
+    }
+
+    /**
+     * Whether the calling thread is in a Kafka transaction, such as one started by a transactional listener container.
+     */
+    public boolean inTransaction() {
+        if(!retryProducer.isEnabled()) {
+            return kafkaTemplate.inTransaction();
+        }
+        return inApplicationTransaction() || retryProducer.getKafkaTemplate().inTransaction();
+    }
+
+    /**
+     * Whether the calling thread is in a transaction on the application's producer factory specifically, as the
+     * application's template also reports being in a transaction when the retry producer's is active.
+     */
+    private boolean inApplicationTransaction() {
+        return TransactionSynchronizationManager.getResource(kafkaTemplate.getProducerFactory()) != null;
+    }
+
+    /**
+     * The template to send on: the retry producer's, unless the send is part of a transaction on the application's.
+     */
+    private KafkaTemplate template() {
+        return retryProducer.isEnabled() && !inApplicationTransaction() ? retryProducer.getKafkaTemplate() : kafkaTemplate;
+    }
+
+    /**
+     * Sends the message without waiting for the broker acknowledgement, allowing the producer to batch a number of
+     * sends together.  The caller is responsible for checking the outcome of the returned future.
+     */
+    public CompletableFuture<SendResult> sendMessageAsync(final String topic, final byte[] data, final Map<String, Object> headers) {
+        final MessageBuilder builder = MessageBuilder
+                .withPayload(data)
+                .setHeader(KafkaHeaders.TOPIC, topic);
+        headers.forEach((key, value) -> builder.setHeader(key, value));
+        final Observation observation = observations.publish(topic, headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS), builder).start();
+        final Message<byte[]> message = builder.build();
+        final long start = System.nanoTime();
+        final CompletableFuture<SendResult> result;
+        try {
+            result = template().send(message);
+        } catch (RuntimeException e) {
+            observation.error(e).stop();
+            throw e;
+        }
+        result.whenComplete((sendResult, exception) -> {
+            sendMetrics.record(topic, data.length, System.nanoTime() - start, exception == null);
+            if(exception != null) {
+                observation.error(exception);
+            }
+            observation.stop();
+        });
+        return result;
+    }
 }
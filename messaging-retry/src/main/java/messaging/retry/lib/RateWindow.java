@@ -0,0 +1,52 @@
+package messaging.retry.lib;
+
+/**
+ * Counts events in one second slots over a sliding window, to report their recent rate.
+ *
+ * Each slot is reused once the window has moved past it, so the memory is fixed and counting an event is constant
+ * time.  The rate is the count over the whole seconds of the window before the current one, so it is not skewed by
+ * the current second being part way through.
+ *
+ * Example:
+ *
+ * With a 60 second window, 120 events counted between 10:00:00 and 10:00:59 give a rate of 2 per second at 10:01:00.
+ */
+public class RateWindow {
+
+    private final int seconds;
+
+    private final long[] slotSeconds;
+
+    private final long[] counts;
+
+    public RateWindow(final int seconds) {
+        if(seconds < 1) {
+            throw new IllegalArgumentException("Rate window must be at least 1 second");
+        }
+        this.seconds = seconds;
+        // One more slot than the window, for the current second.
+        this.slotSeconds = new long[seconds + 1];
+        this.counts = new long[seconds + 1];
+    }
+
+    public synchronized void increment(final long nowMillis) {
+        final long second = Math.floorDiv(nowMillis, 1000L);
+        final int slot = (int)Math.floorMod(second, (long)slotSeconds.length);
+        if(slotSeconds[slot] != second) {
+            slotSeconds[slot] = second;
+            counts[slot] = 0;
+        }
+        counts[slot]++;
+    }
+
+    public synchronized double ratePerSecond(final long nowMillis) {
+        final long second = Math.floorDiv(nowMillis, 1000L);
+        long total = 0;
+        for(int slot = 0; slot < slotSeconds.length; slot++) {
+            if(slotSeconds[slot] < second && slotSeconds[slot] >= second - seconds) {
+                total += counts[slot];
+            }
+        }
+        return (double)total / seconds;
+    }
+}
@@ -0,0 +1,47 @@
+package messaging.retry.lib;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import messaging.retry.MessagingRetryProperties;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides whether a received record should be logged, so that the per record log lines on the consumer hot paths can
+ * be sampled rather than written for every record.
+ *
+ * The check is made before any log arguments are built, so a record that is not sampled costs a map lookup and a
+ * random number, and allocates nothing.  Callers should log the record as key value pairs, with the payload only at
+ * debug level:
+ *
+ * if(logSampler.shouldLog(log, topic)) {
+ *     log.atInfo().addKeyValue("topic", topic).addKeyValue("offset", offset).log("Received message");
+ * }
+ */
+@Component
+public class RecordLogSampler {
+
+    private final double sampleRate;
+
+    private final Map<String, Double> topicSampleRates;
+
+    public RecordLogSampler(@Autowired MessagingRetryProperties properties) {
+        this.sampleRate = properties.getLogging().getSampleRate();
+        this.topicSampleRates = Map.copyOf(properties.getLogging().getTopicSampleRates());
+    }
+
+    /**
+     * Returns true if info logging is enabled for the logger and the record from the given topic is sampled.
+     */
+    public boolean shouldLog(final Logger logger, final String topic) {
+        return logger.isInfoEnabled() && isSampled(topic);
+    }
+
+    public boolean isSampled(final String topic) {
+        final Double topicSampleRate = topic != null ? topicSampleRates.get(topic) : null;
+        final double rate = topicSampleRate != null ? topicSampleRate : sampleRate;
+        return rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+}
@@ -0,0 +1,25 @@
+package messaging.retry.lib;
+
+import java.time.Clock;
+
+/**
+ * The clock the retry decisions are made against, held in a type of its own so that it is never a candidate for the
+ * application's own Clock injection points, nor clashes with a Clock bean the application defines.
+ *
+ * The clock is configured by retry.messaging.clock, unless the application defines a RetryClock bean of its own, such
+ * as a fixed clock in its tests.
+ *
+ * @param clock the time source.
+ */
+public record RetryClock(Clock clock) implements AutoCloseable {
+
+    /**
+     * Stops the clock's ticker if it has one, such as the CoarseClock's.
+     */
+    @Override
+    public void close() throws Exception {
+        if(clock instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package messaging.retry.lib;
+
+import java.util.Map;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.service.RetryPriority;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Creates the observations of each hop an event takes through the retry topics, if the application has an observation
+ * registry:
+ *
+ * messaging.retry.retry - an event sent for retry by the application, tagged with its original topic and priority.
+ * messaging.retry.consume - a record received from a retry topic, tagged with the retry topic and the original topic.
+ * messaging.retry.handle - the evaluation of a record from a retry topic, tagged with its original topic, priority and
+ * outcome (republished, dead-lettered, delayed, rate-limited, skipped, or failed if it threw).
+ * messaging.retry.publish - a send to a retry, original or dead letter topic, tagged with the topic.
+ * messaging.retry.spill - a retry send spilled to disk, tagged with the retry topic.
+ * messaging.retry.drain - a spilled send drained from disk, tagged with the retry topic.
+ *
+ * Each carries the event's retry attempts as a high cardinality value.
+ *
+ * The publish observation is a sender observation with the outgoing message as its carrier, and the consume
+ * observation a receiver observation with the record's headers as its carrier.  With a tracing bridge, such as
+ * micrometer-tracing-bridge-otel, the trace context is written to the headers of every send and read back from every
+ * record consumed from a retry topic.  As the observations are nested, each hop is a child of the one before it:
+ *
+ * consume update-item (application) > retry > publish update-item-retry > consume update-item-retry > handle >
+ * publish update-item > consume update-item (application) > ...
+ *
+ * so all the hops of an event are in one trace, and the time each spent, including the wait on the retry topic, is the
+ * gap between a publish and the consume after it.  The application's own listener container continues the trace from
+ * a republished event if it has observation enabled.
+ *
+ * A send spilled to disk is drained on a thread of its own, so its trace context is stored with it by the spill
+ * observation, and read back by the drain observation that the send is then published in:
+ *
+ * retry > spill update-item-retry ... drain update-item-retry > publish update-item-retry > ...
+ *
+ * Without a registry, or without a handler for them, the observations are no-ops.
+ */
+@Component
+public class RetryObservations {
+
+    public static final String RETRY = "messaging.retry.retry";
+
+    public static final String CONSUME = "messaging.retry.consume";
+
+    public static final String HANDLE = "messaging.retry.handle";
+
+    public static final String PUBLISH = "messaging.retry.publish";
+
+    public static final String SPILL = "messaging.retry.spill";
+
+    public static final String DRAIN = "messaging.retry.drain";
+
+    public static final String OUTCOME = "outcome";
+
+    private final ObservationRegistry observationRegistry;
+
+    public RetryObservations(@Autowired ObjectProvider<ObservationRegistry> observationRegistry) {
+        this.observationRegistry = observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP);
+    }
+
+    public Observation retry(final String originalTopic, final RetryPriority priority, final Integer attempts) {
+        return Observation.createNotStarted(RETRY, observationRegistry)
+                .contextualName(originalTopic + " retry")
+                .lowCardinalityKeyValue("original.topic", String.valueOf(originalTopic))
+                .lowCardinalityKeyValue("priority", priority.name())
+                .highCardinalityKeyValue("attempts", String.valueOf(attempts));
+    }
+
+    /**
+     * The trace context of the record is read from its headers, so that the consume is a child of the send that wrote
+     * the record.
+     */
+    public Observation consume(final ConsumerRecord<?, ?> record, final String originalTopic, final Integer attempts) {
+        return Observation.createNotStarted(CONSUME, () -> {
+                    final ReceiverContext<Headers> context = new ReceiverContext<>(RetryObservations::header);
+                    context.setCarrier(record.headers());
+                    context.setRemoteServiceName("kafka");
+                    return context;
+                }, observationRegistry)
+                .contextualName(record.topic() + " receive")
+                .lowCardinalityKeyValue("topic", record.topic())
+                .lowCardinalityKeyValue("original.topic", String.valueOf(originalTopic))
+                .highCardinalityKeyValue("attempts", String.valueOf(attempts));
+    }
+
+    /**
+     * The outcome is failed unless the evaluation sets it.
+     */
+    public Observation handle(final String originalTopic, final RetryPriority priority, final Integer attempts) {
+        return Observation.createNotStarted(HANDLE, observationRegistry)
+                .contextualName(originalTopic + " handle")
+                .lowCardinalityKeyValue("original.topic", String.valueOf(originalTopic))
+                .lowCardinalityKeyValue("priority", priority.name())
+                .lowCardinalityKeyValue(OUTCOME, "failed")
+                .highCardinalityKeyValue("attempts", String.valueOf(attempts));
+    }
+
+    /**
+     * The trace context of the send is written to the message's headers when the observation is started, so it must be
+     * started before the message is built.
+     */
+    public Observation publish(final String topic, final Object attempts, final MessageBuilder<?> message) {
+        return Observation.createNotStarted(PUBLISH, () -> {
+                    final SenderContext<MessageBuilder<?>> context = new SenderContext<>((carrier, key, value) -> carrier.setHeader(key, value));
+                    context.setCarrier(message);
+                    context.setRemoteServiceName("kafka");
+                    return context;
+                }, observationRegistry)
+                .contextualName(topic + " send")
+                .lowCardinalityKeyValue("topic", topic)
+                .highCardinalityKeyValue("attempts", String.valueOf(attempts));
+    }
+
+    /**
+     * The trace context of the spill is written to the given map when the observation is started, to be stored with the
+     * spilled send.
+     */
+    public Observation spill(final String topic, final Map<String, String> traceContext) {
+        return Observation.createNotStarted(SPILL, () -> {
+                    final SenderContext<Map<String, String>> context = new SenderContext<>(Map::put);
+                    context.setCarrier(traceContext);
+                    return context;
+                }, observationRegistry)
+                .contextualName(topic + " spill")
+                .lowCardinalityKeyValue("topic", topic);
+    }
+
+    /**
+     * The trace context stored with the spilled send is read from the given map, so that the drain is a child of the
+     * spill, and the publish of the drained send a child of the drain.
+     */
+    public Observation drain(final String topic, final Map<String, String> traceContext) {
+        return Observation.createNotStarted(DRAIN, () -> {
+                    final ReceiverContext<Map<String, String>> context = new ReceiverContext<>(Map::get);
+                    context.setCarrier(traceContext);
+                    return context;
+                }, observationRegistry)
+                .contextualName(topic + " drain")
+                .lowCardinalityKeyValue("topic", topic);
+    }
+
+    /**
+     * Runs the call in the scope of the observation, so that the observations made by the call are its children.
+     * A RetryableMessagingException only delays the event, so is not recorded as an error.
+     */
+    public static void observe(final Observation observation, final Runnable call) {
+        observation.start();
+        try(Observation.Scope scope = observation.openScope()) {
+            call.run();
+        } catch (RetryableMessagingException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    private static String header(final Headers headers, final String key) {
+        final Header header = headers.lastHeader(key);
+        return header != null && header.value() != null ? new String(header.value(), UTF_8) : null;
+    }
+}
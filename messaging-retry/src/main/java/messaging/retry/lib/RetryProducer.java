@@ -0,0 +1,111 @@
+package messaging.retry.lib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerProducerListener;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * The producer owned by the retry library, when retry.messaging.producer.enabled is set, so that the retry traffic
+ * does not share a producer with the application's own sends.  A burst of retries then only fills the retry producer's
+ * buffer, not the one the application's latency sensitive sends wait on, and the retry batching can be tuned for
+ * throughput.
+ *
+ * The producer is created from the application ProducerFactory's configuration, so it connects to the same cluster
+ * with the same security settings, overridden by the retry.messaging.producer settings.  For example, with the
+ * defaults the retry producer is idempotent, and compresses its batches of up to 128KB with lz4 after waiting up to
+ * 20ms for them to fill, in its own 32MB buffer.
+ *
+ * The Kafka client metrics are published to the meter registry, if there is one, tagged with the messaging-retry
+ * client Id.
+ */
+@Slf4j
+@Component
+public class RetryProducer {
+
+    public static final String CLIENT_ID = "messaging-retry";
+
+    private final DefaultKafkaProducerFactory<String, byte[]> producerFactory;
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    public RetryProducer(@Autowired ProducerFactory<?, ?> applicationProducerFactory,
+                         @Autowired MessagingRetryProperties properties,
+                         @Autowired ObjectProvider<MeterRegistry> meterRegistry) {
+        final MessagingRetryProperties.Producer producer = properties.getProducer();
+        if(!producer.isEnabled()) {
+            this.producerFactory = null;
+            this.kafkaTemplate = null;
+            return;
+        }
+        this.producerFactory = new DefaultKafkaProducerFactory<>(config(applicationProducerFactory.getConfigurationProperties(), producer),
+                new StringSerializer(), new ByteArraySerializer());
+        if(properties.getTransactions().isEnabled()) {
+            producerFactory.setTransactionIdPrefix(producer.getTransactionIdPrefix());
+        }
+        meterRegistry.ifAvailable(registry -> producerFactory.addListener(new MicrometerProducerListener<>(registry)));
+        this.kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        // The dead letter batches and spill drain are sent outside any transaction.
+        kafkaTemplate.setAllowNonTransactional(true);
+        log.info("Retry producer created with compression {}, linger {}ms, batch size {} and buffer memory {}",
+                producer.getCompressionType(), producer.getLingerMs(), producer.getBatchSize(), producer.getBufferMemory());
+    }
+
+    /**
+     * The application's producer configuration, overridden with the retry producer settings.  The serializers are set
+     * on the factory, and the transactional Id is set by its prefix.
+     */
+    static Map<String, Object> config(final Map<String, Object> applicationConfig, final MessagingRetryProperties.Producer producer) {
+        final Map<String, Object> config = new HashMap<>(applicationConfig);
+        config.remove(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG);
+        config.remove(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG);
+        config.remove(ProducerConfig.TRANSACTIONAL_ID_CONFIG);
+        config.put(ProducerConfig.CLIENT_ID_CONFIG, CLIENT_ID);
+        config.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, producer.isIdempotence());
+        config.put(ProducerConfig.ACKS_CONFIG, producer.getAcks());
+        config.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, producer.getCompressionType());
+        config.put(ProducerConfig.LINGER_MS_CONFIG, producer.getLingerMs());
+        config.put(ProducerConfig.BATCH_SIZE_CONFIG, producer.getBatchSize());
+        config.put(ProducerConfig.BUFFER_MEMORY_CONFIG, producer.getBufferMemory());
+        config.putAll(producer.getProperties());
+        return config;
+    }
+
+    public boolean isEnabled() {
+        return kafkaTemplate != null;
+    }
+
+    /**
+     * @return the retry producer factory, or null if the retry producer is not enabled.
+     */
+    public ProducerFactory<String, byte[]> getProducerFactory() {
+        return producerFactory;
+    }
+
+    /**
+     * @return the template on the retry producer, or null if the retry producer is not enabled.
+     */
+    public KafkaTemplate<String, byte[]> getKafkaTemplate() {
+        return kafkaTemplate;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(producerFactory != null) {
+            producerFactory.destroy();
+        }
+    }
+}
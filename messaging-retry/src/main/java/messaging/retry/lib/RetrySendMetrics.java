@@ -0,0 +1,55 @@
+package messaging.retry.lib;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the sends to each destination topic, whether the retry, original or dead letter topics, if the application
+ * has a meter registry:
+ *
+ * messaging.retry.send - the time from each send to its acknowledgement, tagged with the topic and the result
+ * (success or failure).
+ * messaging.retry.send.bytes - the payload size of each send, tagged with the topic.
+ *
+ * A send in a transaction is acknowledged once it is written, ahead of the transaction commit.
+ */
+@Component
+public class RetrySendMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> successTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> failureTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> payloadSizes = new ConcurrentHashMap<>();
+
+    public RetrySendMetrics(@Autowired ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry.getIfAvailable();
+    }
+
+    public void record(final String topic, final int payloadBytes, final long elapsedNanos, final boolean success) {
+        if(meterRegistry == null) {
+            return;
+        }
+        final Map<String, Timer> timers = success ? successTimers : failureTimers;
+        timers.computeIfAbsent(topic, key -> Timer.builder("messaging.retry.send")
+                        .tag("topic", key)
+                        .tag("result", success ? "success" : "failure")
+                        .register(meterRegistry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        payloadSizes.computeIfAbsent(topic, key -> DistributionSummary.builder("messaging.retry.send.bytes")
+                        .baseUnit("bytes")
+                        .tag("topic", key)
+                        .register(meterRegistry))
+                .record(payloadBytes);
+    }
+}
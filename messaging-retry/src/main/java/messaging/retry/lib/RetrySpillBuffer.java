@@ -0,0 +1,591 @@
+package messaging.retry.lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * A bounded write-ahead log on local disk for the retry sends that cannot reach the broker, enabled with
+ * retry.messaging.spill.enabled.
+ *
+ * A spilled send is appended to the current segment file in the spill directory, which only writes to the page cache,
+ * so the listener thread does not wait on the disk or the broker.  The segments are flushed to disk every
+ * fsyncIntervalMs by a background thread, so that a flush covers all the sends spilled since the last.
+ *
+ * A second background thread drains the segments, oldest first, sending each spilled send on to its topic in the order
+ * it was spilled.  If a send fails it is tried again after drainBackoffMs, so the drain waits for the broker to
+ * recover.  A segment is deleted once all its sends have been sent.  While there are sends waiting to be drained the
+ * spill is spilling, and new retry sends are spilled behind them rather than overtaking them.
+ *
+ * For example, with the broker unavailable a retry send for item 123 times out and is spilled, and the spill starts
+ * spilling.  A retry send for item 456 is then spilled straight away without trying the broker.  Once the broker is
+ * back the drain sends the retry for item 123 then for item 456, and the spill stops spilling once both are sent.
+ *
+ * The sends are drained at least once: the segments are replayed from their start when the application restarts, so a
+ * send drained before a restart, whose segment had not yet been deleted, is sent again.  A record torn by a crash is
+ * detected by its checksum and discarded along with anything after it in its segment.
+ *
+ * Each record is written as its body length and CRC32, then the topic, the headers and the payload.  The header values
+ * are written as longs, integers or strings, which are the types of the retry headers.
+ *
+ * The trace context of the spilled send, written by its messaging.retry.spill observation, is stored among the headers
+ * with the trace-context: prefix.  The send is drained in a messaging.retry.drain observation that reads it back, so
+ * that the drained send continues the trace of the retry it was spilled from rather than starting a new one.
+ */
+@Slf4j
+@Component
+public class RetrySpillBuffer {
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.log");
+
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    private static final byte LONG_VALUE = 'L';
+
+    private static final byte INTEGER_VALUE = 'I';
+
+    private static final byte STRING_VALUE = 'S';
+
+    private static final String TRACE_CONTEXT_PREFIX = "trace-context:";
+
+    private final MessagingRetryKafkaClient kafkaClient;
+
+    private final RetryObservations observations;
+
+    private final MessagingRetryProperties.Spill properties;
+
+    private final Path directory;
+
+    /**
+     * The segments not yet fully drained, oldest first.  The last is the active segment that is appended to, unless
+     * it is sealed, having been recovered or reached the segment size.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private Segment active;
+
+    private long nextSequence;
+
+    private long diskBytes;
+
+    private long pendingRecords;
+
+    private volatile boolean spilling;
+
+    private volatile boolean running;
+
+    private Thread drainer;
+
+    private Thread flusher;
+
+    public RetrySpillBuffer(@Autowired MessagingRetryKafkaClient kafkaClient,
+                            @Autowired MessagingRetryProperties properties,
+                            @Autowired RetryObservations observations) {
+        this.kafkaClient = kafkaClient;
+        this.observations = observations;
+        this.properties = properties.getSpill();
+        this.directory = this.properties.getDirectory() != null ? Paths.get(this.properties.getDirectory())
+                : Paths.get(System.getProperty("java.io.tmpdir"), "messaging-retry-spill");
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if(!properties.isEnabled()) {
+            return;
+        }
+        open();
+        drainer = startThread(this::drain, "retry-spill-drainer");
+        flusher = startThread(this::flushPeriodically, "retry-spill-fsync");
+    }
+
+    /**
+     * Recovers the segments left by a previous run and starts accepting spilled sends.
+     */
+    void open() throws IOException {
+        recover();
+        running = true;
+    }
+
+    /**
+     * Stops draining and flushes the segments to disk.  The sends not yet drained are sent when the application next
+     * starts.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for(Thread thread : new Thread[] { drainer, flusher }) {
+            if(thread != null) {
+                thread.interrupt();
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+        synchronized(this) {
+            for(Segment segment : segments) {
+                flush(segment);
+                closeQuietly(segment);
+            }
+            segments.clear();
+            active = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public long getSendTimeoutMs() {
+        return properties.getSendTimeoutMs();
+    }
+
+    /**
+     * Whether there are spilled sends waiting to be drained.
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * The number of spilled sends waiting to be drained.
+     */
+    public synchronized long size() {
+        return pendingRecords;
+    }
+
+    /**
+     * Spills the send if there are spilled sends waiting to be drained, so that it is sent after them.
+     *
+     * @return true if the send was spilled, false if it should be sent to the broker.
+     */
+    public synchronized boolean spillIfSpilling(final String topic, final byte[] payload, final Map<String, Object> headers) {
+        if(!spilling) {
+            return false;
+        }
+        spill(topic, payload, headers);
+        return true;
+    }
+
+    /**
+     * Appends the send to the spill, to be sent once the broker can be reached, along with the trace context of the
+     * caller's observation.
+     *
+     * @throws IllegalStateException if the spill is full or cannot be written.
+     */
+    public synchronized void spill(final String topic, final byte[] payload, final Map<String, Object> headers) {
+        if(!running) {
+            throw new IllegalStateException("Retry spill buffer is not running");
+        }
+        final Map<String, String> traceContext = new HashMap<>();
+        observations.spill(topic, traceContext).start().stop();
+        final ByteBuffer record = encode(topic, payload, headers, traceContext);
+        if(diskBytes + record.remaining() > properties.getMaxBytes()) {
+            throw new IllegalStateException("Retry spill buffer is full at " + diskBytes + " bytes");
+        }
+        try {
+            if(active == null || active.sealed || active.size + record.remaining() > properties.getSegmentBytes()) {
+                roll();
+            }
+            final int length = record.remaining();
+            while(record.hasRemaining()) {
+                active.channel.write(record, active.size + length - record.remaining());
+            }
+            active.size += length;
+            active.records++;
+            active.dirty = true;
+            diskBytes += length;
+            pendingRecords++;
+            spilling = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Error writing to retry spill segment " + active.path, e);
+        }
+    }
+
+    /**
+     * Whether a failed send may succeed if tried again, such as when the broker cannot be reached or the send timed
+     * out, rather than failing because of the record itself.
+     */
+    public static boolean isRetriable(final Throwable exception) {
+        for(Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if(cause instanceof RetriableException || cause instanceof java.util.concurrent.TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the next spilled send, deleting any segment that has been fully drained.
+     *
+     * @return true if there may be more to drain straight away.
+     * @throws RuntimeException if the send fails and may succeed if tried again.
+     */
+    boolean drainOnce() throws IOException {
+        final Segment segment;
+        final long limit;
+        synchronized(this) {
+            segment = segments.peekFirst();
+            if(segment == null) {
+                spilling = false;
+                return false;
+            }
+            if(segment.readPosition >= segment.size) {
+                delete(segments.removeFirst());
+                if(segment == active) {
+                    active = null;
+                    spilling = false;
+                    return false;
+                }
+                return true;
+            }
+            limit = segment.size;
+        }
+        final SpilledSend send = read(segment.channel, segment.readPosition, limit);
+        if(send == null) {
+            log.error("Retry spill segment {} is corrupt at position {} - skipping the rest of the segment.", segment.path, segment.readPosition);
+            synchronized(this) {
+                pendingRecords -= segment.records - segment.readRecords;
+                segment.readPosition = segment.size;
+            }
+            return true;
+        }
+        try {
+            RetryObservations.observe(observations.drain(send.topic(), send.traceContext()),
+                    () -> kafkaClient.sendMessage(send.topic(), send.payload(), send.headers()));
+        } catch (RuntimeException e) {
+            if(isRetriable(e)) {
+                throw e;
+            }
+            log.error("Spilled send to topic {} cannot be sent - discarding.  Headers {} payload (base64): {}", send.topic(), send.headers(),
+                    Base64.getEncoder().encodeToString(send.payload()), e);
+        }
+        synchronized(this) {
+            segment.readPosition += send.length();
+            segment.readRecords++;
+            pendingRecords--;
+        }
+        return true;
+    }
+
+    /**
+     * Opens the segments left by a previous run, discarding any torn record at the end of each, so that they are
+     * drained before any new sends.  New sends are written to a new segment.
+     */
+    private synchronized void recover() throws IOException {
+        Files.createDirectories(directory);
+        final List<Segment> recovered = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for(Path path : files.toList()) {
+                final Matcher matcher = SEGMENT_FILE.matcher(path.getFileName().toString());
+                if(matcher.matches()) {
+                    recovered.add(new Segment(path, Long.parseLong(matcher.group(1)), openChannel(path)));
+                }
+            }
+        }
+        recovered.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+        for(Segment segment : recovered) {
+            segment.size = validLength(segment);
+            segment.channel.truncate(segment.size);
+            segment.sealed = true;
+            segments.addLast(segment);
+            diskBytes += segment.size;
+            pendingRecords += segment.records;
+            nextSequence = segment.sequence + 1;
+        }
+        spilling = pendingRecords > 0;
+        if(spilling) {
+            log.info("Recovered {} spilled retry sends from {} segments in {}", pendingRecords, segments.size(), directory);
+        }
+    }
+
+    /**
+     * Forces the spilled sends written since the last flush to disk.
+     */
+    void flush() {
+        final List<Segment> dirty;
+        synchronized(this) {
+            dirty = segments.stream().filter(segment -> segment.dirty).toList();
+        }
+        dirty.forEach(this::flush);
+    }
+
+    private void flush(final Segment segment) {
+        try {
+            segment.dirty = false;
+            segment.channel.force(false);
+        } catch (ClosedChannelException e) {
+            // The segment was drained and deleted.
+        } catch (IOException e) {
+            segment.dirty = true;
+            log.error("Error flushing retry spill segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private void drain() {
+        boolean failing = false;
+        while(running) {
+            try {
+                if(!drainOnce()) {
+                    TimeUnit.MILLISECONDS.sleep(properties.getFsyncIntervalMs());
+                } else if(failing) {
+                    log.info("Retry spill drain resumed - {} spilled sends remaining.", size());
+                    failing = false;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                if(!failing) {
+                    log.warn("Retry spill drain paused - {} spilled sends waiting: {}", size(), e.getMessage());
+                    failing = true;
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(properties.getDrainBackoffMs());
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flushPeriodically() {
+        while(running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(properties.getFsyncIntervalMs());
+            } catch (InterruptedException e) {
+                return;
+            }
+            flush();
+        }
+    }
+
+    private void roll() throws IOException {
+        if(active != null) {
+            active.sealed = true;
+        }
+        final Path path = directory.resolve(String.format("segment-%020d.log", nextSequence));
+        active = new Segment(path, nextSequence++, openChannel(path));
+        segments.addLast(active);
+    }
+
+    private void delete(final Segment segment) throws IOException {
+        closeQuietly(segment);
+        Files.deleteIfExists(segment.path);
+        diskBytes -= segment.size;
+    }
+
+    /**
+     * Reads the record at the position, or returns null if it is torn or corrupt.
+     */
+    private static SpilledSend read(final FileChannel channel, final long position, final long limit) throws IOException {
+        final long remaining = limit - position;
+        if(remaining < RECORD_HEADER_BYTES) {
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(channel, header, position);
+        header.flip();
+        final int length = header.getInt();
+        final int checksum = header.getInt();
+        if(length < 0 || length > remaining - RECORD_HEADER_BYTES) {
+            return null;
+        }
+        final ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(channel, body, position + RECORD_HEADER_BYTES);
+        body.flip();
+        if(checksum(body) != checksum) {
+            return null;
+        }
+        return decode(body, RECORD_HEADER_BYTES + length);
+    }
+
+    /**
+     * Counts the intact records from the start of the segment, returning the length they take up.
+     */
+    private static long validLength(final Segment segment) throws IOException {
+        final long size = segment.channel.size();
+        long position = 0;
+        SpilledSend send;
+        while((send = read(segment.channel, position, size)) != null) {
+            position += send.length();
+            segment.records++;
+        }
+        if(position < size) {
+            log.warn("Discarding {} bytes of torn records at the end of retry spill segment {}", size - position, segment.path);
+        }
+        return position;
+    }
+
+    static ByteBuffer encode(final String topic, final byte[] payload, final Map<String, Object> headers, final Map<String, String> traceContext) {
+        if(!traceContext.isEmpty()) {
+            final Map<String, Object> tracedHeaders = new HashMap<>(headers);
+            traceContext.forEach((key, value) -> tracedHeaders.put(TRACE_CONTEXT_PREFIX + key, value));
+            return encode(topic, payload, tracedHeaders, Map.of());
+        }
+        final List<byte[]> strings = new ArrayList<>();
+        int length = 2 + putString(strings, topic) + 2 + 4 + payload.length;
+        int count = 0;
+        for(Map.Entry<String, Object> header : headers.entrySet()) {
+            if(header.getValue() == null) {
+                continue;
+            }
+            count++;
+            length += 2 + putString(strings, header.getKey()) + 1;
+            if(header.getValue() instanceof Long) {
+                length += 8;
+            } else if(header.getValue() instanceof Integer) {
+                length += 4;
+            } else {
+                length += 2 + putString(strings, header.getValue().toString());
+            }
+        }
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+        record.position(RECORD_HEADER_BYTES);
+        int next = 0;
+        record.putShort((short)strings.get(next).length).put(strings.get(next++));
+        record.putShort((short)count);
+        for(Map.Entry<String, Object> header : headers.entrySet()) {
+            final Object value = header.getValue();
+            if(value == null) {
+                continue;
+            }
+            record.putShort((short)strings.get(next).length).put(strings.get(next++));
+            if(value instanceof Long longValue) {
+                record.put(LONG_VALUE).putLong(longValue);
+            } else if(value instanceof Integer intValue) {
+                record.put(INTEGER_VALUE).putInt(intValue);
+            } else {
+                record.put(STRING_VALUE).putShort((short)strings.get(next).length).put(strings.get(next++));
+            }
+        }
+        record.putInt(payload.length).put(payload);
+        record.flip();
+        record.putInt(0, length);
+        record.putInt(4, checksum(record.duplicate().position(RECORD_HEADER_BYTES)));
+        return record;
+    }
+
+    private static SpilledSend decode(final ByteBuffer body, final int length) {
+        final String topic = getString(body);
+        final int count = body.getShort();
+        final Map<String, Object> headers = new HashMap<>(count * 2);
+        final Map<String, String> traceContext = new HashMap<>();
+        for(int i = 0; i < count; i++) {
+            final String key = getString(body);
+            final byte type = body.get();
+            final Object value = type == LONG_VALUE ? (Object)body.getLong() : type == INTEGER_VALUE ? (Object)body.getInt() : getString(body);
+            if(key.startsWith(TRACE_CONTEXT_PREFIX)) {
+                traceContext.put(key.substring(TRACE_CONTEXT_PREFIX.length()), value.toString());
+            } else {
+                headers.put(key, value);
+            }
+        }
+        final byte[] payload = new byte[body.getInt()];
+        body.get(payload);
+        return new SpilledSend(topic, headers, traceContext, payload, length);
+    }
+
+    private static int putString(final List<byte[]> strings, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        return bytes.length;
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int checksum(final ByteBuffer body) {
+        final CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int)crc.getValue();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of retry spill segment");
+            }
+        }
+    }
+
+    private static FileChannel openChannel(final Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void closeQuietly(final Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing retry spill segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private static Thread startThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    record SpilledSend(String topic, Map<String, Object> headers, Map<String, String> traceContext, byte[] payload, int length) {
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+
+        private final long sequence;
+
+        private final FileChannel channel;
+
+        /**
+         * The length of the intact records in the segment, guarded by the buffer.
+         */
+        private long size;
+
+        /**
+         * The position of the next record to drain, only advanced by the drain.
+         */
+        private long readPosition;
+
+        private long records;
+
+        private long readRecords;
+
+        private boolean sealed;
+
+        private volatile boolean dirty;
+
+        private Segment(final Path path, final long sequence, final FileChannel channel) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package messaging.retry.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryConfiguration;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.MessagingRetryHeaders;
+import messaging.retry.lib.MessagingRetryKafkaClient;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.stereotype.Service;
+
+/**
+ * Streams a range of events from the dead letter topic back on to the topic they were originally received on.
+ *
+ * The events are republished without the retry headers, so they are treated as newly received and are given the
+ * full max retry duration again should they need to be retried.  Their content type header is kept so that they can
+ * still be decoded.  Events dead lettered after their claim checked payload was lost are skipped, as there is no
+ * payload to replay.
+ *
+ * The replay is throttled to the given rate so that the original topic consumer is not flooded.
+ */
+@Slf4j
+@Service
+public class DeadLetterReplayService {
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    /**
+     * The number of consecutive empty polls after which the replay gives up waiting for the end of the range.
+     */
+    private static final int MAX_EMPTY_POLLS = 10;
+
+    private final ConsumerFactory<?, ?> consumerFactory;
+
+    private final MessagingRetryKafkaClient kafkaClient;
+
+    private final String deadLetterTopic;
+
+    private final DefaultKafkaHeaderMapper headerMapper = new DefaultKafkaHeaderMapper();
+
+    public DeadLetterReplayService(@Autowired ConsumerFactory<?, ?> consumerFactory,
+                                   @Autowired MessagingRetryKafkaClient kafkaClient,
+                                   @Autowired MessagingRetryProperties properties) {
+        this.consumerFactory = consumerFactory;
+        this.kafkaClient = kafkaClient;
+        this.deadLetterTopic = properties.getDeadLetter().getTopic();
+    }
+
+    /**
+     * Replays the dead letters in the given partition from the fromOffset (inclusive) to the toOffset (exclusive).
+     *
+     * @return the number of events replayed.
+     */
+    public long replay(final int partition, final long fromOffset, final long toOffset, final double ratePerSecond) throws InterruptedException {
+        if(fromOffset < 0 || toOffset <= fromOffset || ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid replay range ["+fromOffset+", "+toOffset+") at rate "+ratePerSecond);
+        }
+        final TokenBucket rateLimit = new TokenBucket(ratePerSecond, 1);
+        final TopicPartition topicPartition = new TopicPartition(deadLetterTopic, partition);
+        final Properties overrides = MessagingRetryConfiguration.byteArrayValues();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        long replayed = 0;
+        try (Consumer<String, byte[]> consumer = (Consumer<String, byte[]>)consumerFactory.createConsumer(null, null, "-dlt-replay", overrides)) {
+            consumer.assign(List.of(topicPartition));
+            consumer.seek(topicPartition, fromOffset);
+            long position = fromOffset;
+            int emptyPolls = 0;
+            while(position < toOffset && emptyPolls < MAX_EMPTY_POLLS) {
+                final List<ConsumerRecord<String, byte[]>> records = consumer.poll(POLL_TIMEOUT).records(topicPartition);
+                emptyPolls = records.isEmpty() ? emptyPolls + 1 : 0;
+                for(ConsumerRecord<String, byte[]> record : records) {
+                    if(record.offset() >= toOffset) {
+                        break;
+                    }
+                    rateLimit.acquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    if(republish(record)) {
+                        replayed++;
+                    }
+                }
+                position = consumer.position(topicPartition);
+            }
+        }
+        log.info("Replayed {} dead letters from {} partition {} offsets [{}, {})", replayed, deadLetterTopic, partition, fromOffset, toOffset);
+        return replayed;
+    }
+
+    private boolean republish(final ConsumerRecord<String, byte[]> record) {
+        final Map<String, Object> headers = new HashMap<>();
+        headerMapper.toHeaders(record.headers(), headers);
+        final Object originalTopic = headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC);
+        if(originalTopic == null) {
+            log.error("Dead letter at offset {} has no original topic header - skipping.", record.offset());
+            return false;
+        }
+        if(headers.containsKey(MessagingRetryHeaders.CLAIM_CHECK)) {
+            // The claim checked payload was no longer stored when the event was dead lettered, so there is nothing to replay.
+            log.warn("Dead letter at offset {} from {} lost its claim checked payload {} - skipping.", record.offset(),
+                    originalTopic, headers.get(MessagingRetryHeaders.CLAIM_CHECK));
+            return false;
+        }
+        final Object contentType = headers.get(MessagingRetryHeaders.CONTENT_TYPE);
+        kafkaClient.sendMessage(originalTopic.toString(), record.value(),
+                contentType != null ? Map.of(MessagingRetryHeaders.CONTENT_TYPE, contentType) : Map.of());
+        return true;
+    }
+}
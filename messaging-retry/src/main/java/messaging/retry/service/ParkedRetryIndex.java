@@ -0,0 +1,201 @@
+package messaging.retry.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * An in-process index of the events parked on the retry topics, by their retry key, so that they can be released as
+ * soon as the application knows they will succeed rather than when their retry interval expires.
+ *
+ * The retry consumers park each record with a retry key that is not yet due a retry.  Releasing a key removes its
+ * parked records from the index, for the RetryService to republish straight away.  Once the republish has been sent,
+ * and committed if it is part of a Kafka transaction, their offsets are marked as released.  When the retry consumer
+ * re-polls a released record it skips it, as it has already been republished.  If the republish fails, or its
+ * transaction is rolled back, the records are restored to the index, so that the retry consumer still evaluates them
+ * when they are re-polled.
+ *
+ * Example:
+ *
+ * An update for item 123 is sent for retry with retry key 123, and is parked at offset 10 of the retry topic, with its
+ * retry interval expiring in 8 seconds.  The create for item 123 is then processed, and releases key 123: the update
+ * is republished to its original topic within milliseconds.  When the retry consumer next re-polls offset 10 it skips
+ * it, and carries on from offset 11.
+ *
+ * The index only covers the partitions assigned to this instance, and is cleared for any partition that is revoked.
+ * A release racing with the retry consumer, or with a rebalance, can republish an event twice, so as with any retry
+ * the event processing must be idempotent.
+ *
+ * The index is bounded by max parked: records beyond it are not parked, and wait for their retry interval as before.
+ */
+@Slf4j
+@Component
+public class ParkedRetryIndex implements ConsumerRebalanceListener {
+
+    private final boolean enabled;
+
+    private final int maxParked;
+
+    private final Map<RecordId, ParkedRetry> parked = new HashMap<>();
+
+    private final Map<String, Set<RecordId>> parkedByKey = new HashMap<>();
+
+    private final Set<RecordId> released = new HashSet<>();
+
+    /**
+     * The records that have been released and are being republished, which are neither parked nor released.
+     */
+    private final Set<RecordId> releasing = new HashSet<>();
+
+    public ParkedRetryIndex(@Autowired MessagingRetryProperties properties) {
+        this.enabled = properties.getRelease().isEnabled();
+        this.maxParked = properties.getRelease().getMaxParked();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Parks a record that is not yet due a retry.  A record without a retry key cannot be released so is not parked.
+     */
+    public synchronized void park(final ParkedRetry retry) {
+        if(!enabled || retry.retryKey() == null || parked.size() >= maxParked
+                || released.contains(retry.id()) || releasing.contains(retry.id())) {
+            return;
+        }
+        if(parked.put(retry.id(), retry) == null) {
+            parkedByKey.computeIfAbsent(retry.retryKey(), key -> new HashSet<>()).add(retry.id());
+        }
+    }
+
+    /**
+     * Claims a polled record for the retry consumer to evaluate, removing it from the index.
+     *
+     * @return false if the record has been released, and so already republished, in which case it is skipped.
+     */
+    public synchronized boolean claim(final RecordId id) {
+        if(!enabled) {
+            return true;
+        }
+        if(released.remove(id)) {
+            return false;
+        }
+        releasing.remove(id);
+        remove(id);
+        return true;
+    }
+
+    /**
+     * Releases the records parked with the retry key, removing them from the index.  Once the caller has republished
+     * each record it is to mark it as released, or restore it if the republish failed.
+     *
+     * @return the released records, to be republished by the caller.
+     */
+    public synchronized List<ParkedRetry> release(final String retryKey) {
+        if(!enabled) {
+            return List.of();
+        }
+        final Set<RecordId> ids = parkedByKey.remove(retryKey);
+        if(ids == null) {
+            return List.of();
+        }
+        final List<ParkedRetry> retries = new ArrayList<>(ids.size());
+        for(RecordId id : ids) {
+            retries.add(parked.remove(id));
+            releasing.add(id);
+        }
+        return retries;
+    }
+
+    /**
+     * Marks a released record as republished, so that it is skipped when the retry consumer re-polls it.
+     */
+    public synchronized void markReleased(final RecordId id) {
+        if(releasing.remove(id)) {
+            released.add(id);
+        }
+    }
+
+    /**
+     * Restores a released record whose republish failed to the index, so that it is evaluated when the retry consumer
+     * re-polls it, and can be released again.  If the record has been claimed by the retry consumer in the meantime,
+     * or its partition revoked, it is not restored.
+     */
+    public synchronized void restore(final ParkedRetry retry) {
+        if(releasing.remove(retry.id())) {
+            parked.put(retry.id(), retry);
+            parkedByKey.computeIfAbsent(retry.retryKey(), key -> new HashSet<>()).add(retry.id());
+        }
+    }
+
+    public synchronized boolean isParked(final String retryKey) {
+        return parkedByKey.containsKey(retryKey);
+    }
+
+    public synchronized int size() {
+        return parked.size();
+    }
+
+    @Override
+    public void onPartitionsAssigned(final Collection<TopicPartition> partitions) {
+    }
+
+    /**
+     * Another instance may now be assigned the partitions, so the records parked on them can no longer be released by
+     * this instance, and the records released from them will be evaluated again by the new owner.
+     */
+    @Override
+    public synchronized void onPartitionsRevoked(final Collection<TopicPartition> partitions) {
+        if(!enabled || partitions.isEmpty()) {
+            return;
+        }
+        released.removeIf(id -> partitions.contains(id.topicPartition()));
+        releasing.removeIf(id -> partitions.contains(id.topicPartition()));
+        new ArrayList<>(parked.keySet()).stream()
+                .filter(id -> partitions.contains(id.topicPartition()))
+                .forEach(this::remove);
+        log.debug("Cleared parked retries for revoked partitions {}", partitions);
+    }
+
+    private void remove(final RecordId id) {
+        final ParkedRetry retry = parked.remove(id);
+        if(retry != null) {
+            final Set<RecordId> ids = parkedByKey.get(retry.retryKey());
+            ids.remove(id);
+            if(ids.isEmpty()) {
+                parkedByKey.remove(retry.retryKey());
+            }
+        }
+    }
+
+    /**
+     * The position of a record on a retry topic.
+     */
+    public record RecordId(String topic, int partition, long offset) {
+
+        TopicPartition topicPartition() {
+            return new TopicPartition(topic, partition);
+        }
+    }
+
+    /**
+     * A record parked on a retry topic, with what is needed to republish it to its original topic, including the
+     * reference to its payload if the payload is claim checked.
+     */
+    public record ParkedRetry(RecordId id, String retryKey, byte[] payload, Long originalReceivedTimestamp,
+                              String originalTopic, Integer attempts, String contentType, RetryPriority priority,
+                              String claimCheck) {
+    }
+}
@@ -0,0 +1,290 @@
+package messaging.retry.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.ConsumerGroupLagReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the rate that events are republished from the retry topic to each original topic, so that when a retry
+ * backlog clears the original topic consumer (and the resources behind it) are not flooded.
+ *
+ * Each destination topic has its own token bucket.  In adaptive mode the lag of the consumer group that consumes the
+ * original topics is checked periodically, and each topic's rate is adjusted using additive increase, multiplicative
+ * decrease:
+ *
+ * If the lag is above the high watermark the main path is saturated, so halve the rate (down to the minimum).
+ *
+ * If the lag is below the low watermark the main path has recovered, so increase the rate by a tenth of the maximum
+ * (up to the maximum).
+ *
+ * Otherwise leave the rate as it is.
+ *
+ * Each topic's rate is shared between the priority lanes by weight.  A lane's bucket is given its weight's share of the
+ * rate among the lanes that have asked for a permit in the last second, so an idle lane's share goes to the others.
+ * For example, with weights of 6, 3 and 1 for high, normal and bulk and a rate of 100 per second, a bulk backlog on
+ * its own is republished at 100 per second, but once high priority retries are also due they are republished at 86
+ * per second and the bulk backlog at 14.
+ *
+ * The burst is also split between the lanes by weight, so that together they never burst above it: with a burst of
+ * 100 the high, normal and bulk lanes can each burst 60, 30 and 10 events above their share of the rate.
+ */
+@Slf4j
+@Component
+public class RepublishRateLimiter {
+
+    private final ConsumerGroupLagReader lagReader;
+
+    private final boolean enabled;
+
+    /**
+     * The maximum number of events per second republished to each original topic.
+     */
+    private final double maxRatePerSecond;
+
+    /**
+     * The number of events that can be republished in a burst above the rate.
+     */
+    private final double burst;
+
+    /**
+     * The maximum time to wait for the rate limit to permit a republish before the event is delayed.
+     */
+    private final long maxWaitMs;
+
+    private final boolean adaptive;
+
+    /**
+     * The consumer group that consumes the original topics, whose lag drives the adaptive rate.
+     */
+    private final String adaptiveGroupId;
+
+    private final long highLag;
+
+    private final long lowLag;
+
+    private final double minRatePerSecond;
+
+    private final long adaptiveIntervalMs;
+
+    /**
+     * The weight of each priority lane's share of the rate, indexed by ordinal.
+     */
+    private final int[] laneWeights;
+
+    private final Map<String, LaneBuckets> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The time source the buckets are refilled against.
+     */
+    private final LongSupplier nanoTime;
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public RepublishRateLimiter(@Autowired ConsumerGroupLagReader lagReader,
+                                @Autowired MessagingRetryProperties properties) {
+        this(lagReader, properties.getRateLimit(), System::nanoTime);
+    }
+
+    /**
+     * Creates a rate limiter whose buckets are refilled against the given time source, such as the virtual clock of a
+     * simulation.  Its max wait must then be zero, as a wait for a permit parks the thread in real time.
+     */
+    RepublishRateLimiter(final ConsumerGroupLagReader lagReader, final MessagingRetryProperties.RateLimit properties,
+                         final LongSupplier nanoTime) {
+        final MessagingRetryProperties.RateLimit.Adaptive adaptive = properties.getAdaptive();
+        this.lagReader = lagReader;
+        this.enabled = properties.isEnabled();
+        this.maxRatePerSecond = properties.getRatePerSecond();
+        this.burst = properties.getBurst();
+        this.maxWaitMs = properties.getMaxWaitMs();
+        this.adaptive = enabled && adaptive.isEnabled();
+        this.adaptiveGroupId = adaptive.getGroupId();
+        this.highLag = adaptive.getHighLag();
+        this.lowLag = adaptive.getLowLag();
+        this.minRatePerSecond = adaptive.getMinRatePerSecond();
+        this.adaptiveIntervalMs = adaptive.getIntervalMs();
+        this.nanoTime = nanoTime;
+        this.laneWeights = new int[RetryPriority.values().length];
+        this.laneWeights[RetryPriority.HIGH.ordinal()] = properties.getLaneWeights().getHigh();
+        this.laneWeights[RetryPriority.NORMAL.ordinal()] = properties.getLaneWeights().getNormal();
+        this.laneWeights[RetryPriority.BULK.ordinal()] = properties.getLaneWeights().getBulk();
+        for(int weight : laneWeights) {
+            if(weight < 1) {
+                throw new IllegalArgumentException("Republish rate lane weights must be at least 1");
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if(adaptive) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "republish-rate-adapter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::adapt, adaptiveIntervalMs, adaptiveIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if(scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes a permit to republish an event to the given topic in the normal lane, waiting up to the configured max wait.
+     *
+     * @return true if the event can be republished now, false if it should be delayed.
+     */
+    public boolean tryAcquire(final String topic) {
+        return tryAcquire(topic, RetryPriority.NORMAL);
+    }
+
+    /**
+     * Takes a permit from the lane's share of the rate to republish an event to the given topic, waiting up to the
+     * configured max wait.
+     *
+     * @return true if the event can be republished now, false if it should be delayed.
+     */
+    public boolean tryAcquire(final String topic, final RetryPriority priority) {
+        if(!enabled) {
+            return true;
+        }
+        try {
+            return bucket(topic).forLane(priority, nanoTime.getAsLong()).acquire(maxWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public double getRatePerSecond(final String topic) {
+        return bucket(topic).getRatePerSecond();
+    }
+
+    /**
+     * The share of the topic's rate currently given to the lane.
+     */
+    public double getRatePerSecond(final String topic, final RetryPriority priority) {
+        return bucket(topic).lanes[priority.ordinal()].getRatePerSecond();
+    }
+
+    void adapt() {
+        try {
+            adapt(lagReader.lagByTopic(adaptiveGroupId));
+        } catch (Exception e) {
+            log.warn("Unable to read lag for consumer group {} - republish rates unchanged: {}", adaptiveGroupId, e.getMessage());
+        }
+    }
+
+    void adapt(final Map<String, Long> lagByTopic) {
+        buckets.forEach((topic, bucket) -> {
+            final long lag = lagByTopic.getOrDefault(topic, 0L);
+            final double rate = bucket.getRatePerSecond();
+            double newRate = rate;
+            if(lag > highLag) {
+                newRate = Math.max(minRatePerSecond, rate / 2);
+            } else if(lag < lowLag) {
+                newRate = Math.min(maxRatePerSecond, rate + maxRatePerSecond / 10);
+            }
+            if(newRate != rate) {
+                log.info("Adjusting republish rate for topic {} from {} to {} per second - consumer group {} lag: {}", topic, rate, newRate, adaptiveGroupId, lag);
+                bucket.setRatePerSecond(newRate);
+            }
+        });
+    }
+
+    private LaneBuckets bucket(final String topic) {
+        return buckets.computeIfAbsent(topic, key -> new LaneBuckets(maxRatePerSecond, burst, laneWeights, nanoTime));
+    }
+
+    /**
+     * The token buckets of a topic's priority lanes.  Each lane's bucket has its weight's share of the burst among all
+     * the lanes, of at least one event, and its weight's share of the topic rate among the active lanes, which is
+     * recalculated whenever a lane becomes active or idle.
+     */
+    private static class LaneBuckets {
+
+        private static final long ACTIVE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        private final int[] weights;
+
+        private final TokenBucket[] lanes;
+
+        private final long[] lastRequestNanos;
+
+        private double ratePerSecond;
+
+        private int activeLanes;
+
+        private LaneBuckets(final double ratePerSecond, final double burst, final int[] weights, final LongSupplier nanoTime) {
+            this.weights = weights;
+            this.ratePerSecond = ratePerSecond;
+            this.lanes = new TokenBucket[weights.length];
+            this.lastRequestNanos = new long[weights.length];
+            final int totalWeight = Arrays.stream(weights).sum();
+            for(int lane = 0; lane < weights.length; lane++) {
+                lanes[lane] = new TokenBucket(ratePerSecond, Math.max(1, burst * weights[lane] / totalWeight), nanoTime);
+            }
+        }
+
+        private synchronized TokenBucket forLane(final RetryPriority priority, final long nowNanos) {
+            lastRequestNanos[priority.ordinal()] = nowNanos;
+            int active = 0;
+            for(int lane = 0; lane < lanes.length; lane++) {
+                if(lastRequestNanos[lane] != 0 && nowNanos - lastRequestNanos[lane] < ACTIVE_NANOS) {
+                    active |= 1 << lane;
+                }
+            }
+            if(active != activeLanes) {
+                activeLanes = active;
+                share();
+            }
+            return lanes[priority.ordinal()];
+        }
+
+        private synchronized double getRatePerSecond() {
+            return ratePerSecond;
+        }
+
+        private synchronized void setRatePerSecond(final double ratePerSecond) {
+            this.ratePerSecond = ratePerSecond;
+            share();
+        }
+
+        /**
+         * Gives each active lane its weight's share of the rate among the active lanes.  An idle lane is given its share
+         * among all the lanes, which it keeps until it next becomes active.
+         */
+        private void share() {
+            int activeWeight = 0;
+            int totalWeight = 0;
+            for(int lane = 0; lane < lanes.length; lane++) {
+                totalWeight += weights[lane];
+                if((activeLanes & (1 << lane)) != 0) {
+                    activeWeight += weights[lane];
+                }
+            }
+            for(int lane = 0; lane < lanes.length; lane++) {
+                final boolean active = (activeLanes & (1 << lane)) != 0;
+                lanes[lane].setRatePerSecond(ratePerSecond * weights[lane] / (active ? activeWeight : totalWeight));
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package messaging.retry.service;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import messaging.retry.lib.RateWindow;
+import messaging.retry.lib.RetryClock;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks the backlog on the retry topics, for operators to see how far behind the retry consumers are and when the
+ * backlog will clear.
+ *
+ * The backlog is updated by the retry consumers on every poll, from the consumer's position and the timestamps of the
+ * records it has polled, rather than by reading the topics:
+ *
+ * lag - the records on the partition from the first record held for re-polling to the end of the partition.  This is
+ * the records held plus the consumer's lag after the poll, from the end offsets the consumer already fetches.
+ *
+ * held - the records polled that are not yet due a retry, and so are held to be re-polled, with the time each is due.
+ *
+ * The republishes and the discards to the dead letter topic are counted by the RetryService, and their rates are
+ * reported over the last minute.
+ *
+ * Example:
+ *
+ * A poll of partition 0 returns offsets 100 to 149, and offset 120 is the first not yet due a retry.  The consumer
+ * reports 30 records after offset 149.  The partition lag is then 60: the 30 records held, from offset 120, and the
+ * 30 records after them.  Offsets 120 to 149 are added to the histogram by the time until each is due.
+ *
+ * The backlog only covers the partitions assigned to this instance, and a partition's backlog is removed when it is
+ * revoked.
+ */
+@Component
+public class RetryBacklog implements ConsumerRebalanceListener {
+
+    /**
+     * The upper bounds, in seconds, of the time until due histogram buckets.  Records that are already due, such as
+     * those delayed by the republish rate limit, are counted as overdue.
+     */
+    private static final long[] DUE_BUCKET_SECONDS = {1, 5, 10, 30, 60, 300};
+
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    private final Clock clock;
+
+    private final Map<TopicPartition, PartitionBacklog> partitions = new ConcurrentHashMap<>();
+
+    private final LongAdder republished = new LongAdder();
+
+    private final LongAdder discarded = new LongAdder();
+
+    private final RateWindow republishRate = new RateWindow(RATE_WINDOW_SECONDS);
+
+    private final RateWindow discardRate = new RateWindow(RATE_WINDOW_SECONDS);
+
+    public RetryBacklog(@Autowired RetryClock clock) {
+        this.clock = clock.clock();
+    }
+
+    /**
+     * Records the backlog of a partition as at the end of a poll.
+     *
+     * @param lag the consumer's lag on the partition after the poll, excluding the records held.
+     * @param heldDueTimes the times the records held for re-polling are due a retry, in epoch milliseconds.
+     */
+    public void update(final TopicPartition partition, final long lag, final long[] heldDueTimes) {
+        partitions.put(partition, new PartitionBacklog(lag + heldDueTimes.length, heldDueTimes));
+    }
+
+    public void recordRepublished() {
+        republished.increment();
+        republishRate.increment(clock.millis());
+    }
+
+    public void recordDiscarded() {
+        discarded.increment();
+        discardRate.increment(clock.millis());
+    }
+
+    public Snapshot snapshot() {
+        final long now = clock.millis();
+        final Map<String, Long> dueHistogram = new LinkedHashMap<>();
+        dueHistogram.put("overdue", 0L);
+        for(long bound : DUE_BUCKET_SECONDS) {
+            dueHistogram.put(bound + "s", 0L);
+        }
+        dueHistogram.put("more", 0L);
+        long totalLag = 0;
+        long totalHeld = 0;
+        final Map<TopicPartition, PartitionBacklog> backlogs = Map.copyOf(partitions);
+        final List<PartitionSnapshot> partitionSnapshots = backlogs.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<TopicPartition, PartitionBacklog> entry) -> entry.getKey().topic())
+                        .thenComparingInt(entry -> entry.getKey().partition()))
+                .map(entry -> new PartitionSnapshot(entry.getKey().topic(), entry.getKey().partition(),
+                        entry.getValue().lag(), entry.getValue().heldDueTimes().length))
+                .toList();
+        for(PartitionBacklog backlog : backlogs.values()) {
+            totalLag += backlog.lag();
+            totalHeld += backlog.heldDueTimes().length;
+            for(long dueTime : backlog.heldDueTimes()) {
+                dueHistogram.merge(bucket(dueTime - now), 1L, Long::sum);
+            }
+        }
+        final double republishesPerSecond = republishRate.ratePerSecond(now);
+        final Double estimatedClearSeconds = totalLag == 0 ? Double.valueOf(0) :
+                republishesPerSecond > 0 ? Double.valueOf(totalLag / republishesPerSecond) : null;
+        return new Snapshot(partitionSnapshots, totalLag, totalHeld, dueHistogram, republished.sum(), discarded.sum(),
+                republishesPerSecond, discardRate.ratePerSecond(now), estimatedClearSeconds);
+    }
+
+    @Override
+    public void onPartitionsAssigned(final Collection<TopicPartition> assigned) {
+    }
+
+    @Override
+    public void onPartitionsRevoked(final Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    private static String bucket(final long untilDueMs) {
+        if(untilDueMs <= 0) {
+            return "overdue";
+        }
+        for(long bound : DUE_BUCKET_SECONDS) {
+            if(untilDueMs <= bound * 1000) {
+                return bound + "s";
+            }
+        }
+        return "more";
+    }
+
+    private record PartitionBacklog(long lag, long[] heldDueTimes) {
+    }
+
+    public record PartitionSnapshot(String topic, int partition, long lag, long held) {
+    }
+
+    /**
+     * The retry backlog as at the time it was taken.
+     *
+     * The due histogram counts the held records by the time until they are due, each bucket up to the given number of
+     * seconds.  The estimated clear time is the total lag at the recent republish rate, or null if nothing has been
+     * republished in the last minute.
+     */
+    public record Snapshot(List<PartitionSnapshot> partitions, long totalLag, long totalHeld, Map<String, Long> dueHistogram,
+                           long republished, long discarded, double republishesPerSecond, double discardsPerSecond,
+                           Double estimatedClearSeconds) {
+    }
+}
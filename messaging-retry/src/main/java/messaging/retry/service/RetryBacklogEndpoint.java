@@ -0,0 +1,24 @@
+package messaging.retry.service;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * Exposes the RetryBacklog as the retrybacklog actuator endpoint, at /actuator/retrybacklog when exposed over http.
+ *
+ * The endpoint is only registered if the application includes Spring Boot Actuator.
+ */
+@Endpoint(id = "retrybacklog")
+public class RetryBacklogEndpoint {
+
+    private final RetryBacklog retryBacklog;
+
+    public RetryBacklogEndpoint(final RetryBacklog retryBacklog) {
+        this.retryBacklog = retryBacklog;
+    }
+
+    @ReadOperation
+    public RetryBacklog.Snapshot backlog() {
+        return retryBacklog.snapshot();
+    }
+}
@@ -0,0 +1,34 @@
+package messaging.retry.service;
+
+/**
+ * The retry settings overridden at runtime for the events from an original topic.  Any setting that is null is not
+ * overridden, and is taken from the retry stream the events are retried on.
+ *
+ * @param topic the retry topic of the configured retry stream to retry the events on, in place of the stream the
+ *              original topic is configured for.
+ * @param retryIntervalSeconds the interval that must have passed since the last retry before the event is to be
+ *                             retried again.
+ * @param maxRetryDurationSeconds the maximum amount of time an event should be retried before it should be discarded.
+ */
+public record RetryOverride(String topic, Long retryIntervalSeconds, Long maxRetryDurationSeconds) {
+
+    /**
+     * Returns this override with the settings of the given update applied over it, so that each setting not given by
+     * the update is left as it is.
+     */
+    RetryOverride merge(final RetryOverride update) {
+        return new RetryOverride(update.topic() != null ? update.topic() : topic,
+                update.retryIntervalSeconds() != null ? update.retryIntervalSeconds() : retryIntervalSeconds,
+                update.maxRetryDurationSeconds() != null ? update.maxRetryDurationSeconds() : maxRetryDurationSeconds);
+    }
+
+    /**
+     * Returns the given stream with the overridden settings in place of its own.
+     */
+    RetryStream apply(final RetryStream stream) {
+        return new RetryStream(stream.topic(),
+                retryIntervalSeconds != null ? retryIntervalSeconds : stream.retryIntervalSeconds(),
+                maxRetryDurationSeconds != null ? maxRetryDurationSeconds : stream.maxRetryDurationSeconds(),
+                stream.concurrency());
+    }
+}
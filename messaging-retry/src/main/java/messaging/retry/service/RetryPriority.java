@@ -0,0 +1,52 @@
+package messaging.retry.service;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The priority lane an event is retried in, carried in the retry-priority header.
+ *
+ * With lanes enabled each retry stream has a retry topic, and listener container, per lane, so a backlog in one lane
+ * does not delay the retries in another, and the republish rate to each original topic is shared between the lanes
+ * by weight.  The normal lane uses the stream's retry topic, and the other lanes add their name to it, e.g.
+ * messaging-retry-high and messaging-retry-bulk.
+ */
+public enum RetryPriority {
+
+    /**
+     * Retries that are waited on, such as user facing updates.
+     */
+    HIGH,
+
+    NORMAL,
+
+    /**
+     * Retries that can wait, such as those from a bulk import.
+     */
+    BULK;
+
+    /**
+     * The suffix added to the stream's retry topic for the lane's retry topic.
+     */
+    public String topicSuffix() {
+        return this == NORMAL ? "" : "-" + name().toLowerCase();
+    }
+
+    /**
+     * Reads the priority from a header value, which may be unmapped bytes if the event was not produced with Spring
+     * Kafka.  A missing or unknown priority is normal.
+     */
+    public static RetryPriority fromHeader(final Object value) {
+        if(value instanceof RetryPriority priority) {
+            return priority;
+        }
+        final String name = value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : value != null ? value.toString() : null;
+        if(name != null) {
+            for(RetryPriority priority : values()) {
+                if(priority.name().equalsIgnoreCase(name.trim())) {
+                    return priority;
+                }
+            }
+        }
+        return NORMAL;
+    }
+}
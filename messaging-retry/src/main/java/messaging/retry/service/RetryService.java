@@ -1,16 +1,28 @@
 package messaging.retry.service;
 
-import java.time.Instant;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+import io.micrometer.observation.Observation;
 import lombok.extern.slf4j.Slf4j;
 import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.lib.ClaimCheck;
+import messaging.retry.lib.DeadLetterPublisher;
 import messaging.retry.lib.MessagingRetryHeaders;
 import messaging.retry.lib.MessagingRetryKafkaClient;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.lib.RetrySpillBuffer;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TIMESTAMP;
 import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TOPIC;
@@ -19,31 +31,57 @@ import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TOPIC;
 @Slf4j
 public class RetryService {
 
-    private final MessagingRetryKafkaClient kafkaClient;
-
     /**
-     * The retry topic to send events for delayed retry.
+     * The payload sent to the retry topic in place of a claim checked payload.
      */
-    private final String retryTopic;
+    private static final byte[] CLAIM_CHECKED_PAYLOAD = new byte[0];
+
+    private final MessagingRetryKafkaClient kafkaClient;
+
+    private final DeadLetterPublisher deadLetterPublisher;
+
+    private final RepublishRateLimiter rateLimiter;
+
+    private final ParkedRetryIndex parkedRetryIndex;
+
+    private final RetryBacklog retryBacklog;
+
+    private final RetrySpillBuffer spillBuffer;
+
+    private final ClaimCheck claimCheck;
 
     /**
-     * The interval that must have passed since the last retry before the event is to be retried again.
+     * The retry streams, defining the retry topic and retry settings for the events from each original topic.
      */
-    private final Long retryIntervalSeconds;
+    private final RetryStreams retryStreams;
+
+    private final RetryObservations observations;
 
     /**
-     * The maximum amount of time an event should be retried before it should be discarded.
+     * The time source the retry decisions are made against.
      */
-    private final Long maxRetryDurationSeconds;
+    private final Clock clock;
 
     public RetryService(@Autowired MessagingRetryKafkaClient kafkaClient,
-                        @Value("${retry.messaging.topic}") String retryTopic,
-                        @Value("${retry.messaging.retryIntervalSeconds}") Long retryIntervalSeconds,
-                        @Value("${retry.messaging.maxRetryDurationSeconds}") Long maxRetryDurationSeconds) {
+                        @Autowired DeadLetterPublisher deadLetterPublisher,
+                        @Autowired RepublishRateLimiter rateLimiter,
+                        @Autowired ParkedRetryIndex parkedRetryIndex,
+                        @Autowired RetryBacklog retryBacklog,
+                        @Autowired RetrySpillBuffer spillBuffer,
+                        @Autowired ClaimCheck claimCheck,
+                        @Autowired RetryStreams retryStreams,
+                        @Autowired RetryObservations observations,
+                        @Autowired RetryClock clock) {
         this.kafkaClient = kafkaClient;
-        this.retryTopic = retryTopic;
-        this.retryIntervalSeconds = retryIntervalSeconds;
-        this.maxRetryDurationSeconds = maxRetryDurationSeconds;
+        this.deadLetterPublisher = deadLetterPublisher;
+        this.rateLimiter = rateLimiter;
+        this.parkedRetryIndex = parkedRetryIndex;
+        this.retryBacklog = retryBacklog;
+        this.spillBuffer = spillBuffer;
+        this.claimCheck = claimCheck;
+        this.retryStreams = retryStreams;
+        this.observations = observations;
+        this.clock = clock.clock();
     }
 
     /**
@@ -57,25 +95,403 @@ public class RetryService {
      * it has not yet been retried.  So set the original received timestamp to the received timestamp and pass
      * this as a header on the event.  Also set the topic this event was received from as a header so the retry logic
      * knows which topic to send the event back to when it is ready to retry.
+     *
+     * The retry attempts header is incremented each time the event is sent for retry, so that the number of attempts
+     * made is known if the event is eventually dead lettered.
+     *
+     * The payload is sent as received, along with its content type header if it has one, so that it is not decoded and
+     * re-encoded on the way through the retry topic.
+     *
+     * The event is sent to the retry topic of the retry stream for its original topic.  If the caller is consuming in
+     * a Kafka transaction the send is part of that transaction, so is committed along with the consumer offsets.
+     *
+     * Otherwise, with the retry spill enabled, the send waits up to the spill's send timeout, and if it fails because
+     * the broker cannot be reached it is spilled to disk to be sent once it can.  While there are spilled sends waiting
+     * the event is spilled straight away, behind them.
+     *
+     * With the claim check enabled, a payload larger than the threshold is stored in the claim check store, and an
+     * empty payload is sent to the retry topic with the reference to it in the retry-claim-check header.
+     *
+     * The send is observed as a messaging.retry.retry observation, a child of the caller's observation if it has one,
+     * such as that of the listener container the event was received on.
+     */
+    public void retry(final byte[] payload, final MessageHeaders headers) {
+        retry(payload, headers, null);
+    }
+
+    /**
+     * Sends the event to the retry topic for delayed retry, with the key of the entity it is waiting on.  If parked
+     * retry release is enabled, calling release with the key retries the event straight away rather than when its
+     * retry interval expires.
+     *
+     * The event is retried in the priority lane given by its retry-priority header, if it has one, otherwise in the
+     * normal lane.
+     */
+    public void retry(final byte[] payload, final MessageHeaders headers, final String retryKey) {
+        retry(payload, headers, retryKey, null);
+    }
+
+    /**
+     * Sends the event to the retry topic of the given priority lane for delayed retry, with the key of the entity it is
+     * waiting on.  The priority is carried in the retry-priority header, through to the original topic, so that the
+     * event stays in its lane if it is retried again.  If the priority is null it is taken from the event's
+     * retry-priority header, if it has one, otherwise the normal lane is used.
      */
-    public void retry(final String payload, final MessageHeaders headers) {
+    public void retry(final byte[] payload, final MessageHeaders headers, final String retryKey, final RetryPriority priority) {
+        final RetryPriority verifiedPriority = priority != null ? priority : RetryPriority.fromHeader(headers.get(MessagingRetryHeaders.RETRY_PRIORITY));
+        final String retryTopic = retryStreams.retryTopic((String)headers.get(RECEIVED_TOPIC), verifiedPriority);
+        final Map<String, Object> retryHeaders = retryHeaders(headers, retryKey, verifiedPriority);
+        RetryObservations.observe(observations.retry((String)headers.get(RECEIVED_TOPIC), verifiedPriority,
+                        (Integer)retryHeaders.get(MessagingRetryHeaders.RETRY_ATTEMPTS)),
+                () -> send(retryTopic, checkIn(payload, retryHeaders), retryHeaders));
+    }
+
+    private void send(final String retryTopic, final byte[] retryPayload, final Map<String, Object> retryHeaders) {
+        if(!spillBuffer.isEnabled() || kafkaClient.inTransaction()) {
+            kafkaClient.send(retryTopic, retryPayload, retryHeaders);
+            return;
+        }
+        if(spillBuffer.spillIfSpilling(retryTopic, retryPayload, retryHeaders)) {
+            return;
+        }
+        try {
+            kafkaClient.sendMessage(retryTopic, retryPayload, retryHeaders, spillBuffer.getSendTimeoutMs());
+        } catch (RuntimeException e) {
+            if(!RetrySpillBuffer.isRetriable(e)) {
+                throw e;
+            }
+            log.warn("Retry send to topic {} failed - spilling to disk.", retryTopic);
+            spillBuffer.spill(retryTopic, retryPayload, retryHeaders);
+        }
+    }
+
+    /**
+     * Sends the event to the retry topic as retry does, but without waiting for the broker acknowledgement, for callers
+     * that must not block on the send, such as a reactive pipeline.  The send is not part of any Kafka transaction.
+     *
+     * With the retry spill enabled, the event is spilled if there are spilled sends waiting, or if the send fails
+     * because the broker cannot be reached.
+     *
+     * With the claim check enabled, a payload larger than the threshold is written to the claim check store on the
+     * calling thread before the send.
+     *
+     * @return a future completed once the event is written to the retry topic, or completed exceptionally if it could
+     * not be.
+     */
+    public CompletableFuture<Void> retryAsync(final byte[] payload, final MessageHeaders headers, final String retryKey) {
+        final RetryPriority priority = RetryPriority.fromHeader(headers.get(MessagingRetryHeaders.RETRY_PRIORITY));
+        final String retryTopic = retryStreams.retryTopic((String)headers.get(RECEIVED_TOPIC), priority);
+        final Map<String, Object> retryHeaders = retryHeaders(headers, retryKey, priority);
+        final Observation observation = observations.retry((String)headers.get(RECEIVED_TOPIC), priority,
+                (Integer)retryHeaders.get(MessagingRetryHeaders.RETRY_ATTEMPTS)).start();
+        try(Observation.Scope scope = observation.openScope()) {
+            return sendAsync(retryTopic, checkIn(payload, retryHeaders), retryHeaders, observation).whenComplete((result, exception) -> {
+                if(exception != null) {
+                    observation.error(exception);
+                }
+                observation.stop();
+            });
+        } catch (RuntimeException e) {
+            observation.error(e).stop();
+            throw e;
+        }
+    }
+
+    /**
+     * A send that fails is spilled on the producer's thread, so in the scope of the retry observation, so that the
+     * spilled send carries its trace context.
+     */
+    private CompletableFuture<Void> sendAsync(final String retryTopic, final byte[] retryPayload, final Map<String, Object> retryHeaders,
+                                              final Observation observation) {
+        if(!spillBuffer.isEnabled()) {
+            return kafkaClient.sendMessageAsync(retryTopic, retryPayload, retryHeaders).thenApply(result -> null);
+        }
+        if(spillBuffer.spillIfSpilling(retryTopic, retryPayload, retryHeaders)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return kafkaClient.sendMessageAsync(retryTopic, retryPayload, retryHeaders)
+                .orTimeout(spillBuffer.getSendTimeoutMs(), TimeUnit.MILLISECONDS)
+                .handle((result, exception) -> {
+                    if(exception != null) {
+                        if(!RetrySpillBuffer.isRetriable(exception)) {
+                            throw new CompletionException(exception);
+                        }
+                        log.warn("Retry send to topic {} failed - spilling to disk.", retryTopic);
+                        try(Observation.Scope scope = observation.openScope()) {
+                            spillBuffer.spill(retryTopic, retryPayload, retryHeaders);
+                        }
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Claim checks the payload if it is over the threshold, adding the reference to it to the retry headers.
+     *
+     * @return the payload to send to the retry topic.
+     */
+    private byte[] checkIn(final byte[] payload, final Map<String, Object> retryHeaders) {
+        final String reference = claimCheck.checkIn(payload);
+        if(reference == null) {
+            return payload;
+        }
+        retryHeaders.put(MessagingRetryHeaders.CLAIM_CHECK, reference);
+        return CLAIM_CHECKED_PAYLOAD;
+    }
+
+    private static Map<String, Object> retryHeaders(final MessageHeaders headers, final String retryKey, final RetryPriority priority) {
         final Long verifiedOriginalReceivedTimestamp = headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP) != null ?
                 (Long)headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP) : (Long)headers.get(RECEIVED_TIMESTAMP);
-        kafkaClient.sendMessage(retryTopic, payload,
-                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, verifiedOriginalReceivedTimestamp,
-                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, headers.get(RECEIVED_TOPIC)));
-    }
-
-    public void handle(final String payload, final Long receivedTimestamp, final Long originalReceivedTimestamp, final String originalTopic) {
-        if(shouldDiscard(originalReceivedTimestamp)) {
-            log.debug("Item {} has exceeded total retry duration - item discarded.", payload);
-        } else if(shouldRetry(receivedTimestamp)) {
-            log.debug("Item {} is ready to retry - sending to update-item topic.", payload);
-            kafkaClient.sendMessage(originalTopic, payload,
-                    Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp));
+        final Integer attempts = headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS) != null ?
+                (Integer)headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS) + 1 : 1;
+        final Map<String, Object> retryHeaders = new HashMap<>();
+        retryHeaders.put(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, verifiedOriginalReceivedTimestamp);
+        retryHeaders.put(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, headers.get(RECEIVED_TOPIC));
+        retryHeaders.put(MessagingRetryHeaders.RETRY_ATTEMPTS, attempts);
+        putContentType(retryHeaders, headers.get(MessagingRetryHeaders.CONTENT_TYPE));
+        if(retryKey != null) {
+            retryHeaders.put(MessagingRetryHeaders.RETRY_KEY, retryKey);
+        }
+        putPriority(retryHeaders, priority);
+        return retryHeaders;
+    }
+
+    /**
+     * Retries the events parked on the retry topics with the given retry key straight away, such as when the entity
+     * they are waiting on has been created.  The events are republished to their original topics regardless of their
+     * retry interval and the republish rate limit, unless they have exceeded the max retry duration, in which case
+     * they are sent to the dead letter topic as they would have been when next evaluated.
+     *
+     * If the caller is consuming in a Kafka transaction the republish is part of that transaction, and the events are
+     * only marked as released in the parked retry index once it commits.  Otherwise they are marked once the republish
+     * has been sent.  If the republish fails, or the transaction is rolled back, the events are restored to the index,
+     * so they are still evaluated when the retry consumer re-polls them, and the failure is logged rather than thrown.
+     *
+     * @return the number of events released.
+     */
+    public int release(final String retryKey) {
+        final List<ParkedRetryIndex.ParkedRetry> retries = parkedRetryIndex.release(retryKey);
+        final long now = clock.millis();
+        int released = 0;
+        for(ParkedRetryIndex.ParkedRetry retry : retries) {
+            try {
+                markReleasedWhenSent(retry, release(retry, now));
+                released++;
+            } catch (RuntimeException e) {
+                log.warn("Failed to release parked event from {} with retry key {} - leaving it to be retried when due: {}",
+                        retry.originalTopic(), retryKey, e.getMessage());
+                parkedRetryIndex.restore(retry);
+            }
+        }
+        try {
+            deadLetterPublisher.awaitPublished();
+        } catch (IllegalStateException e) {
+            // The released events that were not dead lettered have been restored, to be dead lettered when re-polled.
+            log.warn("Failed to dead letter released events with retry key {}: {}", retryKey, e.getMessage());
+        }
+        return released;
+    }
+
+    /**
+     * Republishes a released event, or dead letters it if it has exceeded the max retry duration.
+     *
+     * @return a future completed once the event has been sent, or completed exceptionally if it could not be.
+     */
+    private CompletableFuture<Void> release(final ParkedRetryIndex.ParkedRetry retry, final long now) {
+        final RetryStream stream = retryStreams.forOriginalTopic(retry.originalTopic());
+        if(retry.originalReceivedTimestamp() != null && shouldDiscard(retry.originalReceivedTimestamp(), stream.maxRetryDurationSeconds(), now)) {
+            log.debug("Released event from {} has exceeded total retry duration - sending to dead letter topic.", retry.originalTopic());
+            return deadLetter(retry.payload(), retry.originalTopic(), retry.originalReceivedTimestamp(),
+                    retry.attempts(), retry.contentType(), retry.claimCheck(), stream.maxRetryDurationSeconds());
+        }
+        log.debug("Releasing parked event with retry key {} - sending to {} topic.", retry.retryKey(), retry.originalTopic());
+        republish(retry.payload(), retry.originalTopic(), retry.originalReceivedTimestamp(), retry.attempts(),
+                retry.contentType(), retry.priority(), retry.claimCheck());
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Marks the released event as released in the parked retry index once it is sent, and the caller's transaction
+     * committed if there is one, otherwise restores it to the index.
+     */
+    private void markReleasedWhenSent(final ParkedRetryIndex.ParkedRetry retry, final CompletableFuture<Void> sent) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(final int status) {
+                    if(status == STATUS_COMMITTED) {
+                        parkedRetryIndex.markReleased(retry.id());
+                    } else {
+                        parkedRetryIndex.restore(retry);
+                    }
+                }
+            });
         } else {
-            log.debug("Item {} is not yet ready to retry on the update-item topic - delaying.", payload);
-            throw new RetryableMessagingException("Delaying attempt to retry item "+payload);
+            sent.whenComplete((result, exception) -> {
+                if(exception == null) {
+                    parkedRetryIndex.markReleased(retry.id());
+                } else {
+                    parkedRetryIndex.restore(retry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Evaluates an event received from the retry topic.  If it has exceeded the max retry duration it is sent to the
+     * dead letter topic, if it is due a retry it is sent back to the original topic, otherwise a
+     * RetryableMessagingException is thrown so that it is re-polled and evaluated again.
+     *
+     * An event that is due a retry is also delayed if the republish rate limit for the original topic is reached.
+     *
+     * Events written to the retry topic before the retry attempts header was introduced are treated as having been
+     * retried once.
+     *
+     * The retry interval and max retry duration are those of the retry stream for the original topic.
+     *
+     * When retry transactions are enabled the republish, or the dead letter, is sent in the transaction of the retry
+     * topic listener container, so it is committed atomically with the retry topic offset.
+     *
+     * The evaluation is observed as a messaging.retry.handle observation, tagged with its outcome.
+     */
+    public void handle(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp, final String originalTopic, final Integer attempts, final String contentType) {
+        handle(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic, attempts, contentType, clock.millis());
+    }
+
+    /**
+     * Evaluates an event received from the retry topic as at the given time, so that all the events in a poll can be
+     * evaluated against a single reading of the clock.
+     */
+    public void handle(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp, final String originalTopic, final Integer attempts, final String contentType, final long now) {
+        handle(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic, attempts, contentType, RetryPriority.NORMAL, now);
+    }
+
+    /**
+     * Evaluates an event received from the retry topic of the given priority lane as at the given time.  If it is due
+     * a retry it takes a permit from the lane's share of the republish rate limit for the original topic.
+     */
+    public void handle(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp, final String originalTopic, final Integer attempts, final String contentType, final RetryPriority priority, final long now) {
+        handle(payload, receivedTimestamp, originalReceivedTimestamp, originalTopic, attempts, contentType, priority, null, now);
+    }
+
+    /**
+     * Evaluates an event received from the retry topic as at the given time, whose payload is held in the claim check
+     * store with the given reference if it is not null.  The payload is only fetched from the store if the event is
+     * republished or dead lettered.
+     */
+    public void handle(final byte[] payload, final Long receivedTimestamp, final Long originalReceivedTimestamp, final String originalTopic, final Integer attempts, final String contentType, final RetryPriority priority, final String claimCheckReference, final long now) {
+        final RetryStream stream = retryStreams.forOriginalTopic(originalTopic);
+        final Integer verifiedAttempts = attempts != null ? attempts : 1;
+        final Observation observation = observations.handle(originalTopic, priority, verifiedAttempts);
+        RetryObservations.observe(observation, () -> {
+            if(shouldDiscard(originalReceivedTimestamp, stream.maxRetryDurationSeconds(), now)) {
+                log.debug("Event from {} has exceeded total retry duration - sending to dead letter topic.", originalTopic);
+                deadLetter(payload, originalTopic, originalReceivedTimestamp, verifiedAttempts, contentType,
+                        claimCheckReference, stream.maxRetryDurationSeconds());
+                observation.lowCardinalityKeyValue(RetryObservations.OUTCOME, "dead-lettered");
+            } else if(shouldRetry(receivedTimestamp, stream.retryIntervalSeconds(), now)) {
+                if(!rateLimiter.tryAcquire(originalTopic, priority)) {
+                    log.debug("Event from {} is ready to retry but the republish rate limit is reached - delaying.", originalTopic);
+                    observation.lowCardinalityKeyValue(RetryObservations.OUTCOME, "rate-limited");
+                    throw new RetryableMessagingException("Republish rate limit reached for topic "+originalTopic);
+                }
+                log.debug("Event is ready to retry - sending to {} topic.", originalTopic);
+                final boolean sent = republish(payload, originalTopic, originalReceivedTimestamp, verifiedAttempts, contentType,
+                        priority, claimCheckReference);
+                observation.lowCardinalityKeyValue(RetryObservations.OUTCOME, sent ? "republished" : "dead-lettered");
+            } else {
+                log.debug("Event is not yet ready to retry on the {} topic - delaying.", originalTopic);
+                observation.lowCardinalityKeyValue(RetryObservations.OUTCOME, "delayed");
+                throw new RetryableMessagingException("Delaying attempt to retry event from topic "+originalTopic);
+            }
+        });
+    }
+
+    /**
+     * @return false if the claim checked payload is no longer stored, so the event was dead lettered instead.
+     */
+    private boolean republish(final byte[] payload, final String originalTopic, final Long originalReceivedTimestamp,
+                           final Integer attempts, final String contentType, final RetryPriority priority, final String claimCheckReference) {
+        final byte[] republishPayload = payload(payload, claimCheckReference);
+        if(republishPayload == null) {
+            deadLetterMissingPayload(originalTopic, originalReceivedTimestamp, attempts, contentType, claimCheckReference);
+            return false;
+        }
+        final Map<String, Object> headers = new HashMap<>();
+        headers.put(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp);
+        headers.put(MessagingRetryHeaders.RETRY_ATTEMPTS, attempts != null ? attempts : 1);
+        putContentType(headers, contentType);
+        putPriority(headers, priority);
+        kafkaClient.send(originalTopic, republishPayload, headers);
+        retryBacklog.recordRepublished();
+        if(claimCheckReference != null) {
+            claimCheck.release(claimCheckReference);
+        }
+        return true;
+    }
+
+    /**
+     * @return a future completed once the dead letter is written.
+     */
+    private CompletableFuture<Void> deadLetter(final byte[] payload, final String originalTopic, final Long originalReceivedTimestamp,
+                            final Integer attempts, final String contentType, final String claimCheckReference, final long maxRetryDurationSeconds) {
+        final byte[] deadLetterPayload = payload(payload, claimCheckReference);
+        if(deadLetterPayload == null) {
+            return deadLetterMissingPayload(originalTopic, originalReceivedTimestamp, attempts, contentType, claimCheckReference);
+        }
+        final CompletableFuture<Void> published = deadLetterPublisher.publish(deadLetterPayload, originalTopic,
+                originalReceivedTimestamp, attempts, contentType, "Exceeded max retry duration of " + maxRetryDurationSeconds + " seconds");
+        retryBacklog.recordDiscarded();
+        if(claimCheckReference != null) {
+            // The event is redelivered from the retry topic if the dead letter is not written, so its payload is kept until it is.
+            published.thenRun(() -> claimCheck.release(claimCheckReference));
+        }
+        return published;
+    }
+
+    /**
+     * Dead letters an event whose claim checked payload is no longer stored, with an empty payload and the reference
+     * to the payload, rather than dropping it, so that the loss is recorded.  There is nothing left to release.
+     */
+    private CompletableFuture<Void> deadLetterMissingPayload(final String originalTopic, final Long originalReceivedTimestamp,
+                                                             final Integer attempts, final String contentType, final String claimCheckReference) {
+        log.warn("Claim checked payload {} of an event from {} is no longer stored - sending to dead letter topic.",
+                claimCheckReference, originalTopic);
+        final CompletableFuture<Void> published = deadLetterPublisher.publish(CLAIM_CHECKED_PAYLOAD, originalTopic,
+                originalReceivedTimestamp, attempts, contentType, "Claim checked payload " + claimCheckReference + " is no longer stored", claimCheckReference);
+        retryBacklog.recordDiscarded();
+        return published;
+    }
+
+    /**
+     * Returns the payload of an event read from a retry topic: the claim checked payload if it has a reference, which
+     * is null if the payload is no longer stored, otherwise the payload as read.
+     */
+    public byte[] payload(final byte[] payload, final String claimCheckReference) {
+        return claimCheckReference != null ? claimCheck.checkOut(claimCheckReference) : payload;
+    }
+
+    /**
+     * Deletes the claim checked payload of an event read from a retry topic once it is no longer needed, such as once
+     * it has been dead lettered.  If the caller is in a transaction it is only deleted once the transaction commits.
+     */
+    public void releasePayload(final String claimCheckReference) {
+        claimCheck.release(claimCheckReference);
+    }
+
+    /**
+     * Adds the priority header for any lane other than normal, so that events retried in the normal lane carry the
+     * same headers as before lanes were introduced.
+     */
+    private static void putPriority(final Map<String, Object> headers, final RetryPriority priority) {
+        if(priority != null && priority != RetryPriority.NORMAL) {
+            headers.put(MessagingRetryHeaders.RETRY_PRIORITY, priority.name());
+        }
+    }
+
+    private static void putContentType(final Map<String, Object> headers, final Object contentType) {
+        if(contentType != null) {
+            headers.put(MessagingRetryHeaders.CONTENT_TYPE, contentType.toString());
         }
     }
 
@@ -90,9 +506,9 @@ public class RetryService {
      *
      * If current time is 10.06, then discard.  i.e. current time > (original receipt time + retry duration)
      */
-    private boolean shouldDiscard(final Long originalReceivedTimestamp) {
+    private boolean shouldDiscard(final Long originalReceivedTimestamp, final long maxRetryDurationSeconds, final long now) {
         long cutOffTime = originalReceivedTimestamp + (maxRetryDurationSeconds * 1000);
-        return Instant.now().toEpochMilli() > cutOffTime;
+        return now > cutOffTime;
     }
 
     /**
@@ -110,9 +526,12 @@ public class RetryService {
      * If current time is 10.13, then retry (by sending back to update-item topic).
      * i.e. current time > (receipt time + retry interval) so retry
      */
-    private boolean shouldRetry(final Long receivedTimestamp) {
-        long timeForNextRetry = receivedTimestamp + (retryIntervalSeconds * 1000);
-        log.debug("retryIntervalSeconds: {} - receivedTimestamp: {} - timeForNextRetry: {} - now: {} - (now > timeForNextRetry): {}", retryIntervalSeconds, receivedTimestamp, timeForNextRetry, Instant.now().toEpochMilli(), Instant.now().toEpochMilli() > timeForNextRetry);
-        return Instant.now().toEpochMilli() > timeForNextRetry;
+    private boolean shouldRetry(final Long receivedTimestamp, final long retryIntervalSeconds, final long now) {
+        final long timeForNextRetry = receivedTimestamp + (retryIntervalSeconds * 1000);
+        if(log.isDebugEnabled()) {
+            // Guarded as the arguments are boxed into an array whether or not debug is enabled.
+            log.debug("retryIntervalSeconds: {} - receivedTimestamp: {} - timeForNextRetry: {} - now: {} - (now > timeForNextRetry): {}", retryIntervalSeconds, receivedTimestamp, timeForNextRetry, now, now > timeForNextRetry);
+        }
+        return now > timeForNextRetry;
     }
 }
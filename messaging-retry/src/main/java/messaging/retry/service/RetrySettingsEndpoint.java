@@ -0,0 +1,79 @@
+package messaging.retry.service;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+/**
+ * Exposes the current settings of the RetryStreams as the retrysettings actuator endpoint, at /actuator/retrysettings
+ * when exposed over http, and changes them without a restart.
+ *
+ * POST /actuator/retrysettings/stream/{retryTopic} changes the settings of a stream, and
+ * POST /actuator/retrysettings/topic/{originalTopic} overrides them for the events from an original topic, with a JSON
+ * body of any of retryTopic (overrides only), retryIntervalSeconds and maxRetryDurationSeconds.  DELETE on either
+ * restores the configured settings.
+ *
+ * The endpoint is only registered if the application includes Spring Boot Actuator.  As it changes the retry settings,
+ * it should only be exposed where it cannot be reached by anyone who should not change them, such as on a separate
+ * management port, or behind Spring Security.
+ */
+@Endpoint(id = "retrysettings")
+public class RetrySettingsEndpoint {
+
+    private static final String STREAM = "stream";
+
+    private static final String TOPIC = "topic";
+
+    private final RetryStreams retryStreams;
+
+    public RetrySettingsEndpoint(final RetryStreams retryStreams) {
+        this.retryStreams = retryStreams;
+    }
+
+    @ReadOperation
+    public RetryStreams.Snapshot settings() {
+        return retryStreams.snapshot();
+    }
+
+    @WriteOperation
+    public RetryStream update(@Selector final String scope, @Selector final String name, @Nullable final String retryTopic,
+                              @Nullable final Long retryIntervalSeconds, @Nullable final Long maxRetryDurationSeconds) {
+        try {
+            if(STREAM.equals(scope)) {
+                if(retryTopic != null) {
+                    final String message = "The retryTopic of a " + STREAM + " cannot be changed, only overridden for a " + TOPIC;
+                    throw new InvalidEndpointRequestException(message, message);
+                }
+                return retryStreams.updateStream(name, retryIntervalSeconds, maxRetryDurationSeconds);
+            } else if(TOPIC.equals(scope)) {
+                return retryStreams.override(name, new RetryOverride(retryTopic, retryIntervalSeconds, maxRetryDurationSeconds));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        throw invalidScope(scope);
+    }
+
+    @DeleteOperation
+    public RetryStream reset(@Selector final String scope, @Selector final String name) {
+        try {
+            if(STREAM.equals(scope)) {
+                return retryStreams.resetStream(name);
+            } else if(TOPIC.equals(scope)) {
+                return retryStreams.clearOverride(name);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        throw invalidScope(scope);
+    }
+
+    private static InvalidEndpointRequestException invalidScope(final String scope) {
+        final String message = "Settings are changed for a " + STREAM + ", or a " + TOPIC + " with an optional retryTopic, not " + scope;
+        return new InvalidEndpointRequestException(message, message);
+    }
+}
@@ -0,0 +1,13 @@
+package messaging.retry.service;
+
+/**
+ * A retry stream: the retry topic that events are sent to for delayed retry, and the retry settings applied to them.
+ *
+ * @param topic the retry topic to send events for delayed retry.
+ * @param retryIntervalSeconds the interval that must have passed since the last retry before the event is to be
+ *                             retried again.
+ * @param maxRetryDurationSeconds the maximum amount of time an event should be retried before it should be discarded.
+ * @param concurrency the number of consumers for the retry topic.
+ */
+public record RetryStream(String topic, long retryIntervalSeconds, long maxRetryDurationSeconds, int concurrency) {
+}
@@ -0,0 +1,243 @@
+package messaging.retry.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.extern.slf4j.Slf4j;
+import messaging.retry.MessagingRetryProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The configured retry streams, and which stream the events from each original topic are retried on.
+ *
+ * With priority lanes enabled each stream is consumed from a retry topic per lane, each with the stream's retry
+ * settings.
+ *
+ * The retry interval and max retry duration of each stream, and the overrides for each original topic, can be changed
+ * while the application is running, such as through the retrysettings actuator endpoint.  They are held in an
+ * immutable snapshot that each change replaces, so the retry decisions read them without locking, and every event is
+ * evaluated against the settings at the time it is read.  A change takes effect from the next event evaluated, and is
+ * not persisted, so the configured settings apply again on restart.
+ *
+ * An override can move the events from an original topic to the retry topic of another configured stream, but the
+ * retry topics consumed are fixed at startup, so that no listener container is created or rebalanced.
+ *
+ * Example:
+ *
+ * update-item is retried on update-retry every 10 seconds, and the database is overloaded.  Overriding the retry
+ * interval of update-item to 60 seconds delays its next republish, and that of every event already waiting on
+ * update-retry, until 60 seconds after it was sent for retry.  Clearing the override restores the 10 second interval.
+ */
+@Slf4j
+@Component
+public class RetryStreams {
+
+    /**
+     * The configured streams, by retry topic.
+     */
+    private final Map<String, RetryStream> configuredStreams;
+
+    private final String defaultTopic;
+
+    private final Map<String, String> streamTopicsByOriginalTopic = new HashMap<>();
+
+    private final boolean lanesEnabled;
+
+    private final AtomicReference<Settings> settings;
+
+    /**
+     * The current settings of each stream, by retry topic, and the overrides by original topic.
+     */
+    private record Settings(Map<String, RetryStream> streams, Map<String, RetryOverride> overrides) {
+    }
+
+    /**
+     * The current settings of the streams and the overrides, as reported by the retrysettings endpoint.
+     */
+    public record Snapshot(List<RetryStream> streams, Map<String, RetryOverride> overrides) {
+    }
+
+    public RetryStreams(@Autowired MessagingRetryProperties properties) {
+        final RetryStream defaultStream = new RetryStream(required(properties.getTopic(), "retry.messaging.topic"),
+                required(properties.getRetryIntervalSeconds(), "retry.messaging.retryIntervalSeconds"),
+                required(properties.getMaxRetryDurationSeconds(), "retry.messaging.maxRetryDurationSeconds"),
+                properties.getConcurrency());
+        final Map<String, RetryStream> streams = new LinkedHashMap<>();
+        streams.put(defaultStream.topic(), defaultStream);
+        for(MessagingRetryProperties.Stream config : properties.getStreams()) {
+            final RetryStream stream = new RetryStream(required(config.getTopic(), "retry.messaging.streams[].topic"),
+                    config.getRetryIntervalSeconds() != null ? config.getRetryIntervalSeconds() : defaultStream.retryIntervalSeconds(),
+                    config.getMaxRetryDurationSeconds() != null ? config.getMaxRetryDurationSeconds() : defaultStream.maxRetryDurationSeconds(),
+                    config.getConcurrency() != null ? config.getConcurrency() : defaultStream.concurrency());
+            if(streams.putIfAbsent(stream.topic(), stream) != null) {
+                throw new IllegalStateException("Retry topic " + stream.topic() + " is configured for more than one retry stream");
+            }
+            for(String originalTopic : config.getOriginalTopics()) {
+                if(streamTopicsByOriginalTopic.putIfAbsent(originalTopic, stream.topic()) != null) {
+                    throw new IllegalStateException("Original topic " + originalTopic + " is configured for more than one retry stream");
+                }
+            }
+        }
+        this.configuredStreams = Collections.unmodifiableMap(streams);
+        this.defaultTopic = defaultStream.topic();
+        this.lanesEnabled = properties.getLanes().isEnabled();
+        this.settings = new AtomicReference<>(new Settings(configuredStreams, Map.of()));
+    }
+
+    /**
+     * Returns the retry topic for events from the given original topic in the given priority lane.  Without lanes
+     * enabled, or for the normal lane, this is the topic of the stream for the original topic.
+     */
+    public String retryTopic(final String originalTopic, final RetryPriority priority) {
+        final String topic = forOriginalTopic(originalTopic).topic();
+        return lanesEnabled ? topic + priority.topicSuffix() : topic;
+    }
+
+    /**
+     * The retry topics that are consumed, with the current retry settings of their stream: one per stream, or with
+     * lanes enabled one per lane of each stream.
+     */
+    public List<RetryStream> getConsumedStreams() {
+        final List<RetryStream> streams = getStreams();
+        if(!lanesEnabled) {
+            return streams;
+        }
+        final List<RetryStream> consumed = new ArrayList<>();
+        for(RetryStream stream : streams) {
+            for(RetryPriority priority : RetryPriority.values()) {
+                consumed.add(new RetryStream(stream.topic() + priority.topicSuffix(), stream.retryIntervalSeconds(),
+                        stream.maxRetryDurationSeconds(), stream.concurrency()));
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Returns the retry stream for events from the given original topic, with its current settings and any override
+     * for the topic applied.  This is the default stream if the topic is not assigned to its own stream.
+     */
+    public RetryStream forOriginalTopic(final String originalTopic) {
+        final Settings current = settings.get();
+        final String configuredTopic = streamTopicsByOriginalTopic.getOrDefault(originalTopic, defaultTopic);
+        final RetryOverride override = current.overrides().get(originalTopic);
+        if(override == null) {
+            return current.streams().get(configuredTopic);
+        }
+        return override.apply(current.streams().get(override.topic() != null ? override.topic() : configuredTopic));
+    }
+
+    /**
+     * The streams with their current settings.
+     */
+    public List<RetryStream> getStreams() {
+        return List.copyOf(settings.get().streams().values());
+    }
+
+    public Snapshot snapshot() {
+        final Settings current = settings.get();
+        return new Snapshot(List.copyOf(current.streams().values()), current.overrides());
+    }
+
+    /**
+     * Changes the retry interval and max retry duration of the stream with the given retry topic, for the events from
+     * all of its original topics that are not overridden.  Each setting that is null is left as it is.
+     *
+     * @return the stream with its new settings.
+     * @throws IllegalArgumentException if there is no stream with the retry topic, or a setting is not valid.
+     */
+    public RetryStream updateStream(final String topic, final Long retryIntervalSeconds, final Long maxRetryDurationSeconds) {
+        requireStream(topic);
+        validate(retryIntervalSeconds, maxRetryDurationSeconds);
+        final RetryOverride update = new RetryOverride(null, retryIntervalSeconds, maxRetryDurationSeconds);
+        final Settings updated = settings.updateAndGet(current -> {
+            final Map<String, RetryStream> streams = new LinkedHashMap<>(current.streams());
+            streams.put(topic, update.apply(streams.get(topic)));
+            return new Settings(Collections.unmodifiableMap(streams), current.overrides());
+        });
+        log.info("Updated retry stream settings: {}", updated.streams().get(topic));
+        return updated.streams().get(topic);
+    }
+
+    /**
+     * Restores the configured settings of the stream with the given retry topic.
+     *
+     * @throws IllegalArgumentException if there is no stream with the retry topic.
+     */
+    public RetryStream resetStream(final String topic) {
+        requireStream(topic);
+        settings.updateAndGet(current -> {
+            final Map<String, RetryStream> streams = new LinkedHashMap<>(current.streams());
+            streams.put(topic, configuredStreams.get(topic));
+            return new Settings(Collections.unmodifiableMap(streams), current.overrides());
+        });
+        log.info("Reset retry stream settings: {}", configuredStreams.get(topic));
+        return configuredStreams.get(topic);
+    }
+
+    /**
+     * Overrides the retry settings for the events from the given original topic, merged with any existing override
+     * for it, so that each setting that is null is left as it is.  The retry topic must be that of a configured stream.
+     *
+     * @return the retry stream for events from the original topic with the override applied.
+     * @throws IllegalArgumentException if the retry topic is not that of a configured stream, or a setting is not
+     * valid.
+     */
+    public RetryStream override(final String originalTopic, final RetryOverride override) {
+        if(override.topic() != null) {
+            requireStream(override.topic());
+        }
+        validate(override.retryIntervalSeconds(), override.maxRetryDurationSeconds());
+        settings.updateAndGet(current -> {
+            final Map<String, RetryOverride> overrides = new HashMap<>(current.overrides());
+            overrides.merge(originalTopic, override, RetryOverride::merge);
+            return new Settings(current.streams(), Collections.unmodifiableMap(overrides));
+        });
+        final RetryStream stream = forOriginalTopic(originalTopic);
+        log.info("Overrode retry settings for original topic {}: {}", originalTopic, stream);
+        return stream;
+    }
+
+    /**
+     * Removes the override for the given original topic, so that its events are retried on their configured stream.
+     *
+     * @return the retry stream for events from the original topic.
+     */
+    public RetryStream clearOverride(final String originalTopic) {
+        settings.updateAndGet(current -> {
+            final Map<String, RetryOverride> overrides = new HashMap<>(current.overrides());
+            overrides.remove(originalTopic);
+            return new Settings(current.streams(), Collections.unmodifiableMap(overrides));
+        });
+        final RetryStream stream = forOriginalTopic(originalTopic);
+        log.info("Cleared retry settings override for original topic {}: {}", originalTopic, stream);
+        return stream;
+    }
+
+    private void requireStream(final String topic) {
+        if(!configuredStreams.containsKey(topic)) {
+            throw new IllegalArgumentException("Retry topic " + topic + " is not configured for a retry stream");
+        }
+    }
+
+    private static void validate(final Long retryIntervalSeconds, final Long maxRetryDurationSeconds) {
+        if(retryIntervalSeconds != null && retryIntervalSeconds < 0) {
+            throw new IllegalArgumentException("retryIntervalSeconds must not be negative");
+        }
+        if(maxRetryDurationSeconds != null && maxRetryDurationSeconds <= 0) {
+            throw new IllegalArgumentException("maxRetryDurationSeconds must be positive");
+        }
+    }
+
+    private static <T> T required(final T value, final String property) {
+        if(value == null) {
+            throw new IllegalStateException("Missing retry configuration property " + property);
+        }
+        return value;
+    }
+}
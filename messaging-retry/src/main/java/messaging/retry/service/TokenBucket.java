@@ -0,0 +1,99 @@
+package messaging.retry.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket rate limiter.
+ *
+ * Tokens are added continuously at the configured rate, up to the capacity of the bucket, and each permitted action
+ * takes one token.  The capacity allows a short burst above the rate after a quiet period.  The rate can be changed
+ * at any time, which is how the adaptive republish rate is applied.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+
+    private final LongSupplier nanoTime;
+
+    private double ratePerSecond;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    public TokenBucket(final double ratePerSecond, final double capacity) {
+        this(ratePerSecond, capacity, System::nanoTime);
+    }
+
+    /**
+     * Creates a bucket refilled against the given time source, such as a simulated clock.
+     */
+    TokenBucket(final double ratePerSecond, final double capacity, final LongSupplier nanoTime) {
+        if(ratePerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Token bucket rate must be positive and capacity at least 1");
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = capacity;
+        this.nanoTime = nanoTime;
+        this.tokens = capacity;
+        this.lastRefillNanos = nanoTime.getAsLong();
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if(tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a token, waiting for one to become available for no longer than the given maximum wait.
+     *
+     * @return true if a token was taken, false if one would not become available in time.
+     */
+    public boolean acquire(final long maxWait, final TimeUnit unit) throws InterruptedException {
+        final long deadline = nanoTime.getAsLong() + unit.toNanos(maxWait);
+        while(true) {
+            final long waitNanos;
+            synchronized (this) {
+                refill();
+                if(tokens >= 1) {
+                    tokens -= 1;
+                    return true;
+                }
+                // Rounded up, so that a fraction of a token short is never a wait of zero.
+                waitNanos = (long)Math.ceil((1 - tokens) / ratePerSecond * TimeUnit.SECONDS.toNanos(1));
+            }
+            if(waitNanos > deadline - nanoTime.getAsLong()) {
+                return false;
+            }
+            LockSupport.parkNanos(waitNanos);
+            if(Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public synchronized void setRatePerSecond(final double ratePerSecond) {
+        if(ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Token bucket rate must be positive");
+        }
+        refill();
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    private void refill() {
+        final long now = nanoTime.getAsLong();
+        final double elapsedSeconds = (now - lastRefillNanos) / (double)TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(capacity, tokens + elapsedSeconds * ratePerSecond);
+        lastRefillNanos = now;
+    }
+}
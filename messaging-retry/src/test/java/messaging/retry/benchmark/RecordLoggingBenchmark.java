@@ -0,0 +1,147 @@
+package messaging.retry.benchmark;
+
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.RecordLogSampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the per record cost of the consumer logging before and after it was made parameterised, sampled and
+ * structured.
+ *
+ * The legacy benchmarks reproduce the original log statements: the received message line built by string
+ * concatenation including the payload, and the retry evaluation debug line with its boxed arguments.  The sampled
+ * benchmarks use the RecordLogSampler with a 1% sample rate.  Each is measured with info logging enabled (written to a
+ * discarding appender) and disabled.
+ *
+ * Run with the gc profiler to see the allocations per record (gc.alloc.rate.norm):
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RecordLoggingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordLoggingBenchmark {
+
+    @Param({"INFO", "WARN"})
+    private String level;
+
+    private Logger log;
+
+    private RecordLogSampler logSampler;
+
+    private String payload;
+
+    private final String topic = "update-item";
+
+    private final int partition = 3;
+
+    private long offset = 1_000_000L;
+
+    private final long receivedTimestamp = Instant.now().toEpochMilli();
+
+    private final long originalReceivedTimestamp = receivedTimestamp - 5000;
+
+    private final long retryIntervalSeconds = 10;
+
+    @Setup
+    public void setUp() {
+        final LoggerContext context = (LoggerContext)LoggerFactory.getILoggerFactory();
+        final PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%msg %kvp%n");
+        encoder.start();
+        final OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(OutputStream.nullOutputStream());
+        appender.start();
+        final ch.qos.logback.classic.Logger logger = context.getLogger("benchmark." + level);
+        logger.setLevel(Level.toLevel(level));
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        log = logger;
+
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getLogging().setTopicSampleRates(Map.of(topic, 0.01));
+        logSampler = new RecordLogSampler(properties);
+        payload = "{\"id\":\"" + UUID.randomUUID() + "\",\"status\":\"ACTIVE\"}";
+    }
+
+    @Benchmark
+    public void legacyReceivedLog() {
+        log.info("Update Item Consumer: Received message with payload: " + payload);
+    }
+
+    @Benchmark
+    public void legacyRetryReceivedLog() {
+        log.info("Retry Item Consumer: Received message - receivedTimestamp ["+receivedTimestamp+"] - originalReceivedTimestamp ["+originalReceivedTimestamp+"] payload: " + payload);
+    }
+
+    @Benchmark
+    public boolean legacyShouldRetryLog() {
+        long timeForNextRetry = receivedTimestamp + (retryIntervalSeconds * 1000);
+        log.debug("retryIntervalSeconds: {} - receivedTimestamp: {} - timeForNextRetry: {} - now: {} - (now > timeForNextRetry): {}", retryIntervalSeconds, receivedTimestamp, timeForNextRetry, Instant.now().toEpochMilli(), Instant.now().toEpochMilli() > timeForNextRetry);
+        return Instant.now().toEpochMilli() > timeForNextRetry;
+    }
+
+    @Benchmark
+    public void sampledReceivedLog() {
+        if(logSampler.shouldLog(log, topic)) {
+            log.atInfo()
+                    .addKeyValue("topic", topic)
+                    .addKeyValue("partition", partition)
+                    .addKeyValue("offset", offset++)
+                    .addKeyValue("payloadSize", payload.length())
+                    .log("Update Item Consumer: Received message");
+        }
+        log.debug("Update Item Consumer: Received message with payload: {}", payload);
+    }
+
+    @Benchmark
+    public void sampledRetryReceivedLog() {
+        if(logSampler.shouldLog(log, topic)) {
+            log.atInfo()
+                    .addKeyValue("topic", topic)
+                    .addKeyValue("receivedTimestamp", receivedTimestamp)
+                    .addKeyValue("originalReceivedTimestamp", originalReceivedTimestamp)
+                    .log("Retry Item Consumer: Received message");
+        }
+        log.debug("Retry Item Consumer: Received message payload: {}", payload);
+    }
+
+    @Benchmark
+    public boolean guardedShouldRetryLog() {
+        final long timeForNextRetry = receivedTimestamp + (retryIntervalSeconds * 1000);
+        final long now = Instant.now().toEpochMilli();
+        if(log.isDebugEnabled()) {
+            log.debug("retryIntervalSeconds: {} - receivedTimestamp: {} - timeForNextRetry: {} - now: {} - (now > timeForNextRetry): {}", retryIntervalSeconds, receivedTimestamp, timeForNextRetry, now, now > timeForNextRetry);
+        }
+        return now > timeForNextRetry;
+    }
+}
@@ -0,0 +1,74 @@
+package messaging.retry.benchmark;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import messaging.retry.lib.CoarseClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of the time reads made to evaluate a record on the retry topic.
+ *
+ * The legacy benchmark reproduces the original evaluation, reading Instant.now() for both the discard and the retry
+ * decision.  The others read the time once, from the system clock or from the coarse clock.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RetryClockBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RetryClockBenchmark {
+
+    private final long receivedTimestamp = Instant.now().toEpochMilli();
+
+    private final long originalReceivedTimestamp = receivedTimestamp - 5000;
+
+    private final Clock systemClock = Clock.systemUTC();
+
+    private CoarseClock coarseClock;
+
+    @Setup
+    public void setUp() {
+        coarseClock = new CoarseClock(10);
+    }
+
+    @TearDown
+    public void tearDown() {
+        coarseClock.close();
+    }
+
+    @Benchmark
+    public boolean legacyInstantNow() {
+        final boolean discard = Instant.now().toEpochMilli() > originalReceivedTimestamp + 300_000;
+        return !discard && Instant.now().toEpochMilli() > receivedTimestamp + 10_000;
+    }
+
+    @Benchmark
+    public boolean systemClock() {
+        return evaluate(systemClock.millis());
+    }
+
+    @Benchmark
+    public boolean coarseClock() {
+        return evaluate(coarseClock.millis());
+    }
+
+    private boolean evaluate(final long now) {
+        final boolean discard = now > originalReceivedTimestamp + 300_000;
+        return !discard && now > receivedTimestamp + 10_000;
+    }
+}
@@ -0,0 +1,101 @@
+package messaging.retry.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import io.micrometer.observation.ObservationRegistry;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.MessagingRetryHeaders;
+import messaging.retry.lib.MessagingRetryKafkaClient;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.lib.RetrySpillBuffer;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.support.SendResult;
+
+/**
+ * Measures the time a listener thread spends spilling a retry send while the broker cannot be reached, with the
+ * segments being flushed to disk in the background.  Without the spill the same thread would block on the send for
+ * up to the producer's delivery timeout and then lose the retry.
+ *
+ * mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RetrySpillBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RetrySpillBenchmark {
+
+    private final byte[] payload = new byte[64];
+
+    private final Map<String, Object> headers = Map.of(
+            MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, System.currentTimeMillis(),
+            MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "update-item",
+            MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+            MessagingRetryHeaders.RETRY_KEY, "2f4ad1b5-8d0c-4b8e-9a0e-6f1d2c3b4a59");
+
+    private Path directory;
+
+    private RetrySpillBuffer buffer;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("retry-spill-benchmark");
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getSpill().setEnabled(true);
+        properties.getSpill().setDirectory(directory.toString());
+        properties.getSpill().setMaxBytes(Long.MAX_VALUE);
+        buffer = new RetrySpillBuffer(new UnavailableKafkaClient(), properties,
+                new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class)));
+        buffer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        buffer.stop();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for(Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void spill() {
+        buffer.spill("messaging-retry", payload, headers);
+    }
+
+    /**
+     * A client whose sends all fail as if the broker cannot be reached, so the spill is not drained.
+     */
+    private static class UnavailableKafkaClient extends MessagingRetryKafkaClient {
+
+        private UnavailableKafkaClient() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public SendResult sendMessage(final String topic, final byte[] data, final Map<String, Object> headers) {
+            throw new RuntimeException("Error sending message to topic " + topic, new TimeoutException("Broker unavailable"));
+        }
+    }
+}
@@ -1,73 +1,426 @@
 package messaging.retry.consumer;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import io.micrometer.observation.ObservationRegistry;
+import messaging.retry.MessagingRetryProperties;
 import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.lib.DeadLetterPublisher;
+import messaging.retry.lib.RecordLogSampler;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.service.ParkedRetryIndex;
+import messaging.retry.service.RetryBacklog;
+import messaging.retry.service.RetryPriority;
 import messaging.retry.service.RetryService;
+import messaging.retry.service.RetryOverride;
+import messaging.retry.service.RetryStream;
+import messaging.retry.service.RetryStreams;
 import messaging.retry.util.TestEventData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
 
+import static messaging.retry.lib.MessagingRetryHeaders.CLAIM_CHECK;
+import static messaging.retry.lib.MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP;
+import static messaging.retry.lib.MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_ATTEMPTS;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_KEY;
+import static messaging.retry.lib.MessagingRetryHeaders.RETRY_PRIORITY;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 public class RetryConsumerTest {
 
+    private static final Instant NOW = Instant.parse("2023-03-01T10:00:00Z");
+    private static final TopicPartition PARTITION_0 = new TopicPartition("retry-topic", 0);
+
     private RetryService retryHandlerMock;
+    private DeadLetterPublisher deadLetterPublisherMock;
+    private Acknowledgment acknowledgmentMock;
+    private ParkedRetryIndex parkedRetryIndex;
+    private RetryBacklog retryBacklog;
+    private Consumer<?, ?> kafkaConsumerMock;
+    private RetryStreams retryStreams;
     private RetryConsumer consumer;
 
     @BeforeEach
     public void setUp() {
         retryHandlerMock = mock(RetryService.class);
-        consumer = new RetryConsumer(retryHandlerMock);
+        deadLetterPublisherMock = mock(DeadLetterPublisher.class);
+        when(deadLetterPublisherMock.publish(any(), any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(deadLetterPublisherMock.publish(any(), any(), any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        acknowledgmentMock = mock(Acknowledgment.class);
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getRelease().setEnabled(true);
+        properties.setTopic("retry-topic");
+        properties.setRetryIntervalSeconds(10L);
+        properties.setMaxRetryDurationSeconds(30L);
+        properties.setConcurrency(2);
+        retryStreams = new RetryStreams(properties);
+        parkedRetryIndex = new ParkedRetryIndex(properties);
+        retryBacklog = new RetryBacklog(new RetryClock(Clock.fixed(NOW, ZoneOffset.UTC)));
+        kafkaConsumerMock = mock(Consumer.class);
+        when(kafkaConsumerMock.assignment()).thenReturn(Set.of(PARTITION_0));
+        when(kafkaConsumerMock.currentLag(PARTITION_0)).thenReturn(OptionalLong.of(5L));
+        consumer = new RetryConsumer(retryHandlerMock, deadLetterPublisherMock, new RecordLogSampler(new MessagingRetryProperties()),
+                parkedRetryIndex, retryBacklog, new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class)),
+                Clock.fixed(NOW, ZoneOffset.UTC), retryStreams, new RetryStream("retry-topic", 10L, 30L, 2));
     }
 
     /**
-     * Ensure that the JSON message is successfully passed on to the handler, having been correctly unmarshalled into its PoJO form.
+     * Ensure that each record is passed on to the handler with its retry headers, evaluated as at the time the batch
+     * was received, and that the batch is then acknowledged.
      */
     @Test
     public void testListen_Success() {
-        String payload = TestEventData.buildEvent();
+        byte[] payload = TestEventData.buildEvent();
 
-        consumer.listen(payload, 1L, 1L, "topic");
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2), buildRecord(1, payload, 2L, 1L, "topic", 3)), acknowledgmentMock, kafkaConsumerMock);
 
-        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic");
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(retryHandlerMock, times(1)).handle(payload, 2L, 1L, "topic", 3, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(acknowledgmentMock, times(1)).acknowledge();
+        verify(deadLetterPublisherMock, never()).publish(any(), any(), any(), any(), any(), any());
     }
 
     /**
-     * If an exception is thrown, an error is logged but the processing completes successfully.
+     * Records written to the retry topic before the retry attempts header was introduced have no attempts.
+     */
+    @Test
+    public void testListen_NoRetryAttemptsHeader() {
+        byte[] payload = TestEventData.buildEvent();
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", null)), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", null, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+    }
+
+    /**
+     * If an exception is thrown, an error is logged and the event is sent to the dead letter topic, but the processing
+     * of the batch continues.
      *
      * This ensures the consumer offsets are updated so that the message is not redelivered.
      */
     @Test
     public void testListen_ServiceThrowsException() {
-        String payload = TestEventData.buildEvent();
+        byte[] payload = TestEventData.buildEvent();
 
-        doThrow(new RuntimeException("Service failure")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic");
+        doThrow(new RuntimeException("Service failure")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
 
-        consumer.listen(payload, 1L, 1L, "topic");
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2), buildRecord(1, payload, 2L, 1L, "topic", 2)), acknowledgmentMock, kafkaConsumerMock);
 
-        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic");
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(retryHandlerMock, times(1)).handle(payload, 2L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(deadLetterPublisherMock, times(1)).publish(payload, "topic", 1L, 2, null, "Service failure");
+        verify(acknowledgmentMock, times(1)).acknowledge();
     }
 
     /**
-     * If a retryable exception is thrown it is allowed to percolate up.
+     * If a retryable exception is thrown the batch is negatively acknowledged at that record, and the records after it
+     * are not evaluated.
      *
-     * This ensures the consumer offsets are not updated so that the message is redelivered.
+     * This ensures the consumer offsets are only updated for the records before it, so that it and those after it are
+     * redelivered.
      */
     @Test
     public void testListen_ServiceThrowsRetryableMessagingException() {
-        String payload = TestEventData.buildEvent();
+        byte[] payload = TestEventData.buildEvent();
+
+        doThrow(new RetryableMessagingException("Transient error")).when(retryHandlerMock).handle(payload, 2L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2), buildRecord(1, payload, 2L, 1L, "topic", 2),
+                buildRecord(2, payload, 3L, 1L, "topic", 2)), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(retryHandlerMock, never()).handle(eq(payload), eq(3L), eq(1L), eq("topic"), eq(2), any(), any(), any(), anyLong());
+        verify(acknowledgmentMock, times(1)).nack(1, Duration.ofSeconds(1));
+        verify(acknowledgmentMock, never()).acknowledge();
+        verify(deadLetterPublisherMock, never()).publish(any(), any(), any(), any(), any(), any());
+    }
+
+    /**
+     * A retriable broker failure, such as a timeout republishing the event, is re-polled rather than dead lettered, as
+     * the republish may well succeed on the next attempt.
+     */
+    @Test
+    public void testListen_ServiceThrowsRetriableException() {
+        byte[] payload = TestEventData.buildEvent();
+
+        doThrow(new KafkaException("Send failed", new TimeoutException("Expiring record"))).when(retryHandlerMock)
+                .handle(payload, 2L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2), buildRecord(1, payload, 2L, 1L, "topic", 2)),
+                acknowledgmentMock, kafkaConsumerMock);
+
+        verify(acknowledgmentMock, times(1)).nack(1, Duration.ofSeconds(1));
+        verify(acknowledgmentMock, never()).acknowledge();
+        verify(deadLetterPublisherMock, never()).publish(any(), any(), any(), any(), any(), any());
+        verify(deadLetterPublisherMock, never()).publish(any(), any(), any(), any(), any(), any(), any());
+    }
+
+    /**
+     * The records with a retry key from the one that is not yet due onwards are parked, so that they can be released.
+     */
+    @Test
+    public void testListen_ParksRecordsWithRetryKey() {
+        byte[] payload = TestEventData.buildEvent();
+
+        doThrow(new RetryableMessagingException("Delaying")).when(retryHandlerMock).handle(payload, 2L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, "key-0"), buildRecord(1, payload, 2L, 1L, "topic", 2, "key-1"),
+                buildRecord(2, payload, 3L, 1L, "topic", 2, null), buildRecord(3, payload, 4L, 1L, "topic", 2, "key-3")), acknowledgmentMock, kafkaConsumerMock);
+
+        assertThat(parkedRetryIndex.size(), equalTo(2));
+        assertThat(parkedRetryIndex.release("key-0").size(), equalTo(0));
+        final List<ParkedRetryIndex.ParkedRetry> released = parkedRetryIndex.release("key-1");
+        assertThat(released.size(), equalTo(1));
+        assertThat(released.get(0).id(), equalTo(new ParkedRetryIndex.RecordId("retry-topic", 0, 1L)));
+        assertThat(released.get(0).originalTopic(), equalTo("topic"));
+        assertThat(released.get(0).originalReceivedTimestamp(), equalTo(1L));
+        assertThat(released.get(0).attempts(), equalTo(2));
+        verify(acknowledgmentMock, times(1)).nack(1, Duration.ofSeconds(1));
+    }
+
+    /**
+     * The priority of each record is read from its header and passed on, so the republish takes a permit from its
+     * lane's share of the rate limit.
+     */
+    @Test
+    public void testListen_Priority() {
+        byte[] payload = TestEventData.buildEvent();
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, null, "HIGH")), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.HIGH, null, NOW.toEpochMilli());
+    }
+
+    /**
+     * The claim check reference of a record is passed on, for the payload to be fetched only if it is republished.
+     */
+    @Test
+    public void testListen_ClaimCheck() {
+        byte[] payload = new byte[0];
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, null, null, "claim-1")), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+    }
+
+    /**
+     * A claim checked record that fails processing is dead lettered with its claim checked payload.
+     */
+    @Test
+    public void testListen_ClaimCheckError() {
+        byte[] payload = new byte[0];
+        byte[] claimedPayload = TestEventData.buildEvent();
+        doThrow(new RuntimeException("Service failure")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+        when(retryHandlerMock.payload(payload, "claim-1")).thenReturn(claimedPayload);
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, null, null, "claim-1")), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(deadLetterPublisherMock, times(1)).publish(claimedPayload, "topic", 1L, 2, null, "Service failure");
+        verify(retryHandlerMock, times(1)).releasePayload("claim-1");
+    }
+
+    /**
+     * The claim checked payload is kept if the dead letter could not be written.
+     */
+    @Test
+    public void testListen_ClaimCheckError_DeadLetterFailed() {
+        byte[] payload = new byte[0];
+        byte[] claimedPayload = TestEventData.buildEvent();
+        doThrow(new RuntimeException("Service failure")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+        when(retryHandlerMock.payload(payload, "claim-1")).thenReturn(claimedPayload);
+        when(deadLetterPublisherMock.publish(claimedPayload, "topic", 1L, 2, null, "Service failure"))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("Send failure")));
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, null, null, "claim-1")), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, never()).releasePayload(any());
+    }
 
-        doThrow(new RetryableMessagingException("Transient error")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic");
+    /**
+     * A claim checked record that fails processing once its payload is no longer stored is dead lettered with the
+     * reference to the payload.
+     */
+    @Test
+    public void testListen_ClaimCheckError_PayloadNoLongerStored() {
+        byte[] payload = new byte[0];
+        doThrow(new RuntimeException("Service failure")).when(retryHandlerMock).handle(payload, 1L, 1L, "topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, null, null, "claim-1")), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(deadLetterPublisherMock, times(1)).publish(payload, "topic", 1L, 2, null, "Service failure", "claim-1");
+        verify(retryHandlerMock, never()).releasePayload(any());
+    }
+
+    /**
+     * A released record has already been republished, so is skipped when it is re-polled.
+     */
+    @Test
+    public void testListen_SkipsReleasedRecord() {
+        byte[] payload = TestEventData.buildEvent();
+        parkedRetryIndex.park(new ParkedRetryIndex.ParkedRetry(new ParkedRetryIndex.RecordId("retry-topic", 0, 0L), "key-0",
+                payload, 1L, "topic", 2, null, RetryPriority.NORMAL, null));
+        parkedRetryIndex.release("key-0");
+        parkedRetryIndex.markReleased(new ParkedRetryIndex.RecordId("retry-topic", 0, 0L));
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2, "key-0"), buildRecord(1, payload, 2L, 1L, "topic", 2, null)), acknowledgmentMock, kafkaConsumerMock);
+
+        verify(retryHandlerMock, never()).handle(eq(payload), eq(1L), anyLong(), any(), any(), any(), any(), any(), anyLong());
+        verify(retryHandlerMock, times(1)).handle(payload, 2L, 1L, "topic", 2, null, RetryPriority.NORMAL, null, NOW.toEpochMilli());
+        verify(acknowledgmentMock, times(1)).acknowledge();
+    }
+
+    /**
+     * If a dead letter published for the poll could not be written the poll is not committed, so that it is
+     * redelivered.
+     */
+    @Test
+    public void testListen_DeadLetterFailed() {
+        byte[] payload = TestEventData.buildEvent();
+        doThrow(new IllegalStateException("Error sending dead letters")).when(deadLetterPublisherMock).awaitPublished();
+
+        assertThrows(IllegalStateException.class, () ->
+                consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2)), acknowledgmentMock, kafkaConsumerMock));
+
+        verify(acknowledgmentMock, never()).acknowledge();
+    }
+
+    /**
+     * The backlog is recorded from the records held for re-polling, with the time until each is due, and the consumer
+     * lag after them.
+     */
+    @Test
+    public void testListen_RecordsBacklog() {
+        byte[] payload = TestEventData.buildEvent();
+        long now = NOW.toEpochMilli();
+
+        doThrow(new RetryableMessagingException("Delaying")).when(retryHandlerMock).handle(payload, now - 8000, 1L, "topic", 2, null, RetryPriority.NORMAL, null, now);
+
+        consumer.listen(List.of(buildRecord(0, payload, now - 20000, 1L, "topic", 2), buildRecord(1, payload, now - 8000, 1L, "topic", 2),
+                buildRecord(2, payload, now - 1000, 1L, "topic", 2)), acknowledgmentMock, kafkaConsumerMock);
+
+        RetryBacklog.Snapshot snapshot = retryBacklog.snapshot();
+        assertThat(snapshot.partitions(), equalTo(List.of(new RetryBacklog.PartitionSnapshot("retry-topic", 0, 7L, 2L))));
+        assertThat(snapshot.dueHistogram().get("5s"), equalTo(1L));
+        assertThat(snapshot.dueHistogram().get("10s"), equalTo(1L));
+    }
+
+    /**
+     * The held records are due after the current retry interval of their original topic, so an override is reflected in
+     * the backlog from the next poll.
+     */
+    @Test
+    public void testListen_RecordsBacklogWithOverride() {
+        byte[] payload = TestEventData.buildEvent();
+        long now = NOW.toEpochMilli();
+        retryStreams.override("topic", new RetryOverride(null, 60L, null));
+
+        doThrow(new RetryableMessagingException("Delaying")).when(retryHandlerMock).handle(payload, now - 8000, 1L, "topic", 2, null, RetryPriority.NORMAL, null, now);
+
+        consumer.listen(List.of(buildRecord(0, payload, now - 8000, 1L, "topic", 2), buildRecord(1, payload, now - 1000, 1L, "topic", 2)),
+                acknowledgmentMock, kafkaConsumerMock);
+
+        assertThat(retryBacklog.snapshot().dueHistogram().get("60s"), equalTo(2L));
+    }
+
+    /**
+     * When the whole poll is committed only the consumer lag remains.
+     */
+    @Test
+    public void testListen_RecordsBacklogWhenAcknowledged() {
+        byte[] payload = TestEventData.buildEvent();
+
+        consumer.listen(List.of(buildRecord(0, payload, 1L, 1L, "topic", 2)), acknowledgmentMock, kafkaConsumerMock);
+
+        assertThat(retryBacklog.snapshot().partitions(), equalTo(List.of(new RetryBacklog.PartitionSnapshot("retry-topic", 0, 5L, 0L))));
+    }
+
+    /**
+     * The listener container for the consumer is configured from its retry stream.
+     */
+    @Test
+    public void testListenerConfiguration() {
+        assertThat(consumer.getId(), equalTo("retry-retry-topic"));
+        assertThat(consumer.getTopic(), equalTo("retry-topic"));
+        assertThat(consumer.getConcurrency(), equalTo(2));
+    }
+
+    /**
+     * Builds a record as written to the retry topic, with the retry headers encoded as the Kafka template encodes them.
+     */
+    private static ConsumerRecord<String, byte[]> buildRecord(final long offset, final byte[] payload, final Long timestamp,
+                                                              final Long originalReceivedTimestamp, final String originalTopic,
+                                                              final Integer attempts) {
+        return buildRecord(offset, payload, timestamp, originalReceivedTimestamp, originalTopic, attempts, null);
+    }
+
+    private static ConsumerRecord<String, byte[]> buildRecord(final long offset, final byte[] payload, final Long timestamp,
+                                                              final Long originalReceivedTimestamp, final String originalTopic,
+                                                              final Integer attempts, final String retryKey) {
+        return buildRecord(offset, payload, timestamp, originalReceivedTimestamp, originalTopic, attempts, retryKey, null);
+    }
+
+    private static ConsumerRecord<String, byte[]> buildRecord(final long offset, final byte[] payload, final Long timestamp,
+                                                              final Long originalReceivedTimestamp, final String originalTopic,
+                                                              final Integer attempts, final String retryKey, final String priority) {
+        return buildRecord(offset, payload, timestamp, originalReceivedTimestamp, originalTopic, attempts, retryKey, priority, null);
+    }
 
-        Exception exception = assertThrows(RetryableMessagingException.class, () -> {
-            consumer.listen(payload, 1L, 1L, "topic");
-        });
-        assertThat(exception.getMessage(), equalTo("Transient error"));
-        verify(retryHandlerMock, times(1)).handle(payload, 1L, 1L, "topic");
+    private static ConsumerRecord<String, byte[]> buildRecord(final long offset, final byte[] payload, final Long timestamp,
+                                                              final Long originalReceivedTimestamp, final String originalTopic,
+                                                              final Integer attempts, final String retryKey, final String priority,
+                                                              final String claimCheck) {
+        final Map<String, Object> retryHeaders = new HashMap<>();
+        retryHeaders.put(ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp);
+        retryHeaders.put(ORIGINAL_RECEIVED_TOPIC, originalTopic);
+        if(attempts != null) {
+            retryHeaders.put(RETRY_ATTEMPTS, attempts);
+        }
+        if(retryKey != null) {
+            retryHeaders.put(RETRY_KEY, retryKey);
+        }
+        if(priority != null) {
+            retryHeaders.put(RETRY_PRIORITY, priority);
+        }
+        if(claimCheck != null) {
+            retryHeaders.put(CLAIM_CHECK, claimCheck);
+        }
+        final RecordHeaders headers = new RecordHeaders();
+        new DefaultKafkaHeaderMapper().fromHeaders(new MessageHeaders(retryHeaders), headers);
+        return new ConsumerRecord<>("retry-topic", 0, offset, timestamp, TimestampType.CREATE_TIME, 0, 0, null, payload, headers, Optional.empty());
     }
 }
@@ -0,0 +1,102 @@
+package messaging.retry.lib;
+
+import java.nio.file.Path;
+
+import messaging.retry.MessagingRetryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClaimCheckTest {
+
+    @TempDir
+    private Path directory;
+
+    private MessagingRetryProperties properties;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new MessagingRetryProperties();
+        properties.getClaimCheck().setEnabled(true);
+        properties.getClaimCheck().setThresholdBytes(10);
+        properties.getClaimCheck().setDirectory(directory.toString());
+    }
+
+    /**
+     * Only the payloads larger than the threshold are claim checked, in the file store by default.
+     */
+    @Test
+    public void testCheckIn() {
+        final ClaimCheck claimCheck = new ClaimCheck(properties, stores(null));
+
+        assertThat(claimCheck.checkIn("0123456789".getBytes()), nullValue());
+        final String reference = claimCheck.checkIn("0123456789A".getBytes());
+        assertThat(reference, notNullValue());
+        assertThat(claimCheck.checkOut(reference), equalTo("0123456789A".getBytes()));
+
+        claimCheck.release(reference);
+        assertThat(claimCheck.checkOut(reference), nullValue());
+    }
+
+    @Test
+    public void testCheckIn_disabled() {
+        properties.getClaimCheck().setEnabled(false);
+        final ClaimCheck claimCheck = new ClaimCheck(properties, stores(null));
+
+        assertThat(claimCheck.isEnabled(), equalTo(false));
+        assertThat(claimCheck.checkIn(new byte[100]), nullValue());
+    }
+
+    /**
+     * A ClaimCheckStore defined by the application is used in place of the file store.
+     */
+    @Test
+    public void testApplicationStore() {
+        final ClaimCheckStore storeMock = mock(ClaimCheckStore.class);
+        final byte[] payload = new byte[100];
+        when(storeMock.put(payload)).thenReturn("claim-1");
+        final ClaimCheck claimCheck = new ClaimCheck(properties, stores(storeMock));
+
+        assertThat(claimCheck.checkIn(payload), equalTo("claim-1"));
+    }
+
+    /**
+     * In a transaction the payload is only deleted once the transaction commits.
+     */
+    @Test
+    public void testRelease_inTransaction() {
+        final ClaimCheckStore storeMock = mock(ClaimCheckStore.class);
+        final ClaimCheck claimCheck = new ClaimCheck(properties, stores(storeMock));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            claimCheck.release("claim-1");
+            verify(storeMock, never()).delete("claim-1");
+
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            verify(storeMock).delete("claim-1");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static ObjectProvider<ClaimCheckStore> stores(final ClaimCheckStore store) {
+        final StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        if(store != null) {
+            beanFactory.addBean("claimCheckStore", store);
+        }
+        return beanFactory.getBeanProvider(ClaimCheckStore.class);
+    }
+}
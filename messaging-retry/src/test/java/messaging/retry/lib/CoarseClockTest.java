@@ -0,0 +1,74 @@
+package messaging.retry.lib;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CoarseClockTest {
+
+    /**
+     * The clock returns the time cached at the last tick until the next tick updates it from the source clock.
+     */
+    @Test
+    public void testMillis_UpdatedEachTick() throws Exception {
+        final Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        try (CoarseClock clock = new CoarseClock(source, 10)) {
+            assertThat(clock.millis(), equalTo(1000L));
+            assertThat(clock.instant(), equalTo(Instant.ofEpochMilli(1000L)));
+
+            when(source.millis()).thenReturn(2000L);
+            final long deadline = System.currentTimeMillis() + 5000;
+            while(clock.millis() != 2000L && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(clock.millis(), equalTo(2000L));
+        }
+    }
+
+    /**
+     * Once closed the clock no longer ticks, and returns the last time cached.
+     */
+    @Test
+    public void testClose_StopsTicking() throws Exception {
+        final Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        final CoarseClock clock = new CoarseClock(source, 10);
+        clock.close();
+
+        when(source.millis()).thenReturn(2000L);
+        Thread.sleep(50);
+        assertThat(clock.millis(), equalTo(1000L));
+    }
+
+    /**
+     * A view of the clock in another zone shares the same tick.
+     */
+    @Test
+    public void testWithZone() {
+        final Clock source = mock(Clock.class);
+        when(source.millis()).thenReturn(1000L);
+        try (CoarseClock clock = new CoarseClock(source, 10)) {
+            assertThat(clock.getZone(), equalTo(ZoneOffset.UTC));
+            assertThat(clock.withZone(ZoneOffset.UTC), equalTo(clock));
+
+            final Clock zoned = clock.withZone(ZoneId.of("Europe/London"));
+            assertThat(zoned.getZone(), equalTo(ZoneId.of("Europe/London")));
+            assertThat(zoned.millis(), equalTo(1000L));
+        }
+    }
+
+    @Test
+    public void testInvalidTick() {
+        assertThrows(IllegalArgumentException.class, () -> new CoarseClock(0));
+    }
+}
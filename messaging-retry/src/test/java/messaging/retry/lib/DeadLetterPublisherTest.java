@@ -0,0 +1,135 @@
+package messaging.retry.lib;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import messaging.retry.MessagingRetryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeadLetterPublisherTest {
+
+    private static final Instant NOW = Instant.parse("2023-03-01T10:00:00Z");
+
+    private MessagingRetryKafkaClient kafkaClientMock;
+    private DeadLetterPublisher publisher;
+
+    @BeforeEach
+    public void setUp() {
+        kafkaClientMock = mock(MessagingRetryKafkaClient.class);
+        when(kafkaClientMock.sendMessageAsync(any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getDeadLetter().setTopic("dlt-topic");
+        properties.getDeadLetter().setBatchSize(10);
+        properties.getDeadLetter().setLingerMs(5);
+        properties.getDeadLetter().setQueueCapacity(100);
+        publisher = new DeadLetterPublisher(kafkaClientMock, properties, new RetryClock(Clock.fixed(NOW, ZoneOffset.UTC)));
+    }
+
+    /**
+     * Dead letters are sent asynchronously by the background publisher, decorated with the diagnostic headers.
+     */
+    @Test
+    public void testPublish_SentAsynchronouslyWithDiagnosticHeaders() throws Exception {
+        publisher.start();
+        for (int i=0; i<3; i++) {
+            publisher.publish(("my-payload-"+i).getBytes(), "my-topic", 1L, 4, "application/json", "Failed");
+        }
+        publisher.stop();
+
+        verify(kafkaClientMock, times(3)).sendMessageAsync(eq("dlt-topic"), any(), argThat(headers ->
+                headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC).equals("my-topic")
+                && headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP).equals(1L)
+                && headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS).equals(4)
+                && headers.get(MessagingRetryHeaders.CONTENT_TYPE).equals("application/json")
+                && headers.get(MessagingRetryHeaders.DEAD_LETTER_LAST_ERROR).equals("Failed")
+                && headers.get(MessagingRetryHeaders.DEAD_LETTER_TIMESTAMP).equals(NOW.toEpochMilli())));
+        verify(kafkaClientMock, never()).sendMessage(any(), any(), any());
+    }
+
+    /**
+     * Awaiting the dead letters waits for them to be written, and fails if any could not be, so that the caller does not
+     * commit the records they were published for.
+     */
+    @Test
+    public void testAwaitPublished_FailedSend() throws Exception {
+        when(kafkaClientMock.sendMessageAsync(any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null),
+                CompletableFuture.failedFuture(new RuntimeException("Broker unavailable")));
+        publisher.start();
+        publisher.publish("my-payload-1".getBytes(), "my-topic", 1L, 1, null, "Failed");
+        publisher.awaitPublished();
+        publisher.publish("my-payload-2".getBytes(), "my-topic", 1L, 1, null, "Failed");
+
+        assertThrows(IllegalStateException.class, () -> publisher.awaitPublished());
+        // Once awaited, the failed dead letter is no longer tracked.
+        publisher.awaitPublished();
+        publisher.stop();
+    }
+
+    /**
+     * The reference to a claim checked payload that is no longer stored is sent with the dead letter in place of it.
+     */
+    @Test
+    public void testPublish_ClaimCheckReference() throws Exception {
+        publisher.start();
+        publisher.publish(new byte[0], "my-topic", 1L, 4, null, "Claim checked payload claim-1 is no longer stored", "claim-1");
+        publisher.stop();
+
+        verify(kafkaClientMock, times(1)).sendMessageAsync(eq("dlt-topic"), any(), argThat(headers ->
+                headers.get(MessagingRetryHeaders.CLAIM_CHECK).equals("claim-1")
+                && headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC).equals("my-topic")));
+    }
+
+    /**
+     * Headers with no value are omitted rather than failing the publish.
+     */
+    @Test
+    public void testPublish_MissingHeaderValuesOmitted() throws Exception {
+        publisher.start();
+        publisher.publish("my-payload".getBytes(), "my-topic", null, null, null, null);
+        publisher.stop();
+
+        verify(kafkaClientMock, times(1)).sendMessageAsync(eq("dlt-topic"), eq("my-payload".getBytes()), argThat(headers ->
+                headers.size() == 2 && headers.containsKey(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC)));
+    }
+
+    /**
+     * If the publisher is not running the dead letter is sent synchronously so that it is not lost.
+     */
+    @Test
+    public void testPublish_NotRunningSendsSynchronously() {
+        publisher.publish("my-payload".getBytes(), "my-topic", 1L, 1, null, "Failed");
+
+        verify(kafkaClientMock, times(1)).sendMessage(eq("dlt-topic"), eq("my-payload".getBytes()), any(Map.class));
+        verify(kafkaClientMock, never()).sendMessageAsync(any(), any(), any());
+    }
+
+    /**
+     * If the caller is in a Kafka transaction the dead letter is sent in that transaction rather than queued, so that it
+     * is committed along with the consumer offsets.
+     */
+    @Test
+    public void testPublish_InTransactionSentInTransaction() throws Exception {
+        when(kafkaClientMock.inTransaction()).thenReturn(true);
+        publisher.start();
+        publisher.publish("my-payload".getBytes(), "my-topic", 1L, 1, null, "Failed");
+        publisher.stop();
+
+        verify(kafkaClientMock, times(1)).send(eq("dlt-topic"), eq("my-payload".getBytes()), any(Map.class));
+        verify(kafkaClientMock, never()).sendMessageAsync(any(), any(), any());
+        verify(kafkaClientMock, never()).sendMessage(any(), any(), any());
+    }
+}
@@ -0,0 +1,87 @@
+package messaging.retry.lib;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FileClaimCheckStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    private FileClaimCheckStore store;
+
+    @BeforeEach
+    public void setUp() {
+        store = new FileClaimCheckStore(directory);
+    }
+
+    /**
+     * A stored payload is fetched back by its reference until it is deleted, and is written to a sub-directory named
+     * by the first two characters of the reference.
+     */
+    @Test
+    public void testPutGetDelete() throws IOException {
+        final String reference = store.put("my-payload".getBytes());
+
+        assertThat(store.get(reference), equalTo("my-payload".getBytes()));
+        assertThat(Files.exists(directory.resolve(reference.substring(0, 2)).resolve(reference)), equalTo(true));
+
+        store.delete(reference);
+        assertThat(store.get(reference), nullValue());
+        assertThat(fileCount(), equalTo(0L));
+    }
+
+    @Test
+    public void testGet_notStored() {
+        assertThat(store.get("3f2a6c1e-8d4b-4f0a-9c7e-2b1d5e6f7a8b"), nullValue());
+    }
+
+    /**
+     * A reference read from the retry topic that is not a UUID is rejected, so it cannot resolve outside the store.
+     */
+    @Test
+    public void testGet_invalidReference() {
+        assertThrows(IllegalArgumentException.class, () -> store.get("../../etc/passwd"));
+        assertThrows(IllegalArgumentException.class, () -> store.get("1-1-1-1-1"));
+    }
+
+    /**
+     * Only the payloads stored before the cutoff are expired.
+     */
+    @Test
+    public void testExpire() throws IOException {
+        final String expired = store.put("expired".getBytes());
+        final String kept = store.put("kept".getBytes());
+        Files.setLastModifiedTime(directory.resolve(expired.substring(0, 2)).resolve(expired),
+                FileTime.from(Instant.now().minusSeconds(3600)));
+
+        assertThat(store.expire(Instant.now().minusSeconds(60)), equalTo(1));
+
+        assertThat(store.get(expired), nullValue());
+        assertThat(store.get(kept), equalTo("kept".getBytes()));
+    }
+
+    @Test
+    public void testExpire_noDirectory() {
+        assertThat(new FileClaimCheckStore(directory.resolve("missing")).expire(Instant.now()), equalTo(0));
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package messaging.retry.lib;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+public class RateWindowTest {
+
+    /**
+     * The rate is over the completed seconds of the window, so excludes the current second and those before the
+     * window.
+     */
+    @Test
+    public void testRatePerSecond() {
+        RateWindow window = new RateWindow(10);
+        for(int i = 0; i < 5; i++) {
+            window.increment(1_000);
+        }
+        for(int i = 0; i < 15; i++) {
+            window.increment(5_500);
+        }
+        window.increment(11_000);
+
+        assertThat(window.ratePerSecond(11_200), closeTo(2.0, 0.001));
+        assertThat(window.ratePerSecond(12_000), closeTo(1.6, 0.001));
+        assertThat(window.ratePerSecond(30_000), closeTo(0.0, 0.001));
+    }
+
+    /**
+     * A slot is reset when it is reused for a later second.
+     */
+    @Test
+    public void testSlotReused() {
+        RateWindow window = new RateWindow(2);
+        window.increment(0);
+        window.increment(3_000);
+
+        assertThat(window.ratePerSecond(4_000), closeTo(0.5, 0.001));
+    }
+}
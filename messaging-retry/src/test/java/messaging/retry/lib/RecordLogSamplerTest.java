@@ -0,0 +1,58 @@
+package messaging.retry.lib;
+
+import java.util.Map;
+
+import messaging.retry.MessagingRetryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecordLogSamplerTest {
+
+    private MessagingRetryProperties properties;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new MessagingRetryProperties();
+        properties.getLogging().setSampleRate(0.5);
+        properties.getLogging().setTopicSampleRates(Map.of("all-topic", 1.0, "none-topic", 0.0, "some-topic", 0.1));
+    }
+
+    /**
+     * Topics with their own sample rate use it, and all other topics use the default sample rate.
+     */
+    @Test
+    public void testIsSampled_PerTopicSampleRates() {
+        RecordLogSampler sampler = new RecordLogSampler(properties);
+        int all = 0, none = 0, some = 0, other = 0;
+        for (int i=0; i<10000; i++) {
+            all += sampler.isSampled("all-topic") ? 1 : 0;
+            none += sampler.isSampled("none-topic") ? 1 : 0;
+            some += sampler.isSampled("some-topic") ? 1 : 0;
+            other += sampler.isSampled("other-topic") ? 1 : 0;
+        }
+        assertThat(all, equalTo(10000));
+        assertThat(none, equalTo(0));
+        assertThat(some, allOf(greaterThan(500), lessThan(1500)));
+        assertThat(other, allOf(greaterThan(4000), lessThan(6000)));
+    }
+
+    @Test
+    public void testShouldLog_InfoDisabled() {
+        RecordLogSampler sampler = new RecordLogSampler(properties);
+        Logger logger = mock(Logger.class);
+        when(logger.isInfoEnabled()).thenReturn(false);
+        assertThat(sampler.shouldLog(logger, "all-topic"), equalTo(false));
+
+        when(logger.isInfoEnabled()).thenReturn(true);
+        assertThat(sampler.shouldLog(logger, "all-topic"), equalTo(true));
+    }
+}
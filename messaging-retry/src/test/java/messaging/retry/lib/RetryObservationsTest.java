@@ -0,0 +1,147 @@
+package messaging.retry.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.service.RetryPriority;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RetryObservationsTest {
+
+    private static final String TRACE_HEADER = "test-trace";
+
+    private List<Observation.Context> stopped;
+    private List<String> received;
+    private RetryObservations observations;
+
+    @BeforeEach
+    public void setUp() {
+        stopped = new ArrayList<>();
+        received = new ArrayList<>();
+        final ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(new PropagatingHandler());
+        observations = new RetryObservations(new StaticListableBeanFactory(Map.of("observationRegistry", registry))
+                .getBeanProvider(ObservationRegistry.class));
+    }
+
+    /**
+     * The trace context is written to the headers of the message sent.
+     */
+    @Test
+    public void testPublish_WritesTraceContext() {
+        MessageBuilder<byte[]> builder = MessageBuilder.withPayload(new byte[0]);
+
+        Observation observation = observations.publish("retry-topic", 2, builder).start();
+        Message<byte[]> message = builder.build();
+        observation.stop();
+
+        assertThat(message.getHeaders().get(TRACE_HEADER), equalTo("trace-" + RetryObservations.PUBLISH));
+        assertThat(stopped.get(0).getLowCardinalityKeyValue("topic").getValue(), equalTo("retry-topic"));
+        assertThat(stopped.get(0).getHighCardinalityKeyValue("attempts").getValue(), equalTo("2"));
+    }
+
+    /**
+     * The trace context is read from the headers of the record received.
+     */
+    @Test
+    public void testConsume_ReadsTraceContext() {
+        ConsumerRecord<String, byte[]> record = new ConsumerRecord<>("retry-topic", 0, 0L, null, new byte[0]);
+        record.headers().add(TRACE_HEADER, "trace-123".getBytes(UTF_8));
+
+        observations.consume(record, "my-topic", 1).start().stop();
+
+        assertThat(received, contains("trace-123"));
+        assertThat(stopped.get(0).getLowCardinalityKeyValue("original.topic").getValue(), equalTo("my-topic"));
+    }
+
+    /**
+     * The observations made within an observed call are its children, so each hop is a child of the one before it.
+     */
+    @Test
+    public void testObserve_Nested() {
+        Observation retry = observations.retry("my-topic", RetryPriority.NORMAL, 1);
+
+        RetryObservations.observe(retry, () -> observations.publish("retry-topic", 1, MessageBuilder.withPayload(new byte[0])).start().stop());
+
+        assertThat(stopped.get(0).getName(), equalTo(RetryObservations.PUBLISH));
+        assertThat(stopped.get(0).getParentObservation(), sameInstance(retry));
+        assertThat(stopped.get(1).getName(), equalTo(RetryObservations.RETRY));
+    }
+
+    /**
+     * An exception thrown by the call is recorded as the observation's error, except a RetryableMessagingException, as
+     * that only delays the event.
+     */
+    @Test
+    public void testObserve_Error() {
+        assertThrows(IllegalStateException.class, () -> RetryObservations.observe(observations.handle("my-topic", RetryPriority.NORMAL, 1), () -> {
+            throw new IllegalStateException("failed");
+        }));
+        assertThrows(RetryableMessagingException.class, () -> RetryObservations.observe(observations.handle("my-topic", RetryPriority.NORMAL, 1), () -> {
+            throw new RetryableMessagingException("delayed");
+        }));
+
+        assertThat(stopped.get(0).getError().getMessage(), equalTo("failed"));
+        assertThat(stopped.get(1).getError(), nullValue());
+    }
+
+    /**
+     * Without an observation registry the observations are no-ops.
+     */
+    @Test
+    public void testNoRegistry() {
+        observations = new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class));
+        MessageBuilder<byte[]> builder = MessageBuilder.withPayload(new byte[0]);
+
+        observations.publish("retry-topic", 1, builder).start().stop();
+
+        assertThat(builder.build().getHeaders().get(TRACE_HEADER), nullValue());
+        assertThat(stopped.size(), equalTo(0));
+    }
+
+    /**
+     * Writes and reads a trace header, as a tracing bridge's propagating handlers do, and records the observations
+     * stopped.
+     */
+    private class PropagatingHandler implements ObservationHandler<Observation.Context> {
+
+        @Override
+        public void onStart(final Observation.Context context) {
+            if(context instanceof SenderContext sender) {
+                sender.getSetter().set(sender.getCarrier(), TRACE_HEADER, "trace-" + context.getName());
+            } else if(context instanceof ReceiverContext receiver) {
+                received.add(receiver.getGetter().get(receiver.getCarrier(), TRACE_HEADER));
+            }
+        }
+
+        @Override
+        public void onStop(final Observation.Context context) {
+            stopped.add(context);
+        }
+
+        @Override
+        public boolean supportsContext(final Observation.Context context) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package messaging.retry.lib;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.messaging.Message;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RetryProducerTest {
+
+    private static final Map<String, Object> APPLICATION_CONFIG = Map.of(
+            ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "broker:9092",
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
+            ProducerConfig.TRANSACTIONAL_ID_CONFIG, "app-tx-1",
+            ProducerConfig.LINGER_MS_CONFIG, 0,
+            ProducerConfig.SECURITY_PROVIDERS_CONFIG, "custom");
+
+    private MessagingRetryProperties properties;
+    private ProducerFactory applicationProducerFactoryMock;
+    private MeterRegistry meterRegistry;
+    private RetryProducer retryProducer;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new MessagingRetryProperties();
+        properties.getProducer().setEnabled(true);
+        applicationProducerFactoryMock = mock(ProducerFactory.class);
+        when(applicationProducerFactoryMock.getConfigurationProperties()).thenReturn(APPLICATION_CONFIG);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if(retryProducer != null) {
+            retryProducer.stop();
+        }
+    }
+
+    /**
+     * The retry producer keeps the application's connection settings, with the retry producer settings in place of
+     * its batching, and its own client Id and serializers.
+     */
+    @Test
+    public void testConfig() {
+        properties.getProducer().setCompressionType("zstd");
+        properties.getProducer().setProperties(Map.of(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, "2097152"));
+
+        Map<String, Object> config = RetryProducer.config(APPLICATION_CONFIG, properties.getProducer());
+
+        assertThat(config, hasEntry(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "broker:9092"));
+        assertThat(config, hasEntry(ProducerConfig.SECURITY_PROVIDERS_CONFIG, "custom"));
+        assertThat(config, hasEntry(ProducerConfig.CLIENT_ID_CONFIG, RetryProducer.CLIENT_ID));
+        assertThat(config, hasEntry(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true));
+        assertThat(config, hasEntry(ProducerConfig.ACKS_CONFIG, "all"));
+        assertThat(config, hasEntry(ProducerConfig.COMPRESSION_TYPE_CONFIG, "zstd"));
+        assertThat(config, hasEntry(ProducerConfig.LINGER_MS_CONFIG, 20L));
+        assertThat(config, hasEntry(ProducerConfig.BATCH_SIZE_CONFIG, 131072));
+        assertThat(config, hasEntry(ProducerConfig.BUFFER_MEMORY_CONFIG, 33554432L));
+        assertThat(config, hasEntry(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, "2097152"));
+        assertThat(config, not(hasKey(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG)));
+        assertThat(config, not(hasKey(ProducerConfig.TRANSACTIONAL_ID_CONFIG)));
+    }
+
+    @Test
+    public void testDisabled() {
+        properties.getProducer().setEnabled(false);
+        retryProducer = new RetryProducer(applicationProducerFactoryMock, properties, meterRegistryProvider());
+
+        assertThat(retryProducer.isEnabled(), equalTo(false));
+        assertThat(retryProducer.getKafkaTemplate(), nullValue());
+    }
+
+    /**
+     * With retry transactions enabled the retry producer is transactional, with its own transactional Id prefix.
+     */
+    @Test
+    public void testTransactional() {
+        properties.getTransactions().setEnabled(true);
+        retryProducer = new RetryProducer(applicationProducerFactoryMock, properties, meterRegistryProvider());
+
+        assertThat(retryProducer.getProducerFactory().transactionCapable(), equalTo(true));
+        assertThat(retryProducer.getProducerFactory().getTransactionIdPrefix(), equalTo("messaging-retry-tx-"));
+        assertThat(retryProducer.getKafkaTemplate().isAllowNonTransactional(), equalTo(true));
+    }
+
+    /**
+     * The sends are made on the retry producer, and recorded per destination topic.
+     */
+    @Test
+    public void testClientSendsOnRetryProducer() {
+        final KafkaTemplate applicationTemplateMock = mock(KafkaTemplate.class);
+        final KafkaTemplate retryTemplateMock = mock(KafkaTemplate.class);
+        final MessagingRetryKafkaClient kafkaClient = kafkaClient(applicationTemplateMock, retryTemplateMock);
+
+        kafkaClient.sendMessage("retry-topic", "payload".getBytes(), Map.of());
+
+        verify(retryTemplateMock, times(1)).send(any(Message.class));
+        verify(applicationTemplateMock, never()).send(any(Message.class));
+        assertThat(meterRegistry.get("messaging.retry.send").tag("topic", "retry-topic").tag("result", "success").timer().count(), equalTo(1L));
+        assertThat(meterRegistry.get("messaging.retry.send.bytes").tag("topic", "retry-topic").summary().totalAmount(), equalTo(7.0));
+    }
+
+    /**
+     * A send in a transaction on the application's producer, such as from a transactional application listener, is
+     * made on the application's producer so that it is part of that transaction.
+     */
+    @Test
+    public void testClientSendsInApplicationTransaction() {
+        final KafkaTemplate applicationTemplateMock = mock(KafkaTemplate.class);
+        final KafkaTemplate retryTemplateMock = mock(KafkaTemplate.class);
+        final MessagingRetryKafkaClient kafkaClient = kafkaClient(applicationTemplateMock, retryTemplateMock);
+
+        TransactionSynchronizationManager.bindResource(applicationProducerFactoryMock, new Object());
+        try {
+            assertThat(kafkaClient.inTransaction(), equalTo(true));
+            kafkaClient.send("retry-topic", "payload".getBytes(), Map.of());
+        } finally {
+            TransactionSynchronizationManager.unbindResource(applicationProducerFactoryMock);
+        }
+
+        verify(applicationTemplateMock, times(1)).send(any(Message.class));
+        verify(retryTemplateMock, never()).send(any(Message.class));
+    }
+
+    private MessagingRetryKafkaClient kafkaClient(final KafkaTemplate applicationTemplateMock, final KafkaTemplate retryTemplateMock) {
+        final CompletableFuture<SendResult> sent = CompletableFuture.completedFuture(mock(SendResult.class));
+        when(applicationTemplateMock.getProducerFactory()).thenReturn(applicationProducerFactoryMock);
+        when(applicationTemplateMock.send(any(Message.class))).thenReturn(sent);
+        when(retryTemplateMock.send(any(Message.class))).thenReturn(sent);
+        final RetryProducer retryProducerMock = mock(RetryProducer.class);
+        when(retryProducerMock.isEnabled()).thenReturn(true);
+        when(retryProducerMock.getKafkaTemplate()).thenReturn(retryTemplateMock);
+        return new MessagingRetryKafkaClient(applicationTemplateMock, retryProducerMock, new RetrySendMetrics(meterRegistryProvider()),
+                new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class)));
+    }
+
+    private ObjectProvider<MeterRegistry> meterRegistryProvider() {
+        return new StaticListableBeanFactory(Map.of("meterRegistry", meterRegistry)).getBeanProvider(MeterRegistry.class);
+    }
+}
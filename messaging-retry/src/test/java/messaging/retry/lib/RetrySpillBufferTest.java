@@ -0,0 +1,277 @@
+package messaging.retry.lib;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RetrySpillBufferTest {
+
+    private static final Map<String, Object> HEADERS = Map.of(
+            MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, 1677664800000L,
+            MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+            MessagingRetryHeaders.RETRY_ATTEMPTS, 2,
+            MessagingRetryHeaders.RETRY_KEY, "item-123");
+
+    @TempDir
+    private Path directory;
+
+    private MessagingRetryKafkaClient kafkaClientMock;
+    private MessagingRetryProperties properties;
+    private RetryObservations observations;
+    private RetrySpillBuffer buffer;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        kafkaClientMock = mock(MessagingRetryKafkaClient.class);
+        observations = new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class));
+        properties = new MessagingRetryProperties();
+        properties.getSpill().setEnabled(true);
+        properties.getSpill().setDirectory(directory.toString());
+        buffer = open();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        buffer.stop();
+    }
+
+    /**
+     * The spilled sends are drained in the order they were spilled, with their headers and payloads intact, and the
+     * spill stops spilling and deletes its segment once they are all sent.
+     */
+    @Test
+    public void testSpillAndDrain() throws Exception {
+        assertThat(buffer.spillIfSpilling("retry-topic", "payload-0".getBytes(), HEADERS), equalTo(false));
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        assertThat(buffer.isSpilling(), equalTo(true));
+        assertThat(buffer.spillIfSpilling("retry-topic", "payload-2".getBytes(), HEADERS), equalTo(true));
+        assertThat(buffer.size(), equalTo(2L));
+
+        drainAll();
+
+        InOrder inOrder = inOrder(kafkaClientMock);
+        inOrder.verify(kafkaClientMock).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+        inOrder.verify(kafkaClientMock).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+        assertThat(buffer.isSpilling(), equalTo(false));
+        assertThat(buffer.size(), equalTo(0L));
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    /**
+     * A spilled send that fails because the broker cannot be reached stays at the head of the spill until it is sent.
+     */
+    @Test
+    public void testDrain_brokerUnavailable() throws Exception {
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        buffer.spill("retry-topic", "payload-2".getBytes(), HEADERS);
+        when(kafkaClientMock.sendMessage("retry-topic", "payload-1".getBytes(), HEADERS))
+                .thenThrow(new RuntimeException("Error sending message", new TimeoutException("Expiring 1 record(s)")))
+                .thenReturn(null);
+
+        assertThrows(RuntimeException.class, () -> buffer.drainOnce());
+        assertThat(buffer.size(), equalTo(2L));
+        verify(kafkaClientMock, never()).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+
+        drainAll();
+
+        verify(kafkaClientMock, times(2)).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+        verify(kafkaClientMock, times(1)).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+        assertThat(buffer.isSpilling(), equalTo(false));
+    }
+
+    /**
+     * A spilled send that fails because of the record itself is logged and discarded, so that it does not block the
+     * spill.
+     */
+    @Test
+    public void testDrain_nonRetriableFailure() throws Exception {
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        buffer.spill("retry-topic", "payload-2".getBytes(), HEADERS);
+        when(kafkaClientMock.sendMessage("retry-topic", "payload-1".getBytes(), HEADERS))
+                .thenThrow(new RuntimeException("Error sending message", new RecordTooLargeException("Too large")));
+
+        drainAll();
+
+        verify(kafkaClientMock, times(1)).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+        verify(kafkaClientMock, times(1)).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+        assertThat(buffer.size(), equalTo(0L));
+    }
+
+    /**
+     * The sends spilled before a restart are drained after it, ahead of the new sends.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        buffer.stop();
+
+        buffer = open();
+        assertThat(buffer.isSpilling(), equalTo(true));
+        assertThat(buffer.size(), equalTo(1L));
+        buffer.spill("retry-topic", "payload-2".getBytes(), HEADERS);
+        drainAll();
+
+        InOrder inOrder = inOrder(kafkaClientMock);
+        inOrder.verify(kafkaClientMock).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+        inOrder.verify(kafkaClientMock).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    /**
+     * A record torn by a crash part way through its write is discarded on recovery, keeping the records before it.
+     */
+    @Test
+    public void testRecover_tornRecord() throws Exception {
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        buffer.spill("retry-topic", "payload-2".getBytes(), HEADERS);
+        buffer.stop();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.findFirst().get();
+        }
+        try (var channel = Files.newByteChannel(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        buffer = open();
+        assertThat(buffer.size(), equalTo(1L));
+        drainAll();
+
+        verify(kafkaClientMock, times(1)).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+        verify(kafkaClientMock, never()).sendMessage("retry-topic", "payload-2".getBytes(), HEADERS);
+    }
+
+    /**
+     * A new segment is started once the segment size is reached, and each is deleted once drained.
+     */
+    @Test
+    public void testSegmentRoll() throws Exception {
+        buffer.stop();
+        properties.getSpill().setSegmentBytes(200);
+        buffer = open();
+        for(int i = 0; i < 5; i++) {
+            buffer.spill("retry-topic", ("payload-" + i).getBytes(), HEADERS);
+        }
+        assertThat(segmentCount() > 1, equalTo(true));
+
+        drainAll();
+
+        verify(kafkaClientMock, times(5)).sendMessage(any(), any(), any());
+        assertThat(segmentCount(), equalTo(0L));
+    }
+
+    /**
+     * Once the spill reaches its maximum size further sends are refused.
+     */
+    @Test
+    public void testSpill_full() throws Exception {
+        buffer.stop();
+        properties.getSpill().setMaxBytes(250);
+        buffer = open();
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+
+        assertThrows(IllegalStateException.class, () -> buffer.spill("retry-topic", new byte[100], HEADERS));
+
+        drainAll();
+        buffer.spill("retry-topic", new byte[100], HEADERS);
+    }
+
+    /**
+     * The trace context of the caller is stored with the spilled send, and survives a restart, so that the send is
+     * drained in a drain observation that continues the trace.  The trace context is not added to the headers sent.
+     */
+    @Test
+    public void testSpillAndDrain_TraceContext() throws Exception {
+        buffer.stop();
+        final List<String> received = new ArrayList<>();
+        final ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStart(final Observation.Context context) {
+                if(context instanceof SenderContext sender) {
+                    sender.getSetter().set(sender.getCarrier(), "test-trace", "trace-" + context.getName());
+                } else if(context instanceof ReceiverContext receiver) {
+                    received.add(receiver.getGetter().get(receiver.getCarrier(), "test-trace"));
+                }
+            }
+
+            @Override
+            public boolean supportsContext(final Observation.Context context) {
+                return true;
+            }
+        });
+        observations = new RetryObservations(new StaticListableBeanFactory(Map.of("observationRegistry", registry))
+                .getBeanProvider(ObservationRegistry.class));
+        buffer = open();
+        final List<String> sentIn = new ArrayList<>();
+        when(kafkaClientMock.sendMessage("retry-topic", "payload-1".getBytes(), HEADERS)).thenAnswer(invocation -> {
+            sentIn.add(registry.getCurrentObservation().getContext().getName());
+            return null;
+        });
+
+        buffer.spill("retry-topic", "payload-1".getBytes(), HEADERS);
+        buffer.stop();
+        buffer = open();
+        drainAll();
+
+        assertThat(received, contains("trace-" + RetryObservations.SPILL));
+        assertThat(sentIn, contains(RetryObservations.DRAIN));
+        verify(kafkaClientMock, times(1)).sendMessage("retry-topic", "payload-1".getBytes(), HEADERS);
+    }
+
+    @Test
+    public void testIsRetriable() {
+        assertThat(RetrySpillBuffer.isRetriable(new RuntimeException(new TimeoutException("Timed out"))), equalTo(true));
+        assertThat(RetrySpillBuffer.isRetriable(new RuntimeException(new java.util.concurrent.TimeoutException())), equalTo(true));
+        assertThat(RetrySpillBuffer.isRetriable(new RuntimeException(new RecordTooLargeException("Too large"))), equalTo(false));
+    }
+
+    private RetrySpillBuffer open() throws IOException {
+        final RetrySpillBuffer opened = new RetrySpillBuffer(kafkaClientMock, properties, observations);
+        opened.open();
+        return opened;
+    }
+
+    private void drainAll() throws IOException {
+        while(buffer.drainOnce()) {
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package messaging.retry.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.MessagingRetryHeaders;
+import messaging.retry.lib.MessagingRetryKafkaClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeadLetterReplayServiceTest {
+
+    private static final String DLT_TOPIC = "dlt-topic";
+
+    private MockConsumer<String, byte[]> consumer;
+    private MessagingRetryKafkaClient kafkaClientMock;
+    private DeadLetterReplayService service;
+
+    @BeforeEach
+    public void setUp() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        ConsumerFactory<String, byte[]> consumerFactoryMock = mock(ConsumerFactory.class);
+        when(consumerFactoryMock.createConsumer(any(), any(), any(), any())).thenReturn(consumer);
+        kafkaClientMock = mock(MessagingRetryKafkaClient.class);
+        MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getDeadLetter().setTopic(DLT_TOPIC);
+        service = new DeadLetterReplayService(consumerFactoryMock, kafkaClientMock, properties);
+    }
+
+    /**
+     * Only the dead letters within the requested offset range are replayed, each to its original topic and without
+     * the retry headers, but keeping the content type of the payload.
+     */
+    @Test
+    public void testReplay_RangeReplayedToOriginalTopic() throws Exception {
+        TopicPartition partition = new TopicPartition(DLT_TOPIC, 0);
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+        consumer.schedulePollTask(() -> {
+            for (int offset=0; offset<4; offset++) {
+                consumer.addRecord(buildDeadLetter(offset, ("payload-"+offset).getBytes(), "my-topic"));
+            }
+        });
+
+        long replayed = service.replay(0, 1, 3, 1000);
+
+        assertThat(replayed, equalTo(2L));
+        verify(kafkaClientMock, times(1)).sendMessage("my-topic", "payload-1".getBytes(), Map.of(MessagingRetryHeaders.CONTENT_TYPE, "application/json"));
+        verify(kafkaClientMock, times(1)).sendMessage("my-topic", "payload-2".getBytes(), Map.of(MessagingRetryHeaders.CONTENT_TYPE, "application/json"));
+        verify(kafkaClientMock, never()).sendMessage(any(), eq("payload-0".getBytes()), any());
+        verify(kafkaClientMock, never()).sendMessage(any(), eq("payload-3".getBytes()), any());
+    }
+
+    /**
+     * A dead letter whose claim checked payload was lost has nothing to replay, so is skipped.
+     */
+    @Test
+    public void testReplay_LostClaimCheckSkipped() throws Exception {
+        TopicPartition partition = new TopicPartition(DLT_TOPIC, 0);
+        consumer.updateBeginningOffsets(Map.of(partition, 0L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(buildDeadLetter(0, new byte[0], "my-topic", "claim-1"));
+            consumer.addRecord(buildDeadLetter(1, "payload-1".getBytes(), "my-topic"));
+        });
+
+        long replayed = service.replay(0, 0, 2, 1000);
+
+        assertThat(replayed, equalTo(1L));
+        verify(kafkaClientMock, times(1)).sendMessage("my-topic", "payload-1".getBytes(), Map.of(MessagingRetryHeaders.CONTENT_TYPE, "application/json"));
+        verify(kafkaClientMock, never()).sendMessage(any(), eq(new byte[0]), any());
+    }
+
+    @Test
+    public void testReplay_InvalidRange() {
+        assertThrows(IllegalArgumentException.class, () -> service.replay(0, 3, 3, 10));
+    }
+
+    private static ConsumerRecord<String, byte[]> buildDeadLetter(long offset, byte[] payload, String originalTopic) {
+        return buildDeadLetter(offset, payload, originalTopic, null);
+    }
+
+    private static ConsumerRecord<String, byte[]> buildDeadLetter(long offset, byte[] payload, String originalTopic, String claimCheck) {
+        Map<String, Object> deadLetterHeaders = new HashMap<>(Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, originalTopic,
+                MessagingRetryHeaders.RETRY_ATTEMPTS, 3,
+                MessagingRetryHeaders.CONTENT_TYPE, "application/json"));
+        if(claimCheck != null) {
+            deadLetterHeaders.put(MessagingRetryHeaders.CLAIM_CHECK, claimCheck);
+        }
+        RecordHeaders headers = new RecordHeaders();
+        new DefaultKafkaHeaderMapper().fromHeaders(new MessageHeaders(deadLetterHeaders), headers);
+        return new ConsumerRecord<>(DLT_TOPIC, 0, offset, 0L, TimestampType.CREATE_TIME, 0, 0, null, payload, headers, java.util.Optional.empty());
+    }
+}
@@ -0,0 +1,64 @@
+package messaging.retry.service;
+
+/**
+ * Counts values in one millisecond buckets up to a limit, with the values above it counted in an overflow bucket, so
+ * that the percentiles of millions of samples are kept in a fixed amount of memory.
+ */
+class Histogram {
+
+    private final long[] counts;
+
+    private long overflow;
+
+    private long count;
+
+    private long sum;
+
+    private long max;
+
+    Histogram(final int limitMs) {
+        this.counts = new long[limitMs + 1];
+    }
+
+    void record(final long value) {
+        final long clamped = Math.max(0, value);
+        if(clamped < counts.length) {
+            counts[(int)clamped]++;
+        } else {
+            overflow++;
+        }
+        count++;
+        sum += clamped;
+        max = Math.max(max, clamped);
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return count == 0 ? 0 : (double)sum / count;
+    }
+
+    /**
+     * @return the value at the quantile, between 0 and 1, or the max if it falls in the overflow bucket.
+     */
+    long percentile(final double quantile) {
+        if(count == 0) {
+            return 0;
+        }
+        final long rank = (long)Math.ceil(quantile * count);
+        long seen = 0;
+        for(int value = 0; value < counts.length; value++) {
+            seen += counts[value];
+            if(seen >= rank) {
+                return value;
+            }
+        }
+        return max;
+    }
+}
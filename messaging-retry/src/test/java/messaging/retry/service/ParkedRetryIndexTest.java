@@ -0,0 +1,169 @@
+package messaging.retry.service;
+
+import java.util.List;
+
+import messaging.retry.MessagingRetryProperties;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+
+public class ParkedRetryIndexTest {
+
+    private static final byte[] PAYLOAD = "payload".getBytes();
+
+    private ParkedRetryIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new ParkedRetryIndex(properties(true, 3));
+    }
+
+    /**
+     * Releasing a key returns all the records parked with it, and no others.
+     */
+    @Test
+    public void testRelease() {
+        index.park(parked(0, "key-a"));
+        index.park(parked(1, "key-b"));
+        index.park(parked(2, "key-a"));
+
+        final List<ParkedRetryIndex.ParkedRetry> released = index.release("key-a");
+
+        assertThat(released.stream().map(ParkedRetryIndex.ParkedRetry::id).toList(), containsInAnyOrder(id(0), id(2)));
+        assertThat(index.size(), equalTo(1));
+        assertThat(index.isParked("key-a"), equalTo(false));
+        assertThat(index.isParked("key-b"), equalTo(true));
+        assertThat(index.release("key-a").size(), equalTo(0));
+    }
+
+    /**
+     * A released record is skipped once when it is re-polled, and a record that is not released is claimed back out
+     * of the index so that it can no longer be released.
+     */
+    @Test
+    public void testClaim() {
+        index.park(parked(0, "key-a"));
+        index.park(parked(1, "key-b"));
+        index.release("key-a");
+        index.markReleased(id(0));
+
+        assertThat(index.claim(id(0)), equalTo(false));
+        assertThat(index.claim(id(0)), equalTo(true));
+        assertThat(index.claim(id(1)), equalTo(true));
+        assertThat(index.size(), equalTo(0));
+        assertThat(index.release("key-b").size(), equalTo(0));
+    }
+
+    /**
+     * A released record that has not been marked as released, such as one whose republish failed, is evaluated when it
+     * is re-polled, and once restored it can be released again.
+     */
+    @Test
+    public void testRestore() {
+        index.park(parked(0, "key-a"));
+        final List<ParkedRetryIndex.ParkedRetry> released = index.release("key-a");
+
+        index.restore(released.get(0));
+
+        assertThat(index.isParked("key-a"), equalTo(true));
+        assertThat(index.release("key-a").size(), equalTo(1));
+        index.restore(released.get(0));
+        assertThat(index.claim(id(0)), equalTo(true));
+        assertThat(index.size(), equalTo(0));
+    }
+
+    /**
+     * A released record claimed by the retry consumer before its republish completes is not marked as released or
+     * restored, as the retry consumer is already evaluating it.
+     */
+    @Test
+    public void testClaim_WhileReleasing() {
+        index.park(parked(0, "key-a"));
+        final List<ParkedRetryIndex.ParkedRetry> released = index.release("key-a");
+
+        assertThat(index.claim(id(0)), equalTo(true));
+        index.restore(released.get(0));
+        index.markReleased(id(0));
+
+        assertThat(index.size(), equalTo(0));
+        assertThat(index.claim(id(0)), equalTo(true));
+    }
+
+    /**
+     * A released record that is re-polled and parked again before it is claimed is not parked a second time.
+     */
+    @Test
+    public void testPark_AlreadyReleased() {
+        index.park(parked(0, "key-a"));
+        index.release("key-a");
+
+        index.park(parked(0, "key-a"));
+
+        assertThat(index.size(), equalTo(0));
+    }
+
+    /**
+     * Records beyond the max parked are not indexed, and records without a retry key cannot be released.
+     */
+    @Test
+    public void testPark_Limits() {
+        index.park(parked(0, null));
+        index.park(parked(1, "key-a"));
+        index.park(parked(2, "key-b"));
+        index.park(parked(3, "key-c"));
+        index.park(parked(4, "key-d"));
+
+        assertThat(index.size(), equalTo(3));
+        assertThat(index.release("key-d").size(), equalTo(0));
+    }
+
+    /**
+     * The parked and released records on revoked partitions are cleared, leaving those on other partitions.
+     */
+    @Test
+    public void testOnPartitionsRevoked() {
+        index.park(parked(0, "key-a"));
+        index.park(parked(1, "key-b"));
+        index.park(new ParkedRetryIndex.ParkedRetry(new ParkedRetryIndex.RecordId("retry-topic", 1, 0L), "key-a",
+                PAYLOAD, 1L, "topic", 1, null, RetryPriority.NORMAL, null));
+        index.release("key-b");
+        index.markReleased(id(1));
+
+        index.onPartitionsRevoked(List.of(new TopicPartition("retry-topic", 0)));
+
+        assertThat(index.size(), equalTo(1));
+        assertThat(index.claim(id(1)), equalTo(true));
+        assertThat(index.release("key-a").size(), equalTo(1));
+    }
+
+    @Test
+    public void testDisabled() {
+        index = new ParkedRetryIndex(properties(false, 3));
+
+        index.park(parked(0, "key-a"));
+
+        assertThat(index.isEnabled(), equalTo(false));
+        assertThat(index.size(), equalTo(0));
+        assertThat(index.release("key-a").size(), equalTo(0));
+        assertThat(index.claim(id(0)), equalTo(true));
+    }
+
+    private static MessagingRetryProperties properties(final boolean enabled, final int maxParked) {
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getRelease().setEnabled(enabled);
+        properties.getRelease().setMaxParked(maxParked);
+        return properties;
+    }
+
+    private static ParkedRetryIndex.RecordId id(final long offset) {
+        return new ParkedRetryIndex.RecordId("retry-topic", 0, offset);
+    }
+
+    private static ParkedRetryIndex.ParkedRetry parked(final long offset, final String retryKey) {
+        return new ParkedRetryIndex.ParkedRetry(id(offset), retryKey, PAYLOAD, 1L, "topic", 1, null, RetryPriority.NORMAL, null);
+    }
+}
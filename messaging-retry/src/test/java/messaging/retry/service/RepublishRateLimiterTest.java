@@ -0,0 +1,144 @@
+package messaging.retry.service;
+
+import java.util.Map;
+
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.lib.ConsumerGroupLagReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+public class RepublishRateLimiterTest {
+
+    private ConsumerGroupLagReader lagReaderMock;
+    private RepublishRateLimiter rateLimiter;
+
+    @BeforeEach
+    public void setUp() {
+        lagReaderMock = mock(ConsumerGroupLagReader.class);
+        // Max 100 per second, adaptive between 1000 (high) and 100 (low) lag, min 1 per second.
+        rateLimiter = new RepublishRateLimiter(lagReaderMock, properties(true, 10, true));
+    }
+
+    private static MessagingRetryProperties properties(boolean enabled, double burst, boolean adaptive) {
+        MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.getRateLimit().setEnabled(enabled);
+        properties.getRateLimit().setRatePerSecond(100);
+        properties.getRateLimit().setBurst(burst);
+        properties.getRateLimit().setMaxWaitMs(0);
+        properties.getRateLimit().getAdaptive().setEnabled(adaptive);
+        properties.getRateLimit().getAdaptive().setGroupId("demo");
+        return properties;
+    }
+
+    /**
+     * Each destination topic has its own bucket, so exhausting one topic's limit does not affect another.  The normal
+     * lane has 3 of the 10 weights, so bursts 3 of the 10 events.
+     */
+    @Test
+    public void testTryAcquire_PerTopic() {
+        for (int i=0; i<3; i++) {
+            assertThat(rateLimiter.tryAcquire("topic-a"), equalTo(true));
+        }
+        assertThat(rateLimiter.tryAcquire("topic-a"), equalTo(false));
+        assertThat(rateLimiter.tryAcquire("topic-b"), equalTo(true));
+    }
+
+    @Test
+    public void testTryAcquire_Disabled() {
+        rateLimiter = new RepublishRateLimiter(lagReaderMock, properties(false, 1, false));
+        for (int i=0; i<100; i++) {
+            assertThat(rateLimiter.tryAcquire("topic-a"), equalTo(true));
+        }
+        verifyNoInteractions(lagReaderMock);
+    }
+
+    /**
+     * A lane on its own is given the whole rate.  Once other lanes are also asking for permits the rate is shared
+     * between them by weight.
+     */
+    @Test
+    public void testTryAcquire_LaneShares() {
+        rateLimiter.tryAcquire("topic-a", RetryPriority.BULK);
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.BULK), equalTo(100.0));
+
+        rateLimiter.tryAcquire("topic-a", RetryPriority.HIGH);
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.HIGH), closeTo(600.0 / 7, 0.001));
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.BULK), closeTo(100.0 / 7, 0.001));
+
+        rateLimiter.tryAcquire("topic-a", RetryPriority.NORMAL);
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.HIGH), closeTo(60.0, 0.001));
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.NORMAL), closeTo(30.0, 0.001));
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.BULK), closeTo(10.0, 0.001));
+
+        // The adapted topic rate is shared between the lanes in the same way.
+        rateLimiter.adapt(Map.of("topic-a", 5000L));
+        assertThat(rateLimiter.getRatePerSecond("topic-a", RetryPriority.HIGH), closeTo(30.0, 0.001));
+    }
+
+    /**
+     * A bulk backlog exhausting its bucket does not take the permits of the high priority lane.
+     */
+    @Test
+    public void testTryAcquire_LanesIndependent() {
+        assertThat(rateLimiter.tryAcquire("topic-a", RetryPriority.BULK), equalTo(true));
+        assertThat(rateLimiter.tryAcquire("topic-a", RetryPriority.BULK), equalTo(false));
+        assertThat(rateLimiter.tryAcquire("topic-a", RetryPriority.HIGH), equalTo(true));
+    }
+
+    /**
+     * The burst is split between the lanes by weight, so that together they burst no more than the configured burst.
+     */
+    @Test
+    public void testTryAcquire_BurstShares() {
+        int permitted = 0;
+        for(RetryPriority priority : RetryPriority.values()) {
+            for (int i=0; i<10; i++) {
+                if(rateLimiter.tryAcquire("topic-a", priority)) {
+                    permitted++;
+                }
+            }
+        }
+        assertThat(permitted, equalTo(10));
+    }
+
+    @Test
+    public void testLaneWeights_Invalid() {
+        MessagingRetryProperties properties = properties(true, 10, false);
+        properties.getRateLimit().getLaneWeights().setNormal(0);
+        assertThrows(IllegalArgumentException.class, () -> new RepublishRateLimiter(lagReaderMock, properties));
+    }
+
+    /**
+     * While the lag is above the high watermark the rate is halved each interval, down to the minimum.  Once the lag is
+     * below the low watermark it increases by a tenth of the maximum each interval, up to the maximum.  In between it
+     * is unchanged.
+     */
+    @Test
+    public void testAdapt() {
+        rateLimiter.tryAcquire("topic-a");
+
+        rateLimiter.adapt(Map.of("topic-a", 5000L));
+        assertThat(rateLimiter.getRatePerSecond("topic-a"), equalTo(50.0));
+        for (int i=0; i<10; i++) {
+            rateLimiter.adapt(Map.of("topic-a", 5000L));
+        }
+        assertThat(rateLimiter.getRatePerSecond("topic-a"), equalTo(1.0));
+
+        rateLimiter.adapt(Map.of("topic-a", 500L));
+        assertThat(rateLimiter.getRatePerSecond("topic-a"), equalTo(1.0));
+
+        rateLimiter.adapt(Map.of("topic-a", 50L));
+        assertThat(rateLimiter.getRatePerSecond("topic-a"), equalTo(11.0));
+        for (int i=0; i<20; i++) {
+            rateLimiter.adapt(Map.of());
+        }
+        assertThat(rateLimiter.getRatePerSecond("topic-a"), equalTo(100.0));
+    }
+}
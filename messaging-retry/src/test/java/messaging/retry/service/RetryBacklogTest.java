@@ -0,0 +1,92 @@
+package messaging.retry.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import messaging.retry.lib.RetryClock;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RetryBacklogTest {
+
+    private static final Instant NOW = Instant.parse("2023-03-01T10:00:00Z");
+    private static final TopicPartition PARTITION_0 = new TopicPartition("retry-topic", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("retry-topic", 1);
+
+    private Clock clockMock;
+    private RetryBacklog backlog;
+
+    @BeforeEach
+    public void setUp() {
+        clockMock = mock(Clock.class);
+        when(clockMock.millis()).thenReturn(NOW.toEpochMilli());
+        backlog = new RetryBacklog(new RetryClock(clockMock));
+    }
+
+    /**
+     * The partitions are reported in order with their lag including the held records, and the held records are
+     * counted by the time until they are due.
+     */
+    @Test
+    public void testSnapshot() {
+        long now = NOW.toEpochMilli();
+        backlog.update(PARTITION_1, 10, new long[] {now - 1, now + 500, now + 4000});
+        backlog.update(PARTITION_0, 0, new long[] {now + 400000});
+
+        RetryBacklog.Snapshot snapshot = backlog.snapshot();
+
+        assertThat(snapshot.partitions(), contains(new RetryBacklog.PartitionSnapshot("retry-topic", 0, 1, 1),
+                new RetryBacklog.PartitionSnapshot("retry-topic", 1, 13, 3)));
+        assertThat(snapshot.totalLag(), equalTo(14L));
+        assertThat(snapshot.totalHeld(), equalTo(4L));
+        assertThat(snapshot.dueHistogram().get("overdue"), equalTo(1L));
+        assertThat(snapshot.dueHistogram().get("1s"), equalTo(1L));
+        assertThat(snapshot.dueHistogram().get("5s"), equalTo(1L));
+        assertThat(snapshot.dueHistogram().get("300s"), equalTo(0L));
+        assertThat(snapshot.dueHistogram().get("more"), equalTo(1L));
+        assertThat(snapshot.estimatedClearSeconds(), nullValue());
+    }
+
+    /**
+     * The republish and discard rates are over the last minute, and the backlog is estimated to clear at the
+     * republish rate.
+     */
+    @Test
+    public void testRates() {
+        backlog.update(PARTITION_0, 60, new long[0]);
+        for(int i = 0; i < 120; i++) {
+            backlog.recordRepublished();
+        }
+        backlog.recordDiscarded();
+        when(clockMock.millis()).thenReturn(NOW.plusSeconds(1).toEpochMilli());
+
+        RetryBacklog.Snapshot snapshot = backlog.snapshot();
+
+        assertThat(snapshot.republished(), equalTo(120L));
+        assertThat(snapshot.discarded(), equalTo(1L));
+        assertThat(snapshot.republishesPerSecond(), closeTo(2.0, 0.001));
+        assertThat(snapshot.discardsPerSecond(), closeTo(1.0 / 60, 0.001));
+        assertThat(snapshot.estimatedClearSeconds(), closeTo(30.0, 0.001));
+    }
+
+    @Test
+    public void testOnPartitionsRevoked() {
+        backlog.update(PARTITION_0, 5, new long[0]);
+        backlog.update(PARTITION_1, 7, new long[0]);
+
+        backlog.onPartitionsRevoked(List.of(PARTITION_0));
+
+        assertThat(backlog.snapshot().partitions(), contains(new RetryBacklog.PartitionSnapshot("retry-topic", 1, 7, 0)));
+    }
+}
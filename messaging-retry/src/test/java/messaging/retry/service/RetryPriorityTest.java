@@ -0,0 +1,33 @@
+package messaging.retry.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class RetryPriorityTest {
+
+    /**
+     * The header value is a String when mapped by Spring Kafka, and bytes otherwise.
+     */
+    @Test
+    public void testFromHeader() {
+        assertThat(RetryPriority.fromHeader("HIGH"), equalTo(RetryPriority.HIGH));
+        assertThat(RetryPriority.fromHeader("bulk"), equalTo(RetryPriority.BULK));
+        assertThat(RetryPriority.fromHeader("HIGH".getBytes()), equalTo(RetryPriority.HIGH));
+        assertThat(RetryPriority.fromHeader(RetryPriority.BULK), equalTo(RetryPriority.BULK));
+    }
+
+    @Test
+    public void testFromHeader_missingOrUnknown() {
+        assertThat(RetryPriority.fromHeader(null), equalTo(RetryPriority.NORMAL));
+        assertThat(RetryPriority.fromHeader("URGENT"), equalTo(RetryPriority.NORMAL));
+    }
+
+    @Test
+    public void testTopicSuffix() {
+        assertThat(RetryPriority.HIGH.topicSuffix(), equalTo("-high"));
+        assertThat(RetryPriority.NORMAL.topicSuffix(), equalTo(""));
+        assertThat(RetryPriority.BULK.topicSuffix(), equalTo("-bulk"));
+    }
+}
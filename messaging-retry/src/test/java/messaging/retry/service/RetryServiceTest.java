@@ -1,45 +1,322 @@
 package messaging.retry.service;
 
+import java.time.Clock;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import messaging.retry.MessagingRetryProperties;
 import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.lib.ClaimCheck;
+import messaging.retry.lib.DeadLetterPublisher;
 import messaging.retry.lib.MessagingRetryHeaders;
 import messaging.retry.lib.MessagingRetryKafkaClient;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.lib.RetrySpillBuffer;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TIMESTAMP;
+import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TOPIC;
 
 public class RetryServiceTest {
 
+    /**
+     * The retry decisions are made against a fixed clock, so the timings in the tests are exact.
+     */
+    private static final Instant NOW = Instant.parse("2023-03-01T10:00:00Z");
+
+    private static final byte[] PAYLOAD = "my-payload".getBytes();
+
     private RetryService handler;
+    private RetryStreams retryStreams;
     private MessagingRetryKafkaClient kafkaClientMock;
+    private DeadLetterPublisher deadLetterPublisherMock;
+    private RepublishRateLimiter rateLimiterMock;
+    private ParkedRetryIndex parkedRetryIndexMock;
+    private RetryBacklog retryBacklogMock;
+    private RetrySpillBuffer spillBufferMock;
+    private ClaimCheck claimCheckMock;
+    private MessagingRetryProperties properties;
+    private List<Observation.Context> observed;
+    private ObservationRegistry observationRegistry;
 
     @BeforeEach
     public void setUp() {
         kafkaClientMock = mock(MessagingRetryKafkaClient.class);
-        final Long retryIntervalSeconds = 10L;
-        final Long maxRetryDurationSeconds = 30L;
-        handler = new RetryService(kafkaClientMock, "retry-topic", retryIntervalSeconds, maxRetryDurationSeconds);
+        deadLetterPublisherMock = mock(DeadLetterPublisher.class);
+        when(deadLetterPublisherMock.publish(any(), any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(deadLetterPublisherMock.publish(any(), any(), any(), any(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        rateLimiterMock = mock(RepublishRateLimiter.class);
+        when(rateLimiterMock.tryAcquire(any(), any())).thenReturn(true);
+        parkedRetryIndexMock = mock(ParkedRetryIndex.class);
+        retryBacklogMock = mock(RetryBacklog.class);
+        spillBufferMock = mock(RetrySpillBuffer.class);
+        when(spillBufferMock.getSendTimeoutMs()).thenReturn(5000L);
+        claimCheckMock = mock(ClaimCheck.class);
+        observed = new ArrayList<>();
+        observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(final Observation.Context context) {
+                observed.add(context);
+            }
+
+            @Override
+            public boolean supportsContext(final Observation.Context context) {
+                return true;
+            }
+        });
+        properties = new MessagingRetryProperties();
+        properties.setTopic("retry-topic");
+        properties.setRetryIntervalSeconds(10L);
+        properties.setMaxRetryDurationSeconds(30L);
+        // A dedicated retry stream for events from the other-topic, retrying every 2 seconds for up to 5 seconds.
+        final MessagingRetryProperties.Stream stream = new MessagingRetryProperties.Stream();
+        stream.setOriginalTopics(List.of("other-topic"));
+        stream.setTopic("other-retry-topic");
+        stream.setRetryIntervalSeconds(2L);
+        stream.setMaxRetryDurationSeconds(5L);
+        properties.setStreams(List.of(stream));
+        buildHandler();
+    }
+
+    private void buildHandler() {
+        buildHandler(parkedRetryIndexMock);
+    }
+
+    private void buildHandler(final ParkedRetryIndex parkedRetryIndex) {
+        retryStreams = new RetryStreams(properties);
+        handler = new RetryService(kafkaClientMock, deadLetterPublisherMock, rateLimiterMock, parkedRetryIndex, retryBacklogMock, spillBufferMock, claimCheckMock, retryStreams,
+                new RetryObservations(new StaticListableBeanFactory(Map.of("observationRegistry", observationRegistry)).getBeanProvider(ObservationRegistry.class)),
+                new RetryClock(Clock.fixed(NOW, ZoneOffset.UTC)));
+    }
+
+    /**
+     * The first time an event is retried the original received timestamp and topic are taken from the Kafka headers,
+     * and the retry attempts header is initialised.
+     */
+    @Test
+    public void testRetry_firstAttempt() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic"));
+        handler.retry(PAYLOAD, headers);
+        verify(kafkaClientMock, times(1)).send("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1));
+    }
+
+    /**
+     * A subsequent retry retains the original received timestamp and increments the retry attempts.
+     */
+    @Test
+    public void testRetry_subsequentAttempt() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(20).toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic",
+                MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+        handler.retry(PAYLOAD, headers);
+        verify(kafkaClientMock, times(1)).send("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 3));
+    }
+
+    /**
+     * An event from an original topic with its own retry stream is sent to that stream's retry topic.
+     */
+    @Test
+    public void testRetry_dedicatedStream() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "other-topic"));
+        handler.retry(PAYLOAD, headers);
+        verify(kafkaClientMock, times(1)).send("other-retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "other-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1));
+    }
+
+    /**
+     * With lanes enabled a high priority event is sent to its stream's high priority retry topic, with the priority
+     * header so that the lane is kept on subsequent retries.
+     */
+    @Test
+    public void testRetry_priorityLane() {
+        properties.getLanes().setEnabled(true);
+        buildHandler();
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "other-topic"));
+        handler.retry(PAYLOAD, headers, null, RetryPriority.HIGH);
+        verify(kafkaClientMock, times(1)).send("other-retry-topic-high", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "other-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.RETRY_PRIORITY, "HIGH"));
+    }
+
+    /**
+     * When no priority is given it is taken from the priority header of the event, so an event keeps its lane across
+     * its retries.  Normal priority events keep the stream's retry topic and are sent without the header.
+     */
+    @Test
+    public void testRetry_priorityFromHeader() {
+        properties.getLanes().setEnabled(true);
+        buildHandler();
+        Long receivedTimestamp = NOW.toEpochMilli();
+        handler.retry(PAYLOAD, new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic",
+                MessagingRetryHeaders.RETRY_PRIORITY, "BULK".getBytes())));
+        handler.retry(PAYLOAD, new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic")));
+        verify(kafkaClientMock, times(1)).send("retry-topic-bulk", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.RETRY_PRIORITY, "BULK"));
+        verify(kafkaClientMock, times(1)).send("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1));
+    }
+
+    /**
+     * A high priority event takes its republish permit from the high priority lane, and is republished with its
+     * priority header.
+     */
+    @Test
+    public void testHandle_priorityLane() {
+        Long receivedTimestamp = NOW.minusSeconds(11).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(29).toEpochMilli();
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null, RetryPriority.HIGH, NOW.toEpochMilli());
+        verify(rateLimiterMock, times(1)).tryAcquire("my-topic", RetryPriority.HIGH);
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2,
+                        MessagingRetryHeaders.RETRY_PRIORITY, "HIGH"));
+    }
+
+    /**
+     * The send for retry is observed, tagged with the original topic and priority.
+     */
+    @Test
+    public void testRetry_observed() {
+        handler.retry(PAYLOAD, new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic")));
+
+        assertThat(observed.size(), equalTo(1));
+        assertThat(observed.get(0).getName(), equalTo(RetryObservations.RETRY));
+        assertThat(observed.get(0).getLowCardinalityKeyValue("original.topic").getValue(), equalTo("my-topic"));
+        assertThat(observed.get(0).getLowCardinalityKeyValue("priority").getValue(), equalTo("NORMAL"));
+        assertThat(observed.get(0).getHighCardinalityKeyValue("attempts").getValue(), equalTo("1"));
+    }
+
+    /**
+     * Each evaluation is observed, tagged with its outcome: republished, delayed, rate limited or dead lettered.  A
+     * delay is not an error.
+     */
+    @Test
+    public void testHandle_observedOutcome() {
+        handler.handle(PAYLOAD, NOW.minusSeconds(11).toEpochMilli(), NOW.minusSeconds(29).toEpochMilli(), "my-topic", 2, null);
+        assertThrows(RetryableMessagingException.class, () ->
+                handler.handle(PAYLOAD, NOW.minusSeconds(9).toEpochMilli(), NOW.minusSeconds(29).toEpochMilli(), "my-topic", 2, null));
+        when(rateLimiterMock.tryAcquire(any(), any())).thenReturn(false);
+        assertThrows(RetryableMessagingException.class, () ->
+                handler.handle(PAYLOAD, NOW.minusSeconds(11).toEpochMilli(), NOW.minusSeconds(29).toEpochMilli(), "my-topic", 2, null));
+        handler.handle(PAYLOAD, NOW.toEpochMilli(), NOW.minusSeconds(31).toEpochMilli(), "my-topic", 3, null);
+
+        assertThat(observed.stream().map(context -> context.getLowCardinalityKeyValue(RetryObservations.OUTCOME).getValue()).toList(),
+                equalTo(List.of("republished", "delayed", "rate-limited", "dead-lettered")));
+        assertThat(observed.stream().allMatch(context -> context.getError() == null), equalTo(true));
+    }
+
+    /**
+     * The other-topic retry stream retries for up to 5 seconds, with a retry interval of 2 seconds, so an event first
+     * received 6 seconds ago is discarded even though it is within the default stream's max retry duration.
+     */
+    @Test
+    public void testHandle_dedicatedStreamShouldDiscard() {
+        Long receivedTimestamp = NOW.minusSeconds(3).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(6).toEpochMilli();
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "other-topic", 2, null);
+        verifyNoInteractions(kafkaClientMock);
+        verify(deadLetterPublisherMock, times(1)).publish(eq(PAYLOAD), eq("other-topic"), eq(originalReceivedTimestamp), eq(2), any(), any());
+    }
+
+    /**
+     * The other-topic retry stream has a retry interval of 2 seconds, so an event last retried 3 seconds ago is retried
+     * even though it is within the default stream's retry interval.
+     */
+    @Test
+    public void testHandle_dedicatedStreamShouldRetry() {
+        Long receivedTimestamp = NOW.minusSeconds(3).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(4).toEpochMilli();
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "other-topic", 2, null);
+        verify(kafkaClientMock, times(1)).send("other-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+    }
+
+    /**
+     * An override of the retry settings takes effect from the next event: an event last retried 3 seconds ago is
+     * delayed with the configured 10 second interval, and retried once my-topic is overridden to 2 seconds.  The
+     * override also moves the event's next retry to the other-retry-topic.
+     */
+    @Test
+    public void testHandle_override() {
+        Long receivedTimestamp = NOW.minusSeconds(3).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(4).toEpochMilli();
+        assertThrows(RetryableMessagingException.class, () ->
+                handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null));
+
+        retryStreams.override("my-topic", new RetryOverride("other-retry-topic", 2L, null));
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null);
+        handler.retry(PAYLOAD, new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic")));
+
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+        verify(kafkaClientMock, times(1)).send(eq("other-retry-topic"), eq(PAYLOAD), any());
     }
 
     /**
      * Configuration is to retry for up to 30 seconds, with a retry interval of 10 seconds
      *
      * As the original received timestamp of the event (i.e. when it was first created) is 31 seconds ago the event
-     * should be discarded.
+     * should be discarded, by sending it to the dead letter topic.
      */
     @Test
     public void testHandle_shouldDiscard() {
-        Long receivedTimestamp = Instant.now().toEpochMilli();
-        Long originalReceivedTimestamp = Instant.now().minusSeconds(31).toEpochMilli();
-        handler.handle("my-payload", receivedTimestamp, originalReceivedTimestamp, "my-topic");
+        Long receivedTimestamp = NOW.toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(31).toEpochMilli();
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 3, null);
         verifyNoInteractions(kafkaClientMock);
+        verify(deadLetterPublisherMock, times(1)).publish(eq(PAYLOAD), eq("my-topic"), eq(originalReceivedTimestamp), eq(3), any(), any());
+        verify(retryBacklogMock, times(1)).recordDiscarded();
     }
 
     /**
@@ -52,10 +329,14 @@ public class RetryServiceTest {
      */
     @Test
     public void testHandle_shouldRetry() {
-        Long receivedTimestamp = Instant.now().minusSeconds(11).toEpochMilli();
-        Long originalReceivedTimestamp = Instant.now().minusSeconds(29).toEpochMilli();
-        handler.handle("my-payload", receivedTimestamp, originalReceivedTimestamp, "my-topic");
-        verify(kafkaClientMock, times(1)).sendMessage("my-topic", "my-payload", Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp));
+        Long receivedTimestamp = NOW.minusSeconds(11).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(29).toEpochMilli();
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null);
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+        verifyNoInteractions(deadLetterPublisherMock);
+        verify(retryBacklogMock, times(1)).recordRepublished();
     }
 
     /**
@@ -72,11 +353,456 @@ public class RetryServiceTest {
      */
     @Test
     public void testHandle_shouldDelayRetry() {
-        Long receivedTimestamp = Instant.now().minusSeconds(9).toEpochMilli();
-        Long originalReceivedTimestamp = Instant.now().minusSeconds(29).toEpochMilli();
+        Long receivedTimestamp = NOW.minusSeconds(9).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(29).toEpochMilli();
         assertThrows(RetryableMessagingException.class, () -> {
-            handler.handle("my-payload", receivedTimestamp, originalReceivedTimestamp, "my-topic");
+            handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null);
         });
         verifyNoInteractions(kafkaClientMock);
+        verifyNoInteractions(deadLetterPublisherMock);
+        verifyNoInteractions(retryBacklogMock);
+    }
+
+    /**
+     * The event is due a retry, but the republish rate limit for the original topic has been reached.
+     *
+     * A RetryableMessagingException should be thrown so that the event is re-polled and republished later.
+     */
+    @Test
+    public void testHandle_shouldDelayRetryWhenRateLimited() {
+        when(rateLimiterMock.tryAcquire("my-topic", RetryPriority.NORMAL)).thenReturn(false);
+        Long receivedTimestamp = NOW.minusSeconds(11).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(29).toEpochMilli();
+        assertThrows(RetryableMessagingException.class, () -> {
+            handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null);
+        });
+        verifyNoInteractions(kafkaClientMock);
+        verifyNoInteractions(deadLetterPublisherMock);
+    }
+
+    /**
+     * Configuration is to retry with a retry interval of 10 seconds.
+     *
+     * The event was last retried at 10.00.00, so evaluated as at 10.00.09 it is delayed, and evaluated as at 10.00.11
+     * it is retried, whatever the clock reads.
+     */
+    @Test
+    public void testHandle_evaluatedAsAtGivenTime() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        Long originalReceivedTimestamp = NOW.toEpochMilli();
+        assertThrows(RetryableMessagingException.class, () -> {
+            handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 1, null, NOW.plusSeconds(9).toEpochMilli());
+        });
+        verifyNoInteractions(kafkaClientMock);
+
+        handler.handle(PAYLOAD, receivedTimestamp, originalReceivedTimestamp, "my-topic", 1, null, NOW.plusSeconds(11).toEpochMilli());
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1));
+    }
+
+    /**
+     * The content type of the payload is carried through the retry topic and back on to the original topic, so that
+     * the payload can be decoded however it was encoded.
+     */
+    @Test
+    public void testRetryAndHandle_contentTypePropagated() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic",
+                MessagingRetryHeaders.CONTENT_TYPE, "application/x-binary"));
+        handler.retry(PAYLOAD, headers);
+        verify(kafkaClientMock, times(1)).send("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.CONTENT_TYPE, "application/x-binary"));
+
+        handler.handle(PAYLOAD, receivedTimestamp, receivedTimestamp, "my-topic", 1, "application/x-binary", NOW.plusSeconds(11).toEpochMilli());
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.CONTENT_TYPE, "application/x-binary"));
+    }
+
+    /**
+     * The retry key is sent as a header so that the parked event can be released by it.
+     */
+    @Test
+    public void testRetry_withRetryKey() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic"));
+        handler.retry(PAYLOAD, headers, "item-123");
+        verify(kafkaClientMock, times(1)).send("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.RETRY_KEY, "item-123"));
+    }
+
+    /**
+     * The async retry sends the same headers without waiting on the send, and its future fails if the send fails.
+     */
+    @Test
+    public void testRetryAsync() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic"));
+        Map<String, Object> retryHeaders = Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                MessagingRetryHeaders.RETRY_KEY, "item-123");
+        CompletableFuture<SendResult> sendFuture = new CompletableFuture<>();
+        when(kafkaClientMock.sendMessageAsync("retry-topic", PAYLOAD, retryHeaders)).thenReturn(sendFuture);
+
+        CompletableFuture<Void> retried = handler.retryAsync(PAYLOAD, headers, "item-123");
+
+        assertThat(retried.isDone(), equalTo(false));
+        sendFuture.completeExceptionally(new RuntimeException("Send failed"));
+        assertThat(retried.isCompletedExceptionally(), equalTo(true));
+        verify(kafkaClientMock, never()).send(any(), any(), any());
+    }
+
+    /**
+     * With the spill enabled the send waits up to the send timeout, and is not spilled if it succeeds.
+     */
+    @Test
+    public void testRetry_spillEnabled() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic"));
+
+        handler.retry(PAYLOAD, headers, "item-123");
+
+        verify(kafkaClientMock, times(1)).sendMessage(eq("retry-topic"), eq(PAYLOAD), any(), eq(5000L));
+        verify(spillBufferMock, never()).spill(any(), any(), any());
+    }
+
+    /**
+     * A send that fails because the broker cannot be reached is spilled rather than lost.
+     */
+    @Test
+    public void testRetry_spilledOnBrokerUnavailable() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        when(kafkaClientMock.sendMessage(eq("retry-topic"), eq(PAYLOAD), any(), eq(5000L)))
+                .thenThrow(new RuntimeException("Error sending message", new TimeoutException("Topic retry-topic not present in metadata")));
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic"));
+
+        handler.retry(PAYLOAD, headers, "item-123");
+
+        verify(spillBufferMock, times(1)).spill("retry-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.RETRY_KEY, "item-123"));
+    }
+
+    /**
+     * A send that fails because of the record itself is not spilled, as it would fail again.
+     */
+    @Test
+    public void testRetry_notSpilledOnNonRetriableFailure() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        when(kafkaClientMock.sendMessage(eq("retry-topic"), eq(PAYLOAD), any(), eq(5000L)))
+                .thenThrow(new RuntimeException("Error sending message", new RecordTooLargeException("Too large")));
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic"));
+
+        assertThrows(RuntimeException.class, () -> handler.retry(PAYLOAD, headers, "item-123"));
+
+        verify(spillBufferMock, never()).spill(any(), any(), any());
+    }
+
+    /**
+     * While there are spilled sends waiting the event is spilled behind them without trying the broker.
+     */
+    @Test
+    public void testRetry_spilling() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        when(spillBufferMock.spillIfSpilling(eq("retry-topic"), eq(PAYLOAD), any())).thenReturn(true);
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic"));
+
+        handler.retry(PAYLOAD, headers, "item-123");
+
+        verify(kafkaClientMock, never()).sendMessage(any(), any(), any(), any(Long.class));
+        verify(kafkaClientMock, never()).send(any(), any(), any());
+    }
+
+    /**
+     * In a Kafka transaction the send is part of the transaction, and a failure rolls it back rather than spilling.
+     */
+    @Test
+    public void testRetry_spillEnabledInTransaction() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        when(kafkaClientMock.inTransaction()).thenReturn(true);
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic"));
+
+        handler.retry(PAYLOAD, headers, "item-123");
+
+        verify(kafkaClientMock, times(1)).send(eq("retry-topic"), eq(PAYLOAD), any());
+        verify(spillBufferMock, never()).spillIfSpilling(any(), any(), any());
+    }
+
+    /**
+     * An async send that fails because the broker cannot be reached is spilled, and its future completes normally.
+     */
+    @Test
+    public void testRetryAsync_spilledOnBrokerUnavailable() {
+        when(spillBufferMock.isEnabled()).thenReturn(true);
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, NOW.toEpochMilli(), RECEIVED_TOPIC, "my-topic"));
+        CompletableFuture<SendResult> sendFuture = new CompletableFuture<>();
+        when(kafkaClientMock.sendMessageAsync(eq("retry-topic"), eq(PAYLOAD), any())).thenReturn(sendFuture);
+
+        CompletableFuture<Void> retried = handler.retryAsync(PAYLOAD, headers, "item-123");
+
+        sendFuture.completeExceptionally(new TimeoutException("Expiring 1 record(s)"));
+        assertThat(retried.isDone(), equalTo(true));
+        assertThat(retried.isCompletedExceptionally(), equalTo(false));
+        verify(spillBufferMock, times(1)).spill(eq("retry-topic"), eq(PAYLOAD), any());
+    }
+
+    /**
+     * The released events are republished to their original topics straight away, without the rate limit.
+     */
+    @Test
+    public void testRelease() {
+        Long originalReceivedTimestamp = NOW.toEpochMilli();
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of(new ParkedRetryIndex.ParkedRetry(
+                new ParkedRetryIndex.RecordId("retry-topic", 0, 10L), "item-123", PAYLOAD, originalReceivedTimestamp,
+                "my-topic", 2, "application/x-binary", RetryPriority.HIGH, null)));
+
+        assertThat(handler.release("item-123"), equalTo(1));
+
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2,
+                        MessagingRetryHeaders.CONTENT_TYPE, "application/x-binary",
+                        MessagingRetryHeaders.RETRY_PRIORITY, "HIGH"));
+        verifyNoInteractions(rateLimiterMock);
+        verify(parkedRetryIndexMock, times(1)).markReleased(new ParkedRetryIndex.RecordId("retry-topic", 0, 10L));
+    }
+
+    /**
+     * If the republish of a released event fails it is restored to the parked retry index rather than being marked as
+     * released, and the failure is not thrown to the caller.
+     */
+    @Test
+    public void testRelease_republishFailed() {
+        ParkedRetryIndex.ParkedRetry retry = new ParkedRetryIndex.ParkedRetry(new ParkedRetryIndex.RecordId("retry-topic", 0, 10L),
+                "item-123", PAYLOAD, NOW.toEpochMilli(), "my-topic", 2, null, RetryPriority.NORMAL, null);
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of(retry));
+        doThrow(new RuntimeException("Send failed")).when(kafkaClientMock).send(eq("my-topic"), eq(PAYLOAD), any());
+
+        assertThat(handler.release("item-123"), equalTo(0));
+
+        verify(parkedRetryIndexMock, times(1)).restore(retry);
+        verify(parkedRetryIndexMock, never()).markReleased(any());
+    }
+
+    /**
+     * With a real index, a released event whose republish failed is still evaluated when the retry consumer re-polls
+     * it, and can be released again.
+     */
+    @Test
+    public void testRelease_republishFailedEvaluatedOnRepoll() {
+        properties.getRelease().setEnabled(true);
+        ParkedRetryIndex parkedRetryIndex = new ParkedRetryIndex(properties);
+        buildHandler(parkedRetryIndex);
+        ParkedRetryIndex.RecordId id = new ParkedRetryIndex.RecordId("retry-topic", 0, 10L);
+        parkedRetryIndex.park(new ParkedRetryIndex.ParkedRetry(id, "item-123", PAYLOAD, NOW.toEpochMilli(), "my-topic", 2,
+                null, RetryPriority.NORMAL, null));
+        doThrow(new RuntimeException("Send failed")).when(kafkaClientMock).send(eq("my-topic"), eq(PAYLOAD), any());
+
+        assertThat(handler.release("item-123"), equalTo(0));
+
+        assertThat(parkedRetryIndex.isParked("item-123"), equalTo(true));
+        assertThat(parkedRetryIndex.claim(id), equalTo(true));
+    }
+
+    /**
+     * If the caller is in a transaction, the released event is only marked as released once it commits, and is
+     * restored to the index if it is rolled back.
+     */
+    @Test
+    public void testRelease_inTransaction() {
+        ParkedRetryIndex.ParkedRetry committed = new ParkedRetryIndex.ParkedRetry(new ParkedRetryIndex.RecordId("retry-topic", 0, 10L),
+                "item-123", PAYLOAD, NOW.toEpochMilli(), "my-topic", 2, null, RetryPriority.NORMAL, null);
+        ParkedRetryIndex.ParkedRetry rolledBack = new ParkedRetryIndex.ParkedRetry(new ParkedRetryIndex.RecordId("retry-topic", 0, 11L),
+                "item-456", PAYLOAD, NOW.toEpochMilli(), "my-topic", 2, null, RetryPriority.NORMAL, null);
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of(committed));
+        when(parkedRetryIndexMock.release("item-456")).thenReturn(List.of(rolledBack));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            handler.release("item-123");
+            verify(parkedRetryIndexMock, never()).markReleased(any());
+            TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            handler.release("item-456");
+            TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(parkedRetryIndexMock, times(1)).markReleased(committed.id());
+        verify(parkedRetryIndexMock, times(1)).restore(rolledBack);
+        verify(parkedRetryIndexMock, never()).restore(committed);
+    }
+
+    /**
+     * A released event that has exceeded the max retry duration is sent to the dead letter topic instead.
+     */
+    @Test
+    public void testRelease_exceededMaxRetryDuration() {
+        Long originalReceivedTimestamp = NOW.minusSeconds(31).toEpochMilli();
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of(new ParkedRetryIndex.ParkedRetry(
+                new ParkedRetryIndex.RecordId("retry-topic", 0, 10L), "item-123", PAYLOAD, originalReceivedTimestamp,
+                "my-topic", 2, null, RetryPriority.NORMAL, null)));
+
+        assertThat(handler.release("item-123"), equalTo(1));
+
+        verifyNoInteractions(kafkaClientMock);
+        verify(deadLetterPublisherMock, times(1)).publish(eq(PAYLOAD), eq("my-topic"), eq(originalReceivedTimestamp), eq(2), any(), any());
+        verify(retryBacklogMock, times(1)).recordDiscarded();
+    }
+
+    @Test
+    public void testRelease_nothingParked() {
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of());
+
+        assertThat(handler.release("item-123"), equalTo(0));
+
+        verifyNoInteractions(kafkaClientMock);
+    }
+
+    /**
+     * A claim checked payload is stored, and an empty payload is sent to the retry topic with the reference to it.
+     */
+    @Test
+    public void testRetry_claimCheck() {
+        Long receivedTimestamp = NOW.toEpochMilli();
+        MessageHeaders headers = new MessageHeaders(Map.of(RECEIVED_TIMESTAMP, receivedTimestamp, RECEIVED_TOPIC, "my-topic"));
+        when(claimCheckMock.checkIn(PAYLOAD)).thenReturn("claim-1");
+
+        handler.retry(PAYLOAD, headers);
+
+        verify(kafkaClientMock, times(1)).send("retry-topic", new byte[0],
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, receivedTimestamp,
+                        MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC, "my-topic",
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 1,
+                        MessagingRetryHeaders.CLAIM_CHECK, "claim-1"));
+    }
+
+    /**
+     * A claim checked event that is due a retry is republished with its stored payload, which is then released.
+     */
+    @Test
+    public void testHandle_claimCheckRepublished() {
+        Long receivedTimestamp = NOW.minusSeconds(11).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(20).toEpochMilli();
+        when(claimCheckMock.checkOut("claim-1")).thenReturn(PAYLOAD);
+
+        handler.handle(new byte[0], receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+        verify(claimCheckMock, times(1)).release("claim-1");
+    }
+
+    /**
+     * A claim checked event that is not yet due a retry is delayed without fetching its payload.
+     */
+    @Test
+    public void testHandle_claimCheckDelayed() {
+        Long receivedTimestamp = NOW.minusSeconds(5).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(5).toEpochMilli();
+
+        assertThrows(RetryableMessagingException.class, () ->
+            handler.handle(new byte[0], receivedTimestamp, originalReceivedTimestamp, "my-topic", 1, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli()));
+
+        verify(claimCheckMock, never()).checkOut(any());
+    }
+
+    /**
+     * A claim checked event that has exceeded the max retry duration is dead lettered with its stored payload.
+     */
+    @Test
+    public void testHandle_claimCheckDeadLettered() {
+        Long originalReceivedTimestamp = NOW.minusSeconds(31).toEpochMilli();
+        when(claimCheckMock.checkOut("claim-1")).thenReturn(PAYLOAD);
+
+        handler.handle(new byte[0], originalReceivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        verify(deadLetterPublisherMock, times(1)).publish(eq(PAYLOAD), eq("my-topic"), eq(originalReceivedTimestamp), eq(2), any(), any());
+        verify(claimCheckMock, times(1)).release("claim-1");
+    }
+
+    /**
+     * The stored payload of a claim checked event is kept if its dead letter is not written, as the event is then
+     * redelivered from the retry topic.
+     */
+    @Test
+    public void testHandle_claimCheckDeadLetterFailed() {
+        Long originalReceivedTimestamp = NOW.minusSeconds(31).toEpochMilli();
+        when(claimCheckMock.checkOut("claim-1")).thenReturn(PAYLOAD);
+        when(deadLetterPublisherMock.publish(any(), any(), any(), any(), any(), any())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Failed")));
+
+        handler.handle(new byte[0], originalReceivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        verify(claimCheckMock, never()).release(any());
+    }
+
+    /**
+     * A claim checked event whose payload is no longer stored is dead lettered with the reference to the payload, rather
+     * than dropped, so that the loss is recorded.
+     */
+    @Test
+    public void testHandle_claimCheckNoLongerStored() {
+        Long receivedTimestamp = NOW.minusSeconds(11).toEpochMilli();
+        Long originalReceivedTimestamp = NOW.minusSeconds(20).toEpochMilli();
+
+        handler.handle(new byte[0], receivedTimestamp, originalReceivedTimestamp, "my-topic", 2, "application/json", RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        verifyNoInteractions(kafkaClientMock);
+        verify(deadLetterPublisherMock, times(1)).publish(new byte[0], "my-topic", originalReceivedTimestamp, 2, "application/json",
+                "Claim checked payload claim-1 is no longer stored", "claim-1");
+        verify(retryBacklogMock, times(1)).recordDiscarded();
+        verify(claimCheckMock, never()).release(any());
+    }
+
+    /**
+     * An expired claim checked event whose payload is no longer stored is likewise dead lettered with the reference.
+     */
+    @Test
+    public void testHandle_claimCheckNoLongerStoredExpired() {
+        Long originalReceivedTimestamp = NOW.minusSeconds(31).toEpochMilli();
+
+        handler.handle(new byte[0], originalReceivedTimestamp, originalReceivedTimestamp, "my-topic", 2, null, RetryPriority.NORMAL, "claim-1", NOW.toEpochMilli());
+
+        verify(deadLetterPublisherMock, times(1)).publish(new byte[0], "my-topic", originalReceivedTimestamp, 2, null,
+                "Claim checked payload claim-1 is no longer stored", "claim-1");
+        verify(deadLetterPublisherMock, never()).publish(any(), any(), any(), any(), any(), any());
+        verify(claimCheckMock, never()).release(any());
+    }
+
+    /**
+     * A released claim checked event is republished with its stored payload.
+     */
+    @Test
+    public void testRelease_claimCheck() {
+        Long originalReceivedTimestamp = NOW.toEpochMilli();
+        when(parkedRetryIndexMock.release("item-123")).thenReturn(List.of(new ParkedRetryIndex.ParkedRetry(
+                new ParkedRetryIndex.RecordId("retry-topic", 0, 10L), "item-123", new byte[0], originalReceivedTimestamp,
+                "my-topic", 2, null, RetryPriority.NORMAL, "claim-1")));
+        when(claimCheckMock.checkOut("claim-1")).thenReturn(PAYLOAD);
+
+        handler.release("item-123");
+
+        verify(kafkaClientMock, times(1)).send("my-topic", PAYLOAD,
+                Map.of(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp,
+                        MessagingRetryHeaders.RETRY_ATTEMPTS, 2));
+        verify(claimCheckMock, times(1)).release("claim-1");
     }
 }
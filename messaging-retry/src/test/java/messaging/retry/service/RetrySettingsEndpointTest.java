@@ -0,0 +1,61 @@
+package messaging.retry.service;
+
+import messaging.retry.MessagingRetryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RetrySettingsEndpointTest {
+
+    private RetryStreams retryStreams;
+    private RetrySettingsEndpoint endpoint;
+
+    @BeforeEach
+    public void setUp() {
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.setTopic("retry-topic");
+        properties.setRetryIntervalSeconds(10L);
+        properties.setMaxRetryDurationSeconds(300L);
+        retryStreams = new RetryStreams(properties);
+        endpoint = new RetrySettingsEndpoint(retryStreams);
+    }
+
+    /**
+     * A stream's retry interval and max retry duration are changed, and an original topic's settings overridden.
+     */
+    @Test
+    public void testUpdate() {
+        assertThat(endpoint.update("stream", "retry-topic", null, 5L, null), equalTo(new RetryStream("retry-topic", 5L, 300L, 1)));
+        assertThat(endpoint.update("topic", "my-topic", null, null, 60L), equalTo(new RetryStream("retry-topic", 5L, 60L, 1)));
+        assertThat(retryStreams.forOriginalTopic("my-topic").maxRetryDurationSeconds(), equalTo(60L));
+    }
+
+    /**
+     * A stream's retry topic cannot be changed, which is reported as such rather than as an unknown scope.
+     */
+    @Test
+    public void testUpdate_StreamRetryTopic() {
+        InvalidEndpointRequestException exception = assertThrows(InvalidEndpointRequestException.class,
+                () -> endpoint.update("stream", "retry-topic", "other-retry-topic", 5L, null));
+
+        assertThat(exception.getReason(), containsString("retryTopic of a stream cannot be changed"));
+        assertThat(retryStreams.forOriginalTopic("my-topic").retryIntervalSeconds(), equalTo(10L));
+    }
+
+    /**
+     * An unknown scope, or an invalid setting, is a bad request.
+     */
+    @Test
+    public void testUpdate_Invalid() {
+        InvalidEndpointRequestException exception = assertThrows(InvalidEndpointRequestException.class,
+                () -> endpoint.update("partition", "retry-topic", null, 5L, null));
+        assertThat(exception.getReason(), containsString("not partition"));
+
+        assertThrows(InvalidEndpointRequestException.class, () -> endpoint.update("topic", "my-topic", "unknown-retry", null, null));
+    }
+}
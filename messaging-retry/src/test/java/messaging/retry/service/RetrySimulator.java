@@ -0,0 +1,425 @@
+package messaging.retry.service;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import io.micrometer.observation.ObservationRegistry;
+import messaging.retry.MessagingRetryProperties;
+import messaging.retry.consumer.RetryConsumer;
+import messaging.retry.exception.RetryableMessagingException;
+import messaging.retry.lib.ClaimCheck;
+import messaging.retry.lib.DeadLetterPublisher;
+import messaging.retry.lib.MessagingRetryHeaders;
+import messaging.retry.lib.MessagingRetryKafkaClient;
+import messaging.retry.lib.RetryClock;
+import messaging.retry.lib.RetryObservations;
+import messaging.retry.lib.RetrySpillBuffer;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.messaging.MessageHeaders;
+
+import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TIMESTAMP;
+import static org.springframework.kafka.support.KafkaHeaders.RECEIVED_TOPIC;
+
+/**
+ * A deterministic discrete event simulation of the retry engine, for evaluating retry interval, max retry duration and
+ * republish rate settings against hours of traffic in seconds, without a broker or any real waiting.
+ *
+ * The real RetryService makes every retry decision, and the real RepublishRateLimiter limits the republishes, both
+ * against a virtual clock.  The broker and the consumers are modelled:
+ *
+ * The original topic consumer processes each event as it is delivered, and sends it for retry with RetryService.retry
+ * if what it depends on is not yet ready, as the demo update item consumer does.
+ *
+ * Each retry topic partition is consumed as the RetryConsumer consumes it: a poll of up to maxPollRecords is evaluated
+ * with RetryService.handle as at the time of the poll, and the first record that is not yet due, or is held back by the
+ * rate limit, is re-polled along with those after it once the re-poll delay has passed.  An idle partition is polled
+ * as soon as a record reaches it.
+ *
+ * Every send is consumed after the broker latency.  The simulation is single threaded, and the steps at the same time
+ * are taken in the order they were scheduled, so a scenario always gives the same report.
+ *
+ * Events arrive for the scenario's duration, after which the run continues until every event has been applied or
+ * discarded.  Priority lanes, parked retry release, the spill and the claim check are not simulated.
+ *
+ * mvn -Psimulation test-compile exec:exec -Dsimulation="eventsPerSecond=200 retryIntervalSeconds=5"
+ */
+public class RetrySimulator {
+
+    static final String ORIGINAL_TOPIC = "simulated-topic";
+
+    static final String RETRY_TOPIC = "simulated-topic-retry";
+
+    private static final long START_MILLIS = Instant.parse("2023-03-01T00:00:00Z").toEpochMilli();
+
+    private static final long REPOLL_DELAY_MS = RetryConsumer.REPOLL_DELAY.toMillis();
+
+    private enum StepType {
+        ARRIVAL, DELIVERY, POLL
+    }
+
+    /**
+     * A step of the simulation, taken at its time, with the event it is for or the partition it polls.  A delivery of a
+     * republished event carries its retry headers.
+     */
+    private record Step(long time, long sequence, StepType type, int eventId, int partition,
+                        Long originalReceivedTimestamp, Integer attempts) implements Comparable<Step> {
+
+        @Override
+        public int compareTo(final Step other) {
+            final int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * A record on a retry topic partition.
+     */
+    private record RetryRecord(int eventId, long timestamp, Long originalReceivedTimestamp, String originalTopic, Integer attempts) {
+    }
+
+    private static class Partition {
+
+        private final int index;
+
+        private final ArrayDeque<RetryRecord> records = new ArrayDeque<>();
+
+        /**
+         * Whether the consumer is waiting for records, rather than having a poll scheduled.
+         */
+        private boolean idle = true;
+
+        private Partition(final int index) {
+            this.index = index;
+        }
+    }
+
+    private final SimulationScenario scenario;
+
+    private final Random random;
+
+    private final VirtualClock clock;
+
+    private final RetryService retryService;
+
+    private final long retryIntervalMs;
+
+    private final long endMillis;
+
+    private final PriorityQueue<Step> steps = new PriorityQueue<>();
+
+    private final Partition[] partitions;
+
+    private long sequence;
+
+    private int events;
+
+    /**
+     * The time of the next arrival, kept to a fraction of a millisecond so that the arrival rate is not skewed by
+     * rounding each gap.
+     */
+    private double nextArrival = START_MILLIS;
+
+    /**
+     * The time each event arrived, and the time what it depends on is ready, indexed by event id.
+     */
+    private long[] arrivedAt = new long[1024];
+
+    private long[] readyAt = new long[1024];
+
+    /**
+     * The retry topic record being evaluated, whose republish is measured against its due time.
+     */
+    private RetryRecord handling;
+
+    private long succeededFirstTime;
+
+    private long succeededAfterRetry;
+
+    private long discarded;
+
+    private long retrySends;
+
+    private long republishes;
+
+    private long retryTopicRecordsRead;
+
+    private long retryTopicDepth;
+
+    private long peakRetryTopicDepth;
+
+    private final long[] republishesBySecond;
+
+    private final Histogram delayError;
+
+    private final Histogram retriedLatency;
+
+    public RetrySimulator(final SimulationScenario scenario) {
+        this.scenario = scenario;
+        this.random = new Random(scenario.getSeed());
+        this.clock = new VirtualClock(START_MILLIS);
+        this.retryIntervalMs = scenario.getRetryIntervalSeconds() * 1000;
+        // Nothing is retried beyond the max retry duration after the last arrival, so the run ends by then.
+        this.endMillis = START_MILLIS + scenario.getDurationMs() + 2 * (scenario.getMaxRetryDurationSeconds() * 1000 + retryIntervalMs);
+        this.partitions = new Partition[scenario.getPartitions()];
+        for(int index = 0; index < partitions.length; index++) {
+            partitions[index] = new Partition(index);
+        }
+        this.republishesBySecond = new long[(int)((endMillis - START_MILLIS) / 1000) + 1];
+        this.delayError = new Histogram(60_000);
+        this.retriedLatency = new Histogram((int)Math.min(Integer.MAX_VALUE - 1, scenario.getMaxRetryDurationSeconds() * 1000 + retryIntervalMs * 2));
+
+        final MessagingRetryProperties properties = new MessagingRetryProperties();
+        properties.setTopic(RETRY_TOPIC);
+        properties.setRetryIntervalSeconds(scenario.getRetryIntervalSeconds());
+        properties.setMaxRetryDurationSeconds(scenario.getMaxRetryDurationSeconds());
+        final SimulatedKafkaClient kafkaClient = new SimulatedKafkaClient();
+        final RetryObservations observations = new RetryObservations(new StaticListableBeanFactory().getBeanProvider(ObservationRegistry.class));
+        // The rate limiter never waits for a permit, as that would park the thread in real time: a republish it holds
+        // back is re-polled after the re-poll delay instead.
+        final MessagingRetryProperties.RateLimit rateLimit = new MessagingRetryProperties.RateLimit();
+        rateLimit.setEnabled(scenario.getRepublishRatePerSecond() > 0);
+        rateLimit.setRatePerSecond(Math.max(scenario.getRepublishRatePerSecond(), 1));
+        rateLimit.setBurst(scenario.getRepublishBurst());
+        rateLimit.setMaxWaitMs(0);
+        final RepublishRateLimiter rateLimiter = new RepublishRateLimiter(null, rateLimit, clock::nanoTime);
+        this.retryService = new RetryService(kafkaClient, new SimulatedDeadLetterPublisher(kafkaClient), rateLimiter,
+                new ParkedRetryIndex(properties), new RetryBacklog(new RetryClock(clock)), new RetrySpillBuffer(kafkaClient, properties, observations),
+                new ClaimCheck(properties, null), new RetryStreams(properties),
+                observations, new RetryClock(clock));
+    }
+
+    public SimulationReport run() {
+        final Logger retryLogger = (Logger)LoggerFactory.getLogger("messaging.retry");
+        final Level level = retryLogger.getLevel();
+        // The per record debug logging would otherwise take far longer than the simulation itself.
+        retryLogger.setLevel(Level.INFO);
+        final long wallStart = System.nanoTime();
+        try {
+            schedule(START_MILLIS, StepType.ARRIVAL, -1, -1, null, null);
+            while(!steps.isEmpty() && steps.peek().time() <= endMillis) {
+                final Step step = steps.poll();
+                clock.advanceTo(step.time());
+                switch(step.type()) {
+                    case ARRIVAL -> arrive(step.time());
+                    case DELIVERY -> deliver(step.eventId(), step.time(), step.originalReceivedTimestamp(), step.attempts());
+                    case POLL -> poll(partitions[step.partition()], step.time());
+                }
+            }
+        } finally {
+            retryLogger.setLevel(level);
+        }
+        return report((System.nanoTime() - wallStart) / 1_000_000);
+    }
+
+    private void schedule(final long time, final StepType type, final int eventId, final int partition,
+                          final Long originalReceivedTimestamp, final Integer attempts) {
+        steps.add(new Step(time, sequence++, type, eventId, partition, originalReceivedTimestamp, attempts));
+    }
+
+    /**
+     * A new event arrives on the original topic, and the next arrival is scheduled after an exponentially distributed
+     * gap, so that the arrivals are a Poisson process.
+     */
+    private void arrive(final long now) {
+        final int eventId = events++;
+        if(eventId == arrivedAt.length) {
+            arrivedAt = Arrays.copyOf(arrivedAt, eventId * 2);
+            readyAt = Arrays.copyOf(readyAt, eventId * 2);
+        }
+        arrivedAt[eventId] = now;
+        long ready = random.nextDouble() < scenario.getRetryFraction() ? now + (long)exponential(scenario.getMeanDependencyDelayMs()) : now;
+        final long sinceStart = now - START_MILLIS;
+        if(sinceStart >= scenario.getOutageStartMs() && sinceStart < scenario.getOutageEndMs()) {
+            ready = Math.max(ready, START_MILLIS + scenario.getOutageEndMs());
+        }
+        readyAt[eventId] = ready;
+        deliver(eventId, now, null, null);
+
+        nextArrival += exponential(1000 / scenario.getEventsPerSecond());
+        if(nextArrival < START_MILLIS + scenario.getDurationMs()) {
+            schedule((long)nextArrival, StepType.ARRIVAL, -1, -1, null, null);
+        }
+    }
+
+    private double exponential(final double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    /**
+     * The original topic consumer processes the event, sending it for retry if what it depends on is not yet ready.
+     */
+    private void deliver(final int eventId, final long now, final Long originalReceivedTimestamp, final Integer attempts) {
+        if(now >= readyAt[eventId]) {
+            if(attempts == null) {
+                succeededFirstTime++;
+            } else {
+                succeededAfterRetry++;
+                retriedLatency.record(now - arrivedAt[eventId]);
+            }
+            return;
+        }
+        final Map<String, Object> headers = new HashMap<>();
+        headers.put(RECEIVED_TIMESTAMP, now);
+        headers.put(RECEIVED_TOPIC, ORIGINAL_TOPIC);
+        if(originalReceivedTimestamp != null) {
+            headers.put(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP, originalReceivedTimestamp);
+            headers.put(MessagingRetryHeaders.RETRY_ATTEMPTS, attempts);
+        }
+        retryService.retry(payload(eventId), new MessageHeaders(headers));
+    }
+
+    /**
+     * The retry consumer polls the partition, evaluating the records as at the time of the poll until one is not yet
+     * due, which is re-polled with those after it once the re-poll delay has passed.
+     */
+    private void poll(final Partition partition, final long now) {
+        final int polled = Math.min(partition.records.size(), scenario.getMaxPollRecords());
+        retryTopicRecordsRead += polled;
+        for(int index = 0; index < polled; index++) {
+            final RetryRecord record = partition.records.peekFirst();
+            handling = record;
+            try {
+                retryService.handle(payload(record.eventId()), record.timestamp(), record.originalReceivedTimestamp(),
+                        record.originalTopic(), record.attempts(), null, RetryPriority.NORMAL, null, now);
+            } catch (RetryableMessagingException e) {
+                schedule(now + REPOLL_DELAY_MS, StepType.POLL, -1, partition.index, null, null);
+                return;
+            }
+            partition.records.pollFirst();
+            retryTopicDepth--;
+        }
+        if(partition.records.isEmpty()) {
+            partition.idle = true;
+        } else {
+            schedule(now, StepType.POLL, -1, partition.index, null, null);
+        }
+    }
+
+    private static byte[] payload(final int eventId) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(eventId).array();
+    }
+
+    private static int eventId(final byte[] payload) {
+        return ByteBuffer.wrap(payload).getInt();
+    }
+
+    private SimulationReport report(final long wallMs) {
+        final long[] activeSeconds = Arrays.stream(republishesBySecond).filter(count -> count > 0).sorted().toArray();
+        final long peak = activeSeconds.length == 0 ? 0 : activeSeconds[activeSeconds.length - 1];
+        final long p99 = activeSeconds.length == 0 ? 0 : activeSeconds[(int)Math.ceil(0.99 * activeSeconds.length) - 1];
+        return new SimulationReport(clock.millis() - START_MILLIS, wallMs, events, succeededFirstTime, succeededAfterRetry,
+                discarded, events - succeededFirstTime - succeededAfterRetry - discarded, retrySends, republishes,
+                retryTopicRecordsRead, peakRetryTopicDepth, peak, p99, delayError.mean(), delayError.percentile(0.99),
+                delayError.max(), retriedLatency.percentile(0.5), retriedLatency.percentile(0.99));
+    }
+
+    /**
+     * Models the broker: a send to the retry topic is appended to its partition, and a republish is delivered to the
+     * original topic consumer, each after the broker latency.
+     */
+    private class SimulatedKafkaClient extends MessagingRetryKafkaClient {
+
+        private SimulatedKafkaClient() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public void send(final String topic, final byte[] data, final Map<String, Object> headers) {
+            final long now = clock.millis();
+            final int eventId = eventId(data);
+            if(RETRY_TOPIC.equals(topic)) {
+                retrySends++;
+                final Partition partition = partitions[eventId % partitions.length];
+                partition.records.addLast(new RetryRecord(eventId, now,
+                        (Long)headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP),
+                        (String)headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TOPIC),
+                        (Integer)headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS)));
+                peakRetryTopicDepth = Math.max(peakRetryTopicDepth, ++retryTopicDepth);
+                if(partition.idle) {
+                    partition.idle = false;
+                    schedule(now + scenario.getBrokerLatencyMs(), StepType.POLL, -1, partition.index, null, null);
+                }
+            } else {
+                republishes++;
+                republishesBySecond[(int)((now - START_MILLIS) / 1000)]++;
+                delayError.record(now - (handling.timestamp() + retryIntervalMs));
+                schedule(now + scenario.getBrokerLatencyMs(), StepType.DELIVERY, eventId, -1,
+                        (Long)headers.get(MessagingRetryHeaders.ORIGINAL_RECEIVED_TIMESTAMP),
+                        (Integer)headers.get(MessagingRetryHeaders.RETRY_ATTEMPTS));
+            }
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return false;
+        }
+    }
+
+    private class SimulatedDeadLetterPublisher extends DeadLetterPublisher {
+
+        private SimulatedDeadLetterPublisher(final MessagingRetryKafkaClient kafkaClient) {
+            super(kafkaClient, deadLetterProperties(), new RetryClock(clock));
+        }
+
+        private static MessagingRetryProperties deadLetterProperties() {
+            final MessagingRetryProperties properties = new MessagingRetryProperties();
+            properties.getDeadLetter().setTopic("simulated-dlt");
+            properties.getDeadLetter().setBatchSize(1);
+            properties.getDeadLetter().setLingerMs(0);
+            properties.getDeadLetter().setQueueCapacity(1);
+            return properties;
+        }
+
+        @Override
+        public CompletableFuture<Void> publish(final byte[] payload, final String originalTopic, final Long originalReceivedTimestamp,
+                                               final Integer attempts, final String contentType, final String lastError) {
+            discarded++;
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Runs the default scenario, with any of its settings overridden by name=value arguments, and prints the report.
+     */
+    public static void main(final String[] args) {
+        final SimulationScenario.SimulationScenarioBuilder scenario = SimulationScenario.builder();
+        for(String arg : String.join(" ", args).trim().split("\\s+")) {
+            if(arg.isEmpty()) {
+                continue;
+            }
+            final String[] setting = arg.split("=", 2);
+            if(setting.length != 2) {
+                throw new IllegalArgumentException("Expected name=value but was: " + arg);
+            }
+            final String value = setting[1];
+            switch(setting[0]) {
+                case "durationMs" -> scenario.durationMs(Long.parseLong(value));
+                case "eventsPerSecond" -> scenario.eventsPerSecond(Double.parseDouble(value));
+                case "retryFraction" -> scenario.retryFraction(Double.parseDouble(value));
+                case "meanDependencyDelayMs" -> scenario.meanDependencyDelayMs(Long.parseLong(value));
+                case "outageStartMs" -> scenario.outageStartMs(Long.parseLong(value));
+                case "outageEndMs" -> scenario.outageEndMs(Long.parseLong(value));
+                case "retryIntervalSeconds" -> scenario.retryIntervalSeconds(Long.parseLong(value));
+                case "maxRetryDurationSeconds" -> scenario.maxRetryDurationSeconds(Long.parseLong(value));
+                case "partitions" -> scenario.partitions(Integer.parseInt(value));
+                case "maxPollRecords" -> scenario.maxPollRecords(Integer.parseInt(value));
+                case "brokerLatencyMs" -> scenario.brokerLatencyMs(Long.parseLong(value));
+                case "republishRatePerSecond" -> scenario.republishRatePerSecond(Double.parseDouble(value));
+                case "republishBurst" -> scenario.republishBurst(Double.parseDouble(value));
+                case "seed" -> scenario.seed(Long.parseLong(value));
+                default -> throw new IllegalArgumentException("Unknown scenario setting: " + setting[0]);
+            }
+        }
+        System.out.println(new RetrySimulator(scenario.build()).run().format());
+    }
+}
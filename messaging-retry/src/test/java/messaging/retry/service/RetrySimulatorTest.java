@@ -0,0 +1,106 @@
+package messaging.retry.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetrySimulatorTest {
+
+    /**
+     * Two simulated hours of the default scenario run in seconds, and every event is either applied or discarded once
+     * the run has drained.
+     */
+    @Test
+    public void testDefaultScenario() {
+        final SimulationReport report = new RetrySimulator(SimulationScenario.builder().build()).run();
+
+        assertThat(report.wallMs(), lessThan(report.simulatedMs() / 100));
+        assertThat((double)report.events(), closeTo(2 * 60 * 60 * 50, 2000));
+        assertThat(report.inFlight(), equalTo(0L));
+        assertThat(report.succeededFirstTime() + report.succeededAfterRetry() + report.discarded(), equalTo(report.events()));
+        assertThat(report.succeededAfterRetry(), greaterThan(0L));
+        assertThat(report.republishes(), equalTo(report.retrySends() - report.discarded()));
+    }
+
+    /**
+     * The same scenario always gives the same report.
+     */
+    @Test
+    public void testDeterministic() {
+        final SimulationScenario scenario = SimulationScenario.builder().durationMs(10 * 60 * 1000L).build();
+
+        final SimulationReport first = new RetrySimulator(scenario).run();
+        final SimulationReport second = new RetrySimulator(scenario).run();
+
+        assertThat(second.events(), equalTo(first.events()));
+        assertThat(second.retrySends(), equalTo(first.retrySends()));
+        assertThat(second.republishes(), equalTo(first.republishes()));
+        assertThat(second.discarded(), equalTo(first.discarded()));
+        assertThat(second.p99DelayErrorMs(), equalTo(first.p99DelayErrorMs()));
+        assertThat(second.retryTopicRecordsRead(), equalTo(first.retryTopicRecordsRead()));
+    }
+
+    /**
+     * Without a rate limit an event is republished within the re-poll delay of its retry interval expiring, plus the
+     * broker latency of the poll that woke the consumer.
+     */
+    @Test
+    public void testDelayError() {
+        final SimulationReport report = new RetrySimulator(SimulationScenario.builder().durationMs(30 * 60 * 1000L).build()).run();
+
+        assertThat(report.maxDelayErrorMs(), lessThanOrEqualTo(1000L + 5));
+        assertThat(report.meanDelayErrorMs(), greaterThan(0.0));
+    }
+
+    /**
+     * Events waiting far longer than the max retry duration are discarded, having been retried every interval until
+     * then.
+     */
+    @Test
+    public void testDiscardRate() {
+        final SimulationReport report = new RetrySimulator(SimulationScenario.builder()
+                .durationMs(30 * 60 * 1000L)
+                .retryFraction(0.5)
+                .meanDependencyDelayMs(60 * 60 * 1000L)
+                .retryIntervalSeconds(10)
+                .maxRetryDurationSeconds(60)
+                .build()).run();
+
+        assertThat(report.discardRate(), closeTo(0.5, 0.05));
+        // Each discarded event is sent for retry six or seven times before it is discarded.
+        assertThat((double)report.retrySends() / report.discarded(), closeTo(6.5, 1.0));
+    }
+
+    /**
+     * When an outage clears, every event that arrived during it is republished as soon as it is next due.  The rate
+     * limit caps the burst at the rate plus the bucket's burst in any second, at the cost of a greater delay error.
+     * The simulated events are all in the normal lane, whose bucket has 3 of the 10 lane weights of the burst, so 100.
+     */
+    @Test
+    public void testRateLimitCapsRepublishBurst() {
+        final SimulationScenario outage = SimulationScenario.builder()
+                .durationMs(30 * 60 * 1000L)
+                .eventsPerSecond(200)
+                .retryFraction(0)
+                .outageStartMs(5 * 60 * 1000L)
+                .outageEndMs(10 * 60 * 1000L)
+                .maxRetryDurationSeconds(1800)
+                .build();
+
+        final SimulationReport unlimited = new RetrySimulator(outage).run();
+        final SimulationReport limited = new RetrySimulator(outage.toBuilder()
+                .republishRatePerSecond(500)
+                .republishBurst(334)
+                .build()).run();
+
+        assertThat(unlimited.peakRepublishesPerSecond(), greaterThan(600L));
+        assertThat(limited.peakRepublishesPerSecond(), lessThanOrEqualTo(600L));
+        assertThat(limited.maxDelayErrorMs(), greaterThan(unlimited.maxDelayErrorMs()));
+        assertThat(limited.discarded(), equalTo(0L));
+    }
+}
@@ -0,0 +1,169 @@
+package messaging.retry.service;
+
+import java.util.List;
+import java.util.Map;
+
+import messaging.retry.MessagingRetryProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RetryStreamsTest {
+
+    private MessagingRetryProperties properties;
+
+    @BeforeEach
+    public void setUp() {
+        properties = new MessagingRetryProperties();
+        properties.setTopic("retry-topic");
+        properties.setRetryIntervalSeconds(10L);
+        properties.setMaxRetryDurationSeconds(300L);
+    }
+
+    /**
+     * A stream's settings that are not configured are taken from the default stream.
+     */
+    @Test
+    public void testStreams_InheritDefaults() {
+        properties.setConcurrency(2);
+        properties.setStreams(List.of(buildStream("update-retry", 5L, null, null, "update-item"),
+                buildStream("create-retry", null, 60L, 4, "create-item", "delete-item")));
+
+        RetryStreams streams = new RetryStreams(properties);
+
+        RetryStream defaultStream = new RetryStream("retry-topic", 10L, 300L, 2);
+        RetryStream updateStream = new RetryStream("update-retry", 5L, 300L, 2);
+        RetryStream createStream = new RetryStream("create-retry", 10L, 60L, 4);
+        assertThat(streams.getStreams(), contains(defaultStream, updateStream, createStream));
+        assertThat(streams.forOriginalTopic("update-item"), equalTo(updateStream));
+        assertThat(streams.forOriginalTopic("create-item"), equalTo(createStream));
+        assertThat(streams.forOriginalTopic("delete-item"), equalTo(createStream));
+        assertThat(streams.forOriginalTopic("other-topic"), equalTo(defaultStream));
+    }
+
+    /**
+     * With lanes enabled each stream is consumed from a retry topic per lane, and events are sent to their lane's topic.
+     */
+    @Test
+    public void testStreams_Lanes() {
+        properties.getLanes().setEnabled(true);
+        properties.setStreams(List.of(buildStream("update-retry", 5L, null, null, "update-item")));
+
+        RetryStreams streams = new RetryStreams(properties);
+
+        assertThat(streams.getConsumedStreams(), contains(new RetryStream("retry-topic-high", 10L, 300L, 1),
+                new RetryStream("retry-topic", 10L, 300L, 1), new RetryStream("retry-topic-bulk", 10L, 300L, 1),
+                new RetryStream("update-retry-high", 5L, 300L, 1), new RetryStream("update-retry", 5L, 300L, 1),
+                new RetryStream("update-retry-bulk", 5L, 300L, 1)));
+        assertThat(streams.retryTopic("update-item", RetryPriority.HIGH), equalTo("update-retry-high"));
+        assertThat(streams.retryTopic("update-item", RetryPriority.NORMAL), equalTo("update-retry"));
+        assertThat(streams.retryTopic("other-topic", RetryPriority.BULK), equalTo("retry-topic-bulk"));
+    }
+
+    /**
+     * Without lanes every priority is retried on the stream's retry topic.
+     */
+    @Test
+    public void testStreams_LanesDisabled() {
+        RetryStreams streams = new RetryStreams(properties);
+
+        assertThat(streams.getConsumedStreams(), equalTo(streams.getStreams()));
+        assertThat(streams.retryTopic("update-item", RetryPriority.HIGH), equalTo("retry-topic"));
+    }
+
+    /**
+     * An override applies to the events from its original topic only, and each setting not given is taken from the
+     * stream.  Further overrides are merged with it, and clearing it restores the configured stream.
+     */
+    @Test
+    public void testOverride() {
+        properties.setStreams(List.of(buildStream("update-retry", 5L, null, 3, "update-item")));
+        RetryStreams streams = new RetryStreams(properties);
+
+        assertThat(streams.override("other-topic", new RetryOverride(null, 60L, null)), equalTo(new RetryStream("retry-topic", 60L, 300L, 1)));
+        assertThat(streams.override("other-topic", new RetryOverride("update-retry", null, 600L)), equalTo(new RetryStream("update-retry", 60L, 600L, 3)));
+
+        assertThat(streams.forOriginalTopic("other-topic"), equalTo(new RetryStream("update-retry", 60L, 600L, 3)));
+        assertThat(streams.retryTopic("other-topic", RetryPriority.NORMAL), equalTo("update-retry"));
+        assertThat(streams.forOriginalTopic("update-item"), equalTo(new RetryStream("update-retry", 5L, 300L, 3)));
+        assertThat(streams.snapshot().overrides(), equalTo(Map.of("other-topic", new RetryOverride("update-retry", 60L, 600L))));
+
+        assertThat(streams.clearOverride("other-topic"), equalTo(new RetryStream("retry-topic", 10L, 300L, 1)));
+        assertThat(streams.snapshot().overrides(), equalTo(Map.of()));
+    }
+
+    /**
+     * A stream's settings apply to all its original topics, and to the consumed lane topics, until reset.  An override
+     * for one of its original topics still takes precedence.
+     */
+    @Test
+    public void testUpdateStream() {
+        properties.getLanes().setEnabled(true);
+        properties.setStreams(List.of(buildStream("update-retry", 5L, null, null, "update-item", "create-item")));
+        RetryStreams streams = new RetryStreams(properties);
+        streams.override("create-item", new RetryOverride(null, 1L, null));
+
+        assertThat(streams.updateStream("update-retry", 30L, null), equalTo(new RetryStream("update-retry", 30L, 300L, 1)));
+
+        assertThat(streams.forOriginalTopic("update-item"), equalTo(new RetryStream("update-retry", 30L, 300L, 1)));
+        assertThat(streams.forOriginalTopic("create-item"), equalTo(new RetryStream("update-retry", 1L, 300L, 1)));
+        assertThat(streams.getConsumedStreams().get(3), equalTo(new RetryStream("update-retry-high", 30L, 300L, 1)));
+
+        assertThat(streams.resetStream("update-retry"), equalTo(new RetryStream("update-retry", 5L, 300L, 1)));
+        assertThat(streams.forOriginalTopic("update-item"), equalTo(new RetryStream("update-retry", 5L, 300L, 1)));
+    }
+
+    /**
+     * Events can only be moved to a retry topic that is consumed, and the settings must be valid.  A rejected change
+     * leaves the settings as they were.
+     */
+    @Test
+    public void testOverride_Invalid() {
+        RetryStreams streams = new RetryStreams(properties);
+
+        assertThrows(IllegalArgumentException.class, () -> streams.override("update-item", new RetryOverride("unknown-retry", null, null)));
+        assertThrows(IllegalArgumentException.class, () -> streams.override("update-item", new RetryOverride(null, -1L, null)));
+        assertThrows(IllegalArgumentException.class, () -> streams.updateStream("retry-topic", null, 0L));
+        assertThrows(IllegalArgumentException.class, () -> streams.updateStream("unknown-retry", 10L, null));
+
+        assertThat(streams.forOriginalTopic("update-item"), equalTo(new RetryStream("retry-topic", 10L, 300L, 1)));
+        assertThat(streams.snapshot().overrides(), equalTo(Map.of()));
+    }
+
+    @Test
+    public void testStreams_DuplicateOriginalTopic() {
+        properties.setStreams(List.of(buildStream("update-retry", null, null, null, "update-item"),
+                buildStream("other-retry", null, null, null, "update-item")));
+
+        assertThrows(IllegalStateException.class, () -> new RetryStreams(properties));
+    }
+
+    @Test
+    public void testStreams_DuplicateRetryTopic() {
+        properties.setStreams(List.of(buildStream("retry-topic", null, null, null, "update-item")));
+
+        assertThrows(IllegalStateException.class, () -> new RetryStreams(properties));
+    }
+
+    @Test
+    public void testStreams_MissingDefaultTopic() {
+        properties.setTopic(null);
+
+        assertThrows(IllegalStateException.class, () -> new RetryStreams(properties));
+    }
+
+    private static MessagingRetryProperties.Stream buildStream(String topic, Long retryIntervalSeconds, Long maxRetryDurationSeconds,
+                                                               Integer concurrency, String... originalTopics) {
+        MessagingRetryProperties.Stream stream = new MessagingRetryProperties.Stream();
+        stream.setTopic(topic);
+        stream.setRetryIntervalSeconds(retryIntervalSeconds);
+        stream.setMaxRetryDurationSeconds(maxRetryDurationSeconds);
+        stream.setConcurrency(concurrency);
+        stream.setOriginalTopics(List.of(originalTopics));
+        return stream;
+    }
+}
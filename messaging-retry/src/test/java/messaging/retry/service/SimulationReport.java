@@ -0,0 +1,70 @@
+package messaging.retry.service;
+
+/**
+ * The outcome of a simulation run.
+ *
+ * The delay error of a republish is how long after its retry interval expired the event was republished.  It is at
+ * least the time the retry consumer waits before re-polling an event that is not yet due, and grows if the
+ * republishes are held back by the rate limit.
+ *
+ * The retry topic records read counts every record fetched by the retry consumer, including each time a record that
+ * is not yet due is re-polled.
+ */
+public record SimulationReport(long simulatedMs,
+                               long wallMs,
+                               long events,
+                               long succeededFirstTime,
+                               long succeededAfterRetry,
+                               long discarded,
+                               long inFlight,
+                               long retrySends,
+                               long republishes,
+                               long retryTopicRecordsRead,
+                               long peakRetryTopicDepth,
+                               long peakRepublishesPerSecond,
+                               long p99RepublishesPerSecond,
+                               double meanDelayErrorMs,
+                               long p99DelayErrorMs,
+                               long maxDelayErrorMs,
+                               long p50RetriedLatencyMs,
+                               long p99RetriedLatencyMs) {
+
+    public double discardRate() {
+        return events == 0 ? 0 : (double)discarded / events;
+    }
+
+    /**
+     * The average number of events republished per simulated second.
+     */
+    public double republishesPerSecond() {
+        return simulatedMs == 0 ? 0 : republishes * 1000.0 / simulatedMs;
+    }
+
+    /**
+     * The number of events simulated per second of wall clock time.
+     */
+    public double eventsPerWallSecond() {
+        return wallMs == 0 ? events * 1000.0 : events * 1000.0 / wallMs;
+    }
+
+    public String format() {
+        return String.format("""
+                Simulated %,d seconds in %,d ms (%,.0f events per second)
+                Events:                 %,d
+                  succeeded first time: %,d
+                  succeeded after retry:%,d
+                  discarded:            %,d (%.3f%%)
+                  in flight at end:     %,d
+                Retry sends:            %,d
+                Republishes:            %,d (%.2f per second, peak %,d per second, p99 %,d per second)
+                Retry topic reads:      %,d records (peak depth %,d)
+                Delay error:            mean %.0f ms, p99 %,d ms, max %,d ms
+                Retried event latency:  p50 %,d ms, p99 %,d ms""",
+                simulatedMs / 1000, wallMs, eventsPerWallSecond(),
+                events, succeededFirstTime, succeededAfterRetry, discarded, discardRate() * 100, inFlight,
+                retrySends, republishes, republishesPerSecond(), peakRepublishesPerSecond, p99RepublishesPerSecond,
+                retryTopicRecordsRead, peakRetryTopicDepth,
+                meanDelayErrorMs, p99DelayErrorMs, maxDelayErrorMs,
+                p50RetriedLatencyMs, p99RetriedLatencyMs);
+    }
+}
@@ -0,0 +1,71 @@
+package messaging.retry.service;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * The traffic and retry settings of a simulation run.
+ *
+ * Events arrive on the original topic at random, at an average of eventsPerSecond.  A fraction of them, retryFraction,
+ * depend on something that is not ready when they arrive, such as an update for an item not yet created, and the
+ * time until it is ready is drawn from an exponential distribution with a mean of meanDependencyDelayMs.  Every event
+ * that arrives during the outage, if there is one, is not ready until the outage ends.
+ *
+ * For example, the defaults simulate two hours of 50 events per second, a fifth of which wait an average of 20
+ * seconds, retried every 10 seconds for up to 5 minutes across 6 retry topic partitions.
+ */
+@Value
+@Builder(toBuilder = true)
+public class SimulationScenario {
+
+    @Builder.Default
+    long durationMs = 2 * 60 * 60 * 1000L;
+
+    @Builder.Default
+    double eventsPerSecond = 50;
+
+    @Builder.Default
+    double retryFraction = 0.2;
+
+    @Builder.Default
+    long meanDependencyDelayMs = 20_000;
+
+    /**
+     * The start of the period during which every event arriving fails until its end, relative to the start of the run.
+     */
+    @Builder.Default
+    long outageStartMs = 0;
+
+    @Builder.Default
+    long outageEndMs = 0;
+
+    @Builder.Default
+    long retryIntervalSeconds = 10;
+
+    @Builder.Default
+    long maxRetryDurationSeconds = 300;
+
+    @Builder.Default
+    int partitions = 6;
+
+    @Builder.Default
+    int maxPollRecords = 500;
+
+    /**
+     * The time from an event being sent to it being consumed.
+     */
+    @Builder.Default
+    long brokerLatencyMs = 5;
+
+    /**
+     * The republish rate limit per second, or zero for none.
+     */
+    @Builder.Default
+    double republishRatePerSecond = 0;
+
+    @Builder.Default
+    double republishBurst = 100;
+
+    @Builder.Default
+    long seed = 42;
+}
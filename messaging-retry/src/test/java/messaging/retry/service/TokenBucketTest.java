@@ -0,0 +1,80 @@
+package messaging.retry.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public class TokenBucketTest {
+
+    private AtomicLong nanoTime;
+    private TokenBucket bucket;
+
+    @BeforeEach
+    public void setUp() {
+        nanoTime = new AtomicLong();
+        bucket = new TokenBucket(10, 2, nanoTime::get);
+    }
+
+    /**
+     * The bucket starts full so permits a burst up to its capacity, then refills at the configured rate.
+     */
+    @Test
+    public void testTryAcquire_BurstThenRefill() {
+        assertThat(bucket.tryAcquire(), equalTo(true));
+        assertThat(bucket.tryAcquire(), equalTo(true));
+        assertThat(bucket.tryAcquire(), equalTo(false));
+
+        // At 10 per second one token is added every 100 milliseconds.
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(bucket.tryAcquire(), equalTo(true));
+        assertThat(bucket.tryAcquire(), equalTo(false));
+
+        // The bucket does not fill beyond its capacity.
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertThat(bucket.tryAcquire(), equalTo(true));
+        assertThat(bucket.tryAcquire(), equalTo(true));
+        assertThat(bucket.tryAcquire(), equalTo(false));
+    }
+
+    /**
+     * If a token will not be available within the max wait, the acquire fails without waiting.
+     */
+    @Test
+    public void testAcquire_WouldExceedMaxWait() throws Exception {
+        bucket.tryAcquire();
+        bucket.tryAcquire();
+
+        assertThat(bucket.acquire(50, TimeUnit.MILLISECONDS), equalTo(false));
+    }
+
+    /**
+     * A bucket less than a nanosecond's refill short of a token does not wait zero, so a max wait of zero fails straight
+     * away rather than spinning while the time source stands still.
+     */
+    @Test
+    public void testAcquire_FractionShortWithNoWait() throws Exception {
+        // At 3 per second a token takes 333,333,333.3 nanoseconds.
+        final TokenBucket slowBucket = new TokenBucket(3, 1, nanoTime::get);
+        slowBucket.tryAcquire();
+        nanoTime.addAndGet(333_333_333L);
+
+        assertThat(slowBucket.acquire(0, TimeUnit.MILLISECONDS), equalTo(false));
+    }
+
+    @Test
+    public void testSetRatePerSecond() {
+        bucket.tryAcquire();
+        bucket.tryAcquire();
+        bucket.setRatePerSecond(1);
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(bucket.tryAcquire(), equalTo(false));
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(bucket.tryAcquire(), equalTo(true));
+    }
+}
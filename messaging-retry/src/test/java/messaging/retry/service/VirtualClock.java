@@ -0,0 +1,49 @@
+package messaging.retry.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A clock that only moves when the simulation advances it, so that hours of retry delays pass in no time at all.
+ */
+class VirtualClock extends Clock {
+
+    private long millis;
+
+    VirtualClock(final long startMillis) {
+        this.millis = startMillis;
+    }
+
+    void advanceTo(final long millis) {
+        if(millis < this.millis) {
+            throw new IllegalStateException("The virtual clock cannot go back from " + this.millis + " to " + millis);
+        }
+        this.millis = millis;
+    }
+
+    long nanoTime() {
+        return millis * 1_000_000L;
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        throw new UnsupportedOperationException("The virtual clock is always UTC");
+    }
+}
@@ -2,7 +2,7 @@ package messaging.retry.util;
 
 public class TestEventData {
 
-    public static String buildEvent() {
-        return "{'id': '1234', 'data':'some-payload'}";
+    public static byte[] buildEvent() {
+        return "{'id': '1234', 'data':'some-payload'}".getBytes();
     }
 }